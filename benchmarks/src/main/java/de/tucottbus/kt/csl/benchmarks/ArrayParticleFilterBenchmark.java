@@ -0,0 +1,84 @@
+package de.tucottbus.kt.csl.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.vecmath.Point3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.particlefilter.ArrayParticleFilter;
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.particlefilter.VectorEvaluator;
+
+/**
+ * {@link ArrayParticleFilter#step(double)} of particles tracking the source of
+ * the {@link SyntheticSignals} with the same Gaussian likelihood as the
+ * {@link ParticleFilterBenchmark}. One operation is one DoA frame: prediction,
+ * evaluation and, if the effective sample size is low, resampling and
+ * dispersion.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class ArrayParticleFilterBenchmark
+{
+  @Param({ "10000", "100000" })
+  public int particles;
+
+  @Param({ "SYSTEMATIC", "STRATIFIED" })
+  public ArrayParticleFilter.Resampling resampling;
+
+  private ArrayParticleFilter filter;
+
+  @Setup
+  public void setup()
+  {
+    final Point3d source = new SyntheticSignals(4711).getSource();
+    VectorEvaluator evaluator = new VectorEvaluator()
+    {
+      @Override
+      public void evaluate(double[][] state, int from, int to, double[] weights,
+          SplittableRandom random)
+      {
+        double[] x = state[0];
+        double[] y = state[1];
+        double[] z = state[2];
+        for (int i=from; i<to; i++)
+        {
+          double dx = x[i]-source.x;
+          double dy = y[i]-source.y;
+          double dz = z[i]-source.z;
+          weights[i] = Math.exp(-0.5*(dx*dx+dy*dy+dz*dz)/(20*20));
+        }
+      }
+    };
+    filter = new ArrayParticleFilter(3,particles,evaluator,4711);
+    filter.setResampling(resampling);
+    filter.setDynamics(300,10,0.01);
+    filter.initUniform(
+      new double[] { source.x-220, source.y-220, 0 },
+      new double[] { source.x+220, source.y+220, 250 });
+  }
+
+  @Benchmark
+  public ArrayParticleFilter step()
+  {
+    filter.step(5);
+    return filter;
+  }
+}
+
+// EOF
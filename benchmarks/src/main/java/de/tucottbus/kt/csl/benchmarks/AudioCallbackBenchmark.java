@@ -0,0 +1,75 @@
+package de.tucottbus.kt.csl.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.tucottbus.kt.csl.hardware.audio.RmsLevelingCalibrator;
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+import de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadi;
+
+/**
+ * Per-block processing of {@code RmeHdspMadi.callback}: mean of squares per
+ * channel, {@link RmsLevelingCalibrator} update, and splitting the interleaved
+ * input into calibrated channel buffers. One operation is one block of
+ * {@link AudioInputConstants#FRAME_SIZE} samples.
+ *
+ * <p>The {@link RmeHdspMadi} singleton cannot be created without the ASIO
+ * driver, so the benchmark calls the static steps {@link
+ * RmeHdspMadi#measureLevels(float[], float[], RmsLevelingCalibrator, float[])
+ * measureLevels} and {@link RmeHdspMadi#splitChannels(float[], float[][],
+ * float[], float[]) splitChannels} of {@code processInBuffer} on {@link
+ * SyntheticSignals} instead of reading a {@code PaBuffer}. The hand-off to the
+ * beamformer and the DoA estimator is measured by the respective
+ * benchmarks.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class AudioCallbackBenchmark
+{
+  private static final int CHANNELS = RmeHdspMadi.CHANNEL_COUNT;
+
+  private SyntheticSignals signals;
+  private RmsLevelingCalibrator calibrator;
+  private final float[] levelsMs = new float[CHANNELS];
+  private final float[] calibrationGains = new float[CHANNELS];
+  private final float[] volumeMixer = new float[CHANNELS];
+  private final float[][] outBuffer = new float[CHANNELS][AudioInputConstants.FRAME_SIZE];
+  private int block;
+
+  @Setup
+  public void setup()
+  {
+    signals = new SyntheticSignals(4711);
+    calibrator = new RmsLevelingCalibrator(CHANNELS,100);
+    Arrays.fill(calibrationGains,1f);
+    Arrays.fill(volumeMixer,1f);
+  }
+
+  @Benchmark
+  public void callback(Blackhole bh)
+  {
+    float[] inBuffer = signals.getBlock(block++);
+    RmeHdspMadi.measureLevels(inBuffer,levelsMs,calibrator,calibrationGains);
+    RmeHdspMadi.splitChannels(inBuffer,outBuffer,calibrationGains,volumeMixer);
+    bh.consume(levelsMs);
+    bh.consume(outBuffer);
+  }
+}
+
+// EOF
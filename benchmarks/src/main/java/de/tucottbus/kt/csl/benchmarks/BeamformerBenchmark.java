@@ -0,0 +1,124 @@
+package de.tucottbus.kt.csl.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tucottbus.kt.csl.hardware.AHardware;
+import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayState;
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb.DSBeamformer;
+import de.tucottbus.kt.lcars.contributors.ElementContributor;
+
+/**
+ * {@link DSBeamformer#delayAndSumBeamforming(MicArrayState, float[])
+ * DSBeamformer.delayAndSumBeamforming} in both {@linkplain
+ * DSBeamformer.DelayMode delay modes}. One operation is one block of 64
+ * channels. As the integer mode writes the delayed samples back to the input
+ * buffer, every operation includes copying the block.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class BeamformerBenchmark
+{
+  /**
+   * Beamformer without audio devices.
+   */
+  private static class OfflineBeamformer extends DSBeamformer
+  {
+    @Override
+    public String getName()
+    {
+      return "Offline Beamformer";
+    }
+
+    @Override
+    public Collection<AHardware> getChildren()
+    {
+      return new ArrayList<AHardware>();
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+      return true;
+    }
+
+    @Override
+    public AHardware getParent()
+    {
+      return null;
+    }
+
+    @Override
+    public ElementContributor getLcarsSubpanel(int x, int y)
+    {
+      return null;
+    }
+
+    @Override
+    protected void sendAudioToOutput(float[] audioData, long block)
+    {
+    }
+
+    @Override
+    public float[] getAudioOutputData()
+    {
+      return outFloatBuffer;
+    }
+
+    float[] process(MicArrayState state, float[] inputBuffer)
+    {
+      return delayAndSumBeamforming(state,inputBuffer);
+    }
+  }
+
+  @Param({ "INTEGER", "FRACTIONAL" })
+  public DSBeamformer.DelayMode delayMode;
+
+  private SyntheticSignals signals;
+  private OfflineBeamformer beamformer;
+  private float[] inputBuffer;
+  private int block;
+
+  @Setup
+  public void setup()
+  {
+    signals = new SyntheticSignals(4711);
+    beamformer = new OfflineBeamformer();
+    beamformer.setDelayMode(delayMode);
+    inputBuffer = new float[signals.getBlock(0).length];
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    beamformer.dispose();
+  }
+
+  @Benchmark
+  public float[] delayAndSumBeamforming()
+  {
+    float[] block = signals.getBlock(this.block++);
+    System.arraycopy(block,0,inputBuffer,0,inputBuffer.length);
+    return beamformer.process(signals.getState(),inputBuffer);
+  }
+}
+
+// EOF
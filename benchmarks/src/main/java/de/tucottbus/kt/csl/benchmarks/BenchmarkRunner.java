@@ -0,0 +1,316 @@
+package de.tucottbus.kt.csl.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the CSL benchmarks and writes a baseline, or compares two baselines.
+ *
+ * <h3>Usage:</h3>
+ * <pre>
+ * java -jar benchmarks.jar [-o &lt;baseline.json&gt;] [&lt;regex&gt; ...]
+ * java -jar benchmarks.jar -compare &lt;old.json&gt; &lt;new.json&gt; [&lt;tolerance %&gt;]</pre>
+ *
+ * <p>Every benchmark is run twice with the {@link GCProfiler}: in {@linkplain
+ * Mode#Throughput throughput} mode (ops/s) and in {@linkplain Mode#SampleTime
+ * sample time} mode (latency distribution per operation in &micro;s, including
+ * the 99th percentile). As the audio benchmarks process one block of 512
+ * frames per operation, the latter is the latency per block. Both runs are
+ * written to one JMH JSON file, {@code baseline.json} by default.</p>
+ *
+ * <p>The compare mode lists the throughput, the 99th percentile latency and
+ * the normalized allocation rate (bytes/op) of both baselines and exits with
+ * status 1 if any of them got worse by more than the tolerance (default
+ * 10&nbsp;%).</p>
+ */
+public class BenchmarkRunner
+{
+  private static final String DEFAULT_BASELINE = "baseline.json";
+
+  private static final double DEFAULT_TOLERANCE = 10;
+
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length>0 && "-compare".equals(args[0]))
+    {
+      if (args.length<3)
+      {
+        System.err.println("Usage: -compare <old.json> <new.json> [<tolerance %>]");
+        System.exit(2);
+      }
+      double tolerance = args.length>3 ? Double.parseDouble(args[3]) : DEFAULT_TOLERANCE;
+      boolean regression = compare(new File(args[1]),new File(args[2]),tolerance);
+      System.exit(regression ? 1 : 0);
+    }
+
+    String output = DEFAULT_BASELINE;
+    List<String> includes = new ArrayList<String>();
+    for (int i=0; i<args.length; i++)
+      if ("-o".equals(args[i]) && i+1<args.length)
+        output = args[++i];
+      else
+        includes.add(args[i]);
+    if (includes.isEmpty())
+      includes.add(BenchmarkRunner.class.getPackage().getName()+".*");
+
+    run(includes,new File(output));
+  }
+
+  /**
+   * Runs the benchmarks in throughput and sample time mode and writes all
+   * results to one JSON file.
+   *
+   * @param includes
+   *          Regular expressions selecting the benchmarks.
+   * @param output
+   *          The JSON file.
+   */
+  public static void run(List<String> includes, File output)
+  throws RunnerException, IOException
+  {
+    List<RunResult> results = new ArrayList<RunResult>();
+    results.addAll(new Runner(getOptions(includes)
+        .mode(Mode.Throughput)
+        .timeUnit(TimeUnit.SECONDS)
+        .build()).run());
+    results.addAll(new Runner(getOptions(includes)
+        .mode(Mode.SampleTime)
+        .timeUnit(TimeUnit.MICROSECONDS)
+        .build()).run());
+
+    PrintStream out = new PrintStream(new FileOutputStream(output),true,"UTF-8");
+    try
+    {
+      ResultFormatFactory.getInstance(ResultFormatType.JSON,out).writeOut(results);
+    }
+    finally
+    {
+      out.close();
+    }
+    System.out.println("Baseline written to "+output.getAbsolutePath());
+  }
+
+  private static ChainedOptionsBuilder getOptions(List<String> includes)
+  {
+    ChainedOptionsBuilder options = new OptionsBuilder().addProfiler(GCProfiler.class);
+    for (String include : includes)
+      options.include(include);
+    return options;
+  }
+
+  // -- Comparing baselines --
+
+  /**
+   * Compares two baselines and prints the result.
+   *
+   * @param oldFile
+   *          The old baseline.
+   * @param newFile
+   *          The new baseline.
+   * @param tolerance
+   *          The tolerated deterioration in percent.
+   * @return {@code true} if any metric got worse by more than the tolerance.
+   */
+  public static boolean compare(File oldFile, File newFile, double tolerance)
+  throws IOException
+  {
+    Map<String,double[]> oldMetrics = readMetrics(oldFile);
+    Map<String,double[]> newMetrics = readMetrics(newFile);
+
+    boolean regression = false;
+    System.out.println(String.format(Locale.US,"%-72s %14s %14s %8s",
+        "Benchmark (metric)","old","new","change"));
+    for (Map.Entry<String,double[]> entry : newMetrics.entrySet())
+    {
+      double[] o = oldMetrics.get(entry.getKey());
+      double[] n = entry.getValue();
+      if (o==null)
+      {
+        System.out.println(String.format(Locale.US,"%-72s %14s %14.3f",
+            entry.getKey(),"-",n[0]));
+        continue;
+      }
+      // n[1] > 0: higher is better
+      double change = o[0]!=0 ? 100*(n[0]-o[0])/Math.abs(o[0]) : 0;
+      boolean worse = n[1]>0 ? change<-tolerance : change>tolerance;
+      regression |= worse;
+      System.out.println(String.format(Locale.US,"%-72s %14.3f %14.3f %+7.1f%%%s",
+          entry.getKey(),o[0],n[0],change,worse?" REGRESSION":""));
+    }
+    return regression;
+  }
+
+  /**
+   * Reads the throughput, 99th percentile latency and allocation rate of all
+   * benchmarks from a JMH JSON result file.
+   *
+   * @return A map from benchmark names (including parameters and metric) to
+   *         pairs of the value and 1 if higher values are better or -1 if
+   *         lower values are better.
+   */
+  @SuppressWarnings("unchecked")
+  static Map<String,double[]> readMetrics(File file) throws IOException
+  {
+    String json = new String(Files.readAllBytes(file.toPath()),StandardCharsets.UTF_8);
+    Map<String,double[]> metrics = new TreeMap<String,double[]>();
+    for (Object o : (List<Object>)new JsonParser(json).parse())
+    {
+      Map<String,Object> result = (Map<String,Object>)o;
+      String name = (String)result.get("benchmark");
+      String mode = (String)result.get("mode");
+      Map<String,Object> params = (Map<String,Object>)result.get("params");
+      if (params!=null)
+        name += params.toString().replace(", ",",");
+      Map<String,Object> primary = (Map<String,Object>)result.get("primaryMetric");
+      String unit = (String)primary.get("scoreUnit");
+      if ("thrpt".equals(mode))
+        metrics.put(name+" (thrpt, "+unit+")",new double[]{ getNumber(primary.get("score")),1 });
+      else if ("sample".equals(mode))
+      {
+        Map<String,Object> percentiles = (Map<String,Object>)primary.get("scorePercentiles");
+        metrics.put(name+" (p99, "+unit+")",new double[]{ getNumber(percentiles.get("99.0")),-1 });
+      }
+      else
+        continue;
+
+      Map<String,Object> secondary = (Map<String,Object>)result.get("secondaryMetrics");
+      if (secondary!=null && "thrpt".equals(mode))
+        for (Map.Entry<String,Object> entry : secondary.entrySet())
+          if (entry.getKey().endsWith("gc.alloc.rate.norm"))
+          {
+            Map<String,Object> metric = (Map<String,Object>)entry.getValue();
+            metrics.put(name+" (alloc, B/op)",new double[]{ getNumber(metric.get("score")),-1 });
+          }
+    }
+    return metrics;
+  }
+
+  private static double getNumber(Object value)
+  {
+    // JMH writes "NaN" and "Infinity" as strings
+    return value instanceof Double ? (Double)value : Double.parseDouble(String.valueOf(value));
+  }
+
+  /**
+   * Minimal JSON parser for JMH result files. Objects are parsed into
+   * {@link LinkedHashMap}s, arrays into {@link List}s, numbers into {@link
+   * Double}s.
+   */
+  static final class JsonParser
+  {
+    private final String s;
+    private int pos;
+
+    JsonParser(String s)
+    {
+      this.s = s;
+    }
+
+    Object parse()
+    {
+      skipWhitespace();
+      char c = s.charAt(pos);
+      switch (c)
+      {
+      case '{':
+      {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        pos++;
+        skipWhitespace();
+        if (s.charAt(pos)=='}') { pos++; return map; }
+        while (true)
+        {
+          skipWhitespace();
+          String key = (String)parse();
+          skipWhitespace();
+          expect(':');
+          map.put(key,parse());
+          skipWhitespace();
+          if (s.charAt(pos++)=='}') return map;
+        }
+      }
+      case '[':
+      {
+        List<Object> list = new ArrayList<Object>();
+        pos++;
+        skipWhitespace();
+        if (s.charAt(pos)==']') { pos++; return list; }
+        while (true)
+        {
+          list.add(parse());
+          skipWhitespace();
+          if (s.charAt(pos++)==']') return list;
+        }
+      }
+      case '"':
+      {
+        StringBuilder sb = new StringBuilder();
+        for (pos++; s.charAt(pos)!='"'; pos++)
+          if (s.charAt(pos)=='\\')
+          {
+            char e = s.charAt(++pos);
+            switch (e)
+            {
+            case 'n': sb.append('\n'); break;
+            case 't': sb.append('\t'); break;
+            case 'r': sb.append('\r'); break;
+            case 'b': sb.append('\b'); break;
+            case 'f': sb.append('\f'); break;
+            case 'u': sb.append((char)Integer.parseInt(s.substring(pos+1,pos+5),16)); pos+=4; break;
+            default : sb.append(e);
+            }
+          }
+          else
+            sb.append(s.charAt(pos));
+        pos++;
+        return sb.toString();
+      }
+      default:
+        int start = pos;
+        while (pos<s.length() && ",}] \t\r\n".indexOf(s.charAt(pos))<0)
+          pos++;
+        String token = s.substring(start,pos);
+        if ("null".equals(token)) return null;
+        if ("true".equals(token)) return Boolean.TRUE;
+        if ("false".equals(token)) return Boolean.FALSE;
+        return Double.valueOf(token);
+      }
+    }
+
+    private void skipWhitespace()
+    {
+      while (pos<s.length() && Character.isWhitespace(s.charAt(pos)))
+        pos++;
+    }
+
+    private void expect(char c)
+    {
+      if (s.charAt(pos)!=c)
+        throw new IllegalArgumentException("'"+c+"' expected at position "+pos);
+      pos++;
+    }
+  }
+}
+
+// EOF
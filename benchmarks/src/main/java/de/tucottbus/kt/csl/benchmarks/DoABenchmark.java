@@ -0,0 +1,82 @@
+package de.tucottbus.kt.csl.benchmarks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Jama.Matrix;
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.DoAEstimator.MicArray;
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.DelayAnalysis;
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.Localizers;
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.dataobjects.AudioData;
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.dataobjects.TauData;
+
+/**
+ * The DoA estimation steps of the {@code DoAEstimator} for the 32 microphones
+ * of array 1: {@link DelayAnalysis#run(ConcurrentHashMap, ConcurrentHashMap,
+ * int) DelayAnalysis.run} on two merged blocks, as the estimator runs it, and
+ * {@link Localizers#getTargetVektor(javax.vecmath.Point3d, int,
+ * ConcurrentHashMap, MicArray) Localizers.getTargetVektor} on the resulting
+ * delays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class DoABenchmark
+{
+  private static final int REF_MIC_ID = 0;
+
+  private static final int MICS = SyntheticSignals.CHANNELS/2;
+
+  private ConcurrentHashMap<Integer, AudioData> audioDataHM;
+  private ConcurrentHashMap<String, TauData> tauDataHM;
+  private ConcurrentHashMap<String, TauData> localizerTauDataHM;
+  private DelayAnalysis delayAnalysis;
+  private Localizers localizers;
+
+  @Setup
+  public void setup()
+  {
+    SyntheticSignals signals = new SyntheticSignals(4711);
+    float[][] channels = signals.getChannels(0,2);
+    audioDataHM = new ConcurrentHashMap<Integer, AudioData>();
+    for (int i=0; i<MICS; i++)
+      audioDataHM.put(i,new AudioData(i,channels[i],true,signals.getState().positions[i]));
+    tauDataHM = new ConcurrentHashMap<String, TauData>();
+    delayAnalysis = new DelayAnalysis();
+    localizers = new Localizers();
+
+    // Delays for the localizer benchmark
+    localizerTauDataHM = new ConcurrentHashMap<String, TauData>();
+    delayAnalysis.run(audioDataHM,localizerTauDataHM,REF_MIC_ID);
+  }
+
+  @Benchmark
+  public ConcurrentHashMap<String, TauData> delayAnalysisRun()
+  {
+    delayAnalysis.run(audioDataHM,tauDataHM,REF_MIC_ID);
+    return tauDataHM;
+  }
+
+  @Benchmark
+  public Matrix localizersGetTargetVektor()
+  {
+    return localizers.getTargetVektor(audioDataHM.get(REF_MIC_ID).getPosition(),
+        REF_MIC_ID,localizerTauDataHM,MicArray.ARRAY1);
+  }
+}
+
+// EOF
@@ -0,0 +1,70 @@
+package de.tucottbus.kt.csl.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.complex.Complex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.tucottbus.kt.csl.hardware.audio.utils.FFT;
+
+/**
+ * {@link FFT#getFFTSpectrum(float[], Boolean)} and its allocation-free
+ * variant {@link FFT#getFFTSpectrum(float[], double[])}. One operation
+ * transforms one block of all 64 channels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class FftBenchmark
+{
+  private float[][][] channels;
+  private FFT fft;
+  private double[] spectrum;
+  private int block;
+
+  @Setup
+  public void setup()
+  {
+    SyntheticSignals signals = new SyntheticSignals(4711);
+    channels = new float[SyntheticSignals.BLOCKS][][];
+    for (int b=0; b<SyntheticSignals.BLOCKS; b++)
+      channels[b] = signals.getChannels(b,1);
+    fft = new FFT();
+    spectrum = new double[FFT.getFftLength(channels[0][0].length)+2];
+  }
+
+  @Benchmark
+  public void getFFTSpectrumComplex(Blackhole bh)
+  {
+    float[][] frames = channels[block++%channels.length];
+    for (float[] frame : frames)
+    {
+      Complex[] spectrum = fft.getFFTSpectrum(frame,Boolean.TRUE);
+      bh.consume(spectrum);
+    }
+  }
+
+  @Benchmark
+  public double[] getFFTSpectrumPrimitive()
+  {
+    float[][] frames = channels[block++%channels.length];
+    for (float[] frame : frames)
+      fft.getFFTSpectrum(frame,spectrum);
+    return spectrum;
+  }
+}
+
+// EOF
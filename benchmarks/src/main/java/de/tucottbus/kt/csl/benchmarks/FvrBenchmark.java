@@ -0,0 +1,120 @@
+package de.tucottbus.kt.csl.benchmarks;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tucottbus.kt.csl.speech.CompiledFvr;
+import de.tucottbus.kt.csl.speech.Fvr;
+
+/**
+ * Dialog decision on a recognition result: parsing the feature-value
+ * relation, looking up nodes by qualified label and the union with an
+ * expectation, once by {@link Fvr} and once by {@link CompiledFvr}. One
+ * operation is one decision.
+ *
+ * <p>The results are a corpus of 256 random relations of the given depth over
+ * the labels of the CSL grammar, the expectations are 16 random relations of
+ * depth 3. Results and expectations recur, like the phrases of a dialog
+ * do.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class FvrBenchmark
+{
+  private static final String[] FEATURES =
+    { "MOVETOABS", "abspos", "LDIM", "int", "dec", "DIG", "CN2", "o", "t",
+      "unit", "PROG", "STEP", "FUNC", "TIME", "sign", "MAID" };
+
+  private static final String[] VALUES =
+    { "$0", "$1", "$2", "$m", "$cm", "$max", "$ma", "$ON", "$OFF", "$-" };
+
+  @Param({ "3", "6" })
+  public int depth;
+
+  private String[] results;
+  private String[] expectations;
+  private CompiledFvr[] compiledExpectations;
+  private int index;
+
+  @Setup
+  public void setup()
+  {
+    Random random = new Random(4711);
+    results = new String[256];
+    for (int i=0; i<results.length; i++)
+      results[i] = generate(random,depth);
+    expectations = new String[16];
+    compiledExpectations = new CompiledFvr[expectations.length];
+    for (int i=0; i<expectations.length; i++)
+    {
+      expectations[i] = generate(random,3);
+      compiledExpectations[i] = CompiledFvr.compile(expectations[i]);
+    }
+  }
+
+  private static String generate(Random random, int depth)
+  {
+    StringBuilder sb = new StringBuilder("FVR");
+    generate(random,sb,depth,true);
+    return sb.toString();
+  }
+
+  private static void generate(Random random, StringBuilder sb, int depth,
+    boolean root)
+  {
+    sb.append('[');
+    if (!root && (depth==0 || random.nextInt(4)==0))
+      sb.append(VALUES[random.nextInt(VALUES.length)]);
+    else
+      sb.append(FEATURES[random.nextInt(root ? 4 : FEATURES.length)]);
+    if (random.nextInt(3)==0)
+      sb.append(':').append(String.format(Locale.US,"%.1f",random.nextFloat()));
+    if (random.nextInt(5)==0)
+      sb.append("(Mikrofon)");
+    if (depth>0)
+      for (int i=1+random.nextInt(3); i>0; i--)
+        generate(random,sb,depth-1,false);
+    sb.append(']');
+  }
+
+  @Benchmark
+  public int fvr()
+  {
+    int i = index++&(results.length-1);
+    Fvr fvrInp = Fvr.fromString(results[i]);
+    int n = fvrInp.findNode("MOVETOABS.abspos.max").size()
+      + fvrInp.findNode("MOVETOABS.abspos.LDIM.unit").size();
+    Fvr fvrExp = Fvr.fromString(expectations[i&(expectations.length-1)]);
+    return fvrExp.expUnion(fvrInp,"new") ? n+1 : n;
+  }
+
+  @Benchmark
+  public int compiledFvr()
+  {
+    int i = index++&(results.length-1);
+    CompiledFvr fvrInp = CompiledFvr.compile(results[i]);
+    int n = fvrInp.findNode("MOVETOABS.abspos.max").length
+      + fvrInp.findNode("MOVETOABS.abspos.LDIM.unit").length;
+    CompiledFvr fvrExp = compiledExpectations[i&(expectations.length-1)];
+    return fvrExp.expUnion(fvrInp,"new")!=null ? n+1 : n;
+  }
+}
+
+// EOF
@@ -0,0 +1,99 @@
+package de.tucottbus.kt.csl.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tucottbus.kt.csl.hardware.kinect.devices.DepthMaps;
+import de.tucottbus.kt.csl.hardware.kinect.devices.FrameBufferPool;
+import de.tucottbus.kt.csl.hardware.kinect.devices.FrameColorizer;
+import edu.ufl.digitalworlds.j4k.DepthMap;
+
+/**
+ * Per-frame processing of {@code Kinect.onDepthFrameEvent} and {@code
+ * Kinect.onInfraredFrameEvent} for a Kinect v2 frame of 512x424 pixels:
+ * obtaining an image buffer from a {@link FrameBufferPool}, conversion by
+ * {@link FrameColorizer} and, for depth frames, the in-place {@link
+ * DepthMaps#update(DepthMap, int, int, float[]) DepthMap update}. One
+ * operation is one frame.
+ *
+ * <p>The {@code Kinect} class requires the sensor driver, so the benchmark
+ * performs the same steps on synthetic frames: random depths up to 8 m, random
+ * infrared intensities and a point cloud with every seventh point
+ * invalid.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class KinectFrameBenchmark
+{
+  private static final int WIDTH = 512;
+  private static final int HEIGHT = 424;
+
+  @Param({ "1", "4" })
+  public int parallelism;
+
+  private FrameColorizer colorizer;
+  private final FrameBufferPool buffers = new FrameBufferPool(1);
+  private final short[] depth = new short[WIDTH*HEIGHT];
+  private final short[] infrared = new short[WIDTH*HEIGHT];
+  private final float[] xyz = new float[WIDTH*HEIGHT*3];
+  private final DepthMap[] maps = new DepthMap[2];
+  private int mapIndex;
+  private byte[] image;
+
+  @Setup
+  public void setup()
+  {
+    Random random = new Random(4711);
+    for (int i=0; i<depth.length; i++)
+    {
+      depth[i] = (short)random.nextInt(8000);
+      infrared[i] = (short)random.nextInt(0x10000);
+    }
+    for (int i=0; i<xyz.length; i++)
+      xyz[i] = random.nextFloat()*4f;
+    for (int i=2; i<xyz.length; i+=3*7)
+      xyz[i] = Float.NEGATIVE_INFINITY;
+    colorizer = new FrameColorizer(0);
+    colorizer.setParallelism(parallelism);
+  }
+
+  @Benchmark
+  public DepthMap depthFrame()
+  {
+    byte[] bgra = buffers.acquire(WIDTH*HEIGHT*4);
+    colorizer.colorizeDepth(depth,bgra,WIDTH,HEIGHT);
+    buffers.release(image);
+    image = bgra;
+    mapIndex ^= 1;
+    maps[mapIndex] = DepthMaps.update(maps[mapIndex],WIDTH,HEIGHT,xyz);
+    return maps[mapIndex];
+  }
+
+  @Benchmark
+  public byte[] infraredFrame()
+  {
+    byte[] bgra = buffers.acquire(WIDTH*HEIGHT*4);
+    colorizer.colorizeInfrared(infrared,bgra,WIDTH,HEIGHT);
+    buffers.release(image);
+    image = bgra;
+    return bgra;
+  }
+}
+
+// EOF
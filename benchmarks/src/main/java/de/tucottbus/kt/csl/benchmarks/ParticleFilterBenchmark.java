@@ -0,0 +1,83 @@
+package de.tucottbus.kt.csl.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.vecmath.Point3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.dataobjects.Particle3D;
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.particlefilter.ParticleEvaluator;
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.particlefilter.ParticleFilter;
+
+/**
+ * {@link ParticleFilter#resample()} of particles spread uniformly over the
+ * room and weighted by a Gaussian likelihood around the source of the
+ * {@link SyntheticSignals}. As resampling concentrates the particles (and is
+ * skipped for concentrated particles), a new population is created before
+ * every operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class ParticleFilterBenchmark
+{
+  @Param({ "500", "2000" })
+  public int particles;
+
+  private final Random random = new Random(4711);
+  private Point3d source;
+  private ParticleEvaluator<Particle3D> evaluator;
+  private ParticleFilter<Particle3D> filter;
+
+  @Setup
+  public void setup()
+  {
+    source = new SyntheticSignals(4711).getSource();
+    evaluator = new ParticleEvaluator<Particle3D>()
+    {
+      @Override
+      public double evaluate(Particle3D p)
+      {
+        double d = p.getCoords().distance(source);
+        return Math.exp(-0.5*d*d/(20*20));
+      }
+    };
+  }
+
+  @Setup(Level.Invocation)
+  public void createParticles()
+  {
+    filter = new ParticleFilter<Particle3D>(evaluator,particles);
+    for (int i=0; i<particles; i++)
+      filter.addParticle(new Particle3D(new Point3d(
+          source.x+440*(random.nextDouble()-0.5),
+          source.y+440*(random.nextDouble()-0.5),
+          250*random.nextDouble())));
+    filter.evaluateStrength();
+  }
+
+  @Benchmark
+  public ParticleFilter<Particle3D> resample()
+  {
+    filter.resample();
+    return filter;
+  }
+}
+
+// EOF
@@ -0,0 +1,72 @@
+package de.tucottbus.kt.csl.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayState;
+import de.tucottbus.kt.csl.lcars.geometry.rendering.CpuSensitivityRenderer;
+import de.tucottbus.kt.csl.lcars.geometry.rendering.ISensitivityRendererConstants;
+
+/**
+ * {@link CpuSensitivityRenderer#renderIntArray(MicArrayState, float, int, int,
+ * int, int) CpuSensitivityRenderer.renderIntArray} of a horizontal and a
+ * vertical slice through the default target at 2 kHz. One operation renders
+ * one square image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class SensitivityRendererBenchmark
+{
+  private static final float FREQ = 2000f;
+
+  @Param({ "XY", "XZ" })
+  public String slice;
+
+  @Param({ "256", "1024" })
+  public int size;
+
+  private MicArrayState state;
+  private CpuSensitivityRenderer renderer;
+  private int sliceType;
+  private int slicePos;
+
+  @Setup
+  public void setup()
+  {
+    state = MicArrayState.getDummy();
+    renderer = CpuSensitivityRenderer.getInstance();
+    if ("XY".equals(slice))
+    {
+      sliceType = ISensitivityRendererConstants.SLICE_XY;
+      slicePos = (int)state.target.z;
+    }
+    else
+    {
+      sliceType = ISensitivityRendererConstants.SLICE_XZ;
+      slicePos = (int)state.target.y;
+    }
+  }
+
+  @Benchmark
+  public int[] renderIntArray()
+  {
+    return renderer.renderIntArray(state,FREQ,sliceType,slicePos,size,size);
+  }
+}
+
+// EOF
@@ -0,0 +1,167 @@
+package de.tucottbus.kt.csl.benchmarks;
+
+import java.util.Random;
+
+import javax.vecmath.Point3d;
+
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+import de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadi;
+import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayState;
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb.FractionalDelayFilter;
+
+/**
+ * Synthetic 64-channel microphone array signals: one white noise source at a
+ * known position, received by every microphone with its propagation delay.
+ * The signals replace the RME HDSP MADI input in the benchmarks, so no audio
+ * hardware is needed.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The data are {@link #BLOCKS} blocks of {@link
+ *     AudioInputConstants#FRAME_SIZE} samples per channel, interleaved like
+ *     the audio callback delivers them.</li>
+ *   <li>The delays are relative to the microphone closest to the source and
+ *     applied with sub-sample precision by a {@link FractionalDelayFilter}.
+ *     </li>
+ *   <li>The same seed always produces the same signals.</li>
+ * </ul>
+ */
+public final class SyntheticSignals
+{
+  /**
+   * Number of blocks of audio data.
+   */
+  public static final int BLOCKS = 16;
+
+  /**
+   * Number of channels.
+   */
+  public static final int CHANNELS = RmeHdspMadi.CHANNEL_COUNT;
+
+  private final MicArrayState state;
+  private final Point3d source;
+  private final double[] delays = new double[CHANNELS];
+  private final float[][] blocks = new float[BLOCKS][AudioInputConstants.FRAME_SIZE*CHANNELS];
+
+  /**
+   * Creates synthetic signals for the {@linkplain MicArrayState#getDummy()
+   * dummy microphone array state} with the source at its default target.
+   *
+   * @param seed
+   *          The seed of the noise generator.
+   */
+  public SyntheticSignals(long seed)
+  {
+    this(MicArrayState.getDummy(),null,seed);
+  }
+
+  /**
+   * Creates synthetic signals.
+   *
+   * @param state
+   *          The microphone array state providing the microphone positions.
+   * @param source
+   *          The source position in the CSL coordinate system (centimeters),
+   *          {@code null} for the target of the state.
+   * @param seed
+   *          The seed of the noise generator.
+   */
+  public SyntheticSignals(MicArrayState state, Point3d source, long seed)
+  {
+    this.state = state;
+    this.source = new Point3d(source!=null ? source : state.target);
+
+    // Propagation delays in samples (positions in centimeters)
+    double minDistance = Double.MAX_VALUE;
+    for (int c=0; c<CHANNELS; c++)
+      minDistance = Math.min(minDistance,state.positions[c].distance(this.source));
+    for (int c=0; c<CHANNELS; c++)
+      delays[c] = (state.positions[c].distance(this.source)-minDistance)/100.
+        /AudioInputConstants.SPEED_OF_SOUND*AudioInputConstants.SAMPLERATE;
+
+    // Delay a mono noise signal to all channels, run in until the longest
+    // delay is filled
+    FractionalDelayFilter filter = new FractionalDelayFilter(CHANNELS,AudioInputConstants.FRAME_SIZE);
+    for (int c=0; c<CHANNELS; c++)
+      filter.setDelay(c,delays[c]);
+    Random random = new Random(seed);
+    float[] input = new float[AudioInputConstants.FRAME_SIZE*CHANNELS];
+    int runIn = FractionalDelayFilter.MAX_DELAY/AudioInputConstants.FRAME_SIZE+1;
+    for (int b=-runIn; b<BLOCKS; b++)
+    {
+      for (int t=0, n=0; t<AudioInputConstants.FRAME_SIZE; t++)
+      {
+        float sample = (float)(0.1*random.nextGaussian());
+        for (int c=0; c<CHANNELS; c++, n++)
+          input[n] = sample;
+      }
+      filter.process(input,b>=0 ? blocks[b] : new float[input.length],null);
+    }
+  }
+
+  /**
+   * Returns the microphone array state the signals were created for.
+   */
+  public MicArrayState getState()
+  {
+    return state;
+  }
+
+  /**
+   * Returns a copy of the source position.
+   */
+  public Point3d getSource()
+  {
+    return new Point3d(source);
+  }
+
+  /**
+   * Returns the delay of a channel relative to the microphone closest to the
+   * source.
+   *
+   * @param channel
+   *          The channel.
+   * @return The delay in samples.
+   */
+  public double getDelay(int channel)
+  {
+    return delays[channel];
+  }
+
+  /**
+   * Returns a block of interleaved audio data. The array must not be modified.
+   *
+   * @param block
+   *          The block index, taken modulo {@link #BLOCKS}.
+   * @return {@link AudioInputConstants#FRAME_SIZE} x {@link #CHANNELS} samples.
+   */
+  public float[] getBlock(int block)
+  {
+    return blocks[block%BLOCKS];
+  }
+
+  /**
+   * Returns consecutive blocks of audio data split into channels.
+   *
+   * @param firstBlock
+   *          The index of the first block.
+   * @param count
+   *          The number of blocks, at most {@link #BLOCKS}.
+   * @return {@link #CHANNELS} arrays of {@code count} x {@link
+   *         AudioInputConstants#FRAME_SIZE} samples.
+   */
+  public float[][] getChannels(int firstBlock, int count)
+  {
+    float[][] channels = new float[CHANNELS][count*AudioInputConstants.FRAME_SIZE];
+    for (int b=0; b<count; b++)
+    {
+      float[] block = getBlock(firstBlock+b);
+      for (int t=0, n=0; t<AudioInputConstants.FRAME_SIZE; t++)
+        for (int c=0; c<CHANNELS; c++, n++)
+          channels[c][b*AudioInputConstants.FRAME_SIZE+t] = block[n];
+    }
+    return channels;
+  }
+}
+
+// EOF
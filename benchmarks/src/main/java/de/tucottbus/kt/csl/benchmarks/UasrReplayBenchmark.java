@@ -0,0 +1,205 @@
+package de.tucottbus.kt.csl.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tucottbus.kt.csl.speech.IUasrMessageHandler;
+import de.tucottbus.kt.csl.speech.UasrMessageDispatcher;
+
+/**
+ * Replays a message log of the dLabPro recognizer through {@link
+ * UasrMessageDispatcher}, the message decoding of {@code
+ * UasrSpeechEngine.update}. One operation is the replay of the whole log.
+ *
+ * <p>By default, the log is a synthetic session generated with a fixed seed:
+ * ten utterances with level messages at 100 frames per second, voice
+ * activity, live and final recognition results, post-processing frames and
+ * one buffer overflow. A recorded log can be replayed instead by setting the
+ * system property {@code uasr.log} to a file with one message (type character
+ * and text) per line.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class UasrReplayBenchmark
+{
+  /**
+   * Final results and live result keywords of the synthetic utterances.
+   */
+  private static final String[][] COMMANDS =
+  {
+    { "__WAKEUP__", "__WAKEUP__" },
+    { "LIGHTS[ON[ALL]]", "Licht" },
+    { "LIGHTS[OFF[KITCHEN]]", "Licht" },
+    { "BEAM[STEER[USER]]", "Richte" },
+    { "LIGHTS[DIM[50]]", "Dimme" }
+  };
+
+  private static final String[] PHONEMES =
+  {
+    "a", "e:", "y:", "i:", "b", "R", "@", "g", "f", "<P>", "h", "d", "k", "U",
+    "I", "p", "aI", "n", "v", "aU", "t", "o:", "N", "z", "Y", "u:", "6", "l",
+    "j"
+  };
+
+  private String[] messages;
+  private Sink sink;
+  private UasrMessageDispatcher dispatcher;
+
+  /**
+   * Folds the decoded values into a checksum, so they are not optimized
+   * away.
+   */
+  private static final class Sink implements IUasrMessageHandler
+  {
+    long sum;
+
+    @Override public void level(long frame, double level) { sum += frame+Double.doubleToRawLongBits(level); }
+    @Override public void voiceActivity(int activity, long frame) { sum += activity+frame; }
+    @Override public void vadCollected() { sum++; }
+    @Override public void recognitionState(String state) { sum += state.length(); }
+    @Override public void confidence(String nad, String ned, String tnad, String tned) { sum += nad.length(); }
+    @Override public void result(String result, String accepted) { sum += result.length(); }
+    @Override public void incrementalResult(String result) { sum += result.length(); }
+    @Override public void postprocFrame(String recPhn, String refPhn, double lsr, double nll, String recOut) { sum += Double.doubleToRawLongBits(lsr+nll); }
+    @Override public void postprocResult(String result) { sum += result.length(); }
+  }
+
+  @Setup
+  public void setup() throws IOException
+  {
+    String file = System.getProperty("uasr.log");
+    List<String> lines = file!=null ? readLog(file) : generateSession(4711);
+    messages = lines.toArray(new String[lines.size()]);
+    sink = new Sink();
+    dispatcher = new UasrMessageDispatcher(sink);
+  }
+
+  private static List<String> readLog(String file) throws IOException
+  {
+    List<String> lines = new ArrayList<String>();
+    try
+    (
+      InputStream is = new FileInputStream(file);
+      BufferedReader reader = new BufferedReader(new InputStreamReader(is,StandardCharsets.ISO_8859_1));
+    )
+    {
+      for (String line; (line=reader.readLine())!=null; )
+        if (!line.isEmpty())
+          lines.add(line);
+    }
+    return lines;
+  }
+
+  /**
+   * Generates the messages of a synthetic recognizer session.
+   * 
+   * @param seed
+   *          The seed of the random number generator.
+   */
+  static List<String> generateSession(long seed)
+  {
+    Random r = new Random(seed);
+    List<String> m = new ArrayList<String>();
+    m.add(":Option updated data.vadinfo=3_10_mod.vad");
+    m.add(":Option updated postproc.cmd=dlabpro postproc.xtp nogui");
+    m.add("<sta: online recognizer initialized");
+    m.add("<sta: voc change: 0");
+    int frame = 0;
+    for (int u=0; u<10; u++)
+    {
+      // Silence
+      for (int end=frame+150+r.nextInt(300); frame<end; frame++)
+        m.add(level(frame,-90+27*r.nextDouble()));
+
+      // Utterance with live results every 25 frames
+      String[] command = COMMANDS[u%COMMANDS.length];
+      int start = frame;
+      m.add("<dbg: vad on at frame "+start);
+      for (int end=frame+85+r.nextInt(100); frame<end; frame++)
+      {
+        m.add(level(frame,-60+40*r.nextDouble()));
+        if ((frame-start)%25==24)
+          m.add("<sta: liveres: "+command[0]+" ("+command[1]+")");
+      }
+      m.add("<dbg: vad off at frame "+frame);
+
+      // Recognition and post-processing
+      String fvr = "FVR["+command[0]+"]";
+      boolean accepted = r.nextInt(3)>0;
+      m.add(String.format(Locale.US,"<sta: vad collected %d frames from %d (sigmax: %.1f)",
+        frame-start,start,10000+7000*r.nextDouble()));
+      if (u%5==1)
+        m.add("<sta: buf skipped: 1");
+      m.add("<sta: rec start ("+frame+")");
+      m.add(String.format(Locale.US,"<dbg: rec gw: %.3f %.3f",
+        -200-700*r.nextDouble(),-200-700*r.nextDouble()));
+      m.add(String.format(Locale.US,"<dbg: rec nad: %.4f ned: %.4f tnad: 1.0000 tned: 1.0000",
+        1+r.nextDouble(),0.4+1.2*r.nextDouble()));
+      m.add("<cmd: res: "+(accepted ? fvr : "("+fvr+")")+" acc: "+(accepted ? 1 : 0));
+      m.add("<dbg: refrec "+fvr);
+      m.add("<sta: rec post ("+frame+")");
+      m.add("<ppf: start");
+      for (int i=start; i<frame; i++)
+      {
+        String rec = PHONEMES[r.nextInt(PHONEMES.length)];
+        String ref = r.nextInt(3)>0 ? rec : PHONEMES[r.nextInt(PHONEMES.length)];
+        m.add(String.format(Locale.US,"<ppf: frm: %s\t%s\t%.4f\t%.4f\t%s",
+          rec,ref,-5+10*r.nextDouble(),30*r.nextDouble(),rec));
+      }
+      m.add("<ppf: res: "+fvr);
+      m.add("<ppf: end");
+      m.add("<sta: rec end ("+frame+")");
+      if (u==6)
+      {
+        m.add("<sta: rec skip for 12 frames");
+        m.add("!rec: audio device buffer overflow");
+        m.add("<dbg: unknown message "+frame);
+      }
+      if (command[0].equals("__WAKEUP__"))
+        m.add("<sta: voc change: 1 wake");
+    }
+    for (int end=frame+300; frame<end; frame++)
+      m.add(level(frame,-90+27*r.nextDouble()));
+    m.add("<sta: voc change: 0 sleep");
+    return m;
+  }
+
+  private static String level(int frame, double level)
+  {
+    return String.format(Locale.US,"<gui: frm: %d lvl: %.2f tim: %d",frame,level,frame*10);
+  }
+
+  @Benchmark
+  public long replay()
+  {
+    for (String message : messages)
+      dispatcher.dispatch(message);
+    return sink.sum;
+  }
+}
+
+// EOF
@@ -120,6 +120,10 @@ public class CSL
     // Instantiate hardware wrappers
     if (LCARS.getArg(args, "--nohardware") == null) 
     {
+      String replay = LCARS.getArg(args, "--audio-replay=");
+      if (replay != null)
+        CslHardware.setAudioReplay(new File(replay), 
+            LCARS.getArg(args, "--audio-replay-fast") == null);
       CslHardware.getInstance().printTree("");
       
       // try-catch structure to start CognitiveSystemsLab without
@@ -257,6 +261,9 @@ public class CSL
    *  --nogui             - Do not display the LCARS GUI 
    *  --nospeech          - Disable speech I/O
    *  --nohardware        - Disable the CSL hardware drivers
+   *  --audio-replay=file - Replay a 64 channel wave file instead of the
+   *                        microphone array audio input
+   *  --audio-replay-fast - Replay as fast as possible instead of in real time
    *  --nomouse           - Hide the mouse cursor
    *  --panel=classname   - LCARS panel to display at start-up [2]
    *  
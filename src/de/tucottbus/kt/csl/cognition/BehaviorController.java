@@ -10,6 +10,7 @@ import java.util.Collection;
 
 import de.tucottbus.kt.csl.hardware.micarray3d.trolley.Motor;
 import de.tucottbus.kt.csl.hardware.micarray3d.trolley.Trolley;
+import de.tucottbus.kt.csl.speech.CompiledFvr;
 import de.tucottbus.kt.csl.speech.Fvr;
 import de.tucottbus.kt.csl.speech.Fvr.Node;
 
@@ -51,7 +52,8 @@ public final class BehaviorController implements ISpeechEventListener
 
       if(result.startsWith("FVR")) 
       {
-        Fvr fvrInp = Fvr.fromString(result);
+        CompiledFvr sem = CompiledFvr.compile(result);
+        Fvr fvrInp;
         Node nNode;
         Node nodeInt = null;
         Node nodeDec = null;
@@ -63,18 +65,19 @@ public final class BehaviorController implements ISpeechEventListener
         boolean bDecExist = false;
         
         // Function for absolute max position
-        if (!fvrInp.findNode("MOVETOABS.abspos.max").isEmpty())
+        if (sem.findNode("MOVETOABS.abspos.max").length>0)
         {
           trolley.setCeilingPosition(90);
         }
         // Function for absolute middle position
-        else if (!fvrInp.findNode("MOVETOABS.abspos.0").isEmpty())
+        else if (sem.findNode("MOVETOABS.abspos.0").length>0)
         {
           trolley.setCeilingPosition(0);
         }
         // compute only MOVETOABS 
-        else if (fvrInp.getFirstNode().getLabel().equals("MOVETOABS"))
+        else if ("MOVETOABS".equals(sem.getLabel(0)))
         {               
+          fvrInp = Fvr.fromString(result);
           //MOVETOABS[MAID[ma2]][abspos[0]]
           
           //=======================================================================
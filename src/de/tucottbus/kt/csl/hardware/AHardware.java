@@ -13,12 +13,18 @@ import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.List;
 import java.util.Observable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Observer;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadFactory;
 
 import de.tucottbus.kt.csl.CSL;
+import de.tucottbus.kt.csl.hardware.events.EventBus;
+import de.tucottbus.kt.csl.hardware.events.EventTopic;
+import de.tucottbus.kt.csl.hardware.events.IEventSubscriber;
+import de.tucottbus.kt.csl.hardware.metrics.MetricsDump;
+import de.tucottbus.kt.csl.hardware.metrics.MetricsRegistry;
 import de.tucottbus.kt.lcars.IScreen;
 import de.tucottbus.kt.lcars.LCARS;
 import de.tucottbus.kt.lcars.Panel;
@@ -149,9 +155,28 @@ public abstract class AHardware extends Observable
   private boolean disposed = false;
 
   /**
-   * The asynchronous observer notification executor service.
+   * The event bus delivering asynchronous observer notifications.
    */
-  private final ExecutorService notifyObserversService;
+  private final EventBus eventBus = new EventBus(getClass().getSimpleName());
+  
+  /**
+   * The runtime metrics.
+   */
+  private final MetricsRegistry metrics 
+    = new MetricsRegistry(getClass().getSimpleName());
+  
+  /**
+   * The hardware wrapper singletons which have been created and not yet been
+   * disposed of.
+   */
+  private static final ConcurrentHashMap<Class<?>,AHardware> instances
+    = new ConcurrentHashMap<Class<?>,AHardware>();
+
+  /**
+   * The hardware wrapper singleton classes, listed on first collection of the
+   * metrics.
+   */
+  private static volatile Collection<Class<? extends AHardware>> singletonClasses;
   
   // -- Subclass break --
   
@@ -166,9 +191,8 @@ public abstract class AHardware extends Observable
   protected AHardware()
   {
     checkSubclass();
-    notifyObserversService 
-      = Executors.newSingleThreadExecutor(getExecutorThreadFactory(
-          "notifyObserversService"));
+    instances.putIfAbsent(getClass(),this);
+    metrics.gauge("eventbus.queue",eventBus::getQueueDepth);
   }
   
   /**
@@ -188,7 +212,8 @@ public abstract class AHardware extends Observable
       throw new IllegalStateException("Already disposed");
     Log.info("Disposing "+getClass().getName());
     disposed = true;
-    notifyObserversService.shutdownNow();
+    eventBus.close();
+    instances.remove(getClass(),this);
   }
   
   /**
@@ -344,6 +369,30 @@ public abstract class AHardware extends Observable
     return l;
   }
   
+  /**
+   * Collects the runtime metrics of all {@linkplain #getSingletons() hardware
+   * wrapper singletons} which are running, followed by the {@linkplain
+   * MetricsRegistry#getComponents() component metrics}. The method does not
+   * create any singletons.
+   * 
+   * @return The metrics registries.
+   * @see MetricsDump
+   */
+  public static List<MetricsRegistry> collectMetrics()
+  {
+    if (singletonClasses==null)
+      singletonClasses = getSingletons();
+    ArrayList<MetricsRegistry> l = new ArrayList<MetricsRegistry>();
+    for (Class<? extends AHardware> clazz : singletonClasses)
+    {
+      AHardware hardware = instances.get(clazz);
+      if (hardware!=null && !hardware.isDisposed())
+        l.add(hardware.getMetrics());
+    }
+    l.addAll(MetricsRegistry.getComponents());
+    return l;
+  }
+  
   // -- Observable implementation --
 
   /**
@@ -387,36 +436,34 @@ public abstract class AHardware extends Observable
   
   /**
    * If this object has changed, as indicated by the {@link #hasChanged()}
-   * method, then notify all of its observers <em>asynchronously</em> and then 
-   * call the {@link #clearChanged()} method to indicate that this object has no
-   * longer changed. The method returns immediately and invokes {@link 
-   * Observable#notifyObservers(Object) Observable.notifyObservers(arg)} through
-   * an executor service.
+   * method, then call the {@link #clearChanged()} method to indicate that this
+   * object has no longer changed and notify all of its observers
+   * <em>asynchronously</em>. The method returns immediately and publishes
+   * <code>arg</code> on the {@linkplain #getEventBus() event bus}.
+   * 
+   * <p>String arguments are {@linkplain #getHintTopic(String) hints}:
+   * repeated hints coalesce per subscription until they are delivered, so
+   * each observer receives a pending hint once. Other arguments are queued,
+   * see {@link EventBus} for details.</p>
    * 
    * @param arg
    *          Any object.
    */
   public void notifyObserversAsync(Object arg)
   {
-    if (hasChanged())
-      notifyObserversService.execute(new Runnable() 
-      {
-        @Override
-        public void run() 
-        {
-          AHardware.super.setChanged();
-          AHardware.super.notifyObservers(arg);
-        }
-      });
+    if (!hasChanged())
+      return;
+    clearChanged();
+    if (arg instanceof String)
+      eventBus.publish(getHintTopic((String)arg),(String)arg);
+    else
+      eventBus.publish(NOTIFY_OBJECT,arg);
   }
   
   /**
-   * If this object has changed, as indicated by the {@link #hasChanged()}
-   * method, then notify all of its observers <em>asynchronously</em> and then 
-   * call the {@link #clearChanged()} method to indicate that this object has no
-   * longer changed. The method returns immediately and invokes {@link 
-   * Observable#notifyObservers(Object) Observable.notifyObservers(arg)} through
-   * an executor service.
+   * Publishes a hint on the {@linkplain #getEventBus() event bus} if this
+   * object has changed, see {@link #notifyObserversAsync(Object)}. The method
+   * returns immediately.
    * 
    * @param notifyHint
    *          A string indicating the type of change. The following values are
@@ -432,6 +479,112 @@ public abstract class AHardware extends Observable
   {
     notifyObserversAsync((Object)notifyHint);
   }
+
+  /**
+   * Topic of arguments to {@link #notifyObserversAsync(Object)} which are not
+   * strings.
+   */
+  public static final EventTopic<Object> NOTIFY_OBJECT
+    = EventTopic.queued("NOTIFY_OBJECT",Object.class);
+
+  private static final ConcurrentHashMap<String,EventTopic<String>> hintTopics
+    = new ConcurrentHashMap<String,EventTopic<String>>();
+
+  /**
+   * Returns the latest-value topic on which {@link
+   * #notifyObserversAsync(String)} publishes a hint.
+   * 
+   * @param notifyHint
+   *          The hint, e.&nbsp;g. {@link #NOTIFY_STATE}.
+   */
+  public static EventTopic<String> getHintTopic(String notifyHint)
+  {
+    EventTopic<String> topic = hintTopics.get(notifyHint);
+    if (topic==null)
+    {
+      hintTopics.putIfAbsent(notifyHint,EventTopic.latestValue(notifyHint,String.class));
+      topic = hintTopics.get(notifyHint);
+    }
+    return topic;
+  }
+
+  /**
+   * Returns the event bus on which this hardware wrapper publishes its
+   * asynchronous notifications. Every {@linkplain #addObserver(Observer)
+   * observer} has an own subscription, so a slow observer does not delay
+   * the others.
+   */
+  public EventBus getEventBus()
+  {
+    return eventBus;
+  }
+
+  @Override
+  public synchronized void addObserver(Observer o)
+  {
+    int count = countObservers();
+    super.addObserver(o);
+    if (countObservers()>count)
+      eventBus.subscribe(new ObserverSubscriber(o));
+  }
+
+  @Override
+  public synchronized void deleteObserver(Observer o)
+  {
+    super.deleteObserver(o);
+    for (EventBus.Subscription subscription : eventBus.getSubscriptions())
+      if (subscription.getSubscriber() instanceof ObserverSubscriber
+          && ((ObserverSubscriber)subscription.getSubscriber()).observer==o)
+        subscription.cancel();
+  }
+
+  @Override
+  public synchronized void deleteObservers()
+  {
+    super.deleteObservers();
+    for (EventBus.Subscription subscription : eventBus.getSubscriptions())
+      if (subscription.getSubscriber() instanceof ObserverSubscriber)
+        subscription.cancel();
+  }
+
+  /**
+   * Delivers the events of the {@linkplain #getEventBus() event bus} to an
+   * observer.
+   */
+  private final class ObserverSubscriber implements IEventSubscriber
+  {
+    final Observer observer;
+
+    ObserverSubscriber(Observer observer)
+    {
+      this.observer = observer;
+    }
+
+    @Override
+    public void eventDelivered(EventTopic<?> topic, Object event)
+    {
+      observer.update(AHardware.this,event);
+    }
+
+    @Override
+    public String toString()
+    {
+      return observer.getClass().getName();
+    }
+  }
+  
+  // -- Metrics --
+  
+  /**
+   * Returns the runtime metrics of this hardware wrapper. Derived classes 
+   * register their counters, gauges and latency histograms here.
+   * 
+   * @see #collectMetrics()
+   */
+  public MetricsRegistry getMetrics()
+  {
+    return metrics;
+  }
   
   // -- Logging --
   
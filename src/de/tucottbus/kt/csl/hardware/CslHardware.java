@@ -1,8 +1,13 @@
 package de.tucottbus.kt.csl.hardware;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadi;
+import de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadiReplay;
+import de.tucottbus.kt.csl.hardware.metrics.LatencyTrace;
+import de.tucottbus.kt.csl.hardware.metrics.MetricsFileWriter;
 import de.tucottbus.kt.csl.hardware.micarray3d.MicArray3D;
 import de.tucottbus.kt.csl.hardware.powerip.IpPowerSocket_010;
 import de.tucottbus.kt.csl.hardware.powerip.IpPowerSocket_011;
@@ -43,6 +48,64 @@ public final class CslHardware extends ACompositeHardware
   {
   }
 
+  // -- Audio input selection --
+
+  /**
+   * The wave file to replay instead of the microphone array audio input, 
+   * <code>null</code> for the physical {@link RmeHdspMadi} device. Defaults to
+   * the system property <code>csl.audio.replay</code>.
+   */
+  private static volatile File audioReplayFile
+    = System.getProperty("csl.audio.replay")!=null
+    ? new File(System.getProperty("csl.audio.replay")) : null;
+  
+  /**
+   * Replay in real time (<code>true</code>) or as fast as possible. Defaults 
+   * to <code>true</code> unless the system property 
+   * <code>csl.audio.replay.fast</code> is set to <code>true</code>.
+   */
+  private static volatile boolean audioReplayPaced
+    = !Boolean.getBoolean("csl.audio.replay.fast");
+
+  /**
+   * Selects the microphone array audio input. Must be invoked before the 
+   * hardware wrappers are started.
+   * 
+   * @param file
+   *          A 64 channel wave file to replay through a {@link 
+   *          RmeHdspMadiReplay} or <code>null</code> to use the physical 
+   *          {@link RmeHdspMadi} device.
+   * @param paced
+   *          If <code>true</code>, the file is replayed in real time, 
+   *          otherwise as fast as the audio processing permits.
+   */
+  public static void setAudioReplay(File file, boolean paced)
+  {
+    audioReplayFile = file;
+    audioReplayPaced = paced;
+  }
+  
+  /**
+   * Returns the wave file replayed instead of the microphone array audio 
+   * input or <code>null</code> if the physical device is used.
+   * 
+   * @see #setAudioReplay(File, boolean)
+   */
+  public static File getAudioReplayFile()
+  {
+    return audioReplayFile;
+  }
+  
+  /**
+   * Determines if the audio replay is paced in real time.
+   * 
+   * @see #setAudioReplay(File, boolean)
+   */
+  public static boolean isAudioReplayPaced()
+  {
+    return audioReplayPaced;
+  }
+  
   // -- Implementation of AHardware --
 
   @Override
@@ -79,20 +142,26 @@ public final class CslHardware extends ACompositeHardware
   // -- Operations --
   
   /**
-   * Starts all hardware wrappers.
+   * Starts all hardware wrappers. If the system property <code>
+   * csl.metrics.file</code> is set, the {@link MetricsFileWriter} is started
+   * as well.
    * 
    * @see #dispose()
    */
   public void startAll()
   {
     getChildren();
+    MetricsFileWriter.startFromSystemProperties();
   }
   
   /**
-   * Stops and disposes of all hardware wrappers.
+   * Stops and disposes of all hardware wrappers. If the system property <code>
+   * csl.latencyTrace.file</code> is set, the {@link LatencyTrace} is written 
+   * to that file first.
    */
   public void stopAll()
   {
+    LatencyTrace.writeFromSystemProperties();
     dispose();
   }
  
@@ -148,10 +217,16 @@ public final class CslHardware extends ACompositeHardware
    * Starts LCARS with the {@link CslHardwarePanel}.
    * 
    * @param args
-   *          -- not used --
+   *          The command line arguments, <code>--audio-replay=</code><i>file
+   *          </i> replays a wave file instead of the microphone array audio 
+   *          input, <code>--audio-replay-fast</code> replays it as fast as
+   *          possible.
    */
   public static void main(String[] args)
   {      
+    String replay = LCARS.getArg(args,"--audio-replay=");
+    if (replay!=null)
+      setAudioReplay(new File(replay),LCARS.getArg(args,"--audio-replay-fast")==null);
     args = LCARS.setArg(args,"--panel=",CslHardwarePanel.class.getName());
     LCARS.main(args);
   }
@@ -0,0 +1,271 @@
+package de.tucottbus.kt.csl.hardware.accesscontrol;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the status reported by the access controller in one
+ * datagram.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The access controller replies to <code>GET_MESSAGE</code> with a
+ *     formatted text of fixed layout: 30 device lines of
+ *     {@value #OFS_LLD} characters, 5 receiver lines of {@value #OFS_LLS}
+ *     characters starting at offset 1440, and the system temperature at
+ *     offset {@value #OFS_TMP}. {@link #decode(ByteBuffer, long)} reads the
+ *     values at their offsets directly from the receive buffer without
+ *     copying it.</li>
+ *   <li>Snapshots are published by {@link AccessController} through a single
+ *     volatile reference. Readers obtain a consistent status of all devices
+ *     and receivers without locking.</li>
+ *   <li>Device and receiver indexes are zero-based.</li>
+ * </ul>
+ */
+public final class AccessControlStatus
+{
+  /**
+   * The number of devices (beacons).
+   */
+  public static final int DEVICES = 30;
+
+  /**
+   * The number of receivers.
+   */
+  public static final int RECEIVERS = 5;
+
+  /**
+   * Presence status of an absent device.
+   */
+  public static final int ABSENT = 0;
+
+  /**
+   * Presence status of a device nearby.
+   */
+  public static final int NEARBY = 1;
+
+  /**
+   * Presence status of a present device.
+   */
+  public static final int PRESENT = 2;
+
+  // -- Datagram layout --
+
+  static final int OFS_LLD = 48;        // length of ID specific data line
+  static final int OFS_PR  = 9;         // line index of presence status
+  static final int OFS_VB  = 14;        // line index of battery voltage (4 digits)
+  static final int OFS_TR  = 24;        // line index of total runtime (6 digits)
+  static final int OFS_TD  = 37;        // line index of status duration (6 digits)
+  static final int OFS_LLS = 28;        // length of system specific data line
+  static final int OFS_BS  = 1440 + 9;  // offset to first receiver bus status
+  static final int OFS_RT  = 1440 + 16; // offset to first receiver selftest (5 digits, 2 apart)
+  static final int OFS_TMP = 1606;      // offset of system temperature ("dd.d")
+
+  /**
+   * The minimal length of a status datagram in bytes.
+   */
+  public static final int MIN_LENGTH = OFS_TMP + 4;
+
+  /**
+   * The status before the first datagram has been received: all devices
+   * absent without battery, all receiver values -1.
+   */
+  public static final AccessControlStatus EMPTY = new AccessControlStatus();
+
+  private final int[] presence = new int[DEVICES];
+
+  private final int[] voltage = new int[DEVICES];
+
+  private final int[] totalRuntime = new int[DEVICES];
+
+  private final int[] statusDuration = new int[DEVICES];
+
+  private final int[] busStatus = new int[RECEIVERS];
+
+  private final int[] selfTest = new int[RECEIVERS*RECEIVERS];
+
+  private final int temperature;
+
+  private final long sequence;
+
+  private final long timestamp;
+
+  private AccessControlStatus()
+  {
+    Arrays.fill(busStatus,-1);
+    Arrays.fill(selfTest,-1);
+    this.temperature = 0;
+    this.sequence = 0;
+    this.timestamp = 0;
+  }
+
+  private AccessControlStatus(ByteBuffer b, int base, long sequence)
+  {
+    for (int m=0; m<DEVICES; m++)
+    {
+      int line = base + m*OFS_LLD;
+      presence[m]       = digit(b,line+OFS_PR);
+      voltage[m]        = number(b,line+OFS_VB,4);
+      totalRuntime[m]   = number(b,line+OFS_TR,6);
+      statusDuration[m] = number(b,line+OFS_TD,6);
+    }
+    for (int m=0; m<RECEIVERS; m++)
+    {
+      busStatus[m] = digit(b,base+OFS_BS+m*OFS_LLS);
+      for (int n=0; n<RECEIVERS; n++)
+        selfTest[m*RECEIVERS+n] = digit(b,base+OFS_RT+n*2+m*OFS_LLS);
+    }
+    this.temperature = number(b,base+OFS_TMP,2)*10 + digit(b,base+OFS_TMP+3);
+    this.sequence = sequence;
+    this.timestamp = System.currentTimeMillis();
+  }
+
+  /**
+   * Decodes a status datagram. The buffer is read with absolute gets, its
+   * position and limit are not changed.
+   *
+   * @param datagram
+   *          The datagram from the position to the limit.
+   * @param sequence
+   *          The sequence number of the datagram.
+   * @return The status.
+   * @throws IllegalArgumentException
+   *           if the datagram is shorter than {@link #MIN_LENGTH}.
+   */
+  public static AccessControlStatus decode(ByteBuffer datagram, long sequence)
+  throws IllegalArgumentException
+  {
+    if (datagram.remaining()<MIN_LENGTH)
+      throw new IllegalArgumentException("Status datagram too short ("
+        +datagram.remaining()+" bytes)");
+    return new AccessControlStatus(datagram,datagram.position(),sequence);
+  }
+
+  // -- Getters --
+
+  /**
+   * Returns the presence status of a device, {@link #ABSENT}, {@link #NEARBY}
+   * or {@link #PRESENT}.
+   *
+   * @param device
+   *          The device index, 0..{@value #DEVICES}-1.
+   */
+  public int getPresence(int device)
+  {
+    return presence[device];
+  }
+
+  /**
+   * Returns the battery voltage of a device in millivolts.
+   *
+   * @param device
+   *          The device index, 0..{@value #DEVICES}-1.
+   */
+  public int getVoltage(int device)
+  {
+    return voltage[device];
+  }
+
+  /**
+   * Returns the total runtime of a device in minutes.
+   *
+   * @param device
+   *          The device index, 0..{@value #DEVICES}-1.
+   */
+  public int getTotalRuntime(int device)
+  {
+    return totalRuntime[device];
+  }
+
+  /**
+   * Returns the time a device has been in its current presence status in
+   * minutes.
+   *
+   * @param device
+   *          The device index, 0..{@value #DEVICES}-1.
+   */
+  public int getStatusDuration(int device)
+  {
+    return statusDuration[device];
+  }
+
+  /**
+   * Returns the bus status of a receiver, 1 if connected to the bus, 0 if
+   * not, -1 if unknown.
+   *
+   * @param receiver
+   *          The receiver index, 0..{@value #RECEIVERS}-1.
+   */
+  public int getBusStatus(int receiver)
+  {
+    return busStatus[receiver];
+  }
+
+  /**
+   * Returns the interconnection self test result of two receivers.
+   *
+   * @param receiver
+   *          The receiver index, 0..{@value #RECEIVERS}-1.
+   * @param other
+   *          The index of the other receiver, 0..{@value #RECEIVERS}-1.
+   */
+  public int getSelfTest(int receiver, int other)
+  {
+    return selfTest[receiver*RECEIVERS+other];
+  }
+
+  /**
+   * Returns the system temperature in tenths of a degree Celsius.
+   */
+  public int getTemperature()
+  {
+    return temperature;
+  }
+
+  /**
+   * Returns the sequence number of the datagram, 0 for {@link #EMPTY}.
+   */
+  public long getSequence()
+  {
+    return sequence;
+  }
+
+  /**
+   * Returns the time the datagram was decoded in milliseconds since the epoch,
+   * 0 for {@link #EMPTY}.
+   */
+  public long getTimestamp()
+  {
+    return timestamp;
+  }
+
+  /**
+   * Determines if the presence status of all devices is equal to that of
+   * another snapshot.
+   *
+   * @param other
+   *          The other snapshot.
+   */
+  public boolean presenceEquals(AccessControlStatus other)
+  {
+    return Arrays.equals(presence,other.presence);
+  }
+
+  // -- Helpers --
+
+  private static int digit(ByteBuffer b, int index)
+  {
+    return b.get(index)-'0';
+  }
+
+  private static int number(ByteBuffer b, int index, int digits)
+  {
+    int value = 0;
+    for (int i=0; i<digits; i++)
+      value = value*10 + digit(b,index+i);
+    return value;
+  }
+
+}
+
+// EOF
@@ -1,14 +1,16 @@
 package de.tucottbus.kt.csl.hardware.accesscontrol;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketTimeoutException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Observable;
 import java.util.Observer;
 
 import de.tucottbus.kt.csl.hardware.AAtomicHardware;
 import de.tucottbus.kt.csl.hardware.AHardware;
+import de.tucottbus.kt.csl.hardware.ioutils.IUdpHandler;
+import de.tucottbus.kt.csl.hardware.ioutils.IoReactor;
+import de.tucottbus.kt.csl.hardware.ioutils.UdpChannel;
 import de.tucottbus.kt.csl.hardware.led.ALedController;
 import de.tucottbus.kt.lcars.IScreen;
 import de.tucottbus.kt.lcars.LCARS;
@@ -29,6 +31,10 @@ import de.tucottbus.kt.lcars.swt.ColorMeta;
  * <p style="padding-left:2em;">the access controller responds with the latest dataset as formatted string.</p>
  * <p style="padding-left:2em;">The response is sendt to port 5050 of the requesting ip adress.</p>
  * <p style="padding-left:2em;">Hardware interaction is dealt with by this hardware driver.</p>
+ * <p style="padding-left:2em;">Requests and responses are exchanged on the thread of the shared {@link IoReactor}, the driver does not own a thread.</p>
+ * <p style="padding-left:2em;">Observers are notified asynchronously through the event bus, repeated hints coalesce until delivered.</p>
+ * <p style="padding-left:2em;">Each response is decoded directly from the receive buffer into an immutable {@link AccessControlStatus},</p>
+ * <p style="padding-left:2em;">the methods below read the latest snapshot without locking. A missing response is detected after one request interval.</p>
  * 
  * <h3><u> Accessing received data </u></h3>
  * 
@@ -56,41 +62,54 @@ import de.tucottbus.kt.lcars.swt.ColorMeta;
  * 
  * @author Friedrich Eckert, BTU Cottbus-Senftenberg
  */
-public class AccessController extends AAtomicHardware implements Runnable
+public class AccessController extends AAtomicHardware implements IUdpHandler
 {
 
   // -- Fields --
 
-  static volatile int[][] PresenceTable0 = new int[30][4];
-  static volatile int[][] PresenceTable1 = new int[30][4];
-  static volatile int[][] SystemTable0 = new int[5][6];
-  static volatile int[][] SystemTable1 = new int[5][6];
+  /**
+   * Hint to {@link #notifyObserversAsync(String)} indicating that the presence
+   * status of at least one device has changed.
+   */
+  public static final String NOTIFY_PRESENCE = "NOTIFY_PRESENCE";
+  
+  private static final int SLEEPTIME_PRESET = 1000; // hardware data request interval in ms
+  private static final int REPLY_TIMEOUT = 1000; // time/ms to wait for a response
+  private static final int RX_BUFFER_SIZE = 1700; // maximal response length
+
+  // private static final String RBPI = "192.168.2.3"; // target ip
+  private static final String RBPI = "141.43.71.15"; // target ip
+  private static final int PORT_OUT = 5000; // RBPi request port
+  private static final String CMD_GET_MSG = "GET_MESSAGE";
+
+  private volatile boolean connectionStatus = false;
   
-  static volatile int SystemTemp0 = 0;
-  static volatile int SystemTemp1 = 0;
+  /**
+   * The most recently received status, replaced as a whole on each response.
+   */
+  private volatile AccessControlStatus status = AccessControlStatus.EMPTY;
   
-  /*
-   * indices for PresenceTable entries
-   */ 
-  private static final int IND_PRES = 0; // presence status
-  private static final int IND_VBAT = 1; // battery voltage
-  private static final int IND_TTOT = 2; // total beacon runtime
-  private static final int IND_TDUR = 3; // status duration
+  /**
+   * The UDP channel to the RasPi, run by the shared {@link IoReactor}.
+   */
+  private final UdpChannel channel;
   
-  static volatile int TableToggle = -1;
-  static volatile boolean TableLock = false;
-  private volatile boolean connectionStatus = false;
-  private DatagramSocket UDPsocket = null;
-  private static final int SLEEPTIME_PRESET = 1000; // hardware data request interval in ms
   /**
-   * The guard thread running the TCP/IP connection to the RasPi.
+   * Periodically sends data requests.
    */
-  private Thread guard = null;
+  private final IoReactor.Timer pollTimer;
   
   /**
-   * Run flag for the guard thread.
+   * Fires if a data request has not been answered in time, only accessed on
+   * the reactor thread.
    */
-  private boolean runGuard = false;
+  private IoReactor.Timer replyTimer;
+  
+  // Statistics
+  private volatile long requests;
+  private volatile long responses;
+  private volatile long timeouts;
+  private volatile long malformed;
   
   // -- Life cycle --
 
@@ -105,362 +124,112 @@ public class AccessController extends AAtomicHardware implements Runnable
   public static synchronized AccessController getInstance()
   {
     if (singleton==null)
-      singleton = new AccessController();
+      singleton = new AccessController(new InetSocketAddress(RBPI,PORT_OUT));
     return singleton;
   }
 
   /**
-   * Creates the hardware wrapper singleton for the access controller.
+   * Creates a hardware wrapper for the access controller. Only the singleton
+   * and tests with an {@link AccessControllerStandIn} create instances.
+   * 
+   * @param remote
+   *          The address requests are sent to.
    */
-  private AccessController()
+  AccessController(SocketAddress remote)
   {
-    // Initialization is done in thread to avoid delay
-    
-    // Start the guard thread
-    guard = new Thread(this,getClass().getSimpleName()+".guard");
-    guard.start();
+    // Open the UDP channel and poll the access controller
+    channel = new UdpChannel(remote,0,RX_BUFFER_SIZE,this);
+    channel.open();
+    pollTimer = IoReactor.getInstance().schedule(this::request,0,SLEEPTIME_PRESET);
   }
   
+  // -- Implementation of IUdpHandler --
 
-  
   /**
-   * <p>
-   * Start background Thread.
-   * </p>
-   * <p>
-   * periodically reads data from hardware and updates local buffers.
-   * </p>
-   * <p>
-   * Waits for read-out methods to release buffer locks, but can time out to
-   * prevent lockup. Received Data will be ignored in this case.
-   * </p>
+   * Sends a data request to the access controller. Invoked periodically on the
+   * reactor thread. A request still awaiting its response is superseded.
    */
+  private void request()
+  {
+    if (replyTimer==null)
+      replyTimer = IoReactor.getInstance().schedule(this::timeout,REPLY_TIMEOUT);
+    requests++;
+    channel.send(CMD_GET_MSG);
+  }
 
-  @Override
-  public void run()
+  /**
+   * Invoked on the reactor thread if a data request has not been answered in
+   * time.
+   */
+  private void timeout()
   {
-    runGuard = true; //
+    replyTimer = null;
+    timeouts++;
+    if (connectionStatus)
+      System.out.println("AccessControl UDP Timeout");
+    connectionStatus = false;
+    notifyState(NOTIFY_STATE);
+  }
 
-    // initialize arrays
-    for (byte n = 0; n < 30; n++)
+  @Override
+  public void received(UdpChannel channel, ByteBuffer datagram, SocketAddress sender)
+  {
+    if (replyTimer!=null)
+      replyTimer.cancel();
+    replyTimer = null;
+    connectionStatus = true;
+    
+    AccessControlStatus previous = status;
+    try
     {
-      PresenceTable0[n][0] = 0;
-      PresenceTable0[n][1] = 0;
-      PresenceTable0[n][2] = 0;
-      PresenceTable0[n][3] = 0;
-      
-      SystemTemp0 = 0;
-      SystemTemp1 = 0;
-
-      PresenceTable1[n][0] = 0;
-      PresenceTable1[n][1] = 0;
-      PresenceTable1[n][2] = 0;
-      PresenceTable1[n][3] = 0;
+      // Decode directly from the receive buffer and publish the snapshot
+      status = AccessControlStatus.decode(datagram,++responses);
     }
-
-    for (byte n = 0; n < 5; n++)
+    catch (IllegalArgumentException e)
     {
-      for (byte m = 0; m < 6; m++)
-      {
-        SystemTable0[n][m] = -1;
-        SystemTable1[n][m] = -1;
-      }
+      malformed++;
+      logErr(e.getMessage(),e);
+      notifyState(NOTIFY_STATE);
+      return;
     }
+    if (!status.presenceEquals(previous))
+      notifyState(NOTIFY_PRESENCE);
+    notifyState(NOTIFY_STATE);
+  }
 
-    TableToggle = 0;
+  @Override
+  public void failed(UdpChannel channel, Throwable cause)
+  {
+    connectionStatus = false;
+    System.out.println("AccessControl UDP Socket Error " + cause);
+    notifyState(NOTIFY_STATE);
+  }
 
+  private void notifyState(String hint)
+  {
     try
     {
-      System.out.println("BEGIN OF GUARD THREAD");
-      
-      // InetAddress RBPI = InetAddress.getByName("192.168.2.3"); // target ip
-      InetAddress RBPI = InetAddress.getByName("141.43.71.15"); // target ip
-      // String CLIENT = "192.168.2.1"; // local device ip
-      String CLIENT = "143.43.71.42"; // local device ip
-      int PORT = 5050; // response receive port
-      int PORT_OUT = 5000; // RBPi request port
-      String CMD_GET_MSG = "GET_MESSAGE";
-      String CMD_SET_THRES = "SET_THRESHOLD=6";
-      String CMD_GET_TEMP = "GET_TEMP";
-
-      byte[] txbuffer = new byte[32];
-      byte[] rxbuffer = new byte[1700];
-
-      int temp = 0;
-
-      UDPsocket = new DatagramSocket();
-      boolean RX_success = false;
-
-      // set receive buffer
-      DatagramPacket ResponsePacket = new DatagramPacket(rxbuffer, rxbuffer.length);
-
-      // set transmit buffer -> add .setData when used
-      DatagramPacket CommandPacket = new DatagramPacket(txbuffer, txbuffer.length, RBPI, PORT_OUT);
-      // RBPI_CMD_packet.setAddress(RBPI);
-      // RBPI_CMD_packet.setPort(PORT_OUT);
-
-      UDPsocket.setSoTimeout(1000);
-      
-      // decoding constants
-      
-      final int LinePeriode = 48; // length of string including the first
-      // LF (\n) terminator
-      final int PresenceOffset = 9; // index of first occurrence in
-              // receive buffer
-      final int VoltageOffset = 14; // -||-
-      final int RuntimeOffset = 24; // -||-
-      final int asciiOffset = 48; // subtract to get integer
-      
-      final int BusStatOffset = 1059;
-      final int RxConnOffset = 1066;
-      final int StatPeriode = 28;
-      
-      /*
-       * Offsets for ID specific data
-       */
-      
-      final int OFS_LLD = 48; // length of ID specific data line
-      final int OFS_PR = 9;  // line index of presence status
-      final int OFS_VB = 14; // line index of battery voltage (+next 3 values)
-      final int OFS_TR = 24; // line index of total runtime
-      final int OFS_TD = 37; // line index of status duration
-      
-      /*
-       * Offsets for system data
-       */
-      final int OFS_LLS = 28;    // length of system specific data line
-      final int OFS_BS = 1440 + 9; // offset to first receiver bus status
-//      final int OFS_RX = 3;    // index of receiver connection status   
-      final int OFS_RT = 1440 + 16; // index of receiver selftest
-      
-      final int OFS_TMP = 1606; // index of system temperature
-      
-      
-      final int OFS_ASCII = 48; // subtract to get integer
-      
-      // ---------------------------------------------------
-
-      // other variables
-      byte LOCK_TIMEBASE_PRESET = 100; // time/ms to sleep before retry
-      byte LOCK_TIMEOUT_PRESET = 80; // retries before timeout
-      
-
-      while (runGuard) // inner loop: aquire data from hardware
-      {
-        try
-        {
-          // send request
-          txbuffer = CMD_GET_MSG.getBytes();
-          CommandPacket.setData(txbuffer, 0, CMD_GET_MSG.length());
-          UDPsocket.send(CommandPacket);
-
-          // ---------------------------------------------------
-          // wait for response
-
-          try
-          {
-            UDPsocket.receive(ResponsePacket);
-            RX_success = true;
-//            System.out.println("Reception successful");
-            connectionStatus = true;
-          }
-          catch (SocketTimeoutException e1)
-          {
-            System.out.println("Timeout " + e1);
-            // UDPsocket.close();
-
-            RX_success = false;
-            connectionStatus = false;
-          }
-
-          
-          if (RX_success)
-          {
-//TEST:     print received data to console
-            
-//            String receivedString = new String(rxbuffer);
-//            System.out.println(receivedString);
-
-            // decode received data
-            
-//TEST: override TableLock
-//            TableLock = false;
-            
-            switch (TableToggle)
-            {
-              case 0:
-                {
-                  // Table 0 active -> write to inactive Table 1
-                  for (int m = 0; m < 30; m++)
-                  {
-                    temp = 0;
-                    PresenceTable1[m][IND_PRES] = (rxbuffer[OFS_PR + (m * OFS_LLD)] - OFS_ASCII); // presence status
-                    for (int sc = 0; sc < 4; sc++)
-                      temp += (rxbuffer[VoltageOffset + (m * OFS_LLD) + sc] - OFS_ASCII) * Math.pow(10, (3 - sc));
-                    PresenceTable1[m][IND_VBAT] = temp; // voltage
-    
-                    temp = 0;
-                    for (int sc = 0; sc < 6; sc++)
-                      temp += (rxbuffer[OFS_TR + (m * OFS_LLD) + sc] - OFS_ASCII) * Math.pow(10, (5 - sc));
-                    PresenceTable1[m][IND_TTOT] = temp; // runtime
-                    
-                    temp = 0;
-                    for (int sc = 0; sc < 6; sc++)
-                      temp += (rxbuffer[OFS_TD + (m * OFS_LLD) + sc] - OFS_ASCII) * Math.pow(10, (5 - sc));
-                    PresenceTable1[m][IND_TDUR] = temp; // runtime
-                  }
-
-                  for (int m = 0; m < 5; m++)
-                  {
-                    SystemTable1[m][0] = (rxbuffer[OFS_BS + (m * StatPeriode)] - OFS_ASCII); // Bus on/off
-                    for (int n = 0; n < 5; n++)
-                      SystemTable1[m][n + 1] = (rxbuffer[OFS_RT + (n * 2) + (m * OFS_LLS)] - OFS_ASCII);  // interconnection status
-                  }
-                  
-                  temp = 0;
-                  temp += (rxbuffer[OFS_TMP] - OFS_ASCII) * Math.pow(10, 2);
-                  temp += (rxbuffer[OFS_TMP+1] - OFS_ASCII) * Math.pow(10, 1);
-                  temp += (rxbuffer[OFS_TMP+3] - OFS_ASCII);
-                  SystemTemp1 = temp;
-                  
-                  int LockTimeout = LOCK_TIMEOUT_PRESET;
-                  while (TableLock == true)
-                  {
-                    Thread.sleep(LOCK_TIMEBASE_PRESET); // wait for 100ms, then
-                                                        // check again
-                    if ((LockTimeout--) == 0)
-                    {
-                      // handle timeout
-                      System.out.println("AccessController ERROR: Data toggle is blocked");
-                      break;
-                    }
-                  }
-                  if (TableLock == false)
-                  {
-                    TableToggle = 1; // switch over to updated Buffer
-                  }
-    
-                  break;
-                }
-              case 1:
-                {
-                  // Table 1 active -> write to inactive Table 0
-                  for (int m = 0; m < 30; m++)
-                  {
-                    temp = 0;
-                    PresenceTable0[m][IND_PRES] = (rxbuffer[OFS_PR + (m * OFS_LLD)] - OFS_ASCII); // presence status
-                    for (int sc = 0; sc < 4; sc++)
-                      temp += (rxbuffer[VoltageOffset + (m * OFS_LLD) + sc] - OFS_ASCII) * Math.pow(10, (3 - sc));
-                    PresenceTable0[m][IND_VBAT] = temp; // voltage
-    
-                    temp = 0;
-                    for (int sc = 0; sc < 6; sc++)
-                      temp += (rxbuffer[OFS_TR + (m * OFS_LLD) + sc] - OFS_ASCII) * Math.pow(10, (5 - sc));
-                    PresenceTable0[m][IND_TTOT] = temp; // runtime
-                    
-                    temp = 0;
-                    for (int sc = 0; sc < 6; sc++)
-                      temp += (rxbuffer[OFS_TD + (m * OFS_LLD) + sc] - OFS_ASCII) * Math.pow(10, (5 - sc));
-                    PresenceTable0[m][IND_TDUR] = temp; // runtime              
-                  }
-
-                  for (int m = 0; m < 5; m++)
-                  {
-                    SystemTable0[m][0] = (rxbuffer[OFS_BS + (m * StatPeriode)] - OFS_ASCII); // Bus on/off
-                    for (int n = 0; n < 5; n++)
-                      SystemTable0[m][n + 1] = (rxbuffer[OFS_RT + (n * 2) + (m * OFS_LLS)] - OFS_ASCII);  // interconnection status
-                  }
-                  
-                  temp = 0;
-                  temp += (rxbuffer[OFS_TMP] - OFS_ASCII) * 100;
-                  temp += (rxbuffer[OFS_TMP+1] - OFS_ASCII) * 10;
-                  temp += (rxbuffer[OFS_TMP+3] - OFS_ASCII);
-                  SystemTemp0 = temp;
-                  
-                  int LockTimeout = LOCK_TIMEOUT_PRESET;
-                  while (TableLock == true)
-                  {
-                    Thread.sleep(LOCK_TIMEBASE_PRESET); // wait for 100ms, then
-                                                        // check again
-                    if ((LockTimeout--) == 0)
-                    {
-                      // handle timeout
-                      System.out.println("AccessController ERROR: Data toggle is blocked");
-                      break;
-                    }
-                  }
-                  if (TableLock == false)
-                  {
-                    TableToggle = 0; // switch over to updated Buffer                   
-                  }
-                  break;
-                }
-              default:
-                {
-                  // out of bounds -> reset to 0
-                  TableToggle = 0;
-                  // exeption, error, ...
-                  break;
-                }
-            }
-          }
-          else
-          {
-            // RX unsuccessful
-          }
-          
-          try
-          {
-            setChanged();
-            notifyObservers(NOTIFY_STATE);
-          }
-          catch(Exception e)
-          {
-            System.out.println("ERROR: "+e);
-          }
-
-          Thread.sleep(SLEEPTIME_PRESET);
-        }
-        catch (InterruptedException e1)
-        {
-          // socket error
-          connectionStatus = false;
-          System.out.println("AccessControl UDP Socket Error " + e1);
-        }
-        catch (SocketTimeoutException e2)
-        {
-          // timeout
-          connectionStatus = false;
-          System.out.println("AccessControl UDP Socket Timeout " + e2);
-        }
-      }
+      setChanged();
+      notifyObserversAsync(hint);
     }
-    catch (Exception e)
+    catch(Exception e)
     {
-      System.out.println("Thread Error: " +e);
-      // Thread error
-      // reset everything
+      System.out.println("ERROR: "+e);
     }
   }
 
   @Override
   public void dispose() throws IllegalStateException
   {
-    // Gracefully terminate guard thread
-    if (guard!=null)
+    // Stop polling and close the UDP channel
+    pollTimer.cancel();
+    IoReactor.getInstance().execute(() -> 
     {
-      runGuard = false;
-      try 
-      {
-        guard.interrupt();
-        guard.join();
-      } 
-      catch (Exception e) 
-      { 
-        logErr("Error disposing AccessController",e);
-      }
-    }
-    guard = null;
+      if (replyTimer!=null)
+        replyTimer.cancel();
+      replyTimer = null;
+    });
+    channel.dispose();
     
     super.dispose();
   }
@@ -639,238 +408,117 @@ public class AccessController extends AAtomicHardware implements Runnable
        * if > 2d -> in days
        */
       
-      TableLock = true; // Acquire Lock
+      if (NOTIFY_PRESENCE.equals(arg))
+        return; // Followed by NOTIFY_STATE
+      AccessControlStatus status = AccessController.this.status;
       
-      switch (TableToggle)
+      for(int c = 0; c < 30; c++)
       {
-      case 0: // Read table 0
+        switch(status.getPresence(c))
         {
-          for(int c = 0; c < 30; c++)
+          case 0:
           {
-            switch(PresenceTable0[c][IND_PRES])
-            {
-              case 0:
-              {
-                if(PresenceTable0[c][IND_VBAT] == 0)
-                {
-                  // Device has no battery installed
-                  ePresField[c].setValue("OFFLINE");
-                  ePresField[c].setColor(COLOR_NORMAL);
-                  eTimeField[c].setColor(COLOR_NORMAL);
-                  eVoltField[c].setColor(COLOR_NORMAL);
-                  eFillPres[c].setColor(COLOR_NORMAL);
-                  eFillTime[c].setColor(COLOR_NORMAL);
-                  eFillVolt[c].setColor(COLOR_NORMAL);
-                }
-                else
-                {
-                  // Device is in use
-                  ePresField[c].setValue("ABSENT");
-                  ePresField[c].setColor(COLOR_ABSENT);
-                  eTimeField[c].setColor(COLOR_ABSENT);
-                  eVoltField[c].setColor(COLOR_ABSENT);
-                  eFillPres[c].setColor(COLOR_ABSENT);
-                  eFillTime[c].setColor(COLOR_ABSENT);
-                  eFillVolt[c].setColor(COLOR_ABSENT);
-                }
-
-                break;
-              }
-              case 1:
-              {
-                ePresField[c].setValue("NEARBY");
-                ePresField[c].setColor(COLOR_ACTIVE);
-                eTimeField[c].setColor(COLOR_ACTIVE);
-                eVoltField[c].setColor(COLOR_ACTIVE);
-                eFillPres[c].setColor(COLOR_ACTIVE);
-                eFillTime[c].setColor(COLOR_ACTIVE);
-                eFillVolt[c].setColor(COLOR_ACTIVE);
-                
-                break;
-              }
-              case 2:
-              {
-                ePresField[c].setValue("PRESENT");
-                ePresField[c].setColor(COLOR_ACTIVE);
-                eTimeField[c].setColor(COLOR_ACTIVE);
-                eVoltField[c].setColor(COLOR_ACTIVE);
-                eFillPres[c].setColor(COLOR_ACTIVE);
-                eFillTime[c].setColor(COLOR_ACTIVE);
-                eFillVolt[c].setColor(COLOR_ACTIVE);
-                break;
-              }
-              default:
-              {
-                ePresField[c].setValue("OFFLINE");
-                ePresField[c].setColor(COLOR_NORMAL);
-                eTimeField[c].setColor(COLOR_NORMAL);
-                eVoltField[c].setColor(COLOR_NORMAL);
-                eFillPres[c].setColor(COLOR_NORMAL);
-                eFillTime[c].setColor(COLOR_NORMAL);
-                eFillVolt[c].setColor(COLOR_NORMAL);
-                break;
-              }
-            }
-
-            
-            if((PresenceTable0[c][IND_TDUR] >= 0) && (PresenceTable0[c][IND_TDUR] < 180)) // if < 180min -> display in min
-            {
-              eTimeField[c].setValue(PresenceTable0[c][IND_TDUR]+" MIN");
-            }
-            else if ((PresenceTable0[c][IND_TDUR] >= 180) && (PresenceTable0[c][IND_TDUR] <= 2880)) // if between 3 to 42h -> display in h
+            if(status.getVoltage(c) == 0)
             {
-              eTimeField[c].setValue((PresenceTable0[c][IND_TDUR]/60)+" H");
+              // Device has no battery installed
+              ePresField[c].setValue("OFFLINE");
+              ePresField[c].setColor(COLOR_NORMAL);
+              eTimeField[c].setColor(COLOR_NORMAL);
+              eVoltField[c].setColor(COLOR_NORMAL);
+              eFillPres[c].setColor(COLOR_NORMAL);
+              eFillTime[c].setColor(COLOR_NORMAL);
+              eFillVolt[c].setColor(COLOR_NORMAL);
             }
-            else// if more than 48h -> display in d
+            else
             {
-              eTimeField[c].setValue((PresenceTable0[c][IND_TDUR]/1440)+" D");
+              // Device is in use
+              ePresField[c].setValue("ABSENT");
+              ePresField[c].setColor(COLOR_ABSENT);
+              eTimeField[c].setColor(COLOR_ABSENT);
+              eVoltField[c].setColor(COLOR_ABSENT);
+              eFillPres[c].setColor(COLOR_ABSENT);
+              eFillTime[c].setColor(COLOR_ABSENT);
+              eFillVolt[c].setColor(COLOR_ABSENT);
             }
 
-            eVoltField[c].setValue(((PresenceTable0[c][IND_VBAT]/10)/100.0)+" V");
+            break;
           }
-          
-          /*########## system status ###########*/
-          
-          for (int n = 0; n <= 4; n++)
+          case 1:
           {
-            if (SystemTable0[n][0] == 0)
-            {
-              eStatusField[n].setValue(""+(n+1));
-              eStatusField[n].setColor(COLOR_ERROR);
-            }
-            else
-            {
-              if (isConnected() == false) eStatusField[n].setColor(COLOR_ERROR);
-              else
-              {
-                eStatusField[n].setValue(""+(n+1)); 
-                eStatusField[n].setColor(COLOR_NORMAL);
-              }
-            }
+            ePresField[c].setValue("NEARBY");
+            ePresField[c].setColor(COLOR_ACTIVE);
+            eTimeField[c].setColor(COLOR_ACTIVE);
+            eVoltField[c].setColor(COLOR_ACTIVE);
+            eFillPres[c].setColor(COLOR_ACTIVE);
+            eFillTime[c].setColor(COLOR_ACTIVE);
+            eFillVolt[c].setColor(COLOR_ACTIVE);
+            
+            break;
           }
-          
-          // Temperature
-          eStatusField[6].setValue((SystemTemp0 / 10)+"."+(SystemTemp0 - (SystemTemp0 / 10)*10)+"°C");
-          
-          break;
-        }
-      case 1: // Read table 1
-        {
-          for(int c = 0; c < 30; c++)
+          case 2:
           {
-            switch(PresenceTable1[c][0])
-            {
-              case 0:
-              {
-                if(PresenceTable1[c][IND_VBAT] == 0)
-                {
-                  // Device has no battery installed
-                  ePresField[c].setValue("OFFLINE");
-                  ePresField[c].setColor(COLOR_NORMAL);
-                  eTimeField[c].setColor(COLOR_NORMAL);
-                  eVoltField[c].setColor(COLOR_NORMAL);
-                  eFillPres[c].setColor(COLOR_NORMAL);
-                  eFillTime[c].setColor(COLOR_NORMAL);
-                  eFillVolt[c].setColor(COLOR_NORMAL);
-                }
-                else
-                {
-                  // Device is in use
-                  ePresField[c].setValue("ABSENT");
-                  ePresField[c].setColor(COLOR_ABSENT);
-                  eTimeField[c].setColor(COLOR_ABSENT);
-                  eVoltField[c].setColor(COLOR_ABSENT);
-                  eFillPres[c].setColor(COLOR_ABSENT);
-                  eFillTime[c].setColor(COLOR_ABSENT);
-                  eFillVolt[c].setColor(COLOR_ABSENT);
-                }
-                break;
-              }
-              case 1:
-              {
-                ePresField[c].setValue("NEARBY");
-                ePresField[c].setColor(COLOR_ACTIVE);
-                eTimeField[c].setColor(COLOR_ACTIVE);
-                eVoltField[c].setColor(COLOR_ACTIVE);
-                eFillPres[c].setColor(COLOR_ACTIVE);
-                eFillTime[c].setColor(COLOR_ACTIVE);
-                eFillVolt[c].setColor(COLOR_ACTIVE);
-                
-                break;
-              }
-              case 2:
-              {
-                ePresField[c].setValue("PRESENT");
-                ePresField[c].setColor(COLOR_ACTIVE);
-                eTimeField[c].setColor(COLOR_ACTIVE);
-                eVoltField[c].setColor(COLOR_ACTIVE);
-                eFillPres[c].setColor(COLOR_ACTIVE);
-                eFillTime[c].setColor(COLOR_ACTIVE);
-                eFillVolt[c].setColor(COLOR_ACTIVE);
-                break;
-              }
-              default:
-              {
-                ePresField[c].setValue("OFFLINE");
-                ePresField[c].setColor(COLOR_NORMAL);
-                eTimeField[c].setColor(COLOR_NORMAL);
-                eVoltField[c].setColor(COLOR_NORMAL);
-                eFillPres[c].setColor(COLOR_NORMAL);
-                eFillTime[c].setColor(COLOR_NORMAL);
-                eFillVolt[c].setColor(COLOR_NORMAL);
-                break;
-              }
-            }
-
-            
-            if((PresenceTable1[c][IND_TDUR] >= 0) && (PresenceTable1[c][IND_TDUR] < 180)) // if < 180min -> display in min
-            {
-              eTimeField[c].setValue(PresenceTable1[c][IND_TDUR]+" MIN");
-            }
-            else if ((PresenceTable1[c][IND_TDUR] >= 180) && (PresenceTable1[c][IND_TDUR] <= 2880)) // if between 3 to 42h -> display in h
-            {
-              eTimeField[c].setValue((PresenceTable1[c][IND_TDUR]/60)+" H");
-            }
-            else// if more than 48h -> display in d
-            {
-              eTimeField[c].setValue((PresenceTable1[c][IND_TDUR]/1440)+" D");
-            }
-            
-            
-            eVoltField[c].setValue(((PresenceTable1[c][IND_VBAT]/10)/100.0)+" V");
+            ePresField[c].setValue("PRESENT");
+            ePresField[c].setColor(COLOR_ACTIVE);
+            eTimeField[c].setColor(COLOR_ACTIVE);
+            eVoltField[c].setColor(COLOR_ACTIVE);
+            eFillPres[c].setColor(COLOR_ACTIVE);
+            eFillTime[c].setColor(COLOR_ACTIVE);
+            eFillVolt[c].setColor(COLOR_ACTIVE);
+            break;
           }
-          
-          /*########## system status ###########*/
-          
-          for (int n = 0; n <= 4; n++)
+          default:
           {
-            if (SystemTable1[n][0] == 0)
-            {
-              eStatusField[n].setValue(""+(n+1));
-              eStatusField[n].setColor(COLOR_ERROR);
-            }
-            else
-            {
-              if (isConnected() == false) eStatusField[n].setColor(COLOR_ERROR);
-              else
-              {
-                eStatusField[n].setValue(""+(n+1));   
-                eStatusField[n].setColor(COLOR_NORMAL);
-              }
-              
-            }
+            ePresField[c].setValue("OFFLINE");
+            ePresField[c].setColor(COLOR_NORMAL);
+            eTimeField[c].setColor(COLOR_NORMAL);
+            eVoltField[c].setColor(COLOR_NORMAL);
+            eFillPres[c].setColor(COLOR_NORMAL);
+            eFillTime[c].setColor(COLOR_NORMAL);
+            eFillVolt[c].setColor(COLOR_NORMAL);
+            break;
           }
-          
-       // Temperature
-          eStatusField[6].setValue((SystemTemp1 / 10)+"."+(SystemTemp1 - (SystemTemp1 / 10)*10)+"°C");
-          break;
         }
-      default:
+
+        
+        if((status.getStatusDuration(c) >= 0) && (status.getStatusDuration(c) < 180)) // if < 180min -> display in min
+        {
+          eTimeField[c].setValue(status.getStatusDuration(c)+" MIN");
+        }
+        else if ((status.getStatusDuration(c) >= 180) && (status.getStatusDuration(c) <= 2880)) // if between 3 to 42h -> display in h
+        {
+          eTimeField[c].setValue((status.getStatusDuration(c)/60)+" H");
+        }
+        else// if more than 48h -> display in d
+        {
+          eTimeField[c].setValue((status.getStatusDuration(c)/1440)+" D");
+        }
+
+        eVoltField[c].setValue(((status.getVoltage(c)/10)/100.0)+" V");
+      }
+      
+      /*########## system status ###########*/
+      
+      for (int n = 0; n <= 4; n++)
+      {
+        if (status.getBusStatus(n) == 0)
+        {
+          eStatusField[n].setValue(""+(n+1));
+          eStatusField[n].setColor(COLOR_ERROR);
+        }
+        else
         {
-          // out of  bounds
-          break;
+          if (isConnected() == false) eStatusField[n].setColor(COLOR_ERROR);
+          else
+          {
+            eStatusField[n].setValue(""+(n+1)); 
+            eStatusField[n].setColor(COLOR_NORMAL);
+          }
         }
       }
+      
+      // Temperature
+      int temp = status.getTemperature();
+      eStatusField[6].setValue((temp / 10)+"."+(temp - (temp / 10)*10)+"°C");
 
       // global connection status
       if (isConnected() == true)
@@ -888,8 +536,6 @@ public class AccessController extends AAtomicHardware implements Runnable
         eFillField[1].setColor(COLOR_ERROR);
       }
 
-      TableLock = false; // release Lock
-      
 //      System.out.println("update complete");
 
     }
@@ -897,100 +543,69 @@ public class AccessController extends AAtomicHardware implements Runnable
   
   // -- Data access methods --
   
+  /**
+   * Returns the most recently received status. The method does not block, the
+   * returned snapshot is immutable.
+   */
+  public AccessControlStatus getStatus()
+  {
+    return status;
+  }
+  
   public boolean isPresent(int ID) throws IllegalArgumentException
   {
     if ((ID < 1) || (ID > 30)) throw new IllegalArgumentException();
-    
-    switch(TableToggle)
-    {
-        case 0:
-        {
-            if (PresenceTable0[ID][IND_PRES] == 2) return true;
-            else return false;
-        }
-        case 1:
-        {
-            if (PresenceTable1[ID][IND_PRES] == 2) return true;
-            else return false;
-        }
-        default:
-        {
-            break;
-        }
-    }
-    return false;
+    return status.getPresence(ID-1) == AccessControlStatus.PRESENT;
   }
   
   public boolean isNearby(int ID) throws IllegalArgumentException
   {
     if ((ID < 1) || (ID > 30)) throw new IllegalArgumentException();
-    
-    switch(TableToggle)
-    {
-        case 0:
-        {
-            if (PresenceTable0[ID][IND_PRES] == 1) return true;
-            else return false;
-        }
-        case 1:
-        {
-            if (PresenceTable1[ID][IND_PRES] == 1) return true;
-            else return false;
-        }
-        default:
-        {
-            break;
-        }
-    }
-    return false;
+    return status.getPresence(ID-1) == AccessControlStatus.NEARBY;
   }
   
   public boolean isAbsent(int ID) throws IllegalArgumentException
   {
     if ((ID < 1) || (ID > 30)) throw new IllegalArgumentException();
-    
-    switch(TableToggle)
-    {
-        case 0:
-        {
-            if (PresenceTable0[ID][IND_PRES] == 0) return true;
-            else return false;
-        }
-        case 1:
-        {
-            if (PresenceTable1[ID][IND_PRES] == 0) return true;
-            else return false;
-        }
-        default:
-        {
-            break;
-        }
-    }
-    return false;
+    return status.getPresence(ID-1) == AccessControlStatus.ABSENT;
   }
   
   public boolean isBusOn(int RxID) throws IllegalArgumentException
   {
     if ((RxID < 1) || (RxID > 5)) throw new IllegalArgumentException();
-    
-    switch(TableToggle)
-    {
-        case 0:
-        {
-            if (SystemTable0[RxID][0] == 1) return true;
-            else return false;
-        }
-        case 1:
-        {
-            if (SystemTable1[RxID][0] == 1) return true;
-            else return false;
-        }
-        default:
-        {
-            break;
-        }
-    }
-    return false;
+    return status.getBusStatus(RxID-1) == 1;
+  }
+  
+  /**
+   * Returns the number of data requests sent.
+   */
+  public long getRequests()
+  {
+    return requests;
+  }
+  
+  /**
+   * Returns the number of responses received.
+   */
+  public long getResponses()
+  {
+    return responses;
+  }
+  
+  /**
+   * Returns the number of data requests which were not answered in time.
+   */
+  public long getTimeouts()
+  {
+    return timeouts;
+  }
+  
+  /**
+   * Returns the number of responses which could not be decoded.
+   */
+  public long getMalformed()
+  {
+    return malformed;
   }
   
   // -- LCARS Low-level Hardware Access Panel --
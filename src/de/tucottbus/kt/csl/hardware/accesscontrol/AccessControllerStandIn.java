@@ -0,0 +1,254 @@
+package de.tucottbus.kt.csl.hardware.accesscontrol;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Local UDP stand-in for the access controller (RasPi), used for testing
+ * {@link AccessController} without hardware.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The stand-in listens on the loopback interface and answers each
+ *     <code>GET_MESSAGE</code> request with the next of a list of captured
+ *     datagrams, starting over after the last one. Other requests are
+ *     ignored.</li>
+ *   <li>Captured datagrams can be {@linkplain #load(File...) loaded from
+ *     files}, one datagram per file, or {@linkplain #createDatagram(int[],
+ *     int[], int[], int[], int) synthesized}.</li>
+ *   <li>The stand-in can be {@linkplain #setMuted(boolean) muted} to simulate
+ *     a lost connection.</li>
+ * </ul>
+ */
+public class AccessControllerStandIn implements Runnable, Closeable
+{
+  private static final String CMD_GET_MSG = "GET_MESSAGE";
+
+  private final DatagramSocket socket;
+
+  private final List<byte[]> datagrams;
+
+  private Thread thread;
+
+  private volatile boolean running;
+
+  private volatile boolean muted;
+
+  private volatile int next;
+
+  private volatile long requests;
+
+  private volatile long replies;
+
+  /**
+   * Creates a new stand-in access controller.
+   *
+   * @param port
+   *          The UDP port, 0 for any free port.
+   * @param datagrams
+   *          The datagrams to replay, at least one.
+   * @throws IOException
+   *           if the socket cannot be opened.
+   */
+  public AccessControllerStandIn(int port, List<byte[]> datagrams)
+  throws IOException
+  {
+    if (datagrams==null || datagrams.isEmpty())
+      throw new IllegalArgumentException("No datagrams to replay");
+    this.datagrams = new ArrayList<byte[]>(datagrams);
+    this.socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(),port));
+  }
+
+  /**
+   * Starts serving requests.
+   */
+  public synchronized void start()
+  {
+    if (thread!=null)
+      return;
+    running = true;
+    thread = new Thread(this,getClass().getSimpleName()+":"+getPort());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public void close()
+  {
+    running = false;
+    socket.close();
+    Thread thread;
+    synchronized (this)
+    {
+      thread = this.thread;
+      this.thread = null;
+    }
+    if (thread!=null)
+      try { thread.join(); } catch (InterruptedException e) {}
+  }
+
+  // -- Getters and setters --
+
+  /**
+   * Returns the UDP port.
+   */
+  public int getPort()
+  {
+    return socket.getLocalPort();
+  }
+
+  /**
+   * Returns the address requests are to be sent to.
+   */
+  public SocketAddress getAddress()
+  {
+    return socket.getLocalSocketAddress();
+  }
+
+  /**
+   * Mutes or unmutes the stand-in. A muted stand-in receives requests but does
+   * not reply.
+   */
+  public void setMuted(boolean muted)
+  {
+    this.muted = muted;
+  }
+
+  /**
+   * Sets the index of the datagram sent in reply to the next request.
+   */
+  public void setNext(int index)
+  {
+    this.next = index%datagrams.size();
+  }
+
+  /**
+   * Returns the number of requests received.
+   */
+  public long getRequests()
+  {
+    return requests;
+  }
+
+  /**
+   * Returns the number of replies sent.
+   */
+  public long getReplies()
+  {
+    return replies;
+  }
+
+  // -- Server --
+
+  @Override
+  public void run()
+  {
+    final byte[] buffer = new byte[64];
+    DatagramPacket request = new DatagramPacket(buffer,buffer.length);
+    while (running)
+      try
+      {
+        request.setLength(buffer.length);
+        socket.receive(request);
+        String command = new String(buffer,0,request.getLength(),StandardCharsets.US_ASCII);
+        if (!CMD_GET_MSG.equals(command.trim()))
+          continue;
+        requests++;
+        if (muted)
+          continue;
+        int index = next;
+        next = (index+1)%datagrams.size();
+        byte[] datagram = datagrams.get(index);
+        socket.send(new DatagramPacket(datagram,datagram.length,request.getSocketAddress()));
+        replies++;
+      }
+      catch (IOException e)
+      {
+        // Socket closed
+      }
+  }
+
+  // -- Datagrams --
+
+  /**
+   * Loads captured datagrams, one per file.
+   *
+   * @param files
+   *          The files.
+   * @return The datagrams.
+   * @throws IOException
+   *           on read errors.
+   */
+  public static List<byte[]> load(File... files)
+  throws IOException
+  {
+    List<byte[]> datagrams = new ArrayList<byte[]>(files.length);
+    for (File file : files)
+      datagrams.add(Files.readAllBytes(file.toPath()));
+    return datagrams;
+  }
+
+  /**
+   * Synthesizes a datagram in the layout of the access controller. Only the
+   * fields decoded by {@link AccessControlStatus} are filled in, the rest is
+   * blank.
+   *
+   * @param presence
+   *          The presence status of the 30 devices (0..2).
+   * @param voltage
+   *          The battery voltages of the 30 devices in millivolts (4 digits).
+   * @param totalRuntime
+   *          The total runtimes of the 30 devices in minutes (6 digits).
+   * @param statusDuration
+   *          The status durations of the 30 devices in minutes (6 digits).
+   * @param temperature
+   *          The system temperature in tenths of a degree Celsius (3 digits).
+   * @return The datagram.
+   */
+  public static byte[] createDatagram(int[] presence, int[] voltage,
+    int[] totalRuntime, int[] statusDuration, int temperature)
+  {
+    byte[] b = new byte[AccessControlStatus.MIN_LENGTH];
+    Arrays.fill(b,(byte)' ');
+    for (int m=0; m<AccessControlStatus.DEVICES; m++)
+    {
+      int line = m*AccessControlStatus.OFS_LLD;
+      put(b,line+AccessControlStatus.OFS_PR,presence[m],1);
+      put(b,line+AccessControlStatus.OFS_VB,voltage[m],4);
+      put(b,line+AccessControlStatus.OFS_TR,totalRuntime[m],6);
+      put(b,line+AccessControlStatus.OFS_TD,statusDuration[m],6);
+      b[line+AccessControlStatus.OFS_LLD-1] = '\n';
+    }
+    for (int m=0; m<AccessControlStatus.RECEIVERS; m++)
+    {
+      int line = AccessControlStatus.OFS_BS+m*AccessControlStatus.OFS_LLS;
+      put(b,line,1,1); // Bus on
+      for (int n=0; n<AccessControlStatus.RECEIVERS; n++)
+        put(b,AccessControlStatus.OFS_RT+n*2+m*AccessControlStatus.OFS_LLS,1,1);
+    }
+    put(b,AccessControlStatus.OFS_TMP,temperature/10,2);
+    b[AccessControlStatus.OFS_TMP+2] = '.';
+    put(b,AccessControlStatus.OFS_TMP+3,temperature%10,1);
+    return b;
+  }
+
+  private static void put(byte[] b, int index, int value, int digits)
+  {
+    for (int i=digits-1; i>=0; i--, value/=10)
+      b[index+i] = (byte)('0'+value%10);
+  }
+
+}
+
+// EOF
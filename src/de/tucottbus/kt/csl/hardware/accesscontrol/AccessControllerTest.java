@@ -0,0 +1,142 @@
+package de.tucottbus.kt.csl.hardware.accesscontrol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import de.tucottbus.kt.csl.test.TestReport;
+
+/**
+ * Tests the status decoding of {@link AccessController} against an {@link
+ * AccessControllerStandIn}: decoded values, presence change notifications,
+ * detection of a lost connection and decoding time.
+ */
+public class AccessControllerTest
+{
+
+  private static boolean waitFor(BooleanSupplier condition, long millis)
+  {
+    long deadline = System.currentTimeMillis()+millis;
+    while (System.currentTimeMillis()<deadline)
+    {
+      if (condition.getAsBoolean())
+        return true;
+      try { Thread.sleep(10); } catch (InterruptedException e) {}
+    }
+    return false;
+  }
+
+  /**
+   * Synthesizes a datagram in which device <code>present</code> is present,
+   * device <code>present</code>+1 is nearby and all other devices are absent.
+   */
+  private static byte[] datagram(int present)
+  {
+    int n = AccessControlStatus.DEVICES;
+    int[] presence = new int[n];
+    int[] voltage = new int[n];
+    int[] totalRuntime = new int[n];
+    int[] statusDuration = new int[n];
+    for (int m=0; m<n; m++)
+    {
+      voltage[m] = 2900+m;
+      totalRuntime[m] = 100000+m;
+      statusDuration[m] = 10*m;
+    }
+    presence[present] = AccessControlStatus.PRESENT;
+    presence[(present+1)%n] = AccessControlStatus.NEARBY;
+    return AccessControllerStandIn.createDatagram(presence,voltage,totalRuntime,
+      statusDuration,234);
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    TestReport report = new TestReport();
+
+    // Decoding
+    byte[] bytes = datagram(3);
+    ByteBuffer direct = ByteBuffer.allocateDirect(1700);
+    direct.put(bytes).flip();
+    AccessControlStatus s = AccessControlStatus.decode(direct,1);
+    report.check("decode presence",s.getPresence(3)==AccessControlStatus.PRESENT
+      && s.getPresence(4)==AccessControlStatus.NEARBY
+      && s.getPresence(5)==AccessControlStatus.ABSENT);
+    report.check("decode voltage, runtime, duration",s.getVoltage(29)==2929
+      && s.getTotalRuntime(7)==100007 && s.getStatusDuration(12)==120);
+    report.check("decode receivers and temperature",s.getBusStatus(4)==1
+      && s.getSelfTest(4,4)==1 && s.getTemperature()==234);
+    report.check("decode leaves buffer unchanged",direct.position()==0
+      && direct.limit()==bytes.length);
+    boolean thrown = false;
+    try
+    {
+      AccessControlStatus.decode(ByteBuffer.wrap(bytes,0,100),2);
+    }
+    catch (IllegalArgumentException e)
+    {
+      thrown = true;
+    }
+    report.check("short datagram rejected",thrown);
+
+    // Decoding time
+    int runs = 200000;
+    long sum = 0;
+    for (int i=0; i<runs; i++)
+      sum += AccessControlStatus.decode(direct,i).getPresence(i%30);
+    long t0 = System.nanoTime();
+    for (int i=0; i<runs; i++)
+      sum += AccessControlStatus.decode(direct,i).getPresence(i%30);
+    long t1 = System.nanoTime();
+    report.info("decoding: %.0f ns per datagram (%d)",
+      (double)(t1-t0)/runs,sum%2);
+
+    // Replay
+    List<byte[]> datagrams = new ArrayList<byte[]>();
+    for (int i=0; i<4; i++)
+      datagrams.add(datagram(i));
+    AccessControllerStandIn standIn = new AccessControllerStandIn(0,datagrams);
+    standIn.start();
+    AccessController controller = new AccessController(standIn.getAddress());
+    final AtomicLong presenceChanges = new AtomicLong();
+    controller.addObserver((o,arg) ->
+    {
+      if (AccessController.NOTIFY_PRESENCE.equals(arg))
+        presenceChanges.incrementAndGet();
+    });
+    report.check("connected",waitFor(controller::isConnected,3000));
+    report.check("replayed status",waitFor(() -> controller.getStatus().getSequence()>=3,5000));
+    // Each replayed datagram changes the presence status, the hints are
+    // delivered asynchronously and coalesce until delivered
+    report.check("presence change notified",waitFor(() -> presenceChanges.get()>0,3000)
+      && presenceChanges.get()<=controller.getResponses());
+    AccessControlStatus status = controller.getStatus();
+    int present = -1;
+    for (int m=0; m<AccessControlStatus.DEVICES; m++)
+      if (status.getPresence(m)==AccessControlStatus.PRESENT)
+        present = m;
+    report.check("queries match snapshot",present>=0 && controller.isPresent(present+1)
+      && controller.isNearby(present+2) && controller.isAbsent(present==0?30:present)
+      && controller.isBusOn(5));
+
+    // Lost connection
+    standIn.setMuted(true);
+    long muteAt = System.currentTimeMillis();
+    report.check("timeout detected",waitFor(() -> !controller.isConnected(),3000));
+    report.info("timeout detected after %d ms",
+      System.currentTimeMillis()-muteAt);
+    standIn.setMuted(false);
+    report.check("reconnected",waitFor(controller::isConnected,3000));
+    report.info("%d requests, %d responses, %d timeouts, %d malformed",
+      controller.getRequests(),controller.getResponses(),controller.getTimeouts(),
+      controller.getMalformed());
+    controller.dispose();
+    standIn.close();
+
+    report.exit();
+  }
+
+}
+
+// EOF
@@ -1,8 +1,8 @@
 package de.tucottbus.kt.csl.hardware.audio.input;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Class contain basic methods to initialize and control 
@@ -32,8 +32,8 @@ public abstract class AHammerfallAudioDevice extends APortAudioInputDevice {
 
   protected float[] volumeMixer;
   
-  //list with audio observers
-  protected List<IAudioListener> audioListeners = new ArrayList<IAudioListener>();
+  //list with audio observers, may be modified while the audio callback iterates it
+  protected List<IAudioListener> audioListeners = new CopyOnWriteArrayList<IAudioListener>();
 
   /**
    * float[] of audio input data
@@ -520,6 +520,16 @@ UhJvEAAAAABJRU5ErkJggg==">
     return (float) (10 * Math.log10(levelsMs[channel]));
   }
   
+  /**
+   * Returns the raw, interleaved audio input data of the current block (sample
+   * 0 of all channels, sample 1 of all channels, and so on). The buffer is
+   * overwritten by the next block, {@link IAudioListener}s must copy the data
+   * in {@link IAudioListener#notifyAudioEvent()}.
+   */
+  public float[] getInBuffer() {
+    return inBuffer;
+  }
+
   //Method return outbuffer.
   public float[][] getOutBuffer() {
 
@@ -14,6 +14,8 @@ import com.github.rjeschke.jpa.PaStreamParameters;
 
 import de.tucottbus.kt.csl.hardware.AAtomicHardware;
 import de.tucottbus.kt.csl.hardware.AHardware;
+import de.tucottbus.kt.csl.hardware.metrics.Counter;
+import de.tucottbus.kt.csl.hardware.metrics.LatencyHistogram;
 import de.tucottbus.kt.lcars.contributors.ElementContributor;
 
 /**
@@ -97,6 +99,16 @@ public abstract class APortAudioInputDevice extends AAtomicHardware implements R
    */
   private boolean runGuard = Boolean.FALSE;
   
+  /**
+   * Durations of the audio callback.
+   */
+  private final LatencyHistogram callbackTime = getMetrics().histogram("callback.time");
+  
+  /**
+   * Number of times the audio stream was (re-)opened.
+   */
+  private final Counter streamStarts = getMetrics().counter("stream.starts");
+  
   
   /**
    * Creates a new PortAudio/Asio device wrapper.
@@ -134,6 +146,7 @@ public abstract class APortAudioInputDevice extends AAtomicHardware implements R
         setStreamParameters(deviceId, audioChannels);
         JPA.enableThreadDetach(THREAD_ATTACH);
         err = JPA.openStream(streamParameters, null, AudioInputConstants.SAMPLERATE,AudioInputConstants.FRAME_SIZE, FLAGS);
+        streamStarts.increment();
 
         if (!JPA.isStreamActive()) {
           err=JPA.startStream();
@@ -143,7 +156,9 @@ public abstract class APortAudioInputDevice extends AAtomicHardware implements R
         PaCallback callback = new PaCallback() {
           @Override
           public void paCallback(PaBuffer inputBuffer, PaBuffer outputBuffer, int numFrames) {            
+            long t0 = System.nanoTime();
             callback(inputBuffer, outputBuffer, numFrames);
+            callbackTime.recordSince(t0);
           }
         };
         JPA.setCallback(callback);
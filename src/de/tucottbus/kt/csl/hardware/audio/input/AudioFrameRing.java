@@ -0,0 +1,325 @@
+package de.tucottbus.kt.csl.hardware.audio.input;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Preallocated single-producer/single-consumer ring of multichannel audio
+ * frames. The producer is the PortAudio callback thread, the consumer is a
+ * processing thread like the {@link
+ * de.tucottbus.kt.csl.hardware.micarray3d.beamformer.DoAEstimator
+ * DoAEstimator} guard.<br>
+ * <br>
+ * {@link #offer(float[][])} copies a block of audio data into a private slot,
+ * {@link #poll(float[][])} copies it out again. Neither method locks, blocks or
+ * allocates. The read and write sequence counters are padded against false
+ * sharing. If the consumer falls behind, frames are dropped according to the
+ * ring's {@link DropPolicy} and counted as {@linkplain #getOverruns()
+ * overruns}. A consumer never sees a slot which is being overwritten.<br>
+ * <br>
+ * Each frame may carry a tag, e.g. the block sequence number of a {@link
+ * de.tucottbus.kt.csl.hardware.metrics.LatencyTrace LatencyTrace}. The tag of
+ * the frame most recently polled is returned by {@link #getPolledTag()}.
+ */
+public final class AudioFrameRing {
+
+  /**
+   * What to do when a frame is offered to a full ring.
+   */
+  public enum DropPolicy {
+    /**
+     * Discard the offered frame, the queued frames are kept.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Discard the oldest queued frame to make room for the offered one.
+     */
+    DROP_OLDEST
+  }
+
+  /**
+   * The frame slots, a {@link #capacity} x channels x frame size array.
+   */
+  private final float[][][] slots;
+
+  /**
+   * The frame tags, one per slot.
+   */
+  private final long[] tags;
+
+  /**
+   * Tag of the frame most recently polled, accessed by the consumer only.
+   */
+  private long polledTag = -1;
+
+  /**
+   * Number of slots, a power of two.
+   */
+  private final int capacity;
+
+  /**
+   * Slot index mask, {@link #capacity}-1.
+   */
+  private final int mask;
+
+  private final int channels;
+
+  private final int frameSize;
+
+  private final DropPolicy dropPolicy;
+
+  /**
+   * Sequence number of the next frame to be read, written by the consumer
+   * and, with {@link DropPolicy#DROP_OLDEST}, by the producer.
+   */
+  private final Sequence head = new Sequence();
+
+  /**
+   * Sequence number of the next frame to be written, written by the producer
+   * only.
+   */
+  private final Sequence tail = new Sequence();
+
+  /**
+   * Number of dropped frames.
+   */
+  private final AtomicLong overruns = new AtomicLong();
+
+  /**
+   * Creates a new audio frame ring.
+   *
+   * @param capacity
+   *          The minimal number of frames the ring can hold, &ge;1. The value
+   *          is rounded up to the next power of two.
+   * @param channels
+   *          The number of audio channels per frame.
+   * @param frameSize
+   *          The number of samples per channel and frame.
+   * @param dropPolicy
+   *          What to do if the consumer falls behind.
+   */
+  public AudioFrameRing(int capacity, int channels, int frameSize, DropPolicy dropPolicy) {
+    if (capacity<1 || capacity>(1<<20))
+      throw new IllegalArgumentException("Invalid capacity "+capacity);
+    if (channels<1 || frameSize<1)
+      throw new IllegalArgumentException("Invalid frame dimensions "+channels+"x"+frameSize);
+    if (dropPolicy==null)
+      throw new IllegalArgumentException("Drop policy is null.");
+
+    int c = 1;
+    while (c<capacity)
+      c <<= 1;
+    this.capacity = c;
+    this.mask = c-1;
+    this.channels = channels;
+    this.frameSize = frameSize;
+    this.dropPolicy = dropPolicy;
+    this.slots = new float[c][channels][frameSize];
+    this.tags = new long[c];
+  }
+
+  /**
+   * Copies a frame into the ring. To be called by the producer thread only.
+   *
+   * @param framesPerChannel
+   *          The frame, a channels x frame size array. Additional channels or
+   *          samples are ignored.
+   * @return {@code true} if the frame was queued, {@code false} if it was
+   *         dropped.
+   */
+  public boolean offer(float[][] framesPerChannel) {
+    return offer(framesPerChannel,-1);
+  }
+
+  /**
+   * Copies a tagged frame into the ring. To be called by the producer thread
+   * only.
+   *
+   * @param framesPerChannel
+   *          The frame, a channels x frame size array. Additional channels or
+   *          samples are ignored.
+   * @param tag
+   *          The tag.
+   * @return {@code true} if the frame was queued, {@code false} if it was
+   *         dropped.
+   * @see #getPolledTag()
+   */
+  public boolean offer(float[][] framesPerChannel, long tag) {
+    final long t = tail.get();
+    final long h = head.get();
+    if (t-h>=capacity) {
+      if (dropPolicy==DropPolicy.DROP_NEWEST) {
+        overruns.incrementAndGet();
+        return false;
+      }
+
+      // Discard oldest frame; if the CAS fails the consumer just took it
+      if (head.compareAndSet(h,h+1))
+        overruns.incrementAndGet();
+    }
+
+    final float[][] slot = slots[(int)t & mask];
+    for (int c=0; c<channels; c++)
+      System.arraycopy(framesPerChannel[c],0,slot[c],0,frameSize);
+    tags[(int)t & mask] = tag;
+    tail.lazySet(t+1);
+    return true;
+  }
+
+  /**
+   * Copies the oldest queued frame out of the ring and removes it. To be called
+   * by the consumer thread only.
+   *
+   * @param framesPerChannel
+   *          The destination, a channels x frame size array.
+   * @return {@code true} if a frame was copied, {@code false} if the ring is
+   *         empty.
+   */
+  public boolean poll(float[][] framesPerChannel) {
+    while (true) {
+      final long h = head.get();
+      if (h>=tail.get())
+        return false;
+
+      final float[][] slot = slots[(int)h & mask];
+      for (int c=0; c<channels; c++)
+        System.arraycopy(slot[c],0,framesPerChannel[c],0,frameSize);
+      final long tag = tags[(int)h & mask];
+
+      // The producer overwrites slot h only after moving the head past h. If
+      // the CAS succeeds, the copy is consistent.
+      if (head.compareAndSet(h,h+1)) {
+        polledTag = tag;
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Returns the tag of the frame most recently {@linkplain #poll(float[][])
+   * polled}, -1 if the frame was not tagged. To be called by the consumer
+   * thread only.
+   *
+   * @see #offer(float[][], long)
+   */
+  public long getPolledTag() {
+    return polledTag;
+  }
+
+  /**
+   * Discards all queued frames. To be called by the consumer thread only.
+   */
+  public void clear() {
+    while (true) {
+      final long h = head.get();
+      final long t = tail.get();
+      if (h>=t || head.compareAndSet(h,t))
+        return;
+    }
+  }
+
+  /**
+   * Returns the number of queued frames.
+   */
+  public int size() {
+    final long h = head.get();
+    final long t = tail.get();
+    return (int)Math.max(0,Math.min(capacity,t-h));
+  }
+
+  /**
+   * Determines if there are no queued frames.
+   */
+  public boolean isEmpty() {
+    return head.get()>=tail.get();
+  }
+
+  /**
+   * Returns the number of frames dropped since the ring was created.
+   */
+  public long getOverruns() {
+    return overruns.get();
+  }
+
+  /**
+   * Returns the total number of frames offered and queued since the ring was
+   * created.
+   */
+  public long getFramesWritten() {
+    return tail.get();
+  }
+
+  /**
+   * Returns the number of frames the ring can hold.
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the number of audio channels per frame.
+   */
+  public int getChannelCount() {
+    return channels;
+  }
+
+  /**
+   * Returns the number of samples per channel and frame.
+   */
+  public int getFrameSize() {
+    return frameSize;
+  }
+
+  /**
+   * Returns the drop policy.
+   */
+  public DropPolicy getDropPolicy() {
+    return dropPolicy;
+  }
+
+  // -- Padded sequence counter --
+
+  /**
+   * Left padding of {@link Sequence}.
+   */
+  static class LhsPadding {
+    protected long p1, p2, p3, p4, p5, p6, p7;
+  }
+
+  /**
+   * Value of {@link Sequence}. Super class fields are laid out before sub class
+   * fields, so the value is surrounded by 56 bytes of padding on each side.
+   */
+  static class Value extends LhsPadding {
+    protected volatile long value;
+  }
+
+  /**
+   * Right padding of {@link Sequence}.
+   */
+  static class RhsPadding extends Value {
+    protected long p9, p10, p11, p12, p13, p14, p15;
+  }
+
+  /**
+   * A volatile long counter on a cache line of its own.
+   */
+  static final class Sequence extends RhsPadding {
+
+    private static final AtomicLongFieldUpdater<Value> UPDATER
+      = AtomicLongFieldUpdater.newUpdater(Value.class,"value");
+
+    long get() {
+      return value;
+    }
+
+    void lazySet(long v) {
+      UPDATER.lazySet(this,v);
+    }
+
+    boolean compareAndSet(long expect, long update) {
+      return UPDATER.compareAndSet(this,expect,update);
+    }
+  }
+}
@@ -0,0 +1,308 @@
+package de.tucottbus.kt.csl.hardware.audio.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import de.tucottbus.kt.csl.hardware.audio.utils.MappedWavFile;
+import de.tucottbus.kt.lcars.logging.Log;
+
+/**
+ * Records the raw multichannel input of a {@link AHammerfallAudioDevice} to a
+ * wave file, e.g. for offline benchmarking with the {@link
+ * de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadiReplay
+ * RmeHdspMadiReplay}.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>{@link #notifyAudioEvent()} runs on the audio callback thread. It copies
+ *     the {@linkplain AHammerfallAudioDevice#getInBuffer() raw input block}
+ *     into a preallocated single-producer/single-consumer ring and returns. It
+ *     neither locks, blocks nor allocates.</li>
+ *   <li>A background writer thread drains the ring and writes the blocks
+ *     through {@link MappedWavFile}, which batches them into large sequential
+ *     writes. Recordings larger than 4 GiB are stored as RF64.</li>
+ *   <li>If the writer falls behind and the ring is full, incoming blocks are
+ *     dropped and counted. The writer replaces dropped blocks with silence,
+ *     so the time line of the recording is preserved.</li>
+ *   <li>{@link #getBlocksRecorded()}, {@link #getBlocksDropped()}, {@link
+ *     #getQueuedBlocks()} and {@link #getMaxQueuedBlocks()} report the
+ *     backpressure.</li>
+ * </ul>
+ */
+public final class AudioRecorder implements IAudioListener {
+
+  /**
+   * Default ring capacity in blocks (about 3 seconds at 44.1 kHz).
+   */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  /**
+   * Idle time of the writer thread if the ring is empty.
+   */
+  private static final long IDLE_NANOS = 2000000L;
+
+  private final AHammerfallAudioDevice device;
+  private final File file;
+  private final MappedWavFile.Encoding encoding;
+  private final int channels;
+  private final int blockSize;
+
+  /**
+   * The ring slots, interleaved blocks as delivered by the device.
+   */
+  private final float[][] slots;
+
+  /**
+   * Block sequence numbers of the ring slots.
+   */
+  private final long[] slotSeqs;
+
+  private final int capacity;
+  private final int mask;
+
+  /**
+   * Sequence number of the next slot to be read, written by the writer thread.
+   */
+  private final AudioFrameRing.Sequence head = new AudioFrameRing.Sequence();
+
+  /**
+   * Sequence number of the next slot to be written, written by the callback
+   * thread.
+   */
+  private final AudioFrameRing.Sequence tail = new AudioFrameRing.Sequence();
+
+  /**
+   * Sequence number of the next block delivered by the device, including
+   * dropped blocks (callback thread only).
+   */
+  private long blockSeq;
+
+  private volatile long blocksDropped;
+  private volatile int maxQueued;
+  private volatile long blocksRecorded;
+
+  private volatile boolean running;
+  private Thread writer;
+  private MappedWavFile wav;
+
+  /**
+   * Creates a new recorder with the default ring capacity. The recorder is
+   * not started.
+   *
+   * @param device
+   *          The audio device to record from.
+   * @param file
+   *          The wave file to record to. An existing file is overwritten.
+   * @param encoding
+   *          The sample encoding of the wave file.
+   */
+  public AudioRecorder(AHammerfallAudioDevice device, File file, MappedWavFile.Encoding encoding) {
+    this(device,file,encoding,DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a new recorder. The recorder is not started.
+   *
+   * @param device
+   *          The audio device to record from.
+   * @param file
+   *          The wave file to record to. An existing file is overwritten.
+   * @param encoding
+   *          The sample encoding of the wave file.
+   * @param capacity
+   *          The minimal number of blocks the ring can hold, rounded up to the
+   *          next power of two.
+   */
+  public AudioRecorder(AHammerfallAudioDevice device, File file, MappedWavFile.Encoding encoding, int capacity) {
+    if (device==null || file==null || encoding==null)
+      throw new IllegalArgumentException("Device, file and encoding must not be null.");
+    if (capacity<1 || capacity>(1<<16))
+      throw new IllegalArgumentException("Invalid capacity "+capacity);
+
+    int c = 1;
+    while (c<capacity)
+      c <<= 1;
+    this.device = device;
+    this.file = file;
+    this.encoding = encoding;
+    this.channels = device.getOutBuffer().length;
+    this.blockSize = device.getInBuffer().length;
+    this.capacity = c;
+    this.mask = c-1;
+    this.slots = new float[c][blockSize];
+    this.slotSeqs = new long[c];
+  }
+
+  // -- Operations --
+
+  /**
+   * Creates the wave file, starts the writer thread and registers the
+   * recorder with the audio device.
+   *
+   * @throws IOException
+   *           if the wave file cannot be created.
+   * @throws IllegalStateException
+   *           if the recorder is already started.
+   */
+  public synchronized void start() throws IOException, IllegalStateException {
+    if (running)
+      throw new IllegalStateException("Already recording");
+    wav = MappedWavFile.newWavFile(file,channels,AudioInputConstants.SAMPLERATE,encoding);
+    running = true;
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        write();
+      }
+    },getClass().getSimpleName()+".writer");
+    writer.setDaemon(true);
+    writer.start();
+    device.addAudioListener(this);
+    Log.info("Recording "+channels+" channels to "+file);
+  }
+
+  /**
+   * Unregisters the recorder from the audio device, writes all queued blocks
+   * and closes the wave file.
+   */
+  public synchronized void stop() {
+    if (!running)
+      return;
+    device.removeAudioListener(this);
+    running = false;
+    LockSupport.unpark(writer);
+    try { writer.join(); } catch (InterruptedException e) {}
+    writer = null;
+    Log.info("Recorded "+blocksRecorded+" blocks to "+file+", "+blocksDropped
+        +" dropped, max. "+maxQueued+" of "+capacity+" queued");
+  }
+
+  /**
+   * Determines if the recorder is running.
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  // -- Backpressure metrics --
+
+  /**
+   * Returns the number of blocks written to the file.
+   */
+  public long getBlocksRecorded() {
+    return blocksRecorded;
+  }
+
+  /**
+   * Returns the number of blocks dropped because the ring was full.
+   */
+  public long getBlocksDropped() {
+    return blocksDropped;
+  }
+
+  /**
+   * Returns the number of blocks waiting to be written.
+   */
+  public int getQueuedBlocks() {
+    return (int)(tail.get()-head.get());
+  }
+
+  /**
+   * Returns the greatest number of blocks which were waiting to be written.
+   */
+  public int getMaxQueuedBlocks() {
+    return maxQueued;
+  }
+
+  /**
+   * Returns the number of blocks the ring can hold.
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the wave file.
+   */
+  public File getFile() {
+    return file;
+  }
+
+  // -- Implementation of IAudioListener --
+
+  @Override
+  public String getName() {
+    return getClass().getSimpleName()+":"+file.getPath();
+  }
+
+  @Override
+  public void notifyAudioEvent() {
+    final long seq = blockSeq++;
+    final long t = tail.get();
+    final int queued = (int)(t-head.get());
+    if (queued>=capacity) {
+      blocksDropped++;
+      return;
+    }
+    if (queued>=maxQueued)
+      maxQueued = queued+1;
+
+    final int slot = (int)t & mask;
+    System.arraycopy(device.getInBuffer(),0,slots[slot],0,blockSize);
+    slotSeqs[slot] = seq;
+    tail.lazySet(t+1);
+  }
+
+  // -- Writer thread --
+
+  private void write() {
+    final float[] silence = new float[blockSize];
+    final int frames = blockSize/channels;
+    long nextSeq = -1;
+    try {
+      while (true) {
+        final boolean stopping = !running;
+        final long h = head.get();
+        final long t = tail.get();
+        if (h==t) {
+          if (stopping)
+            break;
+          LockSupport.parkNanos(IDLE_NANOS);
+          continue;
+        }
+        for (long i=h; i<t; i++) {
+          final int slot = (int)i & mask;
+          if (nextSeq<0)
+            nextSeq = slotSeqs[slot];
+          for (; nextSeq<slotSeqs[slot]; nextSeq++)
+            wav.writeFrames(silence,0,frames);
+          wav.writeFrames(slots[slot],0,frames);
+          nextSeq++;
+          head.lazySet(i+1);
+          blocksRecorded++;
+        }
+      }
+    } catch (IOException e) {
+      Log.err("Recording to "+file+" failed",e);
+      running = false;
+      device.removeAudioListener(this);
+    } finally {
+      try {
+        wav.close();
+      } catch (IOException e) {
+        Log.err("Cannot close "+file,e);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getName()+"["+(running?"recording":"stopped")+", recorded="
+        +blocksRecorded+", dropped="+blocksDropped+", queued="+getQueuedBlocks()
+        +"/"+capacity+"]";
+  }
+
+}
+
+// EOF
@@ -0,0 +1,148 @@
+package de.tucottbus.kt.csl.hardware.audio.input;
+
+import java.io.File;
+
+import com.github.rjeschke.jpa.PaBuffer;
+
+import de.tucottbus.kt.csl.hardware.AHardware;
+import de.tucottbus.kt.csl.hardware.audio.utils.MappedWavFile;
+import de.tucottbus.kt.csl.test.TestReport;
+import de.tucottbus.kt.lcars.contributors.ElementContributor;
+
+/**
+ * Tests {@link AudioRecorder} without audio hardware: the ring hand-off from
+ * the audio listener to the writer thread, the silence filling of dropped
+ * blocks and the interleaved write through {@link MappedWavFile}. The
+ * recording is verified frame by frame.
+ */
+public class AudioRecorderTest {
+
+  private static final int CHANNELS = 4;
+
+  private static final int FRAMES = AudioInputConstants.FRAME_SIZE;
+
+  /**
+   * Audio device delivering synthetic blocks. The guard thread does not open
+   * a PortAudio stream.
+   */
+  private static class TestDevice extends AHammerfallAudioDevice {
+
+    TestDevice() {
+      super(CHANNELS);
+    }
+
+    /**
+     * Fills the input buffer with block <code>n</code> of the test signal
+     * without notifying the audio listeners.
+     */
+    void fill(int n) {
+      for (int i = 0; i < inBuffer.length; i++)
+        inBuffer[i] = sample(n,i);
+    }
+
+    /**
+     * Delivers block <code>n</code> of the test signal to the audio
+     * listeners.
+     */
+    void deliver(int n) {
+      fill(n);
+      notifyListeners();
+    }
+
+    @Override
+    public void run() {
+    }
+
+    @Override
+    protected void callback(PaBuffer inputBuffer, PaBuffer outputBuffer, int numFrames) {
+    }
+
+    @Override
+    public AHardware getParent() {
+      return null;
+    }
+
+    @Override
+    public ElementContributor getLcarsSubpanel(int x, int y) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the sample <code>i</code> of the interleaved block <code>n</code>
+   * of the test signal. All samples are distinct and exact in 32 bit float.
+   */
+  private static float sample(int n, int i) {
+    return (n*FRAMES*CHANNELS+i+1)/1048576f;
+  }
+
+  /**
+   * Waits until the writer thread has drained the ring.
+   */
+  private static boolean drain(AudioRecorder recorder) throws InterruptedException {
+    for (int i = 0; i < 500 && recorder.getQueuedBlocks()>0; i++)
+      Thread.sleep(10);
+    return recorder.getQueuedBlocks()==0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    TestReport report = new TestReport();
+    File file = File.createTempFile("csl",".wav");
+    file.deleteOnExit();
+    TestDevice device = new TestDevice();
+    AudioRecorder recorder = new AudioRecorder(device,file,MappedWavFile.Encoding.FLOAT_32,3);
+    report.check("capacity rounded up",recorder.getCapacity()==4);
+
+    // Fill the ring before the writer runs, the fifth block is dropped
+    for (int n = 0; n < 5; n++) {
+      device.fill(n);
+      recorder.notifyAudioEvent();
+    }
+    report.check("full ring drops block",recorder.getBlocksDropped()==1
+        && recorder.getQueuedBlocks()==4 && recorder.getMaxQueuedBlocks()==4);
+
+    // Start the writer and deliver through the device
+    recorder.start();
+    boolean rejected = false;
+    try {
+      recorder.start();
+    } catch (IllegalStateException e) {
+      rejected = true;
+    }
+    report.check("second start rejected",rejected);
+    report.check("writer drains ring",drain(recorder) && recorder.getBlocksRecorded()==4);
+    device.deliver(5);
+    device.deliver(6);
+    report.check("listener hands blocks to writer",drain(recorder)
+        && recorder.getBlocksRecorded()==6);
+    recorder.stop();
+    device.deliver(7);
+    report.check("stop unregisters listener",!recorder.isRunning()
+        && recorder.getBlocksRecorded()==6 && recorder.getQueuedBlocks()==0);
+
+    // Verify the recording frame by frame: blocks 0-3, silence, blocks 5 and 6
+    MappedWavFile wav = MappedWavFile.openWavFile(file);
+    report.check("wave file format",wav.getNumChannels()==CHANNELS
+        && wav.getNumFrames()==7*FRAMES);
+    float[][] buffer = new float[CHANNELS][FRAMES];
+    int mismatches = 0;
+    for (int n = 0; n < 7; n++) {
+      if (wav.readFrames(buffer,FRAMES)!=FRAMES) {
+        mismatches++;
+        break;
+      }
+      for (int f = 0; f < FRAMES; f++)
+        for (int c = 0; c < CHANNELS; c++)
+          if (buffer[c][f]!=(n==4 ? 0f : sample(n,f*CHANNELS+c)))
+            mismatches++;
+    }
+    wav.close();
+    report.check("recorded samples, dropped block silent",mismatches==0);
+
+    file.delete();
+    report.exit();
+  }
+
+}
+
+// EOF
@@ -5,9 +5,11 @@ import java.util.Arrays;
 import com.github.rjeschke.jpa.PaBuffer;
 
 import de.tucottbus.kt.csl.hardware.AHardware;
+import de.tucottbus.kt.csl.hardware.CslHardware;
 import de.tucottbus.kt.csl.hardware.audio.RmsLevelingCalibrator;
 import de.tucottbus.kt.csl.hardware.audio.input.AHammerfallAudioDevice;
 import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+import de.tucottbus.kt.csl.hardware.metrics.LatencyTrace;
 import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.Beamformer3D;
 import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.DoAEstimator;
 import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.MicrophoneGCCTester;
@@ -30,9 +32,14 @@ public class RmeHdspMadi extends AHammerfallAudioDevice{
   private static RmeHdspMadi singleton = null;
   
   /**
-   * Private constructor -> please use singleton method {@link #getInstance()}
+   * Capture time of the block in {@link #inBuffer} ({@link System#nanoTime()}).
    */
-  private RmeHdspMadi() {
+  protected long captureNanos;
+  
+  /**
+   * Protected constructor -> please use singleton method {@link #getInstance()}
+   */
+  protected RmeHdspMadi() {
     super(CHANNEL_COUNT);
     calibrator = new RmsLevelingCalibrator(CHANNEL_COUNT,100);
     Arrays.fill(calibrationGains,1f);
@@ -40,12 +47,19 @@ public class RmeHdspMadi extends AHammerfallAudioDevice{
   }
   
   /**
-   * Singleton method to get the {@link HammerfallAudioDevice_Zombie} object
+   * Singleton method to get the {@link HammerfallAudioDevice_Zombie} object.
+   * If an {@linkplain CslHardware#setAudioReplay(java.io.File, boolean) audio
+   * replay} is selected, the singleton is a {@link RmeHdspMadiReplay}.
    * @return HammerfallAudioDevice
    */
   public static synchronized RmeHdspMadi getInstance() {
-    if (singleton == null)
-      singleton = new RmeHdspMadi();
+    if (singleton == null) {
+      if (CslHardware.getAudioReplayFile() != null)
+        singleton = new RmeHdspMadiReplay(CslHardware.getAudioReplayFile(), 
+            CslHardware.isAudioReplayPaced());
+      else
+        singleton = new RmeHdspMadi();
+    }
     return singleton;
   }
 
@@ -74,11 +88,60 @@ public class RmeHdspMadi extends AHammerfallAudioDevice{
   */
   @Override
   protected void callback(PaBuffer inputBuffer, PaBuffer outputBuffer, int numFrames) {
+    captureNanos = System.nanoTime();
     if (inputBuffer.getSampleSize() == 0) return;
     
     inputBuffer.getFloatBuffer().get(inBuffer);
+    processInBuffer();
+  }
+  
+  /**
+   * Processes one block of interleaved audio data in {@link #inBuffer}: 
+   * calculates the audio levels, fills {@link #outBuffer} with the calibrated
+   * samples and passes the data on to the listeners, the beamformer and the 
+   * DoA estimator. The block is assigned a {@linkplain LatencyTrace latency 
+   * trace} sequence number, captured at {@link #captureNanos}.
+   * 
+   * @see #callback(PaBuffer, PaBuffer, int)
+   */
+  protected void processInBuffer() {
+    final long block = LatencyTrace.getInstance().capture(captureNanos);
     
-    // Calculate all MS (mean of squares) values
+    measureLevels(inBuffer, levelsMs, calibrator, calibrationGains);
+    setChanged();
+    notifyObserversAsync(NOTIFY_RMS);
+    
+    splitChannels(inBuffer, outBuffer, calibrationGains, volumeMixer);
+    
+    // notify all listers, new data available
+    notifyListeners();
+    
+    // "don't call us, we call u"
+    Beamformer3D.getInstance().sendAudioToBeamformer(inBuffer, block);
+    DoAEstimator.getInstance().addAudioDataToQueue(outBuffer, block);
+    
+    if(MicrophoneGCCTester.dataAddingAllowed)
+      MicrophoneGCCTester.getInstance().addAudioDataToQueue(outBuffer);
+  }
+  
+  /**
+   * Calculates the calibrated MS (mean of squares) values of one block of 
+   * interleaved audio data and feeds the uncalibrated values to the 
+   * calibrator. Does not allocate memory.
+   * 
+   * @param inBuffer
+   *          {@link AudioInputConstants#FRAME_SIZE} interleaved frames of 
+   *          {@link #CHANNEL_COUNT} samples.
+   * @param levelsMs
+   *          Filled with the MS values, one per channel.
+   * @param calibrator
+   *          The calibrator.
+   * @param calibrationGains
+   *          The calibration gain factors, one per channel.
+   * @see #processInBuffer()
+   */
+  public static void measureLevels(float[] inBuffer, float[] levelsMs, 
+      RmsLevelingCalibrator calibrator, float[] calibrationGains) {
     Arrays.fill(levelsMs,0f);
     for (int sample = 0, channel = 0; sample < AudioInputConstants.FRAME_SIZE * CHANNEL_COUNT; sample++, channel++) {
       levelsMs[channel] += (inBuffer[sample] * inBuffer[sample]);
@@ -92,10 +155,26 @@ public class RmeHdspMadi extends AHammerfallAudioDevice{
     
     for (int i = 0; i < CHANNEL_COUNT; i++)
       levelsMs[i]*=(calibrationGains[i]*calibrationGains[i]);
-    setChanged();
-    notifyObserversAsync(NOTIFY_RMS);
-    
-    // Split inBuffer into 64 outBuffers and calibrate samples
+  }
+  
+  /**
+   * Splits one block of interleaved audio data into one buffer per channel 
+   * and calibrates the samples. Does not allocate memory.
+   * 
+   * @param inBuffer
+   *          {@link AudioInputConstants#FRAME_SIZE} interleaved frames of 
+   *          {@link #CHANNEL_COUNT} samples.
+   * @param outBuffer
+   *          Filled with the calibrated samples, a {@link #CHANNEL_COUNT} x 
+   *          {@link AudioInputConstants#FRAME_SIZE} array.
+   * @param calibrationGains
+   *          The calibration gain factors, one per channel.
+   * @param volumeMixer
+   *          The volume gain factors, one per channel.
+   * @see #processInBuffer()
+   */
+  public static void splitChannels(float[] inBuffer, float[][] outBuffer, 
+      float[] calibrationGains, float[] volumeMixer) {
     int n=0;
     for(int s=0;s<AudioInputConstants.FRAME_SIZE;s++){
       for(int c=0;c<CHANNEL_COUNT;c++){
@@ -103,16 +182,6 @@ public class RmeHdspMadi extends AHammerfallAudioDevice{
         n++;
       }
     }
-    
-    // notify all listers, new data available
-    notifyListeners();
-    
-    // "don't call us, we call u"
-    Beamformer3D.getInstance().sendAudioToBeamformer(inBuffer);
-    DoAEstimator.getInstance().addAudioDataToQueue(outBuffer);
-    
-    if(MicrophoneGCCTester.dataAddingAllowed)
-      MicrophoneGCCTester.getInstance().addAudioDataToQueue(outBuffer);
   }
   
   /**
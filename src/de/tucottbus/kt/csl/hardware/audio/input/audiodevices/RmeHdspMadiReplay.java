@@ -0,0 +1,242 @@
+package de.tucottbus.kt.csl.hardware.audio.input.audiodevices;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import de.tucottbus.kt.csl.hardware.CslHardware;
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+import de.tucottbus.kt.csl.hardware.audio.utils.MappedWavFile;
+
+/**
+ * Replays a multichannel wave file in place of the {@linkplain RmeHdspMadi RME
+ * HDSP MADI} audio input.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The replay device is selected by {@link
+ *     CslHardware#setAudioReplay(File, boolean)} and returned by {@link
+ *     RmeHdspMadi#getInstance()}, so all consumers of the microphone array
+ *     audio input work unchanged.</li>
+ *   <li>The guard thread reads blocks of {@link AudioInputConstants#FRAME_SIZE}
+ *     frames and processes them exactly like the PortAudio callback: levels,
+ *     calibration, audio listeners, {@code Beamformer3D} and {@code
+ *     DoAEstimator}. PortAudio is not used.</li>
+ *   <li>In paced mode the blocks are delivered at the sample rate of the live
+ *     input. Otherwise they are delivered as fast as the processing permits,
+ *     see {@link #getRealtimeFactor()}.</li>
+ *   <li>The file is replayed in an endless loop. Channels beyond {@link
+ *     RmeHdspMadi#CHANNEL_COUNT} are ignored, missing channels are silent. The
+ *     sample rate of the file is not converted.</li>
+ * </ul>
+ */
+public class RmeHdspMadiReplay extends RmeHdspMadi {
+
+  /**
+   * The wave file to replay. Written last by the constructor, the guard thread
+   * (which is started by the superclass constructor) waits for it.
+   */
+  private volatile File file;
+
+  /**
+   * Real time or maximal speed replay.
+   */
+  private volatile boolean paced;
+
+  /**
+   * Stops the guard thread loop. Note: the volatile fields must not have
+   * initializers, the guard thread is running before they would be executed.
+   */
+  private volatile boolean stopGuard;
+
+  /**
+   * Replay state.
+   */
+  private volatile boolean streaming;
+
+  /**
+   * Number of frames replayed since the replay was started.
+   */
+  private volatile long framesReplayed;
+
+  /**
+   * Time the replay was started ({@link System#nanoTime()}).
+   */
+  private volatile long startNanos;
+
+  /**
+   * Creates a new replay device. Use {@link RmeHdspMadi#getInstance()} to
+   * obtain the singleton.
+   *
+   * @param file
+   *          The wave file to replay.
+   * @param paced
+   *          Replay in real time (<code>true</code>) or as fast as possible.
+   */
+  RmeHdspMadiReplay(File file, boolean paced) {
+    super();
+    if (file==null)
+      throw new IllegalArgumentException("File is null.");
+    this.paced = paced;
+    this.file = file;
+  }
+
+  // -- Getters and setters --
+
+  /**
+   * Returns the replayed wave file.
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Determines if the file is replayed in real time.
+   */
+  public boolean isPaced() {
+    return paced;
+  }
+
+  /**
+   * Switches between real time and maximal speed replay.
+   *
+   * @param paced
+   *          Replay in real time (<code>true</code>) or as fast as possible.
+   */
+  public void setPaced(boolean paced) {
+    this.paced = paced;
+  }
+
+  /**
+   * Returns the number of frames replayed since the file was opened.
+   */
+  public long getFramesReplayed() {
+    return framesReplayed;
+  }
+
+  /**
+   * Returns the ratio of replayed audio time and elapsed wall clock time. The
+   * value is approximately 1 in paced mode. In maximal speed mode it is the
+   * throughput of the audio processing in multiples of real time.
+   */
+  public double getRealtimeFactor() {
+    long nanos = System.nanoTime()-startNanos;
+    if (!streaming || nanos<=0)
+      return 0;
+    return framesReplayed*1E9/AudioInputConstants.SAMPLERATE/nanos;
+  }
+
+  // -- Overrides --
+
+  @Override
+  public String getName() {
+    File file = this.file;
+    return super.getName()+" (replay"+(file!=null?" of "+file.getName():"")+")";
+  }
+
+  @Override
+  public boolean isConnected() {
+    return !isDisposed() && streaming;
+  }
+
+  @Override
+  public void dispose() {
+    stopGuard = true;
+    super.dispose();
+  }
+
+  @Override
+  public void run() {
+    final long blockNanos = 1000000000L*AudioInputConstants.FRAME_SIZE
+        /AudioInputConstants.SAMPLERATE;
+    final float[][] block = new float[CHANNEL_COUNT][AudioInputConstants.FRAME_SIZE];
+
+    while (!stopGuard) {
+      File file = this.file;
+      if (file==null) {
+        // Constructor not finished yet
+        LockSupport.parkNanos(1000000L);
+        continue;
+      }
+
+      MappedWavFile wav = null;
+      try {
+        // - Open the file
+        wav = MappedWavFile.openWavFile(file);
+        if (wav.getSampleRate()!=AudioInputConstants.SAMPLERATE)
+          log("WARNING: sample rate of "+file+" is "+wav.getSampleRate()
+              +" Hz, replaying at "+AudioInputConstants.SAMPLERATE+" Hz.");
+        float[][] buffer = new float[Math.max(CHANNEL_COUNT,wav.getNumChannels())][];
+        for (int c=0; c<buffer.length; c++)
+          buffer[c] = c<CHANNEL_COUNT ? block[c] : new float[AudioInputConstants.FRAME_SIZE];
+        log("Replaying "+file+(paced?"":" at maximal speed")+".");
+
+        framesReplayed = 0;
+        startNanos = System.nanoTime();
+        streaming = true;
+        setChanged();
+        notifyObservers(NOTIFY_CONNECTION);
+
+        // - Replay
+        long deadline = startNanos;
+        long nextState = startNanos+1000000000L;
+        while (!stopGuard) {
+          int n = wav.readFrames(buffer,AudioInputConstants.FRAME_SIZE);
+          if (n<AudioInputConstants.FRAME_SIZE) {
+            if (wav.getNumFrames()==0)
+              throw new IOException("No audio data in "+file);
+            wav.seek(0);
+            n += wav.readFrames(buffer,n,AudioInputConstants.FRAME_SIZE-n);
+          }
+          for (int c=wav.getNumChannels(); c<CHANNEL_COUNT; c++)
+            Arrays.fill(block[c],0f);
+
+          // Interleave into inBuffer like the PortAudio callback
+          for (int s=0, i=0; s<AudioInputConstants.FRAME_SIZE; s++)
+            for (int c=0; c<CHANNEL_COUNT; c++, i++)
+              inBuffer[i] = block[c][s];
+
+          long now = System.nanoTime();
+          if (paced) {
+            deadline += blockNanos;
+            if (deadline<now-blockNanos)
+              deadline = now; // Fell behind, do not burst
+            while (!stopGuard && (now=System.nanoTime())<deadline)
+              LockSupport.parkNanos(deadline-now);
+          }
+          if (stopGuard)
+            break;
+
+          captureNanos = System.nanoTime();
+          processInBuffer();
+          framesReplayed += AudioInputConstants.FRAME_SIZE;
+
+          if (now>=nextState) {
+            setChanged();
+            notifyObservers(NOTIFY_STATE);
+            nextState = now+1000000000L;
+          }
+        }
+      } catch (Exception e) {
+        logErr(e.getMessage(),e);
+        streaming = false;
+        setChanged();
+        notifyObservers(NOTIFY_CONNECTION);
+        try { Thread.sleep(1000); } catch (InterruptedException e1) {}
+        continue;
+      } finally {
+        if (wav!=null)
+          try { wav.close(); } catch (IOException e) {}
+      }
+
+      // - End replay
+      streaming = false;
+      setChanged();
+      notifyObservers(NOTIFY_CONNECTION);
+    }
+  }
+
+}
+
+// EOF
@@ -8,6 +8,7 @@ import javax.sound.sampled.SourceDataLine;
 
 import de.tucottbus.kt.csl.hardware.AAtomicHardware;
 import de.tucottbus.kt.csl.hardware.audio.utils.SampleTypeConverter;
+import de.tucottbus.kt.csl.hardware.metrics.LatencyTrace;
 import de.tucottbus.kt.lcars.contributors.ElementContributor;
 
 /**
@@ -212,10 +213,27 @@ public abstract class AAudioOutputDevice extends AAtomicHardware implements
    * @see SampleTypeConverter#floatToByte(byte[], float[], boolean, float)
    */
   public void sendAudioData(float[] inBuffer) {
+    sendAudioData(inBuffer, -1);
+  }
+
+  /**
+   * Sending float audio data of a traced block to the audio device and 
+   * records the {@link LatencyTrace.Stage#OUTPUT_WRITTEN} stage once the 
+   * data were written to the output line.
+   * 
+   * @param inBuffer
+   *          float[] of audio samples
+   * @param block
+   *          The {@linkplain LatencyTrace latency trace} sequence number of 
+   *          the block, -1 if not traced.
+   * @see #sendAudioData(float[])
+   */
+  public void sendAudioData(float[] inBuffer, long block) {
     if (isConnected()) {
       byte[] outBuffer = new byte[inBuffer.length * 2];
       SampleTypeConverter.floatToByte(outBuffer, inBuffer, BIG_ENDIAN, gain);
       dataline.write(outBuffer, 0, outBuffer.length);
+      LatencyTrace.getInstance().record(LatencyTrace.Stage.OUTPUT_WRITTEN, block);
     }
   }
 
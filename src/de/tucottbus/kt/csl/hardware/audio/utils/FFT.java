@@ -5,12 +5,15 @@ import java.util.Arrays;
 import jogamp.opengl.util.pngj.FilterType;
 
 import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 
 /**
  * This class handles all methods for fast Fourier transformation of a discrete audio signal.
+ * <p>
+ * The transforms are computed by a {@link FftEngine} and are unitary, i.e.
+ * scaled by 1/sqrt(N). The {@link Complex} methods are kept for compatibility,
+ * time critical code should use the methods working on primitive arrays.
+ * Instances are not thread-safe.
+ * </p>
  * 
  * @author Martin Birth
  *
@@ -23,9 +26,19 @@ public class FFT {
   private final static double TWO_PI = 2 * Math.PI;
   
   /**
-   * Instance of FastFourierTransformer to transform into the frequency domain
+   * The FFT engine, created or replaced when the transform length changes
    */
-  private final FastFourierTransformer fft;
+  private FftEngine engine;
+  
+  /**
+   * Buffer of the zero-padded and windowed signal
+   */
+  private double[] signal;
+  
+  /**
+   * Buffer of the interleaved half spectrum
+   */
+  private double[] spectrum;
   
   /**
    * Constructor with filter type
@@ -33,7 +46,6 @@ public class FFT {
    * @see FilterType
    */
   public FFT(){
-    fft = new FastFourierTransformer(DftNormalization.UNITARY);
   }
   
   /**
@@ -54,34 +66,50 @@ public class FFT {
    *         parts.
    */
   public Complex[] getFFTSpectrum(float[] frame, Boolean halfSpect) {
-    int powerOf2 = getNextPowerOf2Value(frame.length);
-    
-    // zero-padding and windowing
-    double[] window = new double[powerOf2*2];
-    Arrays.fill(window, 0);
-    int destPos = (int) Math.ceil((powerOf2*2-powerOf2)/2);
-    for (int i = 0; i < frame.length; i++) {
-      window[i+destPos] = frame[i]*getHanningValue(i, frame.length);
-    }
-    
-    Complex[] spec = fft.transform(window, TransformType.FORWARD);
+    int n = getFftLength(frame.length);
+    if(spectrum==null || spectrum.length<n+2)
+      spectrum = new double[n+2];
+    getFFTSpectrum(frame, spectrum);
     
-    if(halfSpect!=null && halfSpect){
-      return getHalfFilteredSpectrum(spec);
-    } else {
-      return spec;
+    boolean half = halfSpect!=null && halfSpect;
+    Complex[] spec = new Complex[half ? n/2 : n];
+    for (int k = 0; k < spec.length; k++) {
+      if (k <= n/2)
+        spec[k] = new Complex(spectrum[2*k], spectrum[2*k+1]);
+      else
+        spec[k] = new Complex(spectrum[2*(n-k)], -spectrum[2*(n-k)+1]);
     }
+    return spec;
   }
   
   /**
+   * Computes the spectrum of a frame like {@link #getFFTSpectrum(float[], Boolean)}
+   * without allocating any objects. The frame is windowed by a Von-Hann-window and
+   * zero-padded to {@link #getFftLength(int) N} samples, the spectrum consists of
+   * the N/2+1 bins from DC up to the Nyquist frequency.
    * 
-   * @param spec
-   * @return
+   * @param frame
+   *          - float[] array
+   * @param spectrum
+   *          - receives the spectrum, N/2+1 interleaved real and imaginary parts
+   * @return the FFT length N
    */
-  private Complex[] getHalfFilteredSpectrum(Complex[] spec){
-    Complex[] specHalf = new Complex[spec.length/2];
-    System.arraycopy(spec, 0, specHalf, 0, spec.length/2);
-    return specHalf;
+  public int getFFTSpectrum(float[] frame, double[] spectrum) {
+    int n = getFftLength(frame.length);
+    if(signal==null || signal.length<n)
+      signal = new double[n];
+    
+    // zero-padding and windowing
+    float[] window = FftEngine.getHannWindow(frame.length);
+    int destPos = n/4;
+    Arrays.fill(signal, 0);
+    for (int i = 0; i < frame.length; i++) {
+      signal[i+destPos] = frame[i]*window[i];
+    }
+    
+    getEngine(n).realForward(signal, spectrum);
+    scale(spectrum, n+2, 1/Math.sqrt(n));
+    return n;
   }
   
   /**
@@ -90,18 +118,68 @@ public class FFT {
    * @return {@link Complex}[] array of {@link Complex}
    */
   public Complex[] getInverseFftSpectrum(Complex[] spectrum, boolean halfSpectrum){
-    Complex[] transSpectrum = null;
-    if(!halfSpectrum){
-      transSpectrum = spectrum;
-    }else{
-      transSpectrum = new Complex[spectrum.length*2];
-      System.arraycopy(spectrum, 0, transSpectrum, 0, spectrum.length);
+    int n = halfSpectrum ? spectrum.length*2 : spectrum.length;
+    double[] data = new double[2*n];
+    for (int i = 0; i < spectrum.length; i++) {
+      data[2*i] = spectrum[i].getReal();
+      data[2*i+1] = spectrum[i].getImaginary();
+    }
+    if(halfSpectrum){
       int k = spectrum.length-1;
-      for (int i = transSpectrum.length/2; i < transSpectrum.length; i++) {
-        transSpectrum[i] = spectrum[k--].conjugate();
+      for (int i = n/2; i < n; i++, k--) {
+        data[2*i] = spectrum[k].getReal();
+        data[2*i+1] = -spectrum[k].getImaginary();
       }
     }
-    return fft.transform(transSpectrum, TransformType.INVERSE);
+    
+    getEngine(n).complexInverse(data, false);
+    double norm = 1/Math.sqrt(n);
+    Complex[] signal = new Complex[n];
+    for (int i = 0; i < n; i++) {
+      signal[i] = new Complex(data[2*i]*norm, data[2*i+1]*norm);
+    }
+    return signal;
+  }
+  
+  /**
+   * Get the inverse Fourier transform of the spectrum of a real signal without
+   * allocating any objects.
+   * 
+   * @param spectrum
+   *          - the N/2+1 bins from DC up to the Nyquist frequency, interleaved real
+   *          and imaginary parts
+   * @param signal
+   *          - receives the N real signal values
+   * @param n
+   *          - the FFT length N
+   * @see #getFFTSpectrum(float[], double[])
+   */
+  public void getInverseFftSpectrum(double[] spectrum, double[] signal, int n){
+    getEngine(n).realInverse(spectrum, signal, false);
+    scale(signal, n, 1/Math.sqrt(n));
+  }
+  
+  /**
+   * Get the FFT length used for a frame, which is twice the next power of 2.
+   * @param frameLength - int, length of the frame
+   * @return int, FFT length
+   */
+  public static int getFftLength(int frameLength){
+    return Math.max(4, getNextPowerOf2Value(frameLength)*2);
+  }
+  
+  /**
+   * Returns an FFT engine for the transform length n.
+   */
+  private FftEngine getEngine(int n){
+    if(engine==null || engine.getSize()!=n)
+      engine = new FftEngine(n);
+    return engine;
+  }
+  
+  private static void scale(double[] data, int length, double factor){
+    for (int i = 0; i < length; i++)
+      data[i]*=factor;
   }
     
   /**
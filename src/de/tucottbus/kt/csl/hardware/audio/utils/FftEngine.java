@@ -0,0 +1,354 @@
+package de.tucottbus.kt.csl.hardware.audio.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Planned radix-2 fast Fourier transform working on primitive arrays.<br>
+ * <br>
+ * Complex data are stored interleaved, i.e. {@code data[2*k]} is the real and
+ * {@code data[2*k+1]} the imaginary part of the k-th value. A real transform of
+ * length n is computed as a complex transform of length n/2 plus a split step,
+ * its spectrum consists of the n/2+1 bins from DC up to the Nyquist frequency.
+ * <br>
+ * <br>
+ * Twiddle factors, bit reversal permutations and window functions are computed
+ * once per length and shared between all engines. Each engine owns a work
+ * buffer, so the transforms do not allocate any memory. Engines are <em>not</em>
+ * thread-safe, use one engine per thread. The transforms are not normalized;
+ * pass {@code true} as the {@code normalize} argument of the inverse
+ * transforms to scale by 1/n.
+ *
+ * @see FFT
+ */
+public final class FftEngine {
+
+  /**
+   * Static value of 2*Pi
+   */
+  private final static double TWO_PI = 2 * Math.PI;
+
+  /**
+   * Cache of complex transform tables, key is the transform length.
+   */
+  private static final ConcurrentHashMap<Integer,Tables> TABLES = new ConcurrentHashMap<Integer,Tables>();
+
+  /**
+   * Cache of Hann windows, key is the window length.
+   */
+  private static final ConcurrentHashMap<Integer,float[]> HANN_WINDOWS = new ConcurrentHashMap<Integer,float[]>();
+
+  /**
+   * The real transform length.
+   */
+  private final int n;
+
+  /**
+   * Tables of the complex transform of length n.
+   */
+  private final Tables full;
+
+  /**
+   * Tables of the complex transform of length n/2.
+   */
+  private final Tables half;
+
+  /**
+   * Work buffer, n interleaved complex values.
+   */
+  private final double[] work;
+
+  /**
+   * Creates a new FFT engine.
+   *
+   * @param n
+   *          The transform length, a power of two &ge;4.
+   * @throws IllegalArgumentException
+   *          if {@code n} is not a power of two or less than 4.
+   */
+  public FftEngine(int n) throws IllegalArgumentException {
+    if (n<4 || (n&(n-1))!=0)
+      throw new IllegalArgumentException("Transform length "+n+" is not a power of two >=4");
+    this.n = n;
+    this.full = getTables(n);
+    this.half = getTables(n/2);
+    this.work = new double[2*n];
+  }
+
+  /**
+   * Returns the transform length.
+   */
+  public int getSize() {
+    return n;
+  }
+
+  // -- Complex transforms --
+
+  /**
+   * In-place forward transform of n complex values.
+   *
+   * @param data
+   *          2n doubles, interleaved real and imaginary parts.
+   */
+  public void complexForward(double[] data) {
+    checkLength(data,2*n);
+    transform(data,full,-1);
+  }
+
+  /**
+   * In-place inverse transform of n complex values.
+   *
+   * @param data
+   *          2n doubles, interleaved real and imaginary parts.
+   * @param normalize
+   *          If {@code true}, the result is scaled by 1/n.
+   */
+  public void complexInverse(double[] data, boolean normalize) {
+    checkLength(data,2*n);
+    transform(data,full,1);
+    if (normalize)
+      scale(data,2*n,1.0/n);
+  }
+
+  // -- Real transforms --
+
+  /**
+   * Forward transform of n real values.
+   *
+   * @param in
+   *          n real values.
+   * @param spectrum
+   *          Receives n/2+1 complex bins (n+2 doubles, interleaved).
+   */
+  public void realForward(double[] in, double[] spectrum) {
+    checkLength(in,n);
+    System.arraycopy(in,0,work,0,n);
+    realForward(spectrum);
+  }
+
+  /**
+   * Forward transform of n real values.
+   *
+   * @param in
+   *          n real values.
+   * @param spectrum
+   *          Receives n/2+1 complex bins (n+2 doubles, interleaved).
+   */
+  public void realForward(float[] in, double[] spectrum) {
+    checkLength(in.length,n);
+    for (int i=0; i<n; i++)
+      work[i] = in[i];
+    realForward(spectrum);
+  }
+
+  /**
+   * Inverse transform of the n/2+1 bins of a real signal's spectrum. The
+   * missing bins are the complex conjugates of the given ones.
+   *
+   * @param spectrum
+   *          n/2+1 complex bins (n+2 doubles, interleaved). The imaginary
+   *          parts of the DC and Nyquist bins must be zero.
+   * @param out
+   *          Receives n real values.
+   * @param normalize
+   *          If {@code true}, the result is scaled by 1/n.
+   */
+  public void realInverse(double[] spectrum, double[] out, boolean normalize) {
+    checkLength(spectrum,n+2);
+    checkLength(out,n);
+    final int h = n/2;
+    final double[] cos = full.cos;
+    final double[] sin = full.sin;
+
+    // Merge bins k and h-k into the spectrum of the half length signal
+    // z[j] = x[2j] + i*x[2j+1]
+    for (int k=0; k<=h/2; k++) {
+      final int j = h-k;
+      final double ar = spectrum[2*k], ai = spectrum[2*k+1];
+      final double br = spectrum[2*j], bi = spectrum[2*j+1];
+
+      // Even part X[k]+conj(X[h-k]), odd part (X[k]-conj(X[h-k]))*e^(i*2pi*k/n)
+      double er = ar+br, ei = ai-bi;
+      double dr = ar-br, di = ai+bi;
+      double wr = cos[k], wi = sin[k];
+      double or = dr*wr-di*wi, oi = dr*wi+di*wr;
+      work[2*k] = er-oi;
+      work[2*k+1] = ei+or;
+
+      if (j!=k && j<h) {
+        // Same for bin h-k, its partner is bin k
+        er = br+ar; ei = bi-ai;
+        dr = br-ar; di = bi+ai;
+        wr = cos[j]; wi = sin[j];
+        or = dr*wr-di*wi; oi = dr*wi+di*wr;
+        work[2*j] = er-oi;
+        work[2*j+1] = ei+or;
+      }
+    }
+
+    transform(work,half,1);
+    System.arraycopy(work,0,out,0,n);
+    if (normalize)
+      scale(out,n,1.0/n);
+  }
+
+  // -- Window functions --
+
+  /**
+   * Returns a shared, cached Von-Hann window. The coefficients are identical
+   * to the ones computed by {@link FFT#getHanningValue(int, int)}. The returned
+   * array must not be modified.
+   *
+   * @param length
+   *          The window length.
+   * @return The window coefficients.
+   */
+  public static float[] getHannWindow(int length) {
+    float[] window = HANN_WINDOWS.get(length);
+    if (window==null) {
+      window = new float[length];
+      for (int i=0; i<length; i++)
+        window[i] = 0.5f * (1f - (float) Math.cos(TWO_PI * i / (length - 1f)));
+      HANN_WINDOWS.putIfAbsent(length,window);
+    }
+    return window;
+  }
+
+  // -- Workers --
+
+  /**
+   * Forward real transform of the n values in {@link #work}.
+   */
+  private void realForward(double[] spectrum) {
+    checkLength(spectrum,n+2);
+    final int h = n/2;
+    final double[] cos = full.cos;
+    final double[] sin = full.sin;
+
+    // Transform the even and odd samples as one complex signal
+    transform(work,half,-1);
+
+    // Split Z into the spectra of the even and odd samples and recombine
+    spectrum[0] = work[0]+work[1];
+    spectrum[1] = 0;
+    spectrum[2*h] = work[0]-work[1];
+    spectrum[2*h+1] = 0;
+    for (int k=1; k<h; k++) {
+      final int j = h-k;
+      final double ar = work[2*k], ai = work[2*k+1];
+      final double br = work[2*j], bi = -work[2*j+1];
+      final double er = 0.5*(ar+br), ei = 0.5*(ai+bi);
+      final double or = 0.5*(ai-bi), oi = -0.5*(ar-br);
+      final double wr = cos[k], wi = -sin[k];
+      spectrum[2*k] = er+or*wr-oi*wi;
+      spectrum[2*k+1] = ei+or*wi+oi*wr;
+    }
+  }
+
+  /**
+   * In-place iterative radix-2 transform.
+   *
+   * @param data
+   *          Interleaved complex data.
+   * @param t
+   *          The tables of the transform length.
+   * @param sign
+   *          -1 for the forward, +1 for the inverse transform.
+   */
+  private static void transform(double[] data, Tables t, int sign) {
+    final int m = t.length;
+    final int[] rev = t.rev;
+    for (int i=0; i<m; i++) {
+      final int j = rev[i];
+      if (i<j) {
+        double tmp = data[2*i]; data[2*i] = data[2*j]; data[2*j] = tmp;
+        tmp = data[2*i+1]; data[2*i+1] = data[2*j+1]; data[2*j+1] = tmp;
+      }
+    }
+
+    final double[] cos = t.cos;
+    final double[] sin = t.sin;
+    for (int len=2; len<=m; len<<=1) {
+      final int halfLen = len>>1;
+      final int step = m/len;
+      for (int k=0; k<halfLen; k++) {
+        final double wr = cos[k*step];
+        final double wi = sign*sin[k*step];
+        for (int i=k; i<m; i+=len) {
+          final int a = 2*i;
+          final int b = 2*(i+halfLen);
+          final double xr = data[b]*wr-data[b+1]*wi;
+          final double xi = data[b]*wi+data[b+1]*wr;
+          data[b] = data[a]-xr;
+          data[b+1] = data[a+1]-xi;
+          data[a] += xr;
+          data[a+1] += xi;
+        }
+      }
+    }
+  }
+
+  private static void scale(double[] data, int length, double factor) {
+    for (int i=0; i<length; i++)
+      data[i] *= factor;
+  }
+
+  private static void checkLength(double[] data, int length) {
+    checkLength(data.length,length);
+  }
+
+  private static void checkLength(int actual, int length) {
+    if (actual<length)
+      throw new IllegalArgumentException("Array too short: "+actual+" < "+length);
+  }
+
+  /**
+   * Returns the cached tables of a complex transform.
+   */
+  private static Tables getTables(int m) {
+    Tables t = TABLES.get(m);
+    if (t==null) {
+      t = new Tables(m);
+      Tables prev = TABLES.putIfAbsent(m,t);
+      if (prev!=null)
+        t = prev;
+    }
+    return t;
+  }
+
+  /**
+   * Immutable tables of a complex transform of length m.
+   */
+  private static final class Tables {
+
+    final int length;
+
+    /**
+     * cos(2*pi*k/m) for k=0...m/2.
+     */
+    final double[] cos;
+
+    /**
+     * sin(2*pi*k/m) for k=0...m/2.
+     */
+    final double[] sin;
+
+    /**
+     * Bit reversal permutation.
+     */
+    final int[] rev;
+
+    Tables(int m) {
+      length = m;
+      cos = new double[m/2+1];
+      sin = new double[m/2+1];
+      for (int k=0; k<=m/2; k++) {
+        cos[k] = Math.cos(TWO_PI*k/m);
+        sin[k] = Math.sin(TWO_PI*k/m);
+      }
+      rev = new int[m];
+      int bits = Integer.numberOfTrailingZeros(m);
+      for (int i=0; i<m; i++)
+        rev[i] = bits==0 ? 0 : Integer.reverse(i)>>>(32-bits);
+    }
+  }
+}
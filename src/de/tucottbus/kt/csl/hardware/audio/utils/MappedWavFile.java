@@ -0,0 +1,804 @@
+package de.tucottbus.kt.csl.hardware.audio.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Wave file reader and writer based on NIO channels, working on planar
+ * multichannel {@code float[][]} buffers.<br>
+ * <br>
+ * Files are read through memory mapped windows of the data chunk and decoded
+ * in bulk, i.e. {@code buffer[c][i]} receives the i-th sample of channel c.
+ * Files are written through a preallocated direct buffer, the number of frames
+ * need not be known in advance. Supported sample encodings are 16, 24 and 32
+ * bit signed PCM and 32 bit IEEE float, also in WAVE_FORMAT_EXTENSIBLE files.
+ * Integer samples are normalized to [-1,1), float samples are passed through
+ * unchanged.<br>
+ * <br>
+ * Recordings larger than 4 GiB are stored as RF64 (EBU Tech 3306). The writer
+ * reserves a JUNK chunk for the ds64 chunk and only converts the header to
+ * RF64 on {@link #close()} if the file exceeds the RIFF size limit, so smaller
+ * files remain plain RIFF wave files. The reader accepts RIFF, RF64 and BW64
+ * files. A data chunk size of 0 or 0xFFFFFFFF in a RIFF file (e.g. left by an
+ * interrupted recording) is taken as "up to the end of the file".<br>
+ * <br>
+ * Instances are <em>not</em> thread-safe. Mapped windows are released by the
+ * garbage collector, not by {@link #close()}; on Windows the file may remain
+ * locked until then.
+ *
+ * @see WavFile
+ */
+public final class MappedWavFile implements Closeable {
+
+  /**
+   * Sample encodings.
+   */
+  public enum Encoding {
+    /**
+     * 16 bit signed PCM.
+     */
+    PCM_16(2, WAVE_FORMAT_PCM),
+
+    /**
+     * 24 bit signed PCM.
+     */
+    PCM_24(3, WAVE_FORMAT_PCM),
+
+    /**
+     * 32 bit signed PCM.
+     */
+    PCM_32(4, WAVE_FORMAT_PCM),
+
+    /**
+     * 32 bit IEEE float.
+     */
+    FLOAT_32(4, WAVE_FORMAT_IEEE_FLOAT);
+
+    /**
+     * The number of bytes per sample.
+     */
+    public final int bytes;
+
+    /**
+     * The wave format tag.
+     */
+    final int formatTag;
+
+    private Encoding(int bytes, int formatTag) {
+      this.bytes = bytes;
+      this.formatTag = formatTag;
+    }
+
+    /**
+     * Returns the number of bits per sample.
+     */
+    public int getBits() {
+      return 8*bytes;
+    }
+
+    static Encoding valueOf(int formatTag, int bits) {
+      for (Encoding e : values())
+        if (e.formatTag==formatTag && e.getBits()==bits)
+          return e;
+      return null;
+    }
+  }
+
+  // -- Constants --
+
+  private static final int WAVE_FORMAT_PCM        = 0x0001;
+  private static final int WAVE_FORMAT_IEEE_FLOAT = 0x0003;
+  private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+  private static final int RIFF_CHUNK_ID = 0x46464952; // "RIFF"
+  private static final int RF64_CHUNK_ID = 0x34364652; // "RF64"
+  private static final int BW64_CHUNK_ID = 0x34365742; // "BW64"
+  private static final int WAVE_TYPE_ID  = 0x45564157; // "WAVE"
+  private static final int FMT_CHUNK_ID  = 0x20746D66; // "fmt "
+  private static final int DATA_CHUNK_ID = 0x61746164; // "data"
+  private static final int JUNK_CHUNK_ID = 0x4B4E554A; // "JUNK"
+  private static final int DS64_CHUNK_ID = 0x34367364; // "ds64"
+
+  /**
+   * Size of the ds64 chunk data (without table).
+   */
+  private static final int DS64_SIZE = 28;
+
+  /**
+   * Maximal size of a RIFF chunk.
+   */
+  private static final long RIFF_LIMIT = 0xFFFFFFFFL;
+
+  /**
+   * Maximal size of a mapped window of the data chunk in bytes.
+   */
+  private static final int MAP_WINDOW = 1<<28;
+
+  /**
+   * Size of the write buffer in bytes.
+   */
+  private static final int WRITE_BUFFER = 1<<20;
+
+  private static final float SCALE_16 = 1f/(1<<15);
+  private static final float SCALE_24 = 1f/(1<<23);
+  private static final float SCALE_32 = 1f/(1L<<31);
+
+  // -- Fields --
+
+  private final File file;
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+  private final Encoding encoding;
+  private final int numChannels;
+  private final long sampleRate;
+  private final int blockAlign;
+  private final long dataOffset;
+  private final boolean forceRf64;
+
+  /**
+   * Number of frames in the file.
+   */
+  private long numFrames;
+
+  /**
+   * Index of the next frame to read or write.
+   */
+  private long frameCounter;
+
+  /**
+   * Currently mapped window of the data chunk (reading only).
+   */
+  private MappedByteBuffer window;
+  private long windowFirst;
+  private long windowFrames;
+
+  /**
+   * Direct write buffer, {@code null} when reading.
+   */
+  private ByteBuffer writeBuffer;
+
+  /**
+   * {@code true} if the file is an RF64 file.
+   */
+  private boolean rf64;
+
+  private boolean closed;
+
+  private MappedWavFile(File file, RandomAccessFile raf, Encoding encoding,
+      int numChannels, long sampleRate, long dataOffset, boolean forceRf64) {
+    this.file = file;
+    this.raf = raf;
+    this.channel = raf.getChannel();
+    this.encoding = encoding;
+    this.numChannels = numChannels;
+    this.sampleRate = sampleRate;
+    this.blockAlign = encoding.bytes*numChannels;
+    this.dataOffset = dataOffset;
+    this.forceRf64 = forceRf64;
+  }
+
+  // -- Opening and creating files --
+
+  /**
+   * Opens a wave file for reading.
+   *
+   * @param file
+   *          The file.
+   * @return The wave file, positioned at the first frame.
+   * @throws IOException
+   *          on I/O errors, if the file is not a wave file or if the sample
+   *          encoding is not supported.
+   */
+  public static MappedWavFile openWavFile(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long fileSize = channel.size();
+      ByteBuffer buf = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+
+      readFully(channel, buf, 0, 12);
+      int riffId = buf.getInt(0);
+      if (riffId!=RIFF_CHUNK_ID && riffId!=RF64_CHUNK_ID && riffId!=BW64_CHUNK_ID)
+        throw new IOException("Invalid wave header, incorrect riff chunk ID");
+      if (buf.getInt(8)!=WAVE_TYPE_ID)
+        throw new IOException("Invalid wave header, incorrect riff type ID");
+      boolean rf64 = riffId!=RIFF_CHUNK_ID;
+
+      long ds64DataSize = -1;
+      Encoding encoding = null;
+      int numChannels = 0;
+      long sampleRate = 0;
+      long pos = 12;
+      while (true) {
+        if (pos+8>fileSize)
+          throw new IOException("Reached end of file without finding data chunk");
+        readFully(channel, buf, pos, 8);
+        int chunkId = buf.getInt(0);
+        long chunkSize = buf.getInt(4)&0xFFFFFFFFL;
+        pos += 8;
+
+        if (chunkId==DS64_CHUNK_ID) {
+          if (chunkSize<DS64_SIZE)
+            throw new IOException("Invalid ds64 chunk");
+          readFully(channel, buf, pos, 16);
+          ds64DataSize = buf.getLong(8);
+        } else if (chunkId==FMT_CHUNK_ID) {
+          if (chunkSize<16)
+            throw new IOException("Invalid format chunk");
+          readFully(channel, buf, pos, (int)Math.min(chunkSize, 40));
+          int formatTag = buf.getShort(0)&0xFFFF;
+          numChannels = buf.getShort(2)&0xFFFF;
+          sampleRate = buf.getInt(4)&0xFFFFFFFFL;
+          int align = buf.getShort(12)&0xFFFF;
+          int bits = buf.getShort(14)&0xFFFF;
+          if (formatTag==WAVE_FORMAT_EXTENSIBLE) {
+            if (chunkSize<40)
+              throw new IOException("Invalid extensible format chunk");
+            formatTag = buf.getShort(24)&0xFFFF; // first two bytes of the sub-format GUID
+          }
+          encoding = Encoding.valueOf(formatTag, bits);
+          if (encoding==null)
+            throw new IOException("Format "+formatTag+" with "+bits+" bits per sample not supported");
+          if (numChannels==0)
+            throw new IOException("Number of channels specified in header is equal to zero");
+          if (align!=encoding.bytes*numChannels)
+            throw new IOException("Block align does not agree with bits per sample and number of channels");
+        } else if (chunkId==DATA_CHUNK_ID) {
+          if (encoding==null)
+            throw new IOException("Data chunk found before format chunk");
+          if (rf64 && chunkSize==RIFF_LIMIT) {
+            if (ds64DataSize<0)
+              throw new IOException("RF64 file without ds64 chunk");
+            chunkSize = ds64DataSize;
+          } else if (!rf64 && (chunkSize==0 || chunkSize==RIFF_LIMIT))
+            chunkSize = Long.MAX_VALUE;
+          MappedWavFile wavFile = new MappedWavFile(file, raf, encoding,
+              numChannels, sampleRate, pos, false);
+          wavFile.rf64 = rf64;
+          wavFile.numFrames = Math.min(chunkSize, fileSize-pos)/wavFile.blockAlign;
+          return wavFile;
+        }
+
+        // Chunks are word aligned
+        pos += chunkSize+(chunkSize&1);
+      }
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Creates a new wave file for writing. If the file exists, it is
+   * overwritten.
+   *
+   * @param file
+   *          The file.
+   * @param numChannels
+   *          The number of channels, [1...65535].
+   * @param sampleRate
+   *          The sample rate in Hertz.
+   * @param encoding
+   *          The sample encoding.
+   * @return The wave file.
+   * @throws IOException
+   *          on I/O errors.
+   */
+  public static MappedWavFile newWavFile(File file, int numChannels,
+      long sampleRate, Encoding encoding) throws IOException {
+    return newWavFile(file, numChannels, sampleRate, encoding, false);
+  }
+
+  /**
+   * Creates a new wave file for writing. If the file exists, it is
+   * overwritten.
+   *
+   * @param file
+   *          The file.
+   * @param numChannels
+   *          The number of channels, [1...65535].
+   * @param sampleRate
+   *          The sample rate in Hertz.
+   * @param encoding
+   *          The sample encoding.
+   * @param forceRf64
+   *          If {@code true}, the file is written as RF64 regardless of its
+   *          size. Otherwise it is only converted to RF64 if it exceeds 4 GiB.
+   * @return The wave file.
+   * @throws IOException
+   *          on I/O errors.
+   */
+  public static MappedWavFile newWavFile(File file, int numChannels,
+      long sampleRate, Encoding encoding, boolean forceRf64)
+      throws IOException {
+    if (numChannels<1 || numChannels>65535)
+      throw new IllegalArgumentException("Illegal number of channels, valid range 1 to 65535");
+    if (sampleRate<1 || sampleRate>RIFF_LIMIT)
+      throw new IllegalArgumentException("Illegal sample rate "+sampleRate);
+    if (encoding==null)
+      throw new IllegalArgumentException("No encoding");
+
+    int fmtSize = encoding.formatTag==WAVE_FORMAT_PCM ? 16 : 18;
+    ByteBuffer hdr = ByteBuffer.allocate(12+8+DS64_SIZE+8+fmtSize+8)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    hdr.putInt(RIFF_CHUNK_ID).putInt(0).putInt(WAVE_TYPE_ID);
+    hdr.putInt(JUNK_CHUNK_ID).putInt(DS64_SIZE);
+    hdr.position(hdr.position()+DS64_SIZE); // Placeholder for ds64
+    int blockAlign = encoding.bytes*numChannels;
+    hdr.putInt(FMT_CHUNK_ID).putInt(fmtSize);
+    hdr.putShort((short)encoding.formatTag);
+    hdr.putShort((short)numChannels);
+    hdr.putInt((int)sampleRate);
+    hdr.putInt((int)(sampleRate*blockAlign));
+    hdr.putShort((short)blockAlign);
+    hdr.putShort((short)encoding.getBits());
+    if (fmtSize>16)
+      hdr.putShort((short)0); // cbSize
+    hdr.putInt(DATA_CHUNK_ID).putInt(0);
+    hdr.flip();
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(0);
+      MappedWavFile wavFile = new MappedWavFile(file, raf, encoding,
+          numChannels, sampleRate, hdr.limit(), forceRf64);
+      writeFully(wavFile.channel, hdr, 0);
+      wavFile.channel.position(hdr.limit());
+      wavFile.writeBuffer = ByteBuffer
+          .allocateDirect(Math.max(1, WRITE_BUFFER/blockAlign)*blockAlign)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      return wavFile;
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  // -- Getters --
+
+  /**
+   * Returns the file.
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Returns the number of channels.
+   */
+  public int getNumChannels() {
+    return numChannels;
+  }
+
+  /**
+   * Returns the sample rate in Hertz.
+   */
+  public long getSampleRate() {
+    return sampleRate;
+  }
+
+  /**
+   * Returns the sample encoding.
+   */
+  public Encoding getEncoding() {
+    return encoding;
+  }
+
+  /**
+   * Returns the number of bytes per frame.
+   */
+  public int getBlockAlign() {
+    return blockAlign;
+  }
+
+  /**
+   * Returns the number of frames in the file. While writing, this is the
+   * number of frames written so far.
+   */
+  public long getNumFrames() {
+    return numFrames;
+  }
+
+  /**
+   * Returns the number of frames remaining to be read.
+   */
+  public long getFramesRemaining() {
+    return numFrames-frameCounter;
+  }
+
+  /**
+   * Determines if the file is (or, after closing, will be) an RF64 file.
+   */
+  public boolean isRf64() {
+    if (writeBuffer!=null && !closed)
+      return forceRf64 || getRiffSize()>RIFF_LIMIT;
+    return rf64;
+  }
+
+  // -- Reading --
+
+  /**
+   * Moves the read position.
+   *
+   * @param frame
+   *          The index of the next frame to read, [0...{@link #getNumFrames()}].
+   * @throws IOException
+   *          if the file is not open for reading.
+   */
+  public void seek(long frame) throws IOException {
+    checkReading();
+    if (frame<0 || frame>numFrames)
+      throw new IllegalArgumentException("Frame "+frame+" out of range");
+    frameCounter = frame;
+  }
+
+  /**
+   * Reads frames into planar channel buffers.
+   *
+   * @param buffer
+   *          The channel buffers, at least {@link #getNumChannels()} arrays.
+   * @param numFramesToRead
+   *          The maximal number of frames to read.
+   * @return The number of frames actually read, less than
+   *         {@code numFramesToRead} at the end of the file.
+   * @throws IOException
+   *          on I/O errors or if the file is not open for reading.
+   */
+  public int readFrames(float[][] buffer, int numFramesToRead)
+      throws IOException {
+    return readFrames(buffer, 0, numFramesToRead);
+  }
+
+  /**
+   * Reads frames into planar channel buffers.
+   *
+   * @param buffer
+   *          The channel buffers, at least {@link #getNumChannels()} arrays.
+   * @param offset
+   *          The index in the channel buffers to store the first frame at.
+   * @param numFramesToRead
+   *          The maximal number of frames to read.
+   * @return The number of frames actually read, less than
+   *         {@code numFramesToRead} at the end of the file.
+   * @throws IOException
+   *          on I/O errors or if the file is not open for reading.
+   */
+  public int readFrames(float[][] buffer, int offset, int numFramesToRead)
+      throws IOException {
+    checkReading();
+    if (buffer.length<numChannels)
+      throw new IllegalArgumentException("Need "+numChannels+" channel buffers, got "+buffer.length);
+
+    int total = 0;
+    while (total<numFramesToRead && frameCounter<numFrames) {
+      if (window==null || frameCounter<windowFirst || frameCounter>=windowFirst+windowFrames)
+        map(frameCounter);
+      int count = (int)Math.min(numFramesToRead-total, windowFirst+windowFrames-frameCounter);
+      int pos = (int)((frameCounter-windowFirst)*blockAlign);
+      switch (encoding) {
+      case PCM_16:   decode16(pos, buffer, offset+total, count); break;
+      case PCM_24:   decode24(pos, buffer, offset+total, count); break;
+      case PCM_32:   decode32(pos, buffer, offset+total, count); break;
+      case FLOAT_32: decodeFloat(pos, buffer, offset+total, count); break;
+      }
+      total += count;
+      frameCounter += count;
+    }
+    return total;
+  }
+
+  private void map(long frame) throws IOException {
+    windowFirst = frame;
+    windowFrames = Math.min(numFrames-frame, MAP_WINDOW/blockAlign);
+    window = channel.map(FileChannel.MapMode.READ_ONLY,
+        dataOffset+frame*blockAlign, windowFrames*blockAlign);
+    window.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private void decode16(int pos, float[][] dst, int off, int count) {
+    MappedByteBuffer src = window;
+    for (int i=off, n=off+count; i<n; i++)
+      for (int c=0; c<numChannels; c++, pos+=2)
+        dst[c][i] = src.getShort(pos)*SCALE_16;
+  }
+
+  private void decode24(int pos, float[][] dst, int off, int count) {
+    MappedByteBuffer src = window;
+    for (int i=off, n=off+count; i<n; i++)
+      for (int c=0; c<numChannels; c++, pos+=3) {
+        int v = (src.get(pos)&0xFF)|(src.get(pos+1)&0xFF)<<8|src.get(pos+2)<<16;
+        dst[c][i] = v*SCALE_24;
+      }
+  }
+
+  private void decode32(int pos, float[][] dst, int off, int count) {
+    MappedByteBuffer src = window;
+    for (int i=off, n=off+count; i<n; i++)
+      for (int c=0; c<numChannels; c++, pos+=4)
+        dst[c][i] = src.getInt(pos)*SCALE_32;
+  }
+
+  private void decodeFloat(int pos, float[][] dst, int off, int count) {
+    MappedByteBuffer src = window;
+    for (int i=off, n=off+count; i<n; i++)
+      for (int c=0; c<numChannels; c++, pos+=4)
+        dst[c][i] = src.getFloat(pos);
+  }
+
+  // -- Writing --
+
+  /**
+   * Writes frames from planar channel buffers. Integer samples are clipped to
+   * [-1,1].
+   *
+   * @param buffer
+   *          The channel buffers, at least {@link #getNumChannels()} arrays.
+   * @param numFramesToWrite
+   *          The number of frames to write.
+   * @throws IOException
+   *          on I/O errors or if the file is not open for writing.
+   */
+  public void writeFrames(float[][] buffer, int numFramesToWrite)
+      throws IOException {
+    writeFrames(buffer, 0, numFramesToWrite);
+  }
+
+  /**
+   * Writes frames from planar channel buffers. Integer samples are clipped to
+   * [-1,1].
+   *
+   * @param buffer
+   *          The channel buffers, at least {@link #getNumChannels()} arrays.
+   * @param offset
+   *          The index of the first frame in the channel buffers.
+   * @param numFramesToWrite
+   *          The number of frames to write.
+   * @throws IOException
+   *          on I/O errors or if the file is not open for writing.
+   */
+  public void writeFrames(float[][] buffer, int offset, int numFramesToWrite)
+      throws IOException {
+    if (writeBuffer==null || closed)
+      throw new IOException("Cannot write to "+this);
+    if (buffer.length<numChannels)
+      throw new IllegalArgumentException("Need "+numChannels+" channel buffers, got "+buffer.length);
+
+    int total = 0;
+    while (total<numFramesToWrite) {
+      if (writeBuffer.remaining()<blockAlign)
+        flush();
+      int count = Math.min(numFramesToWrite-total, writeBuffer.remaining()/blockAlign);
+      switch (encoding) {
+      case PCM_16:   encode16(buffer, offset+total, count); break;
+      case PCM_24:   encode24(buffer, offset+total, count); break;
+      case PCM_32:   encode32(buffer, offset+total, count); break;
+      case FLOAT_32: encodeFloat(buffer, offset+total, count); break;
+      }
+      total += count;
+    }
+    numFrames += numFramesToWrite;
+    frameCounter = numFrames;
+  }
+
+  /**
+   * Writes frames from an interleaved buffer, i.e. {@code buffer[i*n+c]} is
+   * the i-th sample of channel c, n being {@link #getNumChannels()}. Integer
+   * samples are clipped to [-1,1].
+   *
+   * @param buffer
+   *          The interleaved samples.
+   * @param offset
+   *          The index of the first frame in the buffer (in frames).
+   * @param numFramesToWrite
+   *          The number of frames to write.
+   * @throws IOException
+   *          on I/O errors or if the file is not open for writing.
+   */
+  public void writeFrames(float[] buffer, int offset, int numFramesToWrite)
+      throws IOException {
+    if (writeBuffer==null || closed)
+      throw new IOException("Cannot write to "+this);
+
+    int total = 0;
+    while (total<numFramesToWrite) {
+      if (writeBuffer.remaining()<blockAlign)
+        flush();
+      int count = Math.min(numFramesToWrite-total, writeBuffer.remaining()/blockAlign);
+      encode(buffer, (offset+total)*numChannels, count*numChannels);
+      total += count;
+    }
+    numFrames += numFramesToWrite;
+    frameCounter = numFrames;
+  }
+
+  private void encode(float[] src, int off, int count) {
+    ByteBuffer dst = writeBuffer;
+    int n = off+count;
+    switch (encoding) {
+    case PCM_16:
+      for (int i=off; i<n; i++)
+        dst.putShort((short)Math.round(clip(src[i])*Short.MAX_VALUE));
+      break;
+    case PCM_24:
+      for (int i=off; i<n; i++) {
+        int v = Math.round(clip(src[i])*0x7FFFFF);
+        dst.put((byte)v).put((byte)(v>>8)).put((byte)(v>>16));
+      }
+      break;
+    case PCM_32:
+      for (int i=off; i<n; i++)
+        dst.putInt((int)Math.round(clip(src[i])*(double)Integer.MAX_VALUE));
+      break;
+    case FLOAT_32:
+      for (int i=off; i<n; i++)
+        dst.putFloat(src[i]);
+      break;
+    }
+  }
+
+  private void encode16(float[][] src, int off, int count) {
+    ByteBuffer dst = writeBuffer;
+    for (int i=off, n=off+count; i<n; i++)
+      for (int c=0; c<numChannels; c++)
+        dst.putShort((short)Math.round(clip(src[c][i])*Short.MAX_VALUE));
+  }
+
+  private void encode24(float[][] src, int off, int count) {
+    ByteBuffer dst = writeBuffer;
+    for (int i=off, n=off+count; i<n; i++)
+      for (int c=0; c<numChannels; c++) {
+        int v = Math.round(clip(src[c][i])*0x7FFFFF);
+        dst.put((byte)v).put((byte)(v>>8)).put((byte)(v>>16));
+      }
+  }
+
+  private void encode32(float[][] src, int off, int count) {
+    ByteBuffer dst = writeBuffer;
+    for (int i=off, n=off+count; i<n; i++)
+      for (int c=0; c<numChannels; c++)
+        dst.putInt((int)Math.round(clip(src[c][i])*(double)Integer.MAX_VALUE));
+  }
+
+  private void encodeFloat(float[][] src, int off, int count) {
+    ByteBuffer dst = writeBuffer;
+    for (int i=off, n=off+count; i<n; i++)
+      for (int c=0; c<numChannels; c++)
+        dst.putFloat(src[c][i]);
+  }
+
+  private static float clip(float v) {
+    return v>1f ? 1f : (v<-1f ? -1f : v);
+  }
+
+  /**
+   * Writes the contents of the write buffer to the file.
+   *
+   * @throws IOException
+   *          on I/O errors.
+   */
+  private void flush() throws IOException {
+    writeBuffer.flip();
+    while (writeBuffer.hasRemaining())
+      channel.write(writeBuffer);
+    writeBuffer.clear();
+  }
+
+  private long getRiffSize() {
+    long dataSize = numFrames*blockAlign;
+    return dataOffset-8+dataSize+(dataSize&1);
+  }
+
+  /**
+   * Writes the final header. Converts the file to RF64 if required.
+   */
+  private void finishHeader() throws IOException {
+    long dataSize = numFrames*blockAlign;
+    if ((dataSize&1)!=0)
+      writeFully(channel, ByteBuffer.allocate(1), dataOffset+dataSize);
+
+    long riffSize = getRiffSize();
+    rf64 = forceRf64 || riffSize>RIFF_LIMIT;
+    ByteBuffer buf = ByteBuffer.allocate(8+DS64_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    if (rf64) {
+      buf.putInt(RF64_CHUNK_ID).putInt(-1).flip();
+      writeFully(channel, buf, 0);
+      buf.clear();
+      buf.putInt(DS64_CHUNK_ID).putInt(DS64_SIZE);
+      buf.putLong(riffSize).putLong(dataSize).putLong(numFrames).putInt(0);
+      buf.flip();
+      writeFully(channel, buf, 12);
+      buf.clear();
+      buf.putInt(-1).flip();
+    } else {
+      buf.putInt(RIFF_CHUNK_ID).putInt((int)riffSize).flip();
+      writeFully(channel, buf, 0);
+      buf.clear();
+      buf.putInt((int)dataSize).flip();
+    }
+    writeFully(channel, buf, dataOffset-4);
+  }
+
+  // -- Closing --
+
+  /**
+   * Closes the file. When writing, the remaining buffered frames and the final
+   * header are written.
+   *
+   * @throws IOException
+   *          on I/O errors.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed)
+      return;
+    closed = true;
+    window = null;
+    try {
+      if (writeBuffer!=null) {
+        flush();
+        finishHeader();
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  // -- Auxiliary methods --
+
+  private void checkReading() throws IOException {
+    if (writeBuffer!=null || closed)
+      throw new IOException("Cannot read from "+this);
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buf, long pos,
+      int length) throws IOException {
+    buf.clear().limit(length);
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, pos+buf.position())<0)
+        throw new IOException("Unexpected end of file");
+    }
+    buf.flip();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buf, long pos)
+      throws IOException {
+    while (buf.hasRemaining())
+      channel.write(buf, pos+buf.position());
+  }
+
+  /**
+   * Prints the format of the file to {@link System#out}.
+   */
+  public void display() {
+    display(System.out);
+  }
+
+  /**
+   * Prints the format of the file.
+   *
+   * @param out
+   *          The stream to print to.
+   */
+  public void display(PrintStream out) {
+    out.printf("File: %s%s\n", file, isRf64() ? " (RF64)" : "");
+    out.printf("Channels: %d, Frames: %d\n", numChannels, numFrames);
+    out.printf("Sample Rate: %d, Block Align: %d\n", sampleRate, blockAlign);
+    out.printf("Encoding: %s\n", encoding);
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName()+"["+file+", "+(writeBuffer!=null?"writing":"reading")
+        +(closed?", closed":"")+"]";
+  }
+
+}
+
+// EOF
@@ -0,0 +1,168 @@
+package de.tucottbus.kt.csl.hardware.audio.utils;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Random;
+
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+import de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadi;
+
+/**
+ * Checks that {@link MappedWavFile} and {@link WavFile} read the same samples
+ * and compares the throughput of both implementations on a synthetic
+ * recording of the microphone array (64 channels, 44.1 kHz). The first
+ * argument is the length of the recording in seconds (default: 10).
+ */
+public class MappedWavFileTest {
+
+  /**
+   * Block size in frames.
+   */
+  private static final int BLOCK = AudioInputConstants.FRAME_SIZE*16;
+
+  private static final int CHANNELS = RmeHdspMadi.CHANNEL_COUNT;
+
+  private static boolean check(String name, double deviation, double epsilon){
+    boolean ok = deviation<=epsilon;
+    System.out.println(String.format(Locale.US,"%-40s max. deviation %.3e %s",name,deviation,ok?"OK":"FAILED"));
+    return ok;
+  }
+
+  private static void report(String name, long bytes, long nanos){
+    System.out.println(String.format(Locale.US,"%-40s %8.1f ms %8.1f MB/s",name,nanos/1E6,bytes*1E3/nanos));
+  }
+
+  private static float[][] createSignal(int frames){
+    Random random = new Random(4711);
+    float[][] signal = new float[CHANNELS][frames];
+    for (int c = 0; c < CHANNELS; c++) {
+      double f = 100+random.nextDouble()*2000;
+      for (int i = 0; i < frames; i++) {
+        signal[c][i] = (float)(0.5*Math.sin(2*Math.PI*f*i/AudioInputConstants.SAMPLERATE)+0.05*random.nextGaussian());
+      }
+    }
+    return signal;
+  }
+
+  /**
+   * Writes the signal as a 24 bit file with {@link WavFile}.
+   */
+  private static long writeWavFile(File file, float[][] signal, int frames) throws Exception {
+    long t0 = System.nanoTime();
+    WavFile wav = WavFile.newWavFile(file,CHANNELS,frames,24,AudioInputConstants.SAMPLERATE);
+    double[][] buffer = new double[CHANNELS][BLOCK];
+    for (int f = 0; f < frames; f += BLOCK) {
+      int n = Math.min(BLOCK,frames-f);
+      for (int c = 0; c < CHANNELS; c++)
+        for (int i = 0; i < n; i++)
+          buffer[c][i] = signal[c][f+i];
+      wav.writeFrames(buffer,n);
+    }
+    wav.close();
+    return System.nanoTime()-t0;
+  }
+
+  private static long writeMappedWavFile(File file, float[][] signal, int frames, MappedWavFile.Encoding encoding, boolean rf64) throws Exception {
+    long t0 = System.nanoTime();
+    MappedWavFile wav = MappedWavFile.newWavFile(file,CHANNELS,AudioInputConstants.SAMPLERATE,encoding,rf64);
+    for (int f = 0; f < frames; f += BLOCK)
+      wav.writeFrames(signal,f,Math.min(BLOCK,frames-f));
+    wav.close();
+    return System.nanoTime()-t0;
+  }
+
+  /**
+   * Reads the file with {@link WavFile} and returns the maximal deviation from
+   * the signal. If the signal is {@code null}, the samples are not compared.
+   */
+  private static double readWavFile(File file, float[][] signal, long[] nanos) throws Exception {
+    long t0 = System.nanoTime();
+    WavFile wav = WavFile.openWavFile(file);
+    double[][] buffer = new double[CHANNELS][BLOCK];
+    double max = 0;
+    int f = 0;
+    int n;
+    while ((n = wav.readFrames(buffer,BLOCK))>0) {
+      if (signal!=null)
+        for (int c = 0; c < CHANNELS; c++)
+          for (int i = 0; i < n; i++)
+            max = Math.max(max,Math.abs(buffer[c][i]-signal[c][f+i]));
+      f += n;
+    }
+    wav.close();
+    nanos[0] = System.nanoTime()-t0;
+    return signal==null || f==signal[0].length ? max : Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Reads the file with {@link MappedWavFile} and returns the maximal deviation
+   * from the signal. If the signal is {@code null}, the samples are not
+   * compared.
+   */
+  private static double readMappedWavFile(File file, float[][] signal, long[] nanos) throws Exception {
+    long t0 = System.nanoTime();
+    MappedWavFile wav = MappedWavFile.openWavFile(file);
+    float[][] buffer = new float[CHANNELS][BLOCK];
+    double max = 0;
+    int f = 0;
+    int n;
+    while ((n = wav.readFrames(buffer,BLOCK))>0) {
+      if (signal!=null)
+        for (int c = 0; c < CHANNELS; c++)
+          for (int i = 0; i < n; i++)
+            max = Math.max(max,Math.abs(buffer[c][i]-signal[c][f+i]));
+      f += n;
+    }
+    wav.close();
+    nanos[0] = System.nanoTime()-t0;
+    return signal==null || f==signal[0].length ? max : Double.POSITIVE_INFINITY;
+  }
+
+  public static void main(String[] args) throws Exception {
+    double seconds = args.length>0 ? Double.parseDouble(args[0]) : 10;
+    int frames = (int)(seconds*AudioInputConstants.SAMPLERATE);
+    float[][] signal = createSignal(frames);
+    File file = File.createTempFile("csl",".wav");
+    file.deleteOnExit();
+    long[] nanos = new long[1];
+    boolean ok = true;
+
+    System.out.println(String.format(Locale.US,"%d channels, %d frames (%.1f s)",CHANNELS,frames,seconds));
+
+    // Reference implementation, 24 bit
+    double epsilon = 2.0/(1<<23);
+    long bytes = (long)frames*CHANNELS*3;
+    report("WavFile write PCM_24",bytes,writeWavFile(file,signal,frames));
+    ok &= check("WavFile read PCM_24",readWavFile(file,signal,nanos),epsilon);
+    ok &= check("MappedWavFile read WavFile PCM_24",readMappedWavFile(file,signal,nanos),epsilon);
+
+    // All encodings
+    for (MappedWavFile.Encoding encoding : MappedWavFile.Encoding.values()) {
+      bytes = (long)frames*CHANNELS*encoding.bytes;
+      epsilon = encoding==MappedWavFile.Encoding.FLOAT_32 ? 0 : 2.0/(1L<<(encoding.getBits()-1));
+      report("MappedWavFile write "+encoding,bytes,writeMappedWavFile(file,signal,frames,encoding,false));
+      ok &= check("MappedWavFile read "+encoding,readMappedWavFile(file,signal,nanos),epsilon);
+      readMappedWavFile(file,null,nanos);
+      report("MappedWavFile read "+encoding,bytes,nanos[0]);
+      // WavFile cannot read float and gets the sign of 32 bit PCM wrong
+      if (encoding==MappedWavFile.Encoding.PCM_16 || encoding==MappedWavFile.Encoding.PCM_24) {
+        ok &= check("WavFile read "+encoding,readWavFile(file,signal,nanos),epsilon);
+        readWavFile(file,null,nanos);
+        report("WavFile read "+encoding,bytes,nanos[0]);
+      }
+    }
+
+    // RF64 header
+    writeMappedWavFile(file,signal,frames,MappedWavFile.Encoding.PCM_16,true);
+    MappedWavFile wav = MappedWavFile.openWavFile(file);
+    boolean rf64 = wav.isRf64() && wav.getNumFrames()==frames;
+    wav.close();
+    ok &= check("MappedWavFile RF64 header",rf64?0:1,0);
+    ok &= check("MappedWavFile read RF64",readMappedWavFile(file,signal,nanos),2.0/(1<<15));
+
+    file.delete();
+    System.out.println(ok ? "All tests passed" : "TESTS FAILED");
+  }
+}
+
+// EOF
@@ -0,0 +1,357 @@
+package de.tucottbus.kt.csl.hardware.audio.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streaming polyphase FIR sample rate converter working on primitive float
+ * arrays.<br>
+ * <br>
+ * The conversion ratio L/M (target rate/source rate, reduced) is implemented
+ * as upsampling by L, low-pass filtering and downsampling by M, of which only
+ * the required output samples are computed. The prototype low-pass is a
+ * Kaiser windowed sinc with a cutoff at 90% of the lower Nyquist frequency and
+ * about 90 dB stopband attenuation. Its L phases are computed once per ratio
+ * and shared between all resamplers; ratios used in the CSL (44.1 kHz to
+ * 16 kHz, 11.025 kHz and 8 kHz) are precomputed.<br>
+ * <br>
+ * A resampler keeps the filter history of each channel and the fractional
+ * time position between calls, so consecutive blocks of a stream are joined
+ * without seams. The number of output samples per block therefore varies by
+ * one (e.g. 185 or 186 for a block of 512 samples from 44.1 kHz to 16 kHz).
+ * The output is delayed by {@link #getDelay()} output samples. Resamplers are
+ * <em>not</em> thread-safe, use one resampler per stream.
+ *
+ * @see Resampler
+ */
+public final class PolyphaseResampler {
+
+  /**
+   * Number of zero crossings of the prototype sinc on each side.
+   */
+  private static final int ZERO_CROSSINGS = 16;
+
+  /**
+   * Cutoff frequency relative to the lower Nyquist frequency.
+   */
+  private static final double ROLLOFF = 0.9;
+
+  /**
+   * Kaiser window parameter (about 90 dB stopband attenuation).
+   */
+  private static final double KAISER_BETA = 9.0;
+
+  /**
+   * Cache of filter banks, key is L&lt;&lt;32|M.
+   */
+  private static final ConcurrentHashMap<Long,Bank> BANKS = new ConcurrentHashMap<Long,Bank>();
+
+  static {
+    getBank(44100,16000);
+    getBank(44100,11025);
+    getBank(44100,8000);
+  }
+
+  /**
+   * The filter bank.
+   */
+  private final Bank bank;
+
+  /**
+   * The number of channels.
+   */
+  private final int channels;
+
+  /**
+   * Per-channel work buffers: {@code bank.taps-1} history samples followed by
+   * the current input block.
+   */
+  private final float[][] work;
+
+  /**
+   * Time position of the next output sample relative to the first sample of
+   * the work buffers, in units of 1/L input samples.
+   */
+  private long position;
+
+  /**
+   * Creates a new resampler.
+   *
+   * @param sourceRate
+   *          The source sample rate in Hertz.
+   * @param targetRate
+   *          The target sample rate in Hertz.
+   * @param channels
+   *          The number of channels.
+   * @param maxBlockLength
+   *          The maximal number of input samples per channel and call.
+   * @throws IllegalArgumentException
+   *          if a parameter is not positive.
+   */
+  public PolyphaseResampler(int sourceRate, int targetRate, int channels,
+      int maxBlockLength) throws IllegalArgumentException {
+    if (channels<1 || maxBlockLength<1)
+      throw new IllegalArgumentException("Invalid dimensions "+channels+"x"+maxBlockLength);
+    this.bank = getBank(sourceRate,targetRate);
+    this.channels = channels;
+    this.work = new float[channels][bank.taps-1+maxBlockLength];
+    this.position = (long)(bank.taps-1)*bank.l; // First output at the first input sample
+  }
+
+  /**
+   * Returns the (cached) filter bank for a conversion ratio.
+   */
+  private static Bank getBank(int sourceRate, int targetRate) {
+    if (sourceRate<1 || targetRate<1)
+      throw new IllegalArgumentException("Invalid sample rates "+sourceRate+", "+targetRate);
+    int g = gcd(sourceRate,targetRate);
+    int l = targetRate/g;
+    int m = sourceRate/g;
+    Long key = ((long)l<<32)|m;
+    Bank bank = BANKS.get(key);
+    if (bank==null) {
+      bank = new Bank(l,m);
+      Bank other = BANKS.putIfAbsent(key,bank);
+      if (other!=null)
+        bank = other;
+    }
+    return bank;
+  }
+
+  private static int gcd(int a, int b) {
+    while (b!=0) {
+      int t = a%b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+
+  // -- Getters --
+
+  /**
+   * Returns the upsampling factor L.
+   */
+  public int getUpFactor() {
+    return bank.l;
+  }
+
+  /**
+   * Returns the downsampling factor M.
+   */
+  public int getDownFactor() {
+    return bank.m;
+  }
+
+  /**
+   * Returns the number of filter taps per phase.
+   */
+  public int getTapsPerPhase() {
+    return bank.taps;
+  }
+
+  /**
+   * Returns the number of channels.
+   */
+  public int getChannelCount() {
+    return channels;
+  }
+
+  /**
+   * Returns the maximal number of input samples per channel and call.
+   */
+  public int getMaxBlockLength() {
+    return work[0].length-bank.taps+1;
+  }
+
+  /**
+   * Returns the maximal number of output samples per channel for an input
+   * block.
+   *
+   * @param inputLength
+   *          The number of input samples per channel.
+   */
+  public int getMaxOutputLength(int inputLength) {
+    return (int)(((long)inputLength*bank.l+bank.m-1)/bank.m)+1;
+  }
+
+  /**
+   * Returns the delay of the output signal in output samples.
+   */
+  public double getDelay() {
+    return (bank.taps*bank.l-1)/2.0/bank.m;
+  }
+
+  // -- Operations --
+
+  /**
+   * Resets the filter history and the time position.
+   */
+  public void reset() {
+    for (float[] w : work)
+      Arrays.fill(w,0f);
+    position = (long)(bank.taps-1)*bank.l;
+  }
+
+  /**
+   * Resamples a block of a multichannel stream.
+   *
+   * @param input
+   *          The input channels, {@link #getChannelCount()} arrays.
+   * @param length
+   *          The number of input samples per channel, at most {@link
+   *          #getMaxBlockLength()}.
+   * @param output
+   *          The output channels, {@link #getChannelCount()} arrays of at
+   *          least {@link #getMaxOutputLength(int) getMaxOutputLength(length)}
+   *          samples.
+   * @return The number of output samples written per channel.
+   */
+  public int process(float[][] input, int length, float[][] output) {
+    return process(input,length,output,null);
+  }
+
+  /**
+   * Resamples a block of a multichannel stream.
+   *
+   * @param input
+   *          The input channels, {@link #getChannelCount()} arrays.
+   * @param length
+   *          The number of input samples per channel, at most {@link
+   *          #getMaxBlockLength()}.
+   * @param output
+   *          The output channels, {@link #getChannelCount()} arrays of at
+   *          least {@link #getMaxOutputLength(int) getMaxOutputLength(length)}
+   *          samples.
+   * @param channelSelection
+   *          Channels to process, can be {@code null} for all channels. The
+   *          history of skipped channels is not updated.
+   * @return The number of output samples written per channel.
+   */
+  public int process(float[][] input, int length, float[][] output, boolean[] channelSelection) {
+    final int taps = bank.taps;
+    if (length<0 || length>work[0].length-taps+1)
+      throw new IllegalArgumentException("Invalid block length "+length);
+
+    int count = 0;
+    for (int c=0; c<channels; c++) {
+      if (channelSelection!=null && !channelSelection[c])
+        continue;
+      count = process(input[c],length,work[c],output[c]);
+    }
+    if (count==0)
+      count = countOutput(length);
+    position += count*(long)bank.m-(long)length*bank.l;
+    return count;
+  }
+
+  /**
+   * Resamples one channel.
+   */
+  private int process(float[] in, int length, float[] w, float[] out) {
+    final int taps = bank.taps;
+    final int l = bank.l;
+    final int m = bank.m;
+    final float[][] phases = bank.phases;
+    System.arraycopy(in,0,w,taps-1,length);
+
+    // The output sample at time t (1/L input samples) uses the input samples
+    // w[t/L-taps+1 ... t/L] with filter phase t%L; t is relative to w[0]
+    final long end = (long)(taps-1+length)*l;
+    int n = 0;
+    for (long t=position; t<end; t+=m) {
+      final float[] h = phases[(int)(t%l)];
+      final int start = (int)(t/l)-taps+1;
+      float sum = 0f;
+      for (int k=0; k<taps; k++)
+        sum += h[k]*w[start+k];
+      out[n++] = sum;
+    }
+
+    // Keep the last taps-1 samples as history
+    System.arraycopy(w,length,w,0,taps-1);
+    return n;
+  }
+
+  /**
+   * Computes the number of output samples for an input block without
+   * processing.
+   */
+  private int countOutput(int length) {
+    final long end = (long)(bank.taps-1+length)*bank.l;
+    if (position>=end)
+      return 0;
+    return (int)((end-position+bank.m-1)/bank.m);
+  }
+
+  // -- Filter bank --
+
+  /**
+   * Polyphase decomposition of a Kaiser windowed sinc low-pass.
+   */
+  private static final class Bank {
+
+    /**
+     * Upsampling factor.
+     */
+    final int l;
+
+    /**
+     * Downsampling factor.
+     */
+    final int m;
+
+    /**
+     * Taps per phase.
+     */
+    final int taps;
+
+    /**
+     * The phases, L x taps coefficients in ascending input time order.
+     */
+    final float[][] phases;
+
+    Bank(int l, int m) {
+      this.l = l;
+      this.m = m;
+
+      // Cutoff relative to the upsampled rate
+      final double fc = ROLLOFF*0.5/Math.max(l,m);
+      int t = (int)Math.ceil(2.0*ZERO_CROSSINGS/(2*fc)/l);
+      this.taps = Math.max(t,2);
+      final int len = taps*l;
+      final double center = (len-1)/2.0;
+      final double i0Beta = bessel0(KAISER_BETA);
+      this.phases = new float[l][taps];
+
+      for (int i=0; i<len; i++) {
+        double x = i-center;
+        double sinc = x==0 ? 2*fc : Math.sin(2*Math.PI*fc*x)/(Math.PI*x);
+        double r = x/(center+1);
+        double win = bessel0(KAISER_BETA*Math.sqrt(Math.max(0,1-r*r)))/i0Beta;
+        // Coefficient i belongs to phase i%L and, in descending input time,
+        // tap i/L; the phases are stored in ascending input time order
+        phases[i%l][taps-1-i/l] = (float)(l*sinc*win);
+      }
+    }
+
+    /**
+     * Modified Bessel function of the first kind, order 0.
+     */
+    private static double bessel0(double x) {
+      double sum = 1;
+      double term = 1;
+      double q = x*x/4;
+      for (int k=1; k<50; k++) {
+        term *= q/((double)k*k);
+        sum += term;
+        if (term<sum*1E-16)
+          break;
+      }
+      return sum;
+    }
+  }
+
+}
+
+// EOF
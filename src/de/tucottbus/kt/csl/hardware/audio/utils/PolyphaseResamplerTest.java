@@ -0,0 +1,158 @@
+package de.tucottbus.kt.csl.hardware.audio.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+import de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadi;
+
+/**
+ * Checks the {@link PolyphaseResampler} for seamless block processing, pass
+ * band accuracy and stop band attenuation, and compares its speed and
+ * anti-aliasing with the sample rate conversion of {@link AudioSystem}.
+ */
+public class PolyphaseResamplerTest {
+
+  private static final int SOURCE_RATE = AudioInputConstants.SAMPLERATE;
+
+  private static final int BLOCK = AudioInputConstants.FRAME_SIZE;
+
+  private static final int CHANNELS = RmeHdspMadi.CHANNEL_COUNT;
+
+  private static boolean check(String name, double value, double limit){
+    boolean ok = value<=limit;
+    System.out.println(String.format(Locale.US,"%-48s %10.4g %s",name,value,ok?"OK":"FAILED"));
+    return ok;
+  }
+
+  private static float[] tone(double freq, int length){
+    float[] x = new float[length];
+    for (int i = 0; i < length; i++)
+      x[i] = (float)(0.5*Math.sin(2*Math.PI*freq*i/SOURCE_RATE));
+    return x;
+  }
+
+  /**
+   * Resamples a signal block by block and returns the concatenated output.
+   */
+  private static float[] resample(float[] x, int targetRate, int block){
+    PolyphaseResampler r = new PolyphaseResampler(SOURCE_RATE,targetRate,1,block);
+    float[][] in = new float[1][block];
+    float[][] out = new float[1][r.getMaxOutputLength(block)];
+    float[] y = new float[r.getMaxOutputLength(x.length)+1];
+    int n = 0;
+    for (int i = 0; i+block <= x.length; i += block) {
+      System.arraycopy(x,i,in[0],0,block);
+      int count = r.process(in,block,out);
+      System.arraycopy(out[0],0,y,n,count);
+      n += count;
+    }
+    float[] result = new float[n];
+    System.arraycopy(y,0,result,0,n);
+    return result;
+  }
+
+  /**
+   * Resamples a signal with {@link AudioSystem}.
+   */
+  private static float[] resampleJdk(float[] x, int targetRate) throws Exception {
+    AudioFormat src = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT,SOURCE_RATE,32,1,4,SOURCE_RATE,true);
+    AudioFormat dst = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT,targetRate,32,1,4,targetRate,true);
+    ByteBuffer bb = ByteBuffer.allocate(x.length*4);
+    bb.asFloatBuffer().put(x);
+    AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(bb.array()),src,x.length);
+    AudioInputStream conv = AudioSystem.getAudioInputStream(dst,in);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    byte[] buf = new byte[4096];
+    int n;
+    while ((n = conv.read(buf))>0)
+      bos.write(buf,0,n);
+    float[] y = new float[bos.size()/4];
+    ByteBuffer.wrap(bos.toByteArray()).asFloatBuffer().get(y);
+    return y;
+  }
+
+  /**
+   * Returns the RMS level of a signal in dB re. full scale, ignoring the
+   * first and last {@code skip} samples.
+   */
+  private static double level(float[] y, int skip){
+    double sum = 0;
+    for (int i = skip; i < y.length-skip; i++)
+      sum += y[i]*y[i];
+    return 10*Math.log10(sum/(y.length-2*skip)+1E-30);
+  }
+
+  public static void main(String[] args) throws Exception {
+    boolean ok = true;
+    int length = SOURCE_RATE;
+
+    for (int targetRate : new int[] { 16000, 11025, 8000 }) {
+      PolyphaseResampler r = new PolyphaseResampler(SOURCE_RATE,targetRate,1,BLOCK);
+      System.out.println(String.format(Locale.US,"%d -> %d Hz: L=%d, M=%d, %d taps per phase, delay %.1f samples",
+          SOURCE_RATE,targetRate,r.getUpFactor(),r.getDownFactor(),r.getTapsPerPhase(),r.getDelay()));
+      int skip = (int)r.getDelay()*2;
+
+      // Seamless block processing
+      float[] x = tone(1000,length);
+      float[] whole = resample(x,targetRate,length);
+      float[] blocks = resample(x,targetRate,BLOCK);
+      double max = 0;
+      for (int i = 0; i < blocks.length; i++)
+        max = Math.max(max,Math.abs(blocks[i]-whole[i]));
+      ok &= check("  block vs. one-shot, max. deviation",max,1E-6);
+
+      // Pass band: 1 kHz tone, compare with the delayed ideal output
+      max = 0;
+      double delay = r.getDelay();
+      for (int i = skip; i < whole.length-skip; i++) {
+        double ideal = 0.5*Math.sin(2*Math.PI*1000*(i-delay)/targetRate);
+        max = Math.max(max,Math.abs(whole[i]-ideal));
+      }
+      ok &= check("  1 kHz pass band, max. deviation",max,1E-3);
+
+      // Stop band: tone between the target Nyquist and source Nyquist
+      double stop = 0.5*targetRate+0.25*(0.5*SOURCE_RATE-0.5*targetRate);
+      double polyLevel = level(resample(tone(stop,length),targetRate,BLOCK),skip)-level(x,0);
+      ok &= check(String.format(Locale.US,"  %.0f Hz alias level (dB)",stop),polyLevel,-80);
+      double jdkLevel = level(resampleJdk(tone(stop,length),targetRate),skip)-level(x,0);
+      System.out.println(String.format(Locale.US,"  %-46s %10.4g","AudioSystem alias level (dB)",jdkLevel));
+    }
+
+    // Speed: 64 channels, 44.1 -> 16 kHz
+    PolyphaseResampler r = new PolyphaseResampler(SOURCE_RATE,16000,CHANNELS,BLOCK);
+    float[][] in = new float[CHANNELS][];
+    for (int c = 0; c < CHANNELS; c++)
+      in[c] = tone(100+c*30,BLOCK);
+    float[][] out = new float[CHANNELS][r.getMaxOutputLength(BLOCK)];
+    int blocks = 500;
+    for (int i = 0; i < blocks; i++)
+      r.process(in,BLOCK,out);
+    long t0 = System.nanoTime();
+    for (int i = 0; i < blocks; i++)
+      r.process(in,BLOCK,out);
+    double polyMs = (System.nanoTime()-t0)/1E6/blocks;
+    double periodMs = 1000.0*BLOCK/SOURCE_RATE;
+    System.out.println(String.format(Locale.US,"PolyphaseResampler, %d channels: %.3f ms per block (%.1f%% of block period)",
+        CHANNELS,polyMs,100*polyMs/periodMs));
+
+    int jdkBlocks = 20;
+    t0 = System.nanoTime();
+    for (int i = 0; i < jdkBlocks; i++)
+      for (int c = 0; c < CHANNELS; c++)
+        resampleJdk(in[c],16000);
+    double jdkMs = (System.nanoTime()-t0)/1E6/jdkBlocks;
+    System.out.println(String.format(Locale.US,"AudioSystem, %d channels: %.3f ms per block (%.1f%% of block period)",
+        CHANNELS,jdkMs,100*jdkMs/periodMs));
+
+    System.out.println(ok ? "All tests passed" : "TESTS FAILED");
+  }
+}
+
+// EOF
@@ -0,0 +1,523 @@
+package de.tucottbus.kt.csl.hardware.events;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.tucottbus.kt.lcars.logging.Log;
+
+/**
+ * Typed publish-subscribe event bus with bounded, asynchronous delivery.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>{@link #publish(EventTopic, Object) publish} never blocks. Each
+ *     subscription has its own queue and receives its events on its own
+ *     executor, one at a time and in batches of up to {@link #BATCH_SIZE}
+ *     events. A slow subscriber therefore delays neither the publisher nor
+ *     other subscribers.</li>
+ *   <li>Events of {@linkplain EventTopic#latestValue(String, Class)
+ *     latest-value topics} are kept in one slot per topic and subscription,
+ *     replacing the pending event if any. Slots are updated without locks.</li>
+ *   <li>Events of {@linkplain EventTopic#queued(String, Class) queued topics}
+ *     are queued up to the capacity of the subscription. Events published to
+ *     a full queue are dropped and counted.</li>
+ *   <li>Thus the memory used by a subscription is bounded by its capacity and
+ *     the number of latest-value topics, however slow the subscriber is.</li>
+ *   <li>Subscriptions record the queue depth, dropped and coalesced events,
+ *     and the handler latency.</li>
+ *   <li>The default executor is a shared pool of daemon threads. The default
+ *     capacity is 256 events. It can be changed by the system property
+ *     <code>csl.eventBus.capacity</code>.</li>
+ * </ul>
+ */
+public final class EventBus
+{
+  /**
+   * The maximal number of events delivered in one executor task.
+   */
+  public static final int BATCH_SIZE = 64;
+
+  /**
+   * The default capacity of subscriptions.
+   */
+  public static final int DEFAULT_CAPACITY
+    = Integer.getInteger("csl.eventBus.capacity",256);
+
+  /**
+   * Placeholder of <code>null</code> events in latest-value slots.
+   */
+  private static final Object NULL = new Object();
+
+  private static ExecutorService defaultExecutor;
+
+  private final String name;
+  private final Executor executor;
+  private final int capacity;
+  private final CopyOnWriteArrayList<Subscription> subscriptions
+    = new CopyOnWriteArrayList<Subscription>();
+
+  // -- Life cycle --
+
+  /**
+   * Creates an event bus delivering on the {@linkplain #getDefaultExecutor()
+   * default executor} with the {@linkplain #DEFAULT_CAPACITY default capacity}.
+   *
+   * @param name
+   *          The name.
+   */
+  public EventBus(String name)
+  {
+    this(name,getDefaultExecutor(),DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates an event bus.
+   *
+   * @param name
+   *          The name.
+   * @param executor
+   *          The default executor of the subscriptions.
+   * @param capacity
+   *          The default capacity of the subscriptions (in events of queued
+   *          topics).
+   */
+  public EventBus(String name, Executor executor, int capacity)
+  {
+    if (capacity<1)
+      throw new IllegalArgumentException("capacity<1");
+    this.name = name;
+    this.executor = executor;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Returns the shared default executor, a cached pool of daemon threads.
+   */
+  public static synchronized Executor getDefaultExecutor()
+  {
+    if (defaultExecutor==null)
+      defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory()
+      {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+          Thread t = new Thread(r);
+          t.setName("EventBus-"+count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    return defaultExecutor;
+  }
+
+  /**
+   * Cancels all subscriptions. Pending events are discarded.
+   */
+  public void close()
+  {
+    for (Subscription subscription : subscriptions)
+      subscription.cancel();
+  }
+
+  // -- API --
+
+  /**
+   * Subscribes to topics with the default executor and capacity of this bus.
+   *
+   * @param subscriber
+   *          The subscriber.
+   * @param topics
+   *          The topics, none for all topics.
+   * @return The subscription.
+   */
+  public Subscription subscribe(IEventSubscriber subscriber, EventTopic<?>... topics)
+  {
+    return subscribe(subscriber,executor,capacity,topics);
+  }
+
+  /**
+   * Subscribes to topics.
+   *
+   * @param subscriber
+   *          The subscriber.
+   * @param executor
+   *          The executor delivering the events.
+   * @param capacity
+   *          The maximal number of pending events of queued topics.
+   * @param topics
+   *          The topics, none for all topics.
+   * @return The subscription.
+   */
+  public Subscription subscribe(IEventSubscriber subscriber, Executor executor,
+    int capacity, EventTopic<?>... topics)
+  {
+    if (subscriber==null || executor==null)
+      throw new NullPointerException();
+    if (capacity<1)
+      throw new IllegalArgumentException("capacity<1");
+    Subscription subscription = new Subscription(subscriber,executor,capacity,topics);
+    subscriptions.add(subscription);
+    return subscription;
+  }
+
+  /**
+   * Cancels all subscriptions of a subscriber.
+   *
+   * @param subscriber
+   *          The subscriber.
+   */
+  public void unsubscribe(IEventSubscriber subscriber)
+  {
+    for (Subscription subscription : subscriptions)
+      if (subscription.subscriber==subscriber)
+        subscription.cancel();
+  }
+
+  /**
+   * Publishes an event. The method returns immediately.
+   *
+   * @param topic
+   *          The topic.
+   * @param event
+   *          The event, may be <code>null</code>.
+   */
+  public <T> void publish(EventTopic<T> topic, T event)
+  {
+    for (Subscription subscription : subscriptions)
+      if (subscription.accepts(topic))
+        subscription.offer(topic,event);
+  }
+
+  // -- Getters --
+
+  /**
+   * Returns the name.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Returns the current subscriptions.
+   */
+  public Collection<Subscription> getSubscriptions()
+  {
+    return new ArrayList<Subscription>(subscriptions);
+  }
+
+  /**
+   * Returns the total number of pending events of all subscriptions.
+   */
+  public int getQueueDepth()
+  {
+    int depth = 0;
+    for (Subscription subscription : subscriptions)
+      depth += subscription.getQueueDepth();
+    return depth;
+  }
+
+  @Override
+  public String toString()
+  {
+    return name;
+  }
+
+  // -- Nested classes --
+
+  /**
+   * A queued event.
+   */
+  private static final class Envelope
+  {
+    final EventTopic<?> topic;
+    final Object event;
+
+    Envelope(EventTopic<?> topic, Object event)
+    {
+      this.topic = topic;
+      this.event = event;
+    }
+  }
+
+  /**
+   * Subscription of a subscriber to topics of an event bus.
+   */
+  public final class Subscription implements Runnable
+  {
+    private final IEventSubscriber subscriber;
+    private final Executor executor;
+    private final int capacity;
+    private final EventTopic<?>[] topics;
+
+    /**
+     * Pending items: envelopes of queued events and latest-value topics whose
+     * slots are filled.
+     */
+    private final ConcurrentLinkedQueue<Object> pending
+      = new ConcurrentLinkedQueue<Object>();
+
+    /**
+     * Latest-value slots by topic.
+     */
+    private final ConcurrentHashMap<EventTopic<?>,AtomicReference<Object>> slots
+      = new ConcurrentHashMap<EventTopic<?>,AtomicReference<Object>>();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger depth = new AtomicInteger();
+    private volatile boolean cancelled;
+
+    // Statistics
+    private volatile int maxDepth;
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private volatile long handlerNanos;
+    private volatile long maxHandlerNanos;
+
+    Subscription(IEventSubscriber subscriber, Executor executor, int capacity,
+      EventTopic<?>[] topics)
+    {
+      this.subscriber = subscriber;
+      this.executor = executor;
+      this.capacity = capacity;
+      this.topics = topics.clone();
+    }
+
+    boolean accepts(EventTopic<?> topic)
+    {
+      if (topics.length==0)
+        return true;
+      for (EventTopic<?> t : topics)
+        if (t==topic)
+          return true;
+      return false;
+    }
+
+    void offer(EventTopic<?> topic, Object event)
+    {
+      if (cancelled)
+        return;
+      if (topic.isLatestValue())
+      {
+        AtomicReference<Object> slot = slots.get(topic);
+        if (slot==null)
+        {
+          slots.putIfAbsent(topic,new AtomicReference<Object>());
+          slot = slots.get(topic);
+        }
+        if (slot.getAndSet(event!=null ? event : NULL)!=null)
+        {
+          coalesced.incrementAndGet();
+          return;
+        }
+        pending.offer(topic);
+      }
+      else
+      {
+        if (queued.incrementAndGet()>capacity)
+        {
+          queued.decrementAndGet();
+          dropped.incrementAndGet();
+          return;
+        }
+        pending.offer(new Envelope(topic,event));
+      }
+      int d = depth.incrementAndGet();
+      if (d>maxDepth)
+        maxDepth = d;
+      schedule();
+    }
+
+    private void schedule()
+    {
+      if (!scheduled.compareAndSet(false,true))
+        return;
+      try
+      {
+        executor.execute(this);
+      }
+      catch (RejectedExecutionException e)
+      {
+        scheduled.set(false);
+        Log.err("Event delivery of "+name+" rejected",e);
+      }
+    }
+
+    /**
+     * Delivers a batch of pending events. Do not invoke directly.
+     */
+    @Override
+    public void run()
+    {
+      for (int n=0; n<BATCH_SIZE && !cancelled; n++)
+      {
+        Object item = pending.poll();
+        if (item==null)
+          break;
+        depth.decrementAndGet();
+        EventTopic<?> topic;
+        Object event;
+        if (item instanceof Envelope)
+        {
+          queued.decrementAndGet();
+          topic = ((Envelope)item).topic;
+          event = ((Envelope)item).event;
+        }
+        else
+        {
+          topic = (EventTopic<?>)item;
+          event = slots.get(topic).getAndSet(null);
+          if (event==NULL)
+            event = null;
+        }
+        deliver(topic,event);
+      }
+      scheduled.set(false);
+      if (!pending.isEmpty() && !cancelled)
+        schedule();
+    }
+
+    private void deliver(EventTopic<?> topic, Object event)
+    {
+      long t0 = System.nanoTime();
+      try
+      {
+        subscriber.eventDelivered(topic,event);
+      }
+      catch (RuntimeException e)
+      {
+        Log.err("Subscriber of "+name+"."+topic+" failed",e);
+      }
+      long t = System.nanoTime()-t0;
+      handlerNanos += t; // Delivery thread only
+      if (t>maxHandlerNanos)
+        maxHandlerNanos = t;
+      delivered.incrementAndGet();
+    }
+
+    /**
+     * Cancels this subscription. Pending events are discarded.
+     */
+    public void cancel()
+    {
+      cancelled = true;
+      subscriptions.remove(this);
+      pending.clear();
+      depth.set(0);
+      queued.set(0);
+    }
+
+    /**
+     * Returns the subscriber.
+     */
+    public IEventSubscriber getSubscriber()
+    {
+      return subscriber;
+    }
+
+    /**
+     * Determines if this subscription is cancelled.
+     */
+    public boolean isCancelled()
+    {
+      return cancelled;
+    }
+
+    /**
+     * Returns the capacity (in events of queued topics).
+     */
+    public int getCapacity()
+    {
+      return capacity;
+    }
+
+    /**
+     * Returns the number of pending events.
+     */
+    public int getQueueDepth()
+    {
+      return depth.get();
+    }
+
+    /**
+     * Returns the maximal number of pending events so far.
+     */
+    public int getMaxQueueDepth()
+    {
+      return maxDepth;
+    }
+
+    /**
+     * Returns the number of delivered events.
+     */
+    public long getDelivered()
+    {
+      return delivered.get();
+    }
+
+    /**
+     * Returns the number of events dropped because the queue was full.
+     */
+    public long getDropped()
+    {
+      return dropped.get();
+    }
+
+    /**
+     * Returns the number of latest-value events replaced before their
+     * delivery.
+     */
+    public long getCoalesced()
+    {
+      return coalesced.get();
+    }
+
+    /**
+     * Returns the mean time the subscriber took to handle an event, in
+     * nanoseconds.
+     */
+    public long getMeanHandlerNanos()
+    {
+      long n = delivered.get();
+      return n>0 ? handlerNanos/n : 0;
+    }
+
+    /**
+     * Returns the maximal time the subscriber took to handle an event, in
+     * nanoseconds.
+     */
+    public long getMaxHandlerNanos()
+    {
+      return maxHandlerNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+      List<String> names = new ArrayList<String>();
+      for (EventTopic<?> topic : topics)
+        names.add(topic.getName());
+      return name+names+" -> "+subscriber;
+    }
+  }
+
+}
+
+// EOF
@@ -0,0 +1,142 @@
+package de.tucottbus.kt.csl.hardware.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import de.tucottbus.kt.csl.test.TestReport;
+
+/**
+ * Tests {@link EventBus}: coalescing of latest-value topics, bounded queues
+ * and isolation of slow subscribers.
+ */
+public class EventBusTest
+{
+  private static final EventTopic<float[]> LEVELS
+    = EventTopic.latestValue("LEVELS",float[].class);
+  private static final EventTopic<String> MESSAGES
+    = EventTopic.queued("MESSAGES",String.class);
+
+  /**
+   * Records delivered events, optionally blocking on a latch first.
+   */
+  static class Recorder implements IEventSubscriber
+  {
+    final List<Object> events = Collections.synchronizedList(new ArrayList<Object>());
+    final CountDownLatch gate;
+    volatile Thread thread;
+
+    Recorder(CountDownLatch gate)
+    {
+      this.gate = gate;
+    }
+
+    @Override
+    public void eventDelivered(EventTopic<?> topic, Object event)
+    {
+      if (thread!=null && thread!=Thread.currentThread())
+        events.add("CONCURRENT");
+      thread = Thread.currentThread();
+      try
+      {
+        if (gate!=null)
+          gate.await();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      events.add(topic==LEVELS ? LEVELS.cast(event)[0] : event);
+      thread = null;
+    }
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    TestReport report = new TestReport();
+
+    // Slow subscriber: levels coalesce, messages are bounded
+    EventBus bus = new EventBus("test",EventBus.getDefaultExecutor(),16);
+    CountDownLatch gate = new CountDownLatch(1);
+    Recorder slow = new Recorder(gate);
+    Recorder fast = new Recorder(null);
+    EventBus.Subscription slowSubscription = bus.subscribe(slow);
+    EventBus.Subscription fastSubscription = bus.subscribe(fast,
+      EventBus.getDefaultExecutor(),100,MESSAGES);
+    for (int i=0; i<10000; i++)
+    {
+      bus.publish(LEVELS,new float[] { i });
+      if (i%100==0)
+        bus.publish(MESSAGES,"message "+i);
+    }
+    report.check("publisher not blocked",gate.getCount()==1);
+    report.check("queue depth bounded",slowSubscription.getMaxQueueDepth()<=16+1
+      && slowSubscription.getQueueDepth()<=16+1);
+    report.check("queued events dropped",slowSubscription.getDropped()==100-16);
+    report.check("latest values coalesced",slowSubscription.getCoalesced()>=9998);
+    Thread.sleep(200);
+    report.check("fast subscriber not delayed",fast.events.size()==100
+      && fast.events.get(99).equals("message 9900"));
+    gate.countDown();
+    Thread.sleep(200);
+    report.check("latest value delivered",slow.events.contains(9999f));
+    report.check("queued events in order",slow.events.indexOf("message 0")
+      <slow.events.indexOf("message 100"));
+    report.check("no concurrent delivery",!slow.events.contains("CONCURRENT"));
+    report.check("queue drained",slowSubscription.getQueueDepth()==0
+      && bus.getQueueDepth()==0);
+    report.check("handler latency recorded",fastSubscription.getMeanHandlerNanos()>0
+      && fastSubscription.getMaxHandlerNanos()>=fastSubscription.getMeanHandlerNanos());
+
+    // Topics and cancellation
+    int n = fast.events.size();
+    bus.publish(LEVELS,new float[] { 1 });
+    bus.unsubscribe(slow);
+    bus.publish(MESSAGES,"late");
+    Thread.sleep(100);
+    report.check("topic filter",fast.events.size()==n+1 && !fast.events.contains(1f));
+    report.check("unsubscribed",!slow.events.contains("late")
+      && bus.getSubscriptions().size()==1);
+    bus.close();
+    report.check("closed",bus.getSubscriptions().isEmpty());
+
+    // Null events and custom executors
+    bus = new EventBus("test",Executors.newSingleThreadExecutor(),4);
+    Recorder recorder = new Recorder(null);
+    bus.subscribe(recorder);
+    bus.publish(EventTopic.latestValue("NULL",Object.class),null);
+    Thread.sleep(100);
+    report.check("null event",recorder.events.size()==1 && recorder.events.get(0)==null);
+
+    // Throughput
+    bus = new EventBus("test");
+    CountDownLatch done = new CountDownLatch(1);
+    EventTopic<Integer> last = EventTopic.queued("LAST",Integer.class);
+    bus.subscribe(new IEventSubscriber()
+    {
+      @Override
+      public void eventDelivered(EventTopic<?> topic, Object event)
+      {
+        if (topic==last)
+          done.countDown();
+      }
+    });
+    int runs = 1000000;
+    float[] levels = new float[64];
+    long t0 = System.nanoTime();
+    for (int i=0; i<runs; i++)
+      bus.publish(LEVELS,levels);
+    bus.publish(last,0);
+    done.await(10,TimeUnit.SECONDS);
+    long t1 = System.nanoTime();
+    report.info("publish (latest value): %.0f ns",(double)(t1-t0)/runs);
+
+    report.exit();
+  }
+
+}
+
+// EOF
@@ -0,0 +1,107 @@
+package de.tucottbus.kt.csl.hardware.events;
+
+/**
+ * Topic of events published on an {@link EventBus}. The topic determines the
+ * type of its events and whether pending events are coalesced.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>A <em>latest-value</em> topic keeps at most one pending event per
+ *     subscriber. An event published while the previous one has not been
+ *     delivered yet replaces it. This suits state updates, like signal levels,
+ *     which are outdated by the next one.</li>
+ *   <li>A <em>queued</em> topic delivers every event in publishing order, as
+ *     long as the subscriber's queue is not full.</li>
+ *   <li>Topics are compared by identity.</li>
+ * </ul>
+ *
+ * @param <T>
+ *          The type of the events.
+ */
+public final class EventTopic<T>
+{
+  private final String   name;
+  private final Class<T> type;
+  private final boolean  latestValue;
+
+  private EventTopic(String name, Class<T> type, boolean latestValue)
+  {
+    if (name==null || type==null)
+      throw new NullPointerException();
+    this.name = name;
+    this.type = type;
+    this.latestValue = latestValue;
+  }
+
+  /**
+   * Creates a latest-value topic.
+   *
+   * @param name
+   *          The name.
+   * @param type
+   *          The type of the events.
+   */
+  public static <T> EventTopic<T> latestValue(String name, Class<T> type)
+  {
+    return new EventTopic<T>(name,type,true);
+  }
+
+  /**
+   * Creates a queued topic.
+   *
+   * @param name
+   *          The name.
+   * @param type
+   *          The type of the events.
+   */
+  public static <T> EventTopic<T> queued(String name, Class<T> type)
+  {
+    return new EventTopic<T>(name,type,false);
+  }
+
+  /**
+   * Returns the name.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Returns the type of the events.
+   */
+  public Class<T> getType()
+  {
+    return type;
+  }
+
+  /**
+   * Determines if this is a latest-value topic.
+   */
+  public boolean isLatestValue()
+  {
+    return latestValue;
+  }
+
+  /**
+   * Casts an event to the type of this topic.
+   *
+   * @param event
+   *          The event, may be <code>null</code>.
+   * @throws ClassCastException
+   *           if the event is not of the type of this topic.
+   */
+  public T cast(Object event)
+  {
+    return type.cast(event);
+  }
+
+  @Override
+  public String toString()
+  {
+    return name;
+  }
+
+}
+
+// EOF
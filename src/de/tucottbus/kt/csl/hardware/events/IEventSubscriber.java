@@ -0,0 +1,20 @@
+package de.tucottbus.kt.csl.hardware.events;
+
+/**
+ * Receives events from an {@link EventBus}. The events of one subscription
+ * are delivered one at a time, never concurrently.
+ */
+public interface IEventSubscriber
+{
+  /**
+   * Called when an event is delivered.
+   *
+   * @param topic
+   *          The topic.
+   * @param event
+   *          The event, may be <code>null</code>. Use {@link
+   *          EventTopic#cast(Object) topic.cast(event)} to obtain the typed
+   *          event.
+   */
+  public void eventDelivered(EventTopic<?> topic, Object event);
+}
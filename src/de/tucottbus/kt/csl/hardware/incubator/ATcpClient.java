@@ -1,14 +1,16 @@
 package de.tucottbus.kt.csl.hardware.incubator;
 
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
-import java.util.ArrayList;
 import java.util.Observable;
 import java.util.Observer;
 
+import de.tucottbus.kt.csl.hardware.events.EventBus;
+import de.tucottbus.kt.csl.hardware.events.EventTopic;
+import de.tucottbus.kt.csl.hardware.events.IEventSubscriber;
+import de.tucottbus.kt.csl.hardware.ioutils.ITcpHandler;
+import de.tucottbus.kt.csl.hardware.ioutils.LineCodec;
+import de.tucottbus.kt.csl.hardware.ioutils.ReconnectPolicy;
+import de.tucottbus.kt.csl.hardware.ioutils.TcpChannel;
+
 /**
  * A simple client TCP client which maintains a connection and is capable of
  * sending and receiving lines of text (only). The remote server is expected 
@@ -44,6 +46,17 @@ import java.util.Observer;
  * tcpClient.sendLine("A line of text");
  * ...</pre>
  * 
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The connection is run by the shared {@link
+ *     de.tucottbus.kt.csl.hardware.ioutils.IoReactor IoReactor}, the client
+ *     does not own a thread. {@link #receiveLine(String)} is invoked on the
+ *     reactor thread and must not block.</li>
+ *   <li>Observers are notified {@linkplain #notifyObserversAsync(Object)
+ *     asynchronously} through an {@link EventBus}, each one by its own
+ *     subscription, in the order of the notifications.</li>
+ * </ul>
+ * 
  * <h3>Remote Server Implementation</h3>
  * <ul>
  *   <li><a href="https://developer.mbed.org/users/NegativeBlack/code/NetworkAPI/wiki/tcp-server-example">mbed</a>
@@ -55,28 +68,28 @@ import java.util.Observer;
  *
  * @author Matthias Wolff
  */
-public abstract class ATcpClient extends Observable implements Runnable 
+public abstract class ATcpClient extends Observable implements ITcpHandler<String>
 {
   /**
-   * Hint to {@link #notifyObservers(String)} indicating that client has 
+   * Hint to {@link #notifyObserversAsync(Object)} indicating that client has 
    * started.
    */
   public static final String NOTIFY_STARTED = "started";
 
   /**
-   * Hint to {@link #notifyObservers(String)} indicating that client has 
+   * Hint to {@link #notifyObserversAsync(Object)} indicating that client has 
    * been disposed.
    */
   public static final String NOTIFY_DISPOSED = "disposed";
 
   /**
-   * Hint to {@link #notifyObservers(String)} indicating that the connection
+   * Hint to {@link #notifyObserversAsync(Object)} indicating that the connection
    * has been established.
    */
   public static final String NOTIFY_CONNECTED = "connected";
 
   /**
-   * Hint to {@link #notifyObservers(String)} indicating that the client has
+   * Hint to {@link #notifyObserversAsync(Object)} indicating that the client has
    * been (normally) disconnected.
    */
   public static final String NOTIFY_DISCONNECTED = "disconnected";
@@ -87,8 +100,7 @@ public abstract class ATcpClient extends Observable implements Runnable
   protected static final String HEARTBEAT = " "; // NOTE: Cannot be empty!
   
   /**
-   * Interval between connection checks in milliseconds (kept only 
-   * approximately).
+   * Interval between connection checks in milliseconds.
    */
   protected static final int HEARTBEAT_INTERVAL = 1000;
   
@@ -108,34 +120,20 @@ public abstract class ATcpClient extends Observable implements Runnable
   protected int port;
   
   /**
-   * The TCP socket.
+   * The TCP channel maintaining the connection.
    */
-  protected Socket socket;
+  protected final TcpChannel<String> channel;
 
   /**
-   * The {@link socket} output writer.
+   * Topic of the observer notifications.
    */
-  private BufferedWriter socketWriter;
+  private static final EventTopic<Object> NOTIFY
+    = EventTopic.queued("NOTIFY",Object.class);
 
   /**
-   * The {@link #socket} input reader.
+   * The event bus delivering the observer notifications.
    */
-  private InputStreamReader socketReader;
-
-  /**
-   * The writing queue.
-   */
-  private ArrayList<String> writeQueue;
-  
-  /**
-   * Run flag for the guard thread.
-   */
-  protected boolean runGuard;
-  
-  /**
-   * The guard thread maintaining the connection.
-   */
-  protected Thread guard;
+  private final EventBus eventBus;
   
   /**
    * Creates a new TCP client.
@@ -149,102 +147,15 @@ public abstract class ATcpClient extends Observable implements Runnable
   {
     this.host = host;
     this.port = port;
-    writeQueue = new ArrayList<String>();
-    guard 
-      = new Thread(this,getName());
-    guard.setDaemon(true);
-    guard.start();
+    eventBus = new EventBus("ATcpClient["+host+":"+port+"]");
+    channel = new TcpChannel<String>(host,port,LineCodec.LF,this)
+      .setReconnectPolicy(ReconnectPolicy.DEFAULT)
+      .setKeepAlive(HEARTBEAT,HEARTBEAT_INTERVAL)
+      .setReadTimeout(RECONNECT_INTERVAL+HEARTBEAT_INTERVAL);
+    setChanged(); notifyObserversAsync(NOTIFY_STARTED);
+    channel.open();
   }
   
-  @Override
-  public void run() 
-  {
-    runGuard = true;
-    setChanged(); notifyObservers(NOTIFY_STARTED);
-
-    while (runGuard)
-      try
-      {
-        // Initialize connection
-        socket = new Socket(host,port);
-        socketWriter 
-          = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-        socketReader = new InputStreamReader(socket.getInputStream());
-        setChanged(); notifyObservers(NOTIFY_CONNECTED);
-  
-        // Run connection
-        String message = "";
-        int ctr = 0;
-        while (runGuard)
-        {
-          synchronized (writeQueue)
-          {
-            while (writeQueue.size()>0)
-            {
-              String output = writeQueue.remove(0);
-              if (!HEARTBEAT.equals(output))
-              {
-                setChanged(); notifyObservers("> "+output);
-              }
-              socketWriter.write(output);
-              socketWriter.write("\n");
-              socketWriter.flush();
-            }
-          }
-          
-          while (socketReader.ready())
-          {
-            int read = socketReader.read();
-            if (read<0)
-              throw new IOException("end of input stream");
-            char c = (char)read;
-            if (c=='\n' || c=='\r')
-            {
-              if (message.length()>0 && !HEARTBEAT.equals(message))
-                receiveLine(message);
-              message = "";
-            }
-            else
-              message += c;
-            ctr=0;
-          }
-
-          ctr++;
-          try { Thread.sleep(10); } catch (InterruptedException e) {}
-          if (ctr==HEARTBEAT_INTERVAL/10)
-            sendLine(" "); // Heart beat
-          else if (ctr==(RECONNECT_INTERVAL+HEARTBEAT_INTERVAL)/10)
-            throw new IllegalStateException("no reply");
-        }
-        
-        // Terminate connection
-        socketReader.close(); socketReader = null;
-        socketWriter.close(); socketWriter  = null;
-        socket.close();       socket        = null;
-        setChanged(); notifyObservers(NOTIFY_DISCONNECTED);
-      }
-      catch (Exception e)
-      {
-        try { socketReader.close(); } catch (Exception e1) {}
-        try { socketWriter.close(); } catch (Exception e1) {}
-        try { socket.close();       } catch (Exception e1) {}
-        socketReader = null;
-        socketWriter = null;
-        socket       = null;
-        if (runGuard)
-        {
-          setChanged(); notifyObservers(e);
-          try { Thread.sleep(RECONNECT_INTERVAL); } catch (InterruptedException e1) {}
-        }
-        else
-        {
-          setChanged(); notifyObservers(NOTIFY_DISCONNECTED);
-        }
-      }
-    
-    setChanged(); notifyObservers(NOTIFY_DISPOSED);
-  }
-
   /**
    * Terminates the connection and disposes of this client. Once disposed, the
    * client cannot be re-run.
@@ -253,21 +164,10 @@ public abstract class ATcpClient extends Observable implements Runnable
    */
   public void dispose()
   {
-    if (guard!=null)
-    {
-      runGuard = false;
-      try 
-      {
-        guard.interrupt();
-        guard.join();
-      } 
-      catch (Exception e) 
-      { 
-        setChanged();
-        notifyObservers(e);
-      }
-    }
-    guard = null;
+    if (channel.isDisposed())
+      return;
+    channel.dispose(RECONNECT_INTERVAL);
+    setChanged(); notifyObserversAsync(NOTIFY_DISPOSED);
   }
 
   /**
@@ -281,12 +181,8 @@ public abstract class ATcpClient extends Observable implements Runnable
   {
     if (isDisposed())
       throw new IllegalStateException("client disposed");
-    if (socket==null || !socket.isConnected())
+    if (!channel.isConnected())
       throw new IllegalStateException("socked not connected");
-    if (socket.isClosed())
-      throw new IllegalStateException("socked closed");
-    if (socketReader==null || socketWriter==null)
-      throw new IllegalStateException("no socked I/O");
   }
   
   // -- Getters and setters --
@@ -298,7 +194,7 @@ public abstract class ATcpClient extends Observable implements Runnable
    */
   public boolean isDisposed()
   {
-    return guard==null && guard.isAlive();
+    return channel.isDisposed();
   }
 
   /**
@@ -322,7 +218,7 @@ public abstract class ATcpClient extends Observable implements Runnable
    */
   public String getName()
   {
-    return getClass().getSimpleName()+".guard["+host+":"+port+"]";
+    return getClass().getSimpleName()+"["+host+":"+port+"]";
   }
   
   // -- I/O --
@@ -345,14 +241,98 @@ public abstract class ATcpClient extends Observable implements Runnable
       line = "";
     while (line.length()>0 && (line.charAt(line.length()-1)=='\n' || line.charAt(line.length()-1)=='\r'))
       line = line.substring(0,line.length()-1);
-    synchronized (writeQueue) 
+    channel.send(line);
+    if (!HEARTBEAT.equals(line))
     {
-      writeQueue.add(line);
+      setChanged(); notifyObserversAsync("> "+line);
     }
-    if (runGuard)
-      guard.interrupt();
   }
   
+  // -- Observers --
+
+  /**
+   * If this object has changed, as indicated by the {@link #hasChanged()}
+   * method, then call the {@link #clearChanged()} method and notify all
+   * observers <em>asynchronously</em>. The method returns immediately.
+   * 
+   * @param arg
+   *          A hint (like {@link #NOTIFY_CONNECTED}), a line sent prefixed by
+   *          "&gt; ", or the cause of a connection failure.
+   */
+  public void notifyObserversAsync(Object arg)
+  {
+    if (!hasChanged())
+      return;
+    clearChanged();
+    eventBus.publish(NOTIFY,arg);
+  }
+
+  @Override
+  public synchronized void addObserver(Observer o)
+  {
+    int count = countObservers();
+    super.addObserver(o);
+    if (countObservers()>count)
+      eventBus.subscribe(new ObserverSubscriber(o));
+  }
+
+  @Override
+  public synchronized void deleteObserver(Observer o)
+  {
+    super.deleteObserver(o);
+    for (EventBus.Subscription subscription : eventBus.getSubscriptions())
+      if (subscription.getSubscriber() instanceof ObserverSubscriber
+          && ((ObserverSubscriber)subscription.getSubscriber()).observer==o)
+        subscription.cancel();
+  }
+
+  @Override
+  public synchronized void deleteObservers()
+  {
+    super.deleteObservers();
+    eventBus.close();
+  }
+
+  /**
+   * Delivers the notifications of the {@link #eventBus} to an observer.
+   */
+  private final class ObserverSubscriber implements IEventSubscriber
+  {
+    final Observer observer;
+
+    ObserverSubscriber(Observer observer)
+    {
+      this.observer = observer;
+    }
+
+    @Override
+    public void eventDelivered(EventTopic<?> topic, Object event)
+    {
+      observer.update(ATcpClient.this,event);
+    }
+  }
+
+  // -- Implementation of ITcpHandler --
+
+  @Override
+  public void connected(TcpChannel<String> channel)
+  {
+    setChanged(); notifyObserversAsync(NOTIFY_CONNECTED);
+  }
+
+  @Override
+  public void received(TcpChannel<String> channel, String line)
+  {
+    if (!HEARTBEAT.equals(line))
+      receiveLine(line);
+  }
+
+  @Override
+  public void disconnected(TcpChannel<String> channel, Throwable cause)
+  {
+    setChanged(); notifyObserversAsync(cause!=null ? cause : NOTIFY_DISCONNECTED);
+  }
+
   // -- Abstract API --
   
   /**
@@ -363,4 +343,4 @@ public abstract class ATcpClient extends Observable implements Runnable
    */
   public abstract void receiveLine(String line);
 
-}
\ No newline at end of file
+}
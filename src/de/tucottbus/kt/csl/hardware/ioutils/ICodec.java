@@ -0,0 +1,39 @@
+package de.tucottbus.kt.csl.hardware.ioutils;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Converts between messages and the byte stream of a {@link TcpChannel}.
+ * Codecs are stateless and may be shared between channels.
+ *
+ * @param <T>
+ *          The message type.
+ * @see LineCodec
+ */
+public interface ICodec<T>
+{
+  /**
+   * Encodes a message.
+   *
+   * @param message
+   *          The message.
+   * @return A buffer ready to be written, i.e. positioned at the first byte.
+   */
+  public ByteBuffer encode(T message);
+
+  /**
+   * Decodes all complete messages from a buffer. Bytes of an incomplete
+   * message must be left in the buffer, they are decoded on the next call
+   * together with the bytes received in the meantime.
+   *
+   * @param in
+   *          The received bytes, positioned at the first byte. On return, the
+   *          position must be at the first byte not consumed.
+   * @param out
+   *          Receives the decoded messages.
+   */
+  public void decode(ByteBuffer in, Consumer<T> out);
+}
+
+// EOF
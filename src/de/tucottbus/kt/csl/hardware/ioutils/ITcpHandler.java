@@ -0,0 +1,58 @@
+package de.tucottbus.kt.csl.hardware.ioutils;
+
+/**
+ * Receives the events of a {@link TcpChannel}. All methods are invoked on the
+ * {@linkplain IoReactor reactor} thread and must not block.
+ *
+ * @param <T>
+ *          The message type.
+ */
+public interface ITcpHandler<T>
+{
+  /**
+   * Invoked when the connection has been established.
+   *
+   * @param channel
+   *          The channel.
+   */
+  public void connected(TcpChannel<T> channel);
+
+  /**
+   * Invoked for each message received.
+   *
+   * @param channel
+   *          The channel.
+   * @param message
+   *          The message.
+   */
+  public void received(TcpChannel<T> channel, T message);
+
+  /**
+   * Invoked when the connection has been closed or a connection attempt has
+   * failed. Unless the channel is disposed, it will reconnect according to
+   * its {@link ReconnectPolicy}.
+   *
+   * @param channel
+   *          The channel.
+   * @param cause
+   *          The cause of the failure, <code>null</code> if the connection was
+   *          closed by {@link TcpChannel#close()} or {@link
+   *          TcpChannel#dispose(long)}.
+   */
+  public void disconnected(TcpChannel<T> channel, Throwable cause);
+
+  /**
+   * Invoked after {@link TcpChannel#requestWrite()} as soon as the write
+   * queue is empty. Handlers which produce data faster than the link can
+   * transfer should send the latest data here instead of queueing every
+   * message.
+   *
+   * @param channel
+   *          The channel.
+   */
+  public default void writable(TcpChannel<T> channel)
+  {
+  }
+}
+
+// EOF
@@ -0,0 +1,39 @@
+package de.tucottbus.kt.csl.hardware.ioutils;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the events of a {@link UdpChannel}. All methods are invoked on the
+ * {@linkplain IoReactor reactor} thread and must not block.
+ */
+public interface IUdpHandler
+{
+  /**
+   * Invoked for each datagram received.
+   *
+   * @param channel
+   *          The channel.
+   * @param datagram
+   *          The datagram from position 0 to the limit. The buffer is reused
+   *          for the next datagram, the handler must not keep a reference.
+   * @param sender
+   *          The address of the sender.
+   */
+  public void received(UdpChannel channel, ByteBuffer datagram, SocketAddress sender);
+
+  /**
+   * Invoked if the channel cannot be opened or an I/O error occurs. The
+   * channel remains usable if it could be opened.
+   *
+   * @param channel
+   *          The channel.
+   * @param cause
+   *          The cause of the failure.
+   */
+  public default void failed(UdpChannel channel, Throwable cause)
+  {
+  }
+}
+
+// EOF
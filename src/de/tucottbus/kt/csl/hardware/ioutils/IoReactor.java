@@ -0,0 +1,341 @@
+package de.tucottbus.kt.csl.hardware.ioutils;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import de.tucottbus.kt.lcars.logging.Log;
+
+/**
+ * Single-threaded NIO reactor shared by the network device wrappers.<br>
+ * <br>
+ * One daemon thread owns a {@link Selector} and all {@linkplain TcpChannel TCP}
+ * and {@linkplain UdpChannel UDP} device channels. It performs non-blocking
+ * connects, reads and writes, runs {@linkplain #schedule(Runnable, long, long)
+ * timers} (keep-alive messages, reply timeouts, polling, reconnects) and
+ * {@linkplain #execute(Runnable) tasks} posted by other threads. The thread
+ * sleeps in {@link Selector#select(long)} until I/O is ready, a task is posted
+ * or the next timer is due, so commands are sent without polling delay and
+ * idle devices cost no wakeups.<br>
+ * <br>
+ * Handlers, codecs and timer tasks run on the reactor thread. They must not
+ * block; long-running work must be handed over to another thread.
+ *
+ * @see TcpChannel
+ * @see UdpChannel
+ */
+public final class IoReactor implements Runnable
+{
+  // -- Singleton implementation --
+
+  private static volatile IoReactor singleton = null;
+
+  /**
+   * Returns the reactor singleton. The reactor thread is started on the first
+   * invocation.
+   */
+  public static synchronized IoReactor getInstance()
+  {
+    if (singleton==null)
+    {
+      singleton = new IoReactor();
+      singleton.thread.start();
+    }
+    return singleton;
+  }
+
+  // -- Fields --
+
+  private final Selector selector;
+
+  private final Thread thread;
+
+  /**
+   * Tasks posted by other threads.
+   */
+  private final ConcurrentLinkedQueue<Runnable> tasks
+    = new ConcurrentLinkedQueue<Runnable>();
+
+  /**
+   * Pending timers ordered by due time (reactor thread only).
+   */
+  private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+
+  /**
+   * Sequence number of the next timer, keeps timers due at the same time in
+   * FIFO order (reactor thread only).
+   */
+  private long timerSeq;
+
+  private volatile long wakeups;
+
+  private IoReactor()
+  {
+    try
+    {
+      selector = Selector.open();
+    }
+    catch (IOException e)
+    {
+      throw new IllegalStateException("Cannot open selector",e);
+    }
+    thread = new Thread(this,getClass().getSimpleName());
+    thread.setDaemon(true);
+  }
+
+  // -- Public API --
+
+  /**
+   * Runs a task on the reactor thread. If invoked on the reactor thread, the
+   * task is run immediately. Otherwise it is queued and the reactor is woken
+   * up.
+   *
+   * @param task
+   *          The task, must not block.
+   */
+  public void execute(Runnable task)
+  {
+    if (isReactorThread())
+      runTask(task);
+    else
+    {
+      tasks.add(task);
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Runs a task once on the reactor thread after a delay.
+   *
+   * @param task
+   *          The task, must not block.
+   * @param delayMillis
+   *          The delay in milliseconds.
+   * @return The timer, can be used to cancel the task.
+   */
+  public Timer schedule(Runnable task, long delayMillis)
+  {
+    return schedule(task,delayMillis,0);
+  }
+
+  /**
+   * Runs a task on the reactor thread after a delay and then periodically.
+   *
+   * @param task
+   *          The task, must not block.
+   * @param delayMillis
+   *          The delay of the first run in milliseconds.
+   * @param periodMillis
+   *          The period in milliseconds, 0 to run the task only once.
+   * @return The timer, can be used to cancel the task.
+   */
+  public Timer schedule(Runnable task, long delayMillis, long periodMillis)
+  {
+    if (task==null)
+      throw new IllegalArgumentException("Task is null");
+    final Timer timer = new Timer(task,System.nanoTime()+Math.max(0,delayMillis)*1000000L,
+      Math.max(0,periodMillis)*1000000L);
+    execute(() ->
+    {
+      if (!timer.cancelled)
+      {
+        timer.seq = timerSeq++;
+        timers.add(timer);
+      }
+    });
+    return timer;
+  }
+
+  /**
+   * Determines if the calling thread is the reactor thread.
+   */
+  public boolean isReactorThread()
+  {
+    return Thread.currentThread()==thread;
+  }
+
+  /**
+   * Returns the number of channels registered with the reactor.
+   */
+  public int getChannelCount()
+  {
+    return selector.keys().size();
+  }
+
+  /**
+   * Returns the number of times the reactor thread woke up.
+   */
+  public long getWakeups()
+  {
+    return wakeups;
+  }
+
+  // -- Package API --
+
+  /**
+   * Registers a channel with the selector (reactor thread only).
+   */
+  SelectionKey register(SelectableChannel channel, int ops, IReadyHandler handler)
+  throws IOException
+  {
+    return channel.register(selector,ops,handler);
+  }
+
+  /**
+   * Handler of ready selection keys.
+   */
+  interface IReadyHandler
+  {
+    /**
+     * Invoked on the reactor thread if the key is ready.
+     */
+    void ready(SelectionKey key);
+  }
+
+  // -- Reactor thread --
+
+  @Override
+  public void run()
+  {
+    Log.info("Begin of "+thread.getName()+" thread");
+    while (true)
+    {
+      try
+      {
+        // Wait for I/O, a task or the next timer
+        // NOTE: A wakeup() between the check of the task queue and select()
+        //       makes select() return immediately.
+        long timeout = 0;
+        boolean due = !tasks.isEmpty();
+        Timer next = timers.peek();
+        if (next!=null)
+        {
+          long nanos = next.due-System.nanoTime();
+          if (nanos<=0)
+            due = true;
+          else
+            timeout = Math.max(1,(nanos+999999)/1000000);
+        }
+        if (due)
+          selector.selectNow();
+        else
+          selector.select(timeout);
+        wakeups++;
+
+        // Ready channels
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext())
+        {
+          SelectionKey key = it.next();
+          it.remove();
+          if (key.isValid())
+            try
+            {
+              ((IReadyHandler)key.attachment()).ready(key);
+            }
+            catch (RuntimeException e)
+            {
+              Log.err("I/O handler failed",e);
+            }
+        }
+
+        // Tasks
+        Runnable task;
+        while ((task=tasks.poll())!=null)
+          runTask(task);
+
+        // Timers
+        long now = System.nanoTime();
+        while ((next=timers.peek())!=null && next.due-now<=0)
+        {
+          timers.poll();
+          if (next.cancelled)
+            continue;
+          if (next.period>0)
+          {
+            next.due += next.period;
+            if (next.due-now<=0)
+              next.due = now+next.period; // Fell behind, do not burst
+            next.seq = timerSeq++;
+            timers.add(next);
+          }
+          runTask(next.task);
+        }
+      }
+      catch (IOException e)
+      {
+        Log.err("Selector failed",e);
+      }
+    }
+  }
+
+  private void runTask(Runnable task)
+  {
+    try
+    {
+      task.run();
+    }
+    catch (RuntimeException e)
+    {
+      Log.err("Reactor task failed",e);
+    }
+  }
+
+  // -- Nested classes --
+
+  /**
+   * A timer of the reactor.
+   */
+  public static final class Timer implements Comparable<Timer>
+  {
+    private final Runnable task;
+
+    private final long period;
+
+    private long due;
+
+    private long seq;
+
+    private volatile boolean cancelled;
+
+    Timer(Runnable task, long due, long period)
+    {
+      this.task = task;
+      this.due = due;
+      this.period = period;
+    }
+
+    /**
+     * Cancels the timer. A task which is currently running is not
+     * interrupted.
+     */
+    public void cancel()
+    {
+      cancelled = true;
+    }
+
+    /**
+     * Determines if the timer is cancelled.
+     */
+    public boolean isCancelled()
+    {
+      return cancelled;
+    }
+
+    @Override
+    public int compareTo(Timer other)
+    {
+      long d = due-other.due;
+      if (d!=0)
+        return d<0 ? -1 : 1;
+      return Long.compare(seq,other.seq);
+    }
+  }
+
+}
+
+// EOF
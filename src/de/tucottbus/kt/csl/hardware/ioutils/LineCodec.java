@@ -0,0 +1,84 @@
+package de.tucottbus.kt.csl.hardware.ioutils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Codec for text lines. Each byte is one character (ISO 8859-1).
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>Encoding appends a terminator to the message. The terminator may be
+ *     empty if the message already is a complete command, e.g. a batch of
+ *     LED controller commands.</li>
+ *   <li>Decoding splits the input at any of a set of delimiter characters.
+ *     Delimiters are not included in the messages, empty lines are
+ *     skipped.</li>
+ * </ul>
+ */
+public final class LineCodec implements ICodec<String>
+{
+  /**
+   * Lines terminated by a line feed on output and by a line feed or carriage
+   * return on input.
+   */
+  public static final LineCodec LF = new LineCodec("\n","\r\n");
+
+  private final byte[] terminator;
+
+  private final boolean[] delimiter = new boolean[256];
+
+  /**
+   * Creates a new line codec.
+   *
+   * @param terminator
+   *          The string appended to encoded messages, may be empty.
+   * @param delimiters
+   *          The characters terminating decoded messages.
+   */
+  public LineCodec(String terminator, String delimiters)
+  {
+    if (terminator==null || delimiters==null || delimiters.isEmpty())
+      throw new IllegalArgumentException("Invalid terminator or delimiters");
+    this.terminator = terminator.getBytes(StandardCharsets.ISO_8859_1);
+    for (byte b : delimiters.getBytes(StandardCharsets.ISO_8859_1))
+      delimiter[b&0xFF] = true;
+  }
+
+  @Override
+  public ByteBuffer encode(String message)
+  {
+    int length = message.length();
+    ByteBuffer out = ByteBuffer.allocate(length+terminator.length);
+    for (int i=0; i<length; i++)
+      out.put((byte)message.charAt(i));
+    out.put(terminator);
+    out.flip();
+    return out;
+  }
+
+  @Override
+  public void decode(ByteBuffer in, Consumer<String> out)
+  {
+    int start = in.position();
+    final int limit = in.limit();
+    for (int i=start; i<limit; i++)
+    {
+      if (!delimiter[in.get(i)&0xFF])
+        continue;
+      if (i>start)
+      {
+        char[] line = new char[i-start];
+        for (int j=0; j<line.length; j++)
+          line[j] = (char)(in.get(start+j)&0xFF);
+        out.accept(new String(line));
+      }
+      start = i+1;
+    }
+    in.position(start);
+  }
+
+}
+
+// EOF
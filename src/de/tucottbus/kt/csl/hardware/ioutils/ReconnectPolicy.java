@@ -0,0 +1,79 @@
+package de.tucottbus.kt.csl.hardware.ioutils;
+
+/**
+ * Reconnect policy of a {@link TcpChannel}. The delay before a reconnect
+ * starts at a minimum and doubles with each consecutive failure up to a
+ * maximum. A successful connection resets the delay to the minimum.
+ */
+public final class ReconnectPolicy
+{
+  /**
+   * Reconnects every 2.5 seconds, the interval used by the device wrappers so
+   * far.
+   */
+  public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(2500,2500,2500);
+
+  private final long minDelayMillis;
+
+  private final long maxDelayMillis;
+
+  private final long connectTimeoutMillis;
+
+  /**
+   * Creates a new reconnect policy.
+   *
+   * @param minDelayMillis
+   *          The delay after a closed connection or the first failure in
+   *          milliseconds.
+   * @param maxDelayMillis
+   *          The maximal delay after consecutive failures in milliseconds.
+   * @param connectTimeoutMillis
+   *          The time a connection attempt may take in milliseconds.
+   * @throws IllegalArgumentException
+   *           if a delay is negative, the maximal delay is less than the
+   *           minimal delay, or the timeout is not positive.
+   */
+  public ReconnectPolicy(long minDelayMillis, long maxDelayMillis, long connectTimeoutMillis)
+  throws IllegalArgumentException
+  {
+    if (minDelayMillis<0 || maxDelayMillis<minDelayMillis || connectTimeoutMillis<=0)
+      throw new IllegalArgumentException("Invalid reconnect policy");
+    this.minDelayMillis = minDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+  }
+
+  /**
+   * Returns the delay before the next connection attempt.
+   *
+   * @param failures
+   *          The number of consecutive failures, 0 if the connection was
+   *          closed normally.
+   * @return The delay in milliseconds.
+   */
+  public long getDelay(int failures)
+  {
+    long delay = minDelayMillis;
+    for (int i=1; i<failures && delay<maxDelayMillis; i++)
+      delay *= 2;
+    return Math.min(Math.max(delay,minDelayMillis),maxDelayMillis);
+  }
+
+  /**
+   * Returns the time a connection attempt may take in milliseconds.
+   */
+  public long getConnectTimeout()
+  {
+    return connectTimeoutMillis;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName()+"["+minDelayMillis+".."+maxDelayMillis
+      +" ms, timeout "+connectTimeoutMillis+" ms]";
+  }
+
+}
+
+// EOF
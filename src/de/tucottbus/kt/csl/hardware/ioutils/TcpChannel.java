@@ -0,0 +1,586 @@
+package de.tucottbus.kt.csl.hardware.ioutils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side TCP connection to a device, run by the {@link IoReactor}.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>Messages are converted by an {@link ICodec} and delivered to an
+ *     {@link ITcpHandler} on the reactor thread.</li>
+ *   <li>{@link #send(Object)} may be invoked from any thread. It enqueues the
+ *     encoded message and returns, the reactor writes the queue with
+ *     gathering writes as soon as the socket accepts data.
+ *     <code>TCP_NODELAY</code> is set.</li>
+ *   <li>The channel connects when {@linkplain #open() opened} and reconnects
+ *     after failures according to its {@link ReconnectPolicy} until it is
+ *     {@linkplain #dispose(long) disposed}.</li>
+ *   <li>A {@linkplain #setKeepAlive(Object, long) keep-alive message} is sent
+ *     if nothing has been received for a while. If nothing has been received
+ *     within the {@linkplain #setReadTimeout(long) read timeout}, the
+ *     connection is considered broken and reconnected.</li>
+ * </ul>
+ *
+ * @param <T>
+ *          The message type.
+ */
+public final class TcpChannel<T> implements IoReactor.IReadyHandler
+{
+  private static final int READ_BUFFER_SIZE = 4096;
+
+  private final IoReactor reactor;
+
+  private final String host;
+
+  private final int port;
+
+  private final ICodec<T> codec;
+
+  private final ITcpHandler<T> handler;
+
+  private volatile ReconnectPolicy policy = ReconnectPolicy.DEFAULT;
+
+  private volatile int sendBufferSize = 0;
+
+  private volatile long readTimeoutNanos = 0;
+
+  private volatile long keepAliveNanos = 0;
+
+  private volatile T keepAliveMessage = null;
+
+  /**
+   * The write queue, guarded by itself.
+   */
+  private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+
+  private volatile int queuedBytes;
+
+  private volatile boolean writeRequested;
+
+  private volatile boolean opened;
+
+  private volatile boolean connected;
+
+  private volatile boolean disposing;
+
+  private volatile boolean disposed;
+
+  private CountDownLatch disposeLatch;
+
+  // Reactor thread only
+  private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+  private SocketChannel socket;
+  private SelectionKey key;
+  private int failures;
+  private long lastReceiveNanos;
+  private long lastKeepAliveNanos;
+  private IoReactor.Timer connectTimer;
+  private IoReactor.Timer reconnectTimer;
+  private IoReactor.Timer idleTimer;
+
+  // Metrics
+  private volatile long connects;
+  private volatile long failuresTotal;
+  private volatile long bytesSent;
+  private volatile long bytesReceived;
+
+  /**
+   * Creates a new TCP channel. The channel does not connect before {@link
+   * #open()} is invoked.
+   *
+   * @param host
+   *          The name or IP address of the device.
+   * @param port
+   *          The TCP port of the device.
+   * @param codec
+   *          The codec.
+   * @param handler
+   *          The handler.
+   */
+  public TcpChannel(String host, int port, ICodec<T> codec, ITcpHandler<T> handler)
+  {
+    if (host==null || codec==null || handler==null)
+      throw new IllegalArgumentException("Host, codec and handler must not be null");
+    this.reactor = IoReactor.getInstance();
+    this.host = host;
+    this.port = port;
+    this.codec = codec;
+    this.handler = handler;
+  }
+
+  // -- Configuration --
+
+  /**
+   * Sets the reconnect policy, the default is {@link ReconnectPolicy#DEFAULT}.
+   *
+   * @return This channel.
+   */
+  public TcpChannel<T> setReconnectPolicy(ReconnectPolicy policy)
+  {
+    if (policy==null)
+      throw new IllegalArgumentException("Policy is null");
+    this.policy = policy;
+    return this;
+  }
+
+  /**
+   * Sets the socket send buffer size for subsequent connections. A small
+   * buffer makes the write queue back up, and {@link
+   * ITcpHandler#writable(TcpChannel)} be delayed, as soon as the device falls
+   * behind.
+   *
+   * @param size
+   *          The size in bytes, 0 for the default of the operating system.
+   * @return This channel.
+   */
+  public TcpChannel<T> setSendBufferSize(int size)
+  {
+    this.sendBufferSize = Math.max(0,size);
+    return this;
+  }
+
+  /**
+   * Sets the read timeout. If nothing is received for the given time, the
+   * connection is closed and reconnected.
+   *
+   * @param millis
+   *          The timeout in milliseconds, 0 for none.
+   * @return This channel.
+   */
+  public TcpChannel<T> setReadTimeout(long millis)
+  {
+    this.readTimeoutNanos = Math.max(0,millis)*1000000L;
+    reactor.execute(this::scheduleIdleCheck);
+    return this;
+  }
+
+  /**
+   * Sets a keep-alive message. The message is sent if nothing has been
+   * received for the given time, and repeated in that interval.
+   *
+   * @param message
+   *          The message, <code>null</code> for none.
+   * @param idleMillis
+   *          The idle time in milliseconds.
+   * @return This channel.
+   */
+  public TcpChannel<T> setKeepAlive(T message, long idleMillis)
+  {
+    this.keepAliveMessage = message;
+    this.keepAliveNanos = message!=null ? Math.max(1,idleMillis)*1000000L : 0;
+    reactor.execute(this::scheduleIdleCheck);
+    return this;
+  }
+
+  // -- Public API --
+
+  /**
+   * Starts connecting to the device.
+   *
+   * @return This channel.
+   * @throws IllegalStateException
+   *           if the channel has already been opened.
+   */
+  public synchronized TcpChannel<T> open()
+  throws IllegalStateException
+  {
+    if (opened)
+      throw new IllegalStateException("Already opened");
+    opened = true;
+    reactor.execute(this::connect);
+    return this;
+  }
+
+  /**
+   * Sends a message. The method enqueues the message and returns immediately.
+   *
+   * @param message
+   *          The message.
+   * @throws IllegalStateException
+   *           if the channel is not connected.
+   */
+  public void send(T message)
+  throws IllegalStateException
+  {
+    if (!connected)
+      throw new IllegalStateException("Not connected to "+host+":"+port);
+    ByteBuffer buffer = codec.encode(message);
+    boolean wasEmpty;
+    synchronized (writeQueue)
+    {
+      wasEmpty = writeQueue.isEmpty();
+      writeQueue.add(buffer);
+      queuedBytes += buffer.remaining();
+    }
+    if (wasEmpty)
+      reactor.execute(this::flush);
+  }
+
+  /**
+   * Requests an invocation of {@link ITcpHandler#writable(TcpChannel)} as
+   * soon as the write queue is empty. Multiple requests before the invocation
+   * are coalesced.
+   */
+  public void requestWrite()
+  {
+    if (writeRequested)
+      return;
+    writeRequested = true;
+    reactor.execute(this::flush);
+  }
+
+  /**
+   * Closes the current connection. The channel reconnects after the minimal
+   * delay of its {@link ReconnectPolicy}.
+   */
+  public void close()
+  {
+    reactor.execute(() -> disconnect(null));
+  }
+
+  /**
+   * Closes the connection and disposes of the channel. Messages still queued
+   * are written first. Unless invoked on the reactor thread, the method blocks
+   * until the channel is closed.
+   *
+   * @param lingerMillis
+   *          The maximal time to wait for queued messages to be written.
+   */
+  public void dispose(long lingerMillis)
+  {
+    final CountDownLatch latch;
+    synchronized (this)
+    {
+      if (disposeLatch==null)
+      {
+        disposeLatch = new CountDownLatch(1);
+        reactor.execute(() ->
+        {
+          disposing = true;
+          if (!connected || queuedBytes==0)
+            finishDispose();
+          else
+            reactor.schedule(this::finishDispose,lingerMillis);
+        });
+      }
+      latch = disposeLatch;
+    }
+    if (!reactor.isReactorThread())
+      try
+      {
+        latch.await(lingerMillis+1000,TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+  }
+
+  // -- Getters --
+
+  /**
+   * Determines if the channel is connected.
+   */
+  public boolean isConnected()
+  {
+    return connected;
+  }
+
+  /**
+   * Determines if the channel is disposed.
+   */
+  public boolean isDisposed()
+  {
+    return disposed;
+  }
+
+  public String getHost()
+  {
+    return host;
+  }
+
+  public int getPort()
+  {
+    return port;
+  }
+
+  /**
+   * Returns the number of bytes waiting in the write queue.
+   */
+  public int getQueuedBytes()
+  {
+    return queuedBytes;
+  }
+
+  /**
+   * Returns the number of successful connects.
+   */
+  public long getConnects()
+  {
+    return connects;
+  }
+
+  /**
+   * Returns the number of failed connection attempts and broken connections.
+   */
+  public long getFailures()
+  {
+    return failuresTotal;
+  }
+
+  /**
+   * Returns the number of bytes sent.
+   */
+  public long getBytesSent()
+  {
+    return bytesSent;
+  }
+
+  /**
+   * Returns the number of bytes received.
+   */
+  public long getBytesReceived()
+  {
+    return bytesReceived;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName()+"["+host+":"+port+", "
+      +(connected?"connected":disposed?"disposed":"not connected")+"]";
+  }
+
+  // -- Reactor thread --
+
+  private void connect()
+  {
+    reconnectTimer = null;
+    if (disposed || disposing || socket!=null)
+      return;
+    try
+    {
+      socket = SocketChannel.open();
+      socket.configureBlocking(false);
+      socket.setOption(StandardSocketOptions.TCP_NODELAY,true);
+      if (sendBufferSize>0)
+        socket.setOption(StandardSocketOptions.SO_SNDBUF,sendBufferSize);
+      boolean done = socket.connect(new InetSocketAddress(host,port));
+      key = reactor.register(socket,done?SelectionKey.OP_READ:SelectionKey.OP_CONNECT,this);
+      if (done)
+        connected();
+      else
+        connectTimer = reactor.schedule(() -> disconnect(
+          new SocketTimeoutException("Connect to "+host+":"+port+" timed out")),
+          policy.getConnectTimeout());
+    }
+    catch (IOException | RuntimeException e)
+    {
+      disconnect(e);
+    }
+  }
+
+  private void connected()
+  {
+    if (connectTimer!=null)
+      connectTimer.cancel();
+    connectTimer = null;
+    failures = 0;
+    connects++;
+    readBuffer.clear();
+    lastReceiveNanos = System.nanoTime();
+    lastKeepAliveNanos = lastReceiveNanos;
+    connected = true;
+    scheduleIdleCheck();
+    handler.connected(this);
+    flush();
+  }
+
+  @Override
+  public void ready(SelectionKey key)
+  {
+    try
+    {
+      if (key.isConnectable())
+      {
+        if (!socket.finishConnect())
+          return;
+        key.interestOps(SelectionKey.OP_READ);
+        connected();
+      }
+      if (key.isValid() && key.isReadable())
+        read();
+      if (key.isValid() && key.isWritable())
+        flush();
+    }
+    catch (IOException e)
+    {
+      disconnect(e);
+    }
+  }
+
+  private void read()
+  throws IOException
+  {
+    int n;
+    while (socket!=null && (n=socket.read(readBuffer))!=0)
+    {
+      if (n<0)
+        throw new EOFException("Connection closed by "+host+":"+port);
+      bytesReceived += n;
+      lastReceiveNanos = System.nanoTime();
+      readBuffer.flip();
+      codec.decode(readBuffer,message -> handler.received(this,message));
+      readBuffer.compact();
+      if (!readBuffer.hasRemaining())
+        throw new IOException("Message too long");
+    }
+  }
+
+  private void flush()
+  {
+    if (socket==null || !connected)
+      return;
+    try
+    {
+      boolean empty;
+      synchronized (writeQueue)
+      {
+        empty = writeQueue.isEmpty();
+      }
+      if (!empty)
+      {
+        ByteBuffer[] batch;
+        synchronized (writeQueue)
+        {
+          batch = writeQueue.toArray(new ByteBuffer[writeQueue.size()]);
+        }
+        long n = socket.write(batch);
+        bytesSent += n;
+        synchronized (writeQueue)
+        {
+          while (!writeQueue.isEmpty() && !writeQueue.peek().hasRemaining())
+            writeQueue.poll();
+          queuedBytes -= n;
+          empty = writeQueue.isEmpty();
+        }
+      }
+      if (key!=null && key.isValid())
+        key.interestOps(empty ? SelectionKey.OP_READ
+          : SelectionKey.OP_READ|SelectionKey.OP_WRITE);
+      if (!empty)
+        return;
+      if (disposing)
+      {
+        finishDispose();
+        return;
+      }
+      if (writeRequested)
+      {
+        writeRequested = false;
+        handler.writable(this);
+      }
+    }
+    catch (IOException e)
+    {
+      disconnect(e);
+    }
+  }
+
+  private void scheduleIdleCheck()
+  {
+    if (idleTimer!=null)
+      idleTimer.cancel();
+    idleTimer = null;
+    if (!connected)
+      return;
+    long due = Long.MAX_VALUE;
+    if (readTimeoutNanos>0)
+      due = Math.min(due,lastReceiveNanos+readTimeoutNanos);
+    if (keepAliveNanos>0)
+      due = Math.min(due,Math.max(lastReceiveNanos,lastKeepAliveNanos)+keepAliveNanos);
+    if (due==Long.MAX_VALUE)
+      return;
+    long delay = Math.max(0,(due-System.nanoTime()+999999)/1000000);
+    idleTimer = reactor.schedule(this::checkIdle,delay);
+  }
+
+  private void checkIdle()
+  {
+    idleTimer = null;
+    if (!connected)
+      return;
+    long now = System.nanoTime();
+    if (readTimeoutNanos>0 && now-lastReceiveNanos>=readTimeoutNanos)
+    {
+      disconnect(new SocketTimeoutException("No reply from "+host+":"+port));
+      return;
+    }
+    T message = keepAliveMessage;
+    if (message!=null && now-Math.max(lastReceiveNanos,lastKeepAliveNanos)>=keepAliveNanos)
+    {
+      lastKeepAliveNanos = now;
+      send(message);
+    }
+    scheduleIdleCheck();
+  }
+
+  private void disconnect(Throwable cause)
+  {
+    if (connectTimer!=null)
+      connectTimer.cancel();
+    if (idleTimer!=null)
+      idleTimer.cancel();
+    connectTimer = null;
+    idleTimer = null;
+    if (socket==null && cause==null)
+      return;
+
+    if (key!=null)
+      key.cancel();
+    if (socket!=null)
+      try { socket.close(); } catch (IOException e) {}
+    socket = null;
+    key = null;
+    connected = false;
+    synchronized (writeQueue)
+    {
+      writeQueue.clear();
+      queuedBytes = 0;
+    }
+    if (cause!=null)
+    {
+      failures++;
+      failuresTotal++;
+    }
+    handler.disconnected(this,cause);
+    if (!disposed && !disposing && reconnectTimer==null)
+      reconnectTimer = reactor.schedule(this::connect,policy.getDelay(failures));
+  }
+
+  private void finishDispose()
+  {
+    if (disposed)
+      return;
+    disposed = true;
+    if (reconnectTimer!=null)
+      reconnectTimer.cancel();
+    reconnectTimer = null;
+    disconnect(null);
+    disposeLatch.countDown();
+  }
+
+}
+
+// EOF
@@ -0,0 +1,283 @@
+package de.tucottbus.kt.csl.hardware.ioutils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * UDP endpoint of a device, run by the {@link IoReactor}.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>Received datagrams are delivered to an {@link IUdpHandler} in one
+ *     direct buffer which is reused for every datagram. Fixed-offset
+ *     protocols can be decoded with absolute {@link ByteBuffer} reads
+ *     without copying.</li>
+ *   <li>{@link #send(ByteBuffer)} may be invoked from any thread. It copies
+ *     the datagram into the send queue and returns.</li>
+ *   <li>Reply timeouts and polling are implemented by the device wrapper
+ *     through {@link IoReactor#schedule(Runnable, long, long)}.</li>
+ * </ul>
+ */
+public final class UdpChannel implements IoReactor.IReadyHandler
+{
+  private final IoReactor reactor;
+
+  private final SocketAddress remote;
+
+  private final int localPort;
+
+  private final IUdpHandler handler;
+
+  /**
+   * The send queue, guarded by itself.
+   */
+  private final ArrayDeque<ByteBuffer> sendQueue = new ArrayDeque<ByteBuffer>();
+
+  private volatile boolean opened;
+
+  private volatile boolean disposed;
+
+  // Reactor thread only
+  private final ByteBuffer receiveBuffer;
+  private DatagramChannel channel;
+  private SelectionKey key;
+
+  // Metrics
+  private volatile long datagramsSent;
+  private volatile long datagramsReceived;
+
+  /**
+   * Creates a new UDP channel. The channel is not bound before {@link
+   * #open()} is invoked.
+   *
+   * @param remote
+   *          The address datagrams are sent to.
+   * @param localPort
+   *          The local port, 0 for any free port.
+   * @param maxDatagramSize
+   *          The maximal size of received datagrams in bytes, longer datagrams
+   *          are truncated.
+   * @param handler
+   *          The handler.
+   */
+  public UdpChannel(SocketAddress remote, int localPort, int maxDatagramSize, IUdpHandler handler)
+  {
+    if (remote==null || handler==null)
+      throw new IllegalArgumentException("Remote address and handler must not be null");
+    this.reactor = IoReactor.getInstance();
+    this.remote = remote;
+    this.localPort = localPort;
+    this.handler = handler;
+    this.receiveBuffer = ByteBuffer.allocateDirect(maxDatagramSize);
+  }
+
+  // -- Public API --
+
+  /**
+   * Binds the channel and starts receiving.
+   *
+   * @return This channel.
+   * @throws IllegalStateException
+   *           if the channel has already been opened.
+   */
+  public synchronized UdpChannel open()
+  throws IllegalStateException
+  {
+    if (opened)
+      throw new IllegalStateException("Already opened");
+    opened = true;
+    reactor.execute(() ->
+    {
+      try
+      {
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(new InetSocketAddress(localPort));
+        key = reactor.register(channel,SelectionKey.OP_READ,this);
+      }
+      catch (IOException | RuntimeException e)
+      {
+        close();
+        handler.failed(this,e);
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Sends a datagram to the remote address. The method returns immediately.
+   *
+   * @param datagram
+   *          The datagram from the position to the limit. The buffer is
+   *          copied.
+   */
+  public void send(ByteBuffer datagram)
+  {
+    ByteBuffer copy = ByteBuffer.allocate(datagram.remaining());
+    copy.put(datagram.duplicate());
+    copy.flip();
+    boolean wasEmpty;
+    synchronized (sendQueue)
+    {
+      wasEmpty = sendQueue.isEmpty();
+      sendQueue.add(copy);
+    }
+    if (wasEmpty)
+      reactor.execute(this::flush);
+  }
+
+  /**
+   * Sends a text datagram to the remote address. Each character is sent as
+   * one byte (ISO 8859-1). The method returns immediately.
+   *
+   * @param text
+   *          The text.
+   */
+  public void send(String text)
+  {
+    send(ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1)));
+  }
+
+  /**
+   * Closes and disposes of the channel.
+   */
+  public void dispose()
+  {
+    disposed = true;
+    reactor.execute(this::close);
+  }
+
+  /**
+   * Determines if the channel is bound and not disposed.
+   */
+  public boolean isOpen()
+  {
+    return !disposed && opened;
+  }
+
+  /**
+   * Returns the address datagrams are sent to.
+   */
+  public SocketAddress getRemoteAddress()
+  {
+    return remote;
+  }
+
+  /**
+   * Returns the number of datagrams sent.
+   */
+  public long getDatagramsSent()
+  {
+    return datagramsSent;
+  }
+
+  /**
+   * Returns the number of datagrams received.
+   */
+  public long getDatagramsReceived()
+  {
+    return datagramsReceived;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName()+"["+remote+"]";
+  }
+
+  // -- Reactor thread --
+
+  @Override
+  public void ready(SelectionKey key)
+  {
+    try
+    {
+      if (key.isReadable())
+      {
+        SocketAddress sender;
+        while (channel!=null)
+        {
+          receiveBuffer.clear();
+          if ((sender=channel.receive(receiveBuffer))==null)
+            break;
+          receiveBuffer.flip();
+          datagramsReceived++;
+          handler.received(this,receiveBuffer,sender);
+        }
+      }
+      if (key.isValid() && key.isWritable())
+        flush();
+    }
+    catch (IOException e)
+    {
+      handler.failed(this,e);
+    }
+  }
+
+  private void flush()
+  {
+    if (channel==null)
+      return;
+    try
+    {
+      boolean empty;
+      while (true)
+      {
+        ByteBuffer datagram;
+        synchronized (sendQueue)
+        {
+          datagram = sendQueue.peek();
+        }
+        if (datagram==null)
+        {
+          empty = true;
+          break;
+        }
+        if (channel.send(datagram,remote)==0)
+        {
+          empty = false;
+          break;
+        }
+        datagramsSent++;
+        synchronized (sendQueue)
+        {
+          sendQueue.poll();
+        }
+      }
+      if (key!=null && key.isValid())
+        key.interestOps(empty ? SelectionKey.OP_READ
+          : SelectionKey.OP_READ|SelectionKey.OP_WRITE);
+    }
+    catch (IOException e)
+    {
+      synchronized (sendQueue)
+      {
+        sendQueue.poll();
+      }
+      handler.failed(this,e);
+    }
+  }
+
+  private void close()
+  {
+    if (key!=null)
+      key.cancel();
+    if (channel!=null)
+      try { channel.close(); } catch (IOException e) {}
+    key = null;
+    channel = null;
+    synchronized (sendQueue)
+    {
+      sendQueue.clear();
+    }
+  }
+
+}
+
+// EOF
@@ -0,0 +1,59 @@
+package de.tucottbus.kt.csl.hardware.kinect.devices;
+
+import edu.ufl.digitalworlds.j4k.DepthMap;
+
+/**
+ * Static helpers for J4K {@link DepthMap}s.
+ */
+public final class DepthMaps
+{
+  private DepthMaps()
+  {
+  }
+
+  /**
+   * Updates a depth map in place with the point cloud of a new depth frame.
+   * The result equals <code>new DepthMap(width,height,xyz)</code> but no
+   * arrays are allocated if the map has the frame size. Masks, texture
+   * coordinates and the transformation of the map are kept.
+   *
+   * @param map
+   *          The depth map, may be <code>null</code>.
+   * @param width
+   *          The frame width (in pixels).
+   * @param height
+   *          The frame height (in pixels).
+   * @param xyz
+   *          The point cloud, three coordinates per pixel. Pixels without
+   *          depth have a z coordinate of {@link Float#NEGATIVE_INFINITY}.
+   * @return The updated map, a new one if <code>map</code> was
+   *         <code>null</code> or of another size.
+   */
+  public static DepthMap update(DepthMap map, int width, int height, float[] xyz)
+  {
+    if (map==null || map.getWidth()!=width || map.getHeight()!=height)
+      return new DepthMap(width,height,xyz);
+
+    float[] x = map.realX;
+    float[] y = map.realY;
+    float[] z = map.realZ;
+    int n = width*height;
+    for (int i=0, j=0; i<n; i++, j+=3)
+      if (xyz[j+2]==Float.NEGATIVE_INFINITY)
+      {
+        x[i] = 0;
+        y[i] = 0;
+        z[i] = 0;
+      }
+      else
+      {
+        x[i] = -xyz[j];
+        y[i] = xyz[j+1];
+        z[i] = xyz[j+2];
+      }
+    return map;
+  }
+
+}
+
+// EOF
@@ -0,0 +1,90 @@
+package de.tucottbus.kt.csl.hardware.kinect.devices;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of reusable frame buffers.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>Buffers are obtained by {@link #acquire(int)} and returned by {@link
+ *     #release(byte[])}. The contents of an acquired buffer are undefined.</li>
+ *   <li>Released buffers are reused in the order of release. A buffer is not
+ *     handed out again before <code>delay</code> more buffers have been
+ *     released. This keeps a frame which has just been replaced intact while
+ *     a consumer may still be reading it (e.g. uploading it as an OpenGL
+ *     texture).</li>
+ *   <li>The pool never holds more than <code>delay+1</code> buffers. Surplus
+ *     buffers and buffers of another length are left to the garbage
+ *     collector.</li>
+ *   <li>All methods are thread-safe.</li>
+ * </ul>
+ */
+public final class FrameBufferPool
+{
+  private final ArrayDeque<byte[]> free = new ArrayDeque<byte[]>();
+
+  private final int delay;
+
+  private long allocations;
+
+  /**
+   * Creates a new frame buffer pool.
+   *
+   * @param delay
+   *          The number of buffers to be released after a buffer before it is
+   *          reused.
+   */
+  public FrameBufferPool(int delay)
+  {
+    if (delay<0)
+      throw new IllegalArgumentException("Negative delay");
+    this.delay = delay;
+  }
+
+  /**
+   * Obtains a buffer from the pool or allocates a new one.
+   *
+   * @param length
+   *          The buffer length (in bytes).
+   * @return The buffer.
+   */
+  public synchronized byte[] acquire(int length)
+  {
+    while (free.size()>delay)
+    {
+      byte[] buffer = free.pollFirst();
+      if (buffer.length==length)
+        return buffer;
+    }
+    allocations++;
+    return new byte[length];
+  }
+
+  /**
+   * Returns a buffer to the pool. The caller must not use the buffer
+   * afterwards.
+   *
+   * @param buffer
+   *          The buffer, <code>null</code> is ignored.
+   */
+  public synchronized void release(byte[] buffer)
+  {
+    if (buffer==null)
+      return;
+    free.addLast(buffer);
+    while (free.size()>delay+1)
+      free.pollFirst();
+  }
+
+  /**
+   * Returns the number of buffers allocated by this pool.
+   */
+  public synchronized long getAllocations()
+  {
+    return allocations;
+  }
+
+}
+
+// EOF
@@ -0,0 +1,258 @@
+package de.tucottbus.kt.csl.hardware.kinect.devices;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts raw depth and infrared frames of a Kinect sensor into BGRA images.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>Each of the 65536 possible raw sample values is mapped to a BGRA
+ *     pixel by a lookup table computed once per instance. Depth values are
+ *     colored by a rainbow scale of 100 mm bands from 0.5 m (red) to 4.5 m
+ *     (blue), nearer and farther values are black. Infrared values are mapped
+ *     to gray levels.</li>
+ *   <li>The images are written into caller supplied buffers, see {@link
+ *     FrameBufferPool}.</li>
+ *   <li>If {@link #setParallelism(int) parallelism} is greater than one, the
+ *     image rows are split into bands converted in parallel by the common
+ *     {@link ForkJoinPool}.</li>
+ * </ul>
+ */
+public final class FrameColorizer
+{
+  // -- Constants --
+
+  /**
+   * Width of the depth bands of the rainbow scale (in mm).
+   */
+  private static final int BAND_WIDTH = 100;
+
+  /**
+   * Colors of the depth bands of the rainbow scale starting at 0 mm, each as
+   * { blue, green, red }. Values beyond the last band are black.
+   */
+  private static final int[][] BANDS =
+  {
+    {   0,   0,   0 }, {   0,   0,   0 }, {   0,   0,   0 }, {   0,   0,   0 },
+    {   0,   0,   0 }, {   0,   0, 255 }, {   0,  23, 255 }, {   0,  46, 255 },
+    {   0,  69, 255 }, {   0,  92, 255 }, {   0, 115, 255 }, {   0, 138, 255 },
+    {   0, 161, 255 }, {   0, 184, 255 }, {   0, 208, 255 }, {   0, 232, 255 },
+    {   0, 255, 255 }, {   0, 255, 232 }, {   0, 255, 208 }, {   0, 255, 184 },
+    {   0, 255, 161 }, {   0, 255, 138 }, {   0, 255, 115 }, {   0, 255,  92 },
+    {   0, 255,  69 }, {   0, 255,  46 }, {   0, 255,  23 }, {   0, 255,   0 },
+    {  23, 255,   0 }, {  46, 255,   0 }, {  69, 255,   0 }, {  92, 255,   0 },
+    { 115, 255,   0 }, { 138, 255,   0 }, { 161, 255,   0 }, { 184, 255,   0 },
+    { 208, 255,   0 }, { 232, 255,   0 }, { 255, 255,   0 }, { 255, 212,   0 },
+    { 255, 170,   0 }, { 255, 127,   0 }, { 255,  85,   0 }, { 255,  42,   0 },
+    { 255,   0,   0 }
+  };
+
+  /**
+   * Minimal number of image rows converted by one task.
+   */
+  private static final int MIN_ROWS = 16;
+
+  // -- Fields --
+
+  /**
+   * Raw depth sample (as unsigned short) to packed BGRA pixel.
+   */
+  private final int[] depthLut = new int[0x10000];
+
+  /**
+   * Raw infrared sample (as unsigned short) to packed BGRA pixel.
+   */
+  private final int[] infraredLut = new int[0x10000];
+
+  private volatile int parallelism = 1;
+
+  // -- Life cycle --
+
+  /**
+   * Creates a new frame colorizer.
+   *
+   * @param depthShift
+   *          The number of low-order bits of the raw depth samples not
+   *          belonging to the depth value, 3 for Kinect v1 (player index), 0
+   *          for Kinect v2.
+   */
+  public FrameColorizer(int depthShift)
+  {
+    for (int i=0; i<0x10000; i++)
+    {
+      int depth = ((short)i)>>depthShift;
+      int band = depth>=0 ? depth/BAND_WIDTH : -1;
+      if (band>=0 && band<BANDS.length)
+        depthLut[i] = pack(BANDS[band][0],BANDS[band][1],BANDS[band][2]);
+      int gray = (i&0xFFF8)>>6;
+      infraredLut[i] = pack(gray,gray,gray);
+    }
+  }
+
+  /**
+   * Packs a BGRA pixel with alpha 0 into an integer, blue in the lowest byte.
+   */
+  private static int pack(int blue, int green, int red)
+  {
+    return (blue&0xFF) | (green&0xFF)<<8 | (red&0xFF)<<16;
+  }
+
+  // -- Getters and setters --
+
+  /**
+   * Sets the number of bands the image rows are split into for parallel
+   * conversion. The default is 1 (no parallel conversion).
+   *
+   * @param parallelism
+   *          The number of bands, values less than 1 are treated as 1.
+   */
+  public void setParallelism(int parallelism)
+  {
+    this.parallelism = Math.max(1,parallelism);
+  }
+
+  /**
+   * Returns the number of bands the image rows are split into for parallel
+   * conversion.
+   */
+  public int getParallelism()
+  {
+    return parallelism;
+  }
+
+  /**
+   * Returns the BGRA color of a raw depth sample packed into an integer, blue
+   * in the lowest byte.
+   *
+   * @param sample
+   *          The raw sample.
+   */
+  public int getDepthColor(short sample)
+  {
+    return depthLut[sample&0xFFFF];
+  }
+
+  /**
+   * Returns the BGRA color of a raw infrared sample packed into an integer,
+   * blue in the lowest byte.
+   *
+   * @param sample
+   *          The raw sample.
+   */
+  public int getInfraredColor(short sample)
+  {
+    return infraredLut[sample&0xFFFF];
+  }
+
+  // -- Workers --
+
+  /**
+   * Converts a raw depth frame into a BGRA image.
+   *
+   * @param depth
+   *          The raw depth samples, at least <code>width*height</code>.
+   * @param bgra
+   *          The image buffer, at least <code>width*height*4</code> bytes.
+   * @param width
+   *          The frame width (in pixels).
+   * @param height
+   *          The frame height (in pixels).
+   */
+  public void colorizeDepth(short[] depth, byte[] bgra, int width, int height)
+  {
+    colorize(depthLut,depth,bgra,width,height);
+  }
+
+  /**
+   * Converts a raw infrared frame into a BGRA image.
+   *
+   * @param infrared
+   *          The raw infrared samples, at least <code>width*height</code>.
+   * @param bgra
+   *          The image buffer, at least <code>width*height*4</code> bytes.
+   * @param width
+   *          The frame width (in pixels).
+   * @param height
+   *          The frame height (in pixels).
+   */
+  public void colorizeInfrared(short[] infrared, byte[] bgra, int width, int height)
+  {
+    colorize(infraredLut,infrared,bgra,width,height);
+  }
+
+  private void colorize(int[] lut, short[] samples, byte[] bgra, int width, int height)
+  {
+    if (samples.length<width*height || bgra.length<width*height*4)
+      throw new IllegalArgumentException("Frame buffers too small for "
+        +width+"x"+height+" pixels");
+    int rows = Math.max(MIN_ROWS,(height+parallelism-1)/parallelism);
+    if (rows>=height)
+      convert(lut,samples,bgra,0,width*height);
+    else
+      ForkJoinPool.commonPool().invoke(new BandTask(lut,samples,bgra,width,0,height,rows));
+  }
+
+  /**
+   * Converts a range of samples.
+   */
+  private static void convert(int[] lut, short[] samples, byte[] bgra, int from, int to)
+  {
+    for (int i=from, k=from*4; i<to; i++)
+    {
+      int p = lut[samples[i]&0xFFFF];
+      bgra[k++] = (byte)p;
+      bgra[k++] = (byte)(p>>8);
+      bgra[k++] = (byte)(p>>16);
+      bgra[k++] = (byte)(p>>24);
+    }
+  }
+
+  /**
+   * Converts a band of image rows, splitting it in halves down to a given
+   * number of rows.
+   */
+  private static final class BandTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] lut;
+    private final short[] samples;
+    private final byte[] bgra;
+    private final int width;
+    private final int top;
+    private final int bottom;
+    private final int rows;
+
+    BandTask(int[] lut, short[] samples, byte[] bgra, int width, int top, int bottom, int rows)
+    {
+      this.lut = lut;
+      this.samples = samples;
+      this.bgra = bgra;
+      this.width = width;
+      this.top = top;
+      this.bottom = bottom;
+      this.rows = rows;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (bottom-top<=rows)
+      {
+        convert(lut,samples,bgra,top*width,bottom*width);
+        return;
+      }
+      int middle = (top+bottom)>>>1;
+      invokeAll
+      (
+        new BandTask(lut,samples,bgra,width,top,middle,rows),
+        new BandTask(lut,samples,bgra,width,middle,bottom,rows)
+      );
+    }
+  }
+
+}
+
+// EOF
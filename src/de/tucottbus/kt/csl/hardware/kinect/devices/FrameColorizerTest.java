@@ -0,0 +1,126 @@
+package de.tucottbus.kt.csl.hardware.kinect.devices;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.ufl.digitalworlds.j4k.DepthMap;
+
+import de.tucottbus.kt.csl.test.TestReport;
+
+/**
+ * Tests {@link FrameColorizer}, {@link FrameBufferPool} and {@link DepthMaps}
+ * on synthetic frames and measures the conversion time of a Kinect v2 depth
+ * frame. No sensor is required.
+ */
+public class FrameColorizerTest
+{
+  private static final int WIDTH = 512;
+  private static final int HEIGHT = 424;
+
+  /**
+   * Packs blue, green and red into a BGRA pixel with alpha 0.
+   */
+  private static int bgr(int blue, int green, int red)
+  {
+    return blue | green<<8 | red<<16;
+  }
+
+  public static void main(String[] args)
+  {
+    TestReport report = new TestReport();
+    Random random = new Random(0);
+
+    // Rainbow scale
+    FrameColorizer v2 = new FrameColorizer(0);
+    report.check("depth below 0.5 m and above 4.5 m black",
+      v2.getDepthColor((short)0)==0 && v2.getDepthColor((short)499)==0
+      && v2.getDepthColor((short)4500)==0 && v2.getDepthColor((short)8000)==0
+      && v2.getDepthColor((short)-1)==0);
+    report.check("depth bands",
+      v2.getDepthColor((short)500)==bgr(0,0,255)
+      && v2.getDepthColor((short)650)==bgr(0,23,255)
+      && v2.getDepthColor((short)1699)==bgr(0,255,255)
+      && v2.getDepthColor((short)2750)==bgr(0,255,0)
+      && v2.getDepthColor((short)3850)==bgr(255,255,0)
+      && v2.getDepthColor((short)3999)==bgr(255,212,0)
+      && v2.getDepthColor((short)4499)==bgr(255,0,0));
+    FrameColorizer v1 = new FrameColorizer(3);
+    report.check("depth with player index (Kinect v1)",
+      v1.getDepthColor((short)(2750<<3|5))==bgr(0,255,0)
+      && v1.getDepthColor((short)(499<<3|7))==0);
+    report.check("infrared gray levels",
+      v2.getInfraredColor((short)0)==0
+      && v2.getInfraredColor((short)(100<<6))==bgr(100,100,100)
+      && v2.getInfraredColor((short)0xFFFF)==bgr(255,255,255));
+
+    // Frame conversion, sequential and parallel
+    short[] depth = new short[WIDTH*HEIGHT];
+    for (int i=0; i<depth.length; i++)
+      depth[i] = (short)random.nextInt(8000);
+    byte[] sequential = new byte[WIDTH*HEIGHT*4];
+    byte[] parallel = new byte[WIDTH*HEIGHT*4];
+    v2.colorizeDepth(depth,sequential,WIDTH,HEIGHT);
+    boolean pixels = true;
+    for (int i=0; i<depth.length; i++)
+    {
+      int p = v2.getDepthColor(depth[i]);
+      pixels &= sequential[4*i]==(byte)p && sequential[4*i+1]==(byte)(p>>8)
+        && sequential[4*i+2]==(byte)(p>>16) && sequential[4*i+3]==0;
+    }
+    report.check("depth frame",pixels);
+    v2.setParallelism(4);
+    v2.colorizeDepth(depth,parallel,WIDTH,HEIGHT);
+    report.check("parallel depth frame equals sequential",Arrays.equals(sequential,parallel));
+    v2.setParallelism(1);
+
+    // Buffer pool
+    FrameBufferPool pool = new FrameBufferPool(1);
+    byte[] a = pool.acquire(16);
+    byte[] b = pool.acquire(16);
+    pool.release(a);
+    byte[] c = pool.acquire(16);
+    pool.release(b);
+    byte[] d = pool.acquire(16);
+    report.check("released buffer reused after delay",c!=a && d==a);
+    pool.release(c);
+    pool.release(d);
+    report.check("buffer of other length not reused",pool.acquire(32).length==32);
+    for (int i=0; i<100; i++)
+      pool.release(pool.acquire(16));
+    report.check("allocations bounded",pool.getAllocations()<=5);
+
+    // Depth map update in place
+    float[] xyz = new float[WIDTH*HEIGHT*3];
+    for (int i=0; i<xyz.length; i++)
+      xyz[i] = random.nextFloat();
+    for (int i=2; i<xyz.length; i+=3*7)
+      xyz[i] = Float.NEGATIVE_INFINITY;
+    DepthMap map = DepthMaps.update(null,WIDTH,HEIGHT,new float[xyz.length]);
+    DepthMap same = DepthMaps.update(map,WIDTH,HEIGHT,xyz);
+    DepthMap reference = new DepthMap(WIDTH,HEIGHT,xyz);
+    report.check("depth map updated in place",same==map);
+    report.check("depth map equals new map",Arrays.equals(map.realX,reference.realX)
+      && Arrays.equals(map.realY,reference.realY) && Arrays.equals(map.realZ,reference.realZ));
+    report.check("depth map of other size replaced",DepthMaps.update(map,WIDTH/2,HEIGHT/2,xyz)!=map);
+
+    // Conversion time
+    for (int parallelism : new int[]{ 1, 4 })
+    {
+      v2.setParallelism(parallelism);
+      int runs = 500;
+      for (int i=0; i<runs; i++)
+        v2.colorizeDepth(depth,sequential,WIDTH,HEIGHT);
+      long t0 = System.nanoTime();
+      for (int i=0; i<runs; i++)
+        v2.colorizeDepth(depth,sequential,WIDTH,HEIGHT);
+      long t1 = System.nanoTime();
+      report.info("depth frame %dx%d, parallelism %d: %.3f ms",
+        WIDTH,HEIGHT,parallelism,(t1-t0)/1E6/runs);
+    }
+
+    report.exit();
+  }
+
+}
+
+// EOF
@@ -49,7 +49,31 @@ public class Kinect extends J4KSDK
   /**
    * Contains the DepthMap.
    */
-  private DepthMap map;
+  private volatile DepthMap map;
+
+  /**
+   * Two depth maps updated alternately, so the map returned by {@link
+   * #getMap()} is not changed while the next frame is processed.
+   */
+  private final DepthMap[] maps = new DepthMap[2];
+  
+  private int mapIndex;
+  
+  /**
+   * Converts raw depth and infrared data into images.
+   */
+  private final FrameColorizer colorizer;
+  
+  /**
+   * Number of newer frames after which a replaced image buffer is reused.
+   */
+  private static final int BUFFER_REUSE_DELAY = 1;
+  
+  /**
+   * Image buffers of the depth and infrared video frames.
+   */
+  private final FrameBufferPool depthBuffers = new FrameBufferPool(BUFFER_REUSE_DELAY);
+  private final FrameBufferPool infraredBuffers = new FrameBufferPool(BUFFER_REUSE_DELAY);
 
   /**
    * Contains six body wrappers of six persons.
@@ -117,13 +141,24 @@ public class Kinect extends J4KSDK
 
   /**
    * 
-   * @return The current DepthMap.
+   * @return The current DepthMap. The map object is reused for the next
+   * but one depth frame.
    */
   public DepthMap getMap()
   {
     return map;
   }
 
+  /**
+   * 
+   * @return The colorizer of depth and infrared frames, e.g. to enable
+   * parallel conversion.
+   */
+  public FrameColorizer getFrameColorizer()
+  {
+    return colorizer;
+  }
+
   /**
    * This constructor creates a {@link Kinect} object.
    *
@@ -135,6 +170,7 @@ public class Kinect extends J4KSDK
   {
     super(type, deviceID);
     this.object3dType = object3dType;
+    this.colorizer = new FrameColorizer(type == J4KSDK.MICROSOFT_KINECT_2 ? 0 : 3);
     for(int i = 0; i < 6; i++)
     {
       bodies[i] = new Body(type == J4KSDK.MICROSOFT_KINECT_2);
@@ -159,82 +195,18 @@ public class Kinect extends J4KSDK
       float[] xyz, float[] uv)
   {
     isRunning = true;
-    int sz = getDepthWidth() * getDepthHeight();
-    byte bgra[] = new byte[sz * 4];
-    int idx = 0;
-    int iv = 0;
-    byte blue = 0;
-    byte green = 0;
-    byte red = 0;
-    for (int i = 0; i < sz; i++)
-    {
-      if(getDeviceType() == J4KSDK.MICROSOFT_KINECT_2) iv = depth[i];
-      else iv = depth[i] >> 3;
-    
-      // rainbow coloring
-      if(iv >= 0 && iv < 500){blue = (byte) 0; green = (byte) 0; red = (byte) 0;}
-      else if(iv >= 500 && iv < 600){blue = (byte) 0; green = (byte) 0; red = (byte) 255;}
-      
-      else if(iv >= 600 && iv < 700){blue = (byte) 0; green = (byte) 23; red = (byte) 255;}
-      else if(iv >= 700 && iv < 800){blue = (byte) 0; green = (byte) 46; red = (byte) 255;}
-      else if(iv >= 800 && iv < 900){blue = (byte) 0; green = (byte) 69; red = (byte) 255;}
-      else if(iv >= 900 && iv < 1000){blue = (byte) 0; green = (byte) 92; red = (byte) 255;}
-      else if(iv >= 1000 && iv < 1100){blue = (byte) 0; green = (byte) 115; red = (byte) 255;}
-      else if(iv >= 1100 && iv < 1200){blue = (byte) 0; green = (byte) 138; red = (byte) 255;}
-      else if(iv >= 1200 && iv < 1300){blue = (byte) 0; green = (byte) 161; red = (byte) 255;}
-      else if(iv >= 1300 && iv < 1400){blue = (byte) 0; green = (byte) 184; red = (byte) 255;}
-      else if(iv >= 1400 && iv < 1500){blue = (byte) 0; green = (byte) 208; red = (byte) 255;}
-      else if(iv >= 1500 && iv < 1600){blue = (byte) 0; green = (byte) 232; red = (byte) 255;}
-      
-      else if(iv >= 1600 && iv < 1700){blue = (byte) 0; green = (byte) 255; red = (byte) 255;}
-      
-      else if(iv >= 1700 && iv < 1800){blue = (byte) 0; green = (byte) 255; red = (byte) 232;}
-      else if(iv >= 1800 && iv < 1900){blue = (byte) 0; green = (byte) 255; red = (byte) 208;}
-      else if(iv >= 1900 && iv < 2000){blue = (byte) 0; green = (byte) 255; red = (byte) 184;}
-      else if(iv >= 2000 && iv < 2100){blue = (byte) 0; green = (byte) 255; red = (byte) 161;}
-      else if(iv >= 2100 && iv < 2200){blue = (byte) 0; green = (byte) 255; red = (byte) 138;}
-      else if(iv >= 2200 && iv < 2300){blue = (byte) 0; green = (byte) 255; red = (byte) 115;}
-      else if(iv >= 2300 && iv < 2400){blue = (byte) 0; green = (byte) 255; red = (byte) 92;}
-      else if(iv >= 2400 && iv < 2500){blue = (byte) 0; green = (byte) 255; red = (byte) 69;}
-      else if(iv >= 2500 && iv < 2600){blue = (byte) 0; green = (byte) 255; red = (byte) 46;}
-      else if(iv >= 2600 && iv < 2700){blue = (byte) 0; green = (byte) 255; red = (byte) 23;}
-      
-      else if(iv >= 2700 && iv < 2800){blue = (byte) 0; green = (byte) 255; red = (byte) 0;}
-      
-      else if(iv >= 2800 && iv < 2900){blue = (byte) 23; green = (byte) 255; red = (byte) 0;}
-      else if(iv >= 2900 && iv < 3000){blue = (byte) 46; green = (byte) 255; red = (byte) 0;}
-      else if(iv >= 3000 && iv < 3100){blue = (byte) 69; green = (byte) 255; red = (byte) 0;}
-      else if(iv >= 3100 && iv < 3200){blue = (byte) 92; green = (byte) 255; red = (byte) 0;}
-      else if(iv >= 3200 && iv < 3300){blue = (byte) 115; green = (byte) 255; red = (byte) 0;}
-      else if(iv >= 3300 && iv < 3400){blue = (byte) 138; green = (byte) 255; red = (byte) 0;}
-      else if(iv >= 3400 && iv < 3500){blue = (byte) 161; green = (byte) 255; red = (byte) 0;}
-      else if(iv >= 3500 && iv < 3600){blue = (byte) 184; green = (byte) 255; red = (byte) 0;}
-      else if(iv >= 3600 && iv < 3700){blue = (byte) 208; green = (byte) 255; red = (byte) 0;}
-      else if(iv >= 3700 && iv < 3800){blue = (byte) 232; green = (byte) 255; red = (byte) 0;}
-      
-      else if(iv >= 3800 && iv < 3900){blue = (byte) 255; green = (byte) 255; red = (byte) 0;}
-      
-      else if(iv >= 3900 && iv < 4000){blue = (byte) 255; green = (byte) 212; red = (byte) 0;}
-      else if(iv >= 4000 && iv < 4100){blue = (byte) 255; green = (byte) 170; red = (byte) 0;}
-      else if(iv >= 4100 && iv < 4200){blue = (byte) 255; green = (byte) 127; red = (byte) 0;}
-      else if(iv >= 4200 && iv < 4300){blue = (byte) 255; green = (byte) 85; red = (byte) 0;}
-      else if(iv >= 4300 && iv < 4400){blue = (byte) 255; green = (byte) 42; red = (byte) 0;}
-      else if(iv >= 4400 && iv < 4500){blue = (byte) 255; green = (byte) 0; red = (byte) 0;}
-      
-      else {blue = (byte) 0; green = (byte) 0; red = (byte) 0;}
-
-      bgra[idx] = blue;
-      idx++;
-      bgra[idx] = green;
-      idx++;
-      bgra[idx] = red;
-      idx++;
-      bgra[idx] = 0;
-      idx++;
-    }
+    int width = getDepthWidth();
+    int height = getDepthHeight();
+    byte[] bgra = depthBuffers.acquire(width * height * 4);
+    colorizer.colorizeDepth(depth, bgra, width, height);
+    byte[] replaced = depthVideoFrame.data;
+    depthVideoFrame.update(width, height, bgra);
+    depthBuffers.release(replaced);
     
-    depthVideoFrame.update(getDepthWidth(), getDepthHeight(), bgra);
-    map = new DepthMap(getDepthWidth(), getDepthHeight(), xyz);
+    // Update the map not published last in place
+    mapIndex ^= 1;
+    maps[mapIndex] = DepthMaps.update(maps[mapIndex], width, height, xyz);
+    map = maps[mapIndex];
   }
   
   private int object3dType;
@@ -275,27 +247,13 @@ public class Kinect extends J4KSDK
   public void onInfraredFrameEvent(short[] infrared)
   {
     isRunning = true;
-    int sz = getInfraredWidth() * getInfraredHeight();
-    byte bgra[] = new byte[sz * 4];
-    int idx = 0;
-    int iv = 0;
-    short sv = 0;
-    byte bv = 0;
-    for (int i = 0; i < sz; i++)
-    {
-      sv = infrared[i];
-      iv = sv >= 0 ? sv : 0x10000 + sv;
-      bv = (byte) ((iv & 0xfff8) >> 6);
-      bgra[idx] = bv;
-      idx++;
-      bgra[idx] = bv;
-      idx++;
-      bgra[idx] = bv;
-      idx++;
-      bgra[idx] = 0;
-      idx++;
-    }
-    infraredVideoFrame.update(getInfraredWidth(), getInfraredHeight(), bgra);
+    int width = getInfraredWidth();
+    int height = getInfraredHeight();
+    byte[] bgra = infraredBuffers.acquire(width * height * 4);
+    colorizer.colorizeInfrared(infrared, bgra, width, height);
+    byte[] replaced = infraredVideoFrame.data;
+    infraredVideoFrame.update(width, height, bgra);
+    infraredBuffers.release(replaced);
   }
   
   private boolean reseted = false;
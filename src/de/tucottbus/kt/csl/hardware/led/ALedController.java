@@ -4,10 +4,6 @@ import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.Area;
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Observable;
 import java.util.Observer;
@@ -15,6 +11,11 @@ import java.util.function.Consumer;
 
 import de.tucottbus.kt.csl.hardware.AAtomicHardware;
 import de.tucottbus.kt.csl.hardware.HardwareException;
+import de.tucottbus.kt.csl.hardware.ioutils.ITcpHandler;
+import de.tucottbus.kt.csl.hardware.ioutils.IoReactor;
+import de.tucottbus.kt.csl.hardware.ioutils.LineCodec;
+import de.tucottbus.kt.csl.hardware.ioutils.TcpChannel;
+import de.tucottbus.kt.csl.hardware.metrics.Counter;
 import de.tucottbus.kt.lcars.IScreen;
 import de.tucottbus.kt.lcars.LCARS;
 import de.tucottbus.kt.lcars.Panel;
@@ -111,10 +112,29 @@ import de.tucottbus.kt.lcars.swt.ColorMeta;
  *   </tr>
  * </table>
  * 
+ * <h3>Frames</h3>
+ * <p>Callers which update many LEDs at once, e.g. the level metering of the
+ * microphone arrays, should stage complete frames through {@link
+ * #setColors(ColorMeta[])}. The wrapper compares the staged frame with the
+ * last frame written to the controller and sends either the changed LEDs as a
+ * sequence of <code>LED</code> commands or one <code>ARR</code> command,
+ * whichever is shorter, in a single write. Frames staged while the previous
+ * frame is still being sent are coalesced, only the latest one is sent. The
+ * controller board does not acknowledge commands, a frame counts as delivered
+ * once it has been written to the socket.</p>
+ * <p>The connection is run by the shared {@link IoReactor}, the wrapper does
+ * not own a thread. Frames are encoded and written on the reactor thread as
+ * soon as the socket accepts data. Single color changes through {@link
+ * #setColor(int, ColorMeta)} are collected for {@value #FLUSH_DELAY} ms and
+ * sent as one frame. Observers are notified {@linkplain
+ * #notifyObserversAsync(String) asynchronously} from the reactor thread, so
+ * slow observers do not stall the network I/O of other devices.</p>
+ * 
  * @author Martin Birth
  * @author Matthias Wolff
  */
-public abstract class ALedController extends AAtomicHardware implements Runnable
+public abstract class ALedController extends AAtomicHardware 
+implements ITcpHandler<String>
 {  
 
   private static final int PORT = 55000;
@@ -123,6 +143,26 @@ public abstract class ALedController extends AAtomicHardware implements Runnable
 
   private static final String SUFFIX = ";";
 
+  /**
+   * Socket send buffer size in bytes. The buffer holds a few frames only, so
+   * staged frames are coalesced if the controller falls behind.
+   */
+  private static final int SEND_BUFFER_SIZE = 1024;
+
+  /**
+   * Time single color changes are collected before they are sent in
+   * milliseconds.
+   */
+  private static final int FLUSH_DELAY = 10;
+
+  /**
+   * Time queued commands are written before the connection is closed on
+   * {@link #dispose()} in milliseconds.
+   */
+  private static final int LINGER = 1000;
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
   private ColorMeta[] colors = new ColorMeta[33];
   
   private ColorMeta[] defColors = new ColorMeta[colors.length];
@@ -130,15 +170,56 @@ public abstract class ALedController extends AAtomicHardware implements Runnable
   /**
    * Flag indicating that at least one color has changed. 
    */
-  private boolean changed = false;
+  private volatile boolean changed = false;
   
-  private Thread guard = null;
+  /**
+   * Flag indicating that a frame staged by {@link #setColors(ColorMeta[])} has
+   * not been sent yet, guarded by {@link #colors}.
+   */
+  private boolean framePending = false;
   
-  private boolean runGuard = false;
+  /**
+   * The colors of the last frame written to the controller as 0xRRGGBB values.
+   */
+  private final int[] sentFrame = new int[colors.length];
+  
+  /**
+   * Flag indicating that {@link #sentFrame} reflects the state of the
+   * controller.
+   */
+  private boolean sentFrameValid = false;
+  
+  /**
+   * Frame buffer of {@link #sendFrame(boolean)}.
+   */
+  private final int[] frame = new int[colors.length];
+  
+  private volatile long framesSent = 0;
   
-  private Socket socket = null;
+  private volatile long framesCoalesced = 0;
   
-  private BufferedWriter socketWriter = null;
+  /**
+   * Flag indicating that a flush of single color changes is scheduled, guarded
+   * by {@link #colors}.
+   */
+  private boolean flushScheduled = false;
+  
+  /**
+   * The TCP channel to the controller board.
+   */
+  private final TcpChannel<String> channel;
+  
+  /**
+   * Timer for the periodic state notification, only accessed on the reactor
+   * thread.
+   */
+  private IoReactor.Timer stateTimer;
+  
+  /**
+   * Number of connections established and lost.
+   */
+  private final Counter connects = getMetrics().counter("connects");
+  private final Counter disconnects = getMetrics().counter("disconnects");
   
   /**
    * The last error message.
@@ -165,72 +246,10 @@ public abstract class ALedController extends AAtomicHardware implements Runnable
     defColors[defColors.length-1] = ColorMeta.WHITE;
     resetColors();
 
-    // Start the guard thread
-    guard = new Thread(this,getClass().getSimpleName()+".guard");
-    guard.start();
-  }
-  
-  @Override
-  public void run()
-  {
-    log("Begin of guard thread");
-    runGuard = true;
-    final int sleepMillis = 10;
-    int ctr = 0;
-    
-    while (runGuard)
-      try 
-      {
-        // - Initialize connection
-        socket = new Socket(getIP(), PORT);
-        socketWriter 
-          = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-        log("Connected to "+getIP()+":"+PORT);
-        setChanged();
-        notifyObservers(NOTIFY_CONNECTION);
-
-        // - Run connection
-        while (runGuard) 
-        {
-          try { Thread.sleep(sleepMillis); } catch (InterruptedException e) {}
-          if (!runGuard)
-            break;
-          if (changed)
-            sendAllColors();
-          
-          ctr+=sleepMillis;
-          if (ctr>=1000)
-          {
-            setChanged();
-            notifyObservers(NOTIFY_STATE);
-            ctr = 0;
-          }
-        }
-
-        // - End connection
-        resetColors();
-        sendAllColors();
-        socketWriter.close();
-        socket.close();
-        socketWriter = null;
-        socket = null;
-        log("Disconnected");
-        setChanged();
-        notifyObservers(NOTIFY_CONNECTION);
-      } 
-      catch (Exception e) 
-      {
-        logErr(e.getMessage(),e);
-        try { socketWriter.close(); } catch (Exception e1) {}
-        try { socket.close(); } catch (Exception e1) {}
-        socketWriter = null;
-        socket = null;
-        setChanged();
-        notifyObservers(NOTIFY_CONNECTION);
-        try { Thread.sleep(2500); } catch (InterruptedException e1) {}
-      }
-
-    log("End of guard thread");
+    // Connect to the controller board
+    channel = new TcpChannel<String>(getIP(),getPort(),new LineCodec("",SUFFIX),this)
+      .setSendBufferSize(SEND_BUFFER_SIZE);
+    channel.open();
   }
   
   @Override
@@ -238,21 +257,13 @@ public abstract class ALedController extends AAtomicHardware implements Runnable
   {
     stopLampTest();
     try { reset(); } catch (Exception e) {}
-    
-    if (guard!=null)
-    {
-      runGuard = false;
-      try 
-      {
-        guard.interrupt();
-        guard.join();
-      } 
-      catch (Exception e) 
-      { 
-        logErr("",e); 
-      }
-    }
-    guard = null;
+    try 
+    { 
+      resetColors(); 
+      sendAllColors(); 
+    } 
+    catch (Exception e) {}
+    channel.dispose(LINGER);
     super.dispose();
   }
 
@@ -260,9 +271,7 @@ public abstract class ALedController extends AAtomicHardware implements Runnable
   public boolean isConnected() 
   {
     if (isDisposed()) return false;
-    if (!runGuard) return false;
-    if (socket==null) return false;
-    return socket.isConnected();
+    return channel.isConnected();
   }
 
   @Override
@@ -282,15 +291,82 @@ public abstract class ALedController extends AAtomicHardware implements Runnable
     {
       lastError = message;
       setChanged();
-      notifyObservers(NOTIFY_DETAIL);
+      notifyObserversAsync(NOTIFY_DETAIL);
     }
     super.log(type, message, throwable);
   }
 
+  // -- Implementation of ITcpHandler --
+
+  @Override
+  public void connected(TcpChannel<String> channel)
+  {
+    synchronized (this)
+    {
+      sentFrameValid = false;
+    }
+    changed = true;
+    connects.increment();
+    log("Connected to "+getIP()+":"+getPort());
+    setChanged();
+    notifyObserversAsync(NOTIFY_CONNECTION);
+    stateTimer = IoReactor.getInstance().schedule(() -> 
+    {
+      setChanged();
+      notifyObserversAsync(NOTIFY_STATE);
+    },1000,1000);
+    channel.requestWrite();
+  }
+
+  @Override
+  public void received(TcpChannel<String> channel, String message)
+  {
+    // The controller board does not send messages without prior request
+  }
+
+  @Override
+  public void writable(TcpChannel<String> channel)
+  {
+    if (!changed)
+      return;
+    try
+    {
+      sendFrame(false);
+    }
+    catch (Exception e)
+    {
+      logErr(e.getMessage(),e);
+    }
+  }
+
+  @Override
+  public void disconnected(TcpChannel<String> channel, Throwable cause)
+  {
+    if (stateTimer!=null)
+      stateTimer.cancel();
+    stateTimer = null;
+    disconnects.increment();
+    if (cause!=null)
+      logErr(cause.getMessage(),cause);
+    else
+      log("Disconnected");
+    setChanged();
+    notifyObserversAsync(NOTIFY_CONNECTION);
+  }
+
   // -- Abstract API --
   
   protected abstract String getIP();
   
+  /**
+   * Returns the TCP port of the controller board. Derived classes may override
+   * this method, e.g. to connect to a {@link LedControllerStandIn}.
+   */
+  protected int getPort()
+  {
+    return PORT;
+  }
+  
   // -- Public API --
 
   /**
@@ -310,15 +386,55 @@ public abstract class ALedController extends AAtomicHardware implements Runnable
   public void setColor(int ledId, ColorMeta color) 
   throws IllegalStateException, IllegalArgumentException
   {
-    if(!isConnected()||!runGuard)
+    if(!isConnected())
       throw new IllegalStateException("Wrapper " + (isDisposed() ? "disposed" : "not connected"));
     if (ledId < 0 || ledId > 31)
       throw new IllegalArgumentException();
 
     if (color == null)
       color = getDefaultColor(ledId);
-    colors[ledId] = color;
-    changed = true;
+    synchronized (colors)
+    {
+      colors[ledId] = color;
+      changed = true;
+    }
+    scheduleFlush();
+  }
+
+  /**
+   * Stages a frame of LED colors. The frame is sent as soon as the connection
+   * is ready. If a previously staged frame has not been sent
+   * yet, it is replaced by this one.
+   * 
+   * @param frame
+   *          The colors of the LEDs 0..31 and, optionally, of the ambient light
+   *          at index 32. <code>null</code> elements select the default colors
+   *          as obtained through {@link #getDefaultColor(int)} and {@link
+   *          #getDefaultAmbientColor()}.
+   * @throws IllegalStateException
+   *           if the wrapper is not connected to the hardware or disposed.
+   * @throws IllegalArgumentException
+   *           if <code>frame</code> is <code>null</code> or does not have 32
+   *           or 33 elements.
+   */
+  public void setColors(ColorMeta[] frame)
+  throws IllegalStateException, IllegalArgumentException
+  {
+    if(!isConnected())
+      throw new IllegalStateException("Wrapper " + (isDisposed() ? "disposed" : "not connected"));
+    if (frame == null || frame.length < colors.length-1 || frame.length > colors.length)
+      throw new IllegalArgumentException();
+
+    synchronized (colors)
+    {
+      if (framePending)
+        framesCoalesced++;
+      for (int i=0; i<frame.length; i++)
+        colors[i] = frame[i]!=null ? frame[i] : defColors[i];
+      framePending = true;
+      changed = true;
+    }
+    channel.requestWrite();
   }
 
   /**
@@ -400,13 +516,17 @@ public abstract class ALedController extends AAtomicHardware implements Runnable
   public void setAmbientColor(ColorMeta color)
   throws IllegalStateException
   {
-    if(!isConnected()||!runGuard)
+    if(!isConnected())
         throw new IllegalStateException("Wrapper " + (isDisposed() ? "disposed" : "not connected"));
     if (color == null)
       color = getDefaultAmbientColor();
 
-    colors[colors.length-1] = color;
-    changed = true;
+    synchronized (colors)
+    {
+      colors[colors.length-1] = color;
+      changed = true;
+    }
+    scheduleFlush();
   }
   
   /**
@@ -479,6 +599,24 @@ public abstract class ALedController extends AAtomicHardware implements Runnable
     resetColors();
   }
 
+  /**
+   * Returns the number of frames sent to the controller board.
+   */
+  public long getFramesSent()
+  {
+    return framesSent;
+  }
+
+  /**
+   * Returns the number of frames staged by {@link #setColors(ColorMeta[])}
+   * which were replaced by a later one before they could be sent. Changes by
+   * the single color setters are not counted.
+   */
+  public long getFramesCoalesced()
+  {
+    return framesCoalesced;
+  }
+
   // -- Mid-level communication - LED controller board commands --
 
   /**
@@ -507,6 +645,10 @@ public abstract class ALedController extends AAtomicHardware implements Runnable
     
     // Send LED id and blue, green, and red value
     sendLedCommand(output);
+    synchronized (this)
+    {
+      sentFrame[ledId] = colorToRgb(colors[ledId]);
+    }
     setChanged();
     notifyObservers(NOTIFY_STATE);
   }
@@ -523,6 +665,10 @@ public abstract class ALedController extends AAtomicHardware implements Runnable
   throws IllegalStateException, HardwareException
   {
     sendLedCommand(PREFIX[1]);
+    synchronized (this)
+    {
+      sentFrameValid = false;
+    }
     try { Thread.sleep(300); } catch (InterruptedException e) {}
     setChanged();
     notifyObservers(NOTIFY_STATE);
@@ -539,9 +685,121 @@ public abstract class ALedController extends AAtomicHardware implements Runnable
   protected void sendAllColors()
   throws IllegalStateException, HardwareException
   {
-    sendLedCommand(PREFIX[2]+colorArrayToString(colors)+SUFFIX);
+    sendFrame(true);
+  }
+
+  /**
+   * Sends the current colors as one frame. Only colors which differ from the
+   * last frame sent are transmitted, either as a sequence of single color
+   * commands or as one all colors command, whichever is shorter. If a frame
+   * was sent, the observers are notified asynchronously.
+   * 
+   * @param full
+   *          <code>true</code> to send all colors regardless of the last frame.
+   * @throws IllegalStateException
+   *           if the wrapper is not connected to the hardware or disposed.
+   * @throws HardwareException
+   *           on hardware or communication failures.
+   */
+  protected void sendFrame(boolean full)
+  throws IllegalStateException, HardwareException
+  {
+    if (!sendFrameInt(full))
+      return;
     setChanged();
-    notifyObservers(NOTIFY_STATE);
+    notifyObserversAsync(NOTIFY_STATE);
+  }
+
+  /**
+   * Implementation of {@link #sendFrame(boolean)}.
+   * 
+   * @return <code>true</code> if a frame was sent, <code>false</code> if the
+   *         colors did not change.
+   */
+  private synchronized boolean sendFrameInt(boolean full)
+  throws IllegalStateException, HardwareException
+  {
+    boolean staged;
+    synchronized (colors)
+    {
+      for (int i=0; i<colors.length; i++)
+        frame[i] = colorToRgb(colors[i]);
+      staged = framePending;
+      framePending = false;
+      changed = false;
+    }
+
+    String command = encodeFrame(frame,full||!sentFrameValid?null:sentFrame);
+    if (command.length()==0)
+      return false;
+    try
+    {
+      sendLedCommand(command);
+    }
+    catch (IllegalStateException | HardwareException e)
+    {
+      sentFrameValid = false;
+      synchronized (colors)
+      {
+        framePending |= staged;
+        changed = true;
+      }
+      throw e;
+    }
+    System.arraycopy(frame,0,sentFrame,0,frame.length);
+    sentFrameValid = true;
+    framesSent++;
+    return true;
+  }
+
+  /**
+   * Encodes a frame as a command string. If a previous frame is given, the
+   * changed colors are encoded as a sequence of single color commands
+   * (<code>PREFIX[0]</code>) unless the all colors command
+   * (<code>PREFIX[2]</code>) is shorter.
+   * 
+   * @param frame
+   *          The colors as 0xRRGGBB values, 33 elements.
+   * @param last
+   *          The last frame sent, <code>null</code> to encode all colors.
+   * @return The command string, empty if no color has changed.
+   */
+  static String encodeFrame(int[] frame, int[] last)
+  {
+    final int setLength = PREFIX[0].length()+2+6+SUFFIX.length();
+    final int allLength = PREFIX[2].length()+6*frame.length+SUFFIX.length();
+
+    int dirty = frame.length;
+    if (last!=null)
+    {
+      dirty = 0;
+      for (int i=0; i<frame.length; i++)
+        if (frame[i]!=last[i])
+          dirty++;
+      if (dirty==0)
+        return "";
+    }
+
+    if (last!=null && dirty*setLength<allLength)
+    {
+      StringBuilder sb = new StringBuilder(dirty*setLength);
+      for (int i=0; i<frame.length; i++)
+        if (frame[i]!=last[i])
+        {
+          sb.append(PREFIX[0]);
+          appendHex(sb,i,2);
+          appendHex(sb,frame[i],6);
+          sb.append(SUFFIX);
+        }
+      return sb.toString();
+    }
+
+    StringBuilder sb = new StringBuilder(allLength);
+    sb.append(PREFIX[2]);
+    for (int i=0; i<frame.length; i++)
+      appendHex(sb,frame[i],6);
+    sb.append(SUFFIX);
+    return sb.toString();
   }
 
   // -- Low level communication (TCP/IP I/O) --
@@ -562,26 +820,66 @@ public abstract class ALedController extends AAtomicHardware implements Runnable
     check();
     try
     {
-      socketWriter.write(command);
-      socketWriter.flush();
-    }
-    catch (IOException e)
-    {
-      throw new HardwareException("I/O error",e);
+      channel.send(command);
     }
-    catch (NullPointerException e)
+    catch (IllegalStateException e)
     {
-      throw new HardwareException("No output stream",e);
+      throw new HardwareException("Connection lost",e);
     }
   }
 
   // -- Helpers --
   
+  /**
+   * Schedules sending the colors changed by single color setters after {@link
+   * #FLUSH_DELAY} milliseconds. Further changes until then are sent in the
+   * same frame.
+   */
+  private void scheduleFlush()
+  {
+    synchronized (colors)
+    {
+      if (flushScheduled)
+        return;
+      flushScheduled = true;
+    }
+    IoReactor.getInstance().schedule(() ->
+    {
+      synchronized (colors)
+      {
+        flushScheduled = false;
+      }
+      channel.requestWrite();
+    },FLUSH_DELAY);
+  }
+
   protected void resetColors() 
   {
-    for (int i=0; i<colors.length; i++)
-      colors[i] = defColors[i];
-    changed = true;
+    synchronized (colors)
+    {
+      for (int i=0; i<colors.length; i++)
+        colors[i] = defColors[i];
+      changed = true;
+    }
+    if (channel!=null) // Not yet created when invoked by the constructor
+      channel.requestWrite();
+  }
+
+  /**
+   * Converts a color into a 0xRRGGBB value.
+   */
+  static int colorToRgb(ColorMeta color)
+  {
+    return (color.getRed()<<16)|(color.getGreen()<<8)|color.getBlue();
+  }
+
+  /**
+   * Appends the lower <code>digits</code> hexadecimal digits of a value.
+   */
+  private static void appendHex(StringBuilder sb, int value, int digits)
+  {
+    for (int shift=4*(digits-1); shift>=0; shift-=4)
+      sb.append(HEX_DIGITS[(value>>shift)&0xF]);
   }
 
   protected String intToHexDigitString(int value) 
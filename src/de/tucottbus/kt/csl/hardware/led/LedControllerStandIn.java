@@ -0,0 +1,265 @@
+package de.tucottbus.kt.csl.hardware.led;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Local TCP stand-in for the mbed LED controller boards, used for testing
+ * {@link ALedController} without hardware.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The stand-in listens on the loopback interface and serves one client
+ *     at a time, like the controller firmware.</li>
+ *   <li>It interprets the commands <code>LED</code>, <code>ARR</code> and
+ *     <code>RES</code> (see <code>main.cpp</code> in
+ *     <code>led_IP_full.zip</code>) and keeps the resulting LED colors. Other
+ *     commands are ignored. Unlike the firmware, commands split between two
+ *     reads are joined.</li>
+ *   <li>Reads of at most 726 bytes, the socket buffer size of the firmware,
+ *     are counted as packets. An optional delay per read simulates a slow
+ *     controller. The receive buffer is kept small, like the TCP window of
+ *     the firmware.</li>
+ * </ul>
+ */
+public class LedControllerStandIn implements Runnable, Closeable
+{
+  private static final int BUFFER_SIZE = 726;
+
+  private static final int SET_LENGTH = 11;
+
+  private static final int ALL_LENGTH = 3+6*33;
+
+  private final ServerSocket server;
+
+  private final int readDelayMillis;
+
+  private final int[] colors = new int[33];
+
+  private Thread thread;
+
+  private volatile boolean running;
+
+  private volatile long packets;
+
+  private volatile long bytes;
+
+  private volatile long commands;
+
+  private volatile long invalidCommands;
+
+  /**
+   * Creates a new stand-in controller.
+   *
+   * @param port
+   *          The TCP port, 0 for any free port.
+   * @param readDelayMillis
+   *          Delay after each read in milliseconds, 0 for none.
+   * @throws IOException
+   *           if the server socket cannot be opened.
+   */
+  public LedControllerStandIn(int port, int readDelayMillis)
+  throws IOException
+  {
+    this.server = new ServerSocket();
+    this.server.setReceiveBufferSize(BUFFER_SIZE);
+    this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),port),1);
+    this.readDelayMillis = readDelayMillis;
+    reset();
+  }
+
+  /**
+   * Starts serving clients.
+   */
+  public synchronized void start()
+  {
+    if (thread!=null)
+      return;
+    running = true;
+    thread = new Thread(this,getClass().getSimpleName()+":"+getPort());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public void close()
+  {
+    running = false;
+    try { server.close(); } catch (IOException e) {}
+    Thread thread;
+    synchronized (this)
+    {
+      thread = this.thread;
+      this.thread = null;
+    }
+    if (thread!=null)
+      try { thread.join(); } catch (InterruptedException e) {}
+  }
+
+  // -- Getters --
+
+  /**
+   * Returns the TCP port.
+   */
+  public int getPort()
+  {
+    return server.getLocalPort();
+  }
+
+  /**
+   * Returns the color of one LED as 0xRRGGBB value.
+   *
+   * @param ledId
+   *          The LED id, 0..31 for a LED, 32 for the ambient light.
+   */
+  public synchronized int getColor(int ledId)
+  {
+    return colors[ledId];
+  }
+
+  /**
+   * Returns the colors of all LEDs as 0xRRGGBB values.
+   */
+  public synchronized int[] getColors()
+  {
+    return colors.clone();
+  }
+
+  /**
+   * Returns the number of reads from the client socket.
+   */
+  public long getPackets()
+  {
+    return packets;
+  }
+
+  /**
+   * Returns the number of bytes received.
+   */
+  public long getBytes()
+  {
+    return bytes;
+  }
+
+  /**
+   * Returns the number of valid commands received.
+   */
+  public long getCommands()
+  {
+    return commands;
+  }
+
+  /**
+   * Returns the number of malformed or unknown commands received.
+   */
+  public long getInvalidCommands()
+  {
+    return invalidCommands;
+  }
+
+  /**
+   * Resets the statistics.
+   */
+  public void resetStatistics()
+  {
+    packets = 0;
+    bytes = 0;
+    commands = 0;
+    invalidCommands = 0;
+  }
+
+  // -- Server --
+
+  @Override
+  public void run()
+  {
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    while (running)
+      try (Socket client = server.accept())
+      {
+        InputStream in = client.getInputStream();
+        StringBuilder pending = new StringBuilder();
+        int n;
+        while (running && (n=in.read(buffer))>0)
+        {
+          packets++;
+          bytes += n;
+          pending.append(new String(buffer,0,n,StandardCharsets.US_ASCII));
+          int end;
+          while ((end=pending.indexOf(";"))>=0)
+          {
+            execute(pending.substring(0,end));
+            pending.delete(0,end+1);
+          }
+          if (readDelayMillis>0)
+            try { Thread.sleep(readDelayMillis); } catch (InterruptedException e) {}
+        }
+      }
+      catch (IOException e)
+      {
+        // Server socket closed or client disconnected
+      }
+  }
+
+  /**
+   * Executes one command (without the terminating semicolon).
+   */
+  private void execute(String command)
+  {
+    try
+    {
+      if (command.startsWith("LED") && command.length()==SET_LENGTH)
+      {
+        int ledId = Integer.parseInt(command.substring(3,5),16);
+        if (ledId>=colors.length)
+          throw new NumberFormatException();
+        int rgb = Integer.parseInt(command.substring(5,11),16);
+        synchronized (this)
+        {
+          colors[ledId] = rgb;
+        }
+      }
+      else if (command.startsWith("ARR") && command.length()==ALL_LENGTH)
+      {
+        int[] rgb = new int[colors.length];
+        for (int i=0, pos=3; i<rgb.length; i++, pos+=6)
+          rgb[i] = Integer.parseInt(command.substring(pos,pos+6),16);
+        synchronized (this)
+        {
+          System.arraycopy(rgb,0,colors,0,rgb.length);
+        }
+      }
+      else if (command.startsWith("RES"))
+        reset();
+      else
+      {
+        invalidCommands++;
+        return;
+      }
+      commands++;
+    }
+    catch (NumberFormatException e)
+    {
+      invalidCommands++;
+    }
+  }
+
+  /**
+   * Resets the LEDs like the firmware: LEDs off, ambient light white.
+   */
+  private synchronized void reset()
+  {
+    Arrays.fill(colors,0x000000);
+    colors[colors.length-1] = 0xFFFFFF;
+  }
+
+}
+
+// EOF
@@ -0,0 +1,230 @@
+package de.tucottbus.kt.csl.hardware.led;
+
+import java.util.Arrays;
+
+import de.tucottbus.kt.csl.hardware.AHardware;
+import de.tucottbus.kt.csl.test.TestReport;
+import de.tucottbus.kt.lcars.swt.ColorMeta;
+
+/**
+ * Tests the frame protocol of {@link ALedController} against a {@link
+ * LedControllerStandIn}: command encoding, final LED state, number of packets
+ * and bytes per frame, and coalescing of frames on a slow link.
+ */
+public class LedControllerTest
+{
+  /**
+   * LED controller wrapper connecting to a stand-in.
+   */
+  static class StandInLedController extends ALedController
+  {
+    /**
+     * The port of the stand-in. Note: the constructor of the base class opens
+     * the connection before the constructor of a derived class has run, so
+     * this cannot be an instance field.
+     */
+    static volatile int port;
+
+    StandInLedController()
+    {
+      super();
+    }
+
+    @Override
+    protected String getIP()
+    {
+      return "127.0.0.1";
+    }
+
+    @Override
+    protected int getPort()
+    {
+      return port;
+    }
+
+    @Override
+    public String getName()
+    {
+      return "STAND-IN";
+    }
+
+    @Override
+    public AHardware getParent()
+    {
+      return null;
+    }
+  }
+
+  private static boolean waitFor(LedControllerStandIn standIn, int[] expected)
+  {
+    long deadline = System.currentTimeMillis()+5000;
+    while (System.currentTimeMillis()<deadline)
+    {
+      if (Arrays.equals(standIn.getColors(),expected))
+        return true;
+      try { Thread.sleep(10); } catch (InterruptedException e) {}
+    }
+    return false;
+  }
+
+  private static ALedController connect(LedControllerStandIn standIn)
+  {
+    StandInLedController.port = standIn.getPort();
+    ALedController controller = new StandInLedController();
+    long deadline = System.currentTimeMillis()+5000;
+    while (System.currentTimeMillis()<deadline)
+    {
+      if (controller.isConnected())
+        return controller;
+      try { Thread.sleep(10); } catch (InterruptedException e) {}
+    }
+    throw new IllegalStateException("Cannot connect to stand-in on port "+standIn.getPort());
+  }
+
+  /**
+   * Returns a level meter frame, LEDs 0..31 plus the ambient light (white).
+   */
+  private static int[] levelFrame(int n)
+  {
+    int[] rgb = new int[33];
+    for (int i=0; i<32; i++)
+    {
+      double level = 0.5+0.5*Math.sin(0.2*n+0.4*i);
+      int v = (int)(level*64);
+      rgb[i] = v<<16|v<<8|(int)(level*255);
+    }
+    rgb[32] = 0xFFFFFF;
+    return rgb;
+  }
+
+  /**
+   * Returns a frame with one lit LED moving round.
+   */
+  private static int[] dotFrame(int n)
+  {
+    int[] rgb = new int[33];
+    rgb[n%32] = 0xFF0000;
+    rgb[32] = 0xFFFFFF;
+    return rgb;
+  }
+
+  private static ColorMeta[] toColors(int[] rgb)
+  {
+    ColorMeta[] frame = new ColorMeta[32];
+    for (int i=0; i<frame.length; i++)
+      frame[i] = new ColorMeta(rgb[i]);
+    return frame;
+  }
+
+  private static void printStats(TestReport report, String name,
+      LedControllerStandIn standIn, int staged, long sent, long coalesced)
+  {
+    report.info("%s: %d frames staged, %d sent, %d coalesced, "
+      + "%d packets, %.1f bytes per frame",name,staged,sent,coalesced,standIn.getPackets(),
+      (double)standIn.getBytes()/Math.max(1,sent));
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    TestReport report = new TestReport();
+
+    // Encoding
+    int[] black = new int[33];
+    int[] one = black.clone();
+    one[5] = 0xFF0000;
+    String full = ALedController.encodeFrame(one,null);
+    report.check("full frame is one ARR command",
+      full.startsWith("ARR") && full.length()==3+6*33+1 && full.endsWith(";"));
+    report.check("unchanged frame is empty",ALedController.encodeFrame(one,one).isEmpty());
+    report.check("single change is one LED command",
+      ALedController.encodeFrame(one,black).equals("LED05ff0000;"));
+    int[] many = black.clone();
+    for (int i=0; i<16; i++)
+      many[2*i] = 0x010203;
+    report.check("16 changes are LED commands",
+      ALedController.encodeFrame(many,black).startsWith("LED"));
+    many[1] = 0x010203;
+    report.check("17 changes are one ARR command",
+      ALedController.encodeFrame(many,black).startsWith("ARR"));
+
+    // Level metering at 50 frames per second
+    LedControllerStandIn standIn = new LedControllerStandIn(0,0);
+    standIn.start();
+    ALedController controller = connect(standIn);
+    report.check("connected",controller.isConnected());
+    int[] rgb = null;
+    int frames = 100;
+    long sent = controller.getFramesSent();
+    long coalesced = controller.getFramesCoalesced();
+    standIn.resetStatistics();
+    for (int n=0; n<frames; n++)
+    {
+      rgb = levelFrame(n);
+      controller.setColors(toColors(rgb));
+      Thread.sleep(20);
+    }
+    report.check("level metering, final state",waitFor(standIn,rgb));
+    report.check("level metering, no invalid commands",standIn.getInvalidCommands()==0);
+    report.check("level metering, at most one packet per frame",standIn.getPackets()<=frames+1);
+    printStats(report,"level metering",standIn,frames,controller.getFramesSent()-sent,
+      controller.getFramesCoalesced()-coalesced);
+    report.info("one LED command per LED would take %d packets, %d bytes per frame",
+      frames*33,33*12);
+
+    // Sparse frames
+    sent = controller.getFramesSent();
+    coalesced = controller.getFramesCoalesced();
+    standIn.resetStatistics();
+    for (int n=0; n<frames; n++)
+    {
+      rgb = dotFrame(n);
+      controller.setColors(toColors(rgb));
+      Thread.sleep(20);
+    }
+    report.check("moving dot, final state",waitFor(standIn,rgb));
+    report.check("moving dot, diffs only",
+      standIn.getBytes()<=(controller.getFramesSent()-sent)*2*12+3+6*33+1);
+    printStats(report,"moving dot",standIn,frames,controller.getFramesSent()-sent,
+      controller.getFramesCoalesced()-coalesced);
+
+    // Single color changes followed by a frame
+    coalesced = controller.getFramesCoalesced();
+    for (int i=0; i<32; i++)
+      controller.setColor(i,new ColorMeta(0x00FF00));
+    rgb = levelFrame(7);
+    controller.setColors(toColors(rgb));
+    report.check("single colors, final state",waitFor(standIn,rgb));
+    report.check("single colors, not counted as coalesced frames",
+      controller.getFramesCoalesced()==coalesced);
+    controller.dispose();
+    standIn.close();
+
+    // Slow controller, frames staged as fast as possible
+    standIn = new LedControllerStandIn(0,5);
+    standIn.start();
+    controller = connect(standIn);
+    sent = controller.getFramesSent();
+    coalesced = controller.getFramesCoalesced();
+    standIn.resetStatistics();
+    frames = 0;
+    long end = System.currentTimeMillis()+1000;
+    while (System.currentTimeMillis()<end)
+    {
+      rgb = levelFrame(frames++);
+      controller.setColors(toColors(rgb));
+    }
+    report.check("slow link, final state",waitFor(standIn,rgb));
+    report.check("slow link, frames coalesced",controller.getFramesCoalesced()>coalesced
+      && controller.getFramesSent()-sent<frames);
+    report.check("slow link, no invalid commands",standIn.getInvalidCommands()==0);
+    printStats(report,"slow link",standIn,frames,controller.getFramesSent()-sent,
+      controller.getFramesCoalesced()-coalesced);
+    controller.dispose();
+    standIn.close();
+
+    report.exit();
+  }
+
+}
+
+// EOF
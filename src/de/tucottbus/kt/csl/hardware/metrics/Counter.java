@@ -0,0 +1,50 @@
+package de.tucottbus.kt.csl.hardware.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic event counter. Counting is lock-free and scales with the number
+ * of recording threads.
+ *
+ * @see MetricsRegistry#counter(String)
+ */
+public final class Counter
+{
+  private final LongAdder count = new LongAdder();
+
+  /**
+   * Increments the counter by one.
+   */
+  public void increment()
+  {
+    count.increment();
+  }
+
+  /**
+   * Increments the counter.
+   *
+   * @param n
+   *          The increment.
+   */
+  public void add(long n)
+  {
+    count.add(n);
+  }
+
+  /**
+   * Returns the current count.
+   */
+  public long get()
+  {
+    return count.sum();
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.valueOf(get());
+  }
+
+}
+
+// EOF
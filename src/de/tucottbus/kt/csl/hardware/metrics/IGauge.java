@@ -0,0 +1,16 @@
+package de.tucottbus.kt.csl.hardware.metrics;
+
+/**
+ * Gauge sampling a current value, e.&nbsp;g. a queue depth, when the metrics
+ * are collected. Gauges cost nothing on the hot path.
+ *
+ * @see MetricsRegistry#gauge(String, IGauge)
+ */
+public interface IGauge
+{
+  /**
+   * Returns the current value. Called from the collecting thread, so
+   * implementations must be thread-safe and should not block.
+   */
+  public double getValue();
+}
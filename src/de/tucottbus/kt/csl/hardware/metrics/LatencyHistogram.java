@@ -0,0 +1,169 @@
+package de.tucottbus.kt.csl.hardware.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, similar to
+ * an HDR histogram.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>Values below 32&nbsp;ns have buckets of their own. Above, every
+ *     power of two is split into 16 linear buckets, so the relative error of
+ *     percentiles is at most 1/16. Values above 2<sup>40</sup>&nbsp;ns (about
+ *     18 minutes) are counted in the last bucket.</li>
+ *   <li>{@link #record(long)} is lock-free and does not allocate. It may be
+ *     called from audio callbacks.</li>
+ *   <li>Readers are not synchronized with writers. A percentile computed
+ *     while values are being recorded may miss the most recent ones.</li>
+ * </ul>
+ *
+ * @see MetricsRegistry#histogram(String)
+ */
+public final class LatencyHistogram
+{
+  private static final int SUB_BITS    = 4;
+  private static final int SUB_COUNT   = 1<<SUB_BITS;
+  private static final int LINEAR      = 2*SUB_COUNT;
+  private static final int MAX_BIT     = 40;
+  private static final int BUCKETS     = LINEAR+(MAX_BIT-SUB_BITS)*SUB_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder       count  = new LongAdder();
+  private final LongAdder       total  = new LongAdder();
+  private final AtomicLong      max    = new AtomicLong();
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos
+   *          The latency in nanoseconds, negative values are recorded as 0.
+   */
+  public void record(long nanos)
+  {
+    if (nanos<0)
+      nanos = 0;
+    counts.incrementAndGet(bucketOf(nanos));
+    count.increment();
+    total.add(nanos);
+    for (long m = max.get(); nanos>m; m = max.get())
+      if (max.compareAndSet(m,nanos))
+        break;
+  }
+
+  /**
+   * Records the time elapsed since a start time.
+   *
+   * @param startNanos
+   *          The start time as obtained from {@link System#nanoTime()}.
+   */
+  public void recordSince(long startNanos)
+  {
+    record(System.nanoTime()-startNanos);
+  }
+
+  /**
+   * Returns the number of recorded latencies.
+   */
+  public long getCount()
+  {
+    return count.sum();
+  }
+
+  /**
+   * Returns the mean latency in nanoseconds, 0 if nothing was recorded.
+   */
+  public double getMean()
+  {
+    long n = count.sum();
+    return n>0 ? (double)total.sum()/n : 0;
+  }
+
+  /**
+   * Returns the maximal latency in nanoseconds, 0 if nothing was recorded.
+   */
+  public long getMax()
+  {
+    return max.get();
+  }
+
+  /**
+   * Returns a percentile of the recorded latencies. The result is the upper
+   * bound of the bucket containing the percentile, but not more than
+   * {@link #getMax()}.
+   *
+   * @param percentile
+   *          The percentile, 0...100.
+   * @return The latency in nanoseconds, 0 if nothing was recorded.
+   */
+  public long getPercentile(double percentile)
+  {
+    long[] snapshot = new long[BUCKETS];
+    long n = 0;
+    for (int i=0; i<BUCKETS; i++)
+      n += snapshot[i] = counts.get(i);
+    if (n==0)
+      return 0;
+    long rank = Math.max(1,(long)Math.ceil(Math.min(Math.max(percentile,0),100)/100*n));
+    long sum = 0;
+    int i = 0;
+    for (; i<BUCKETS-1; i++)
+      if ((sum+=snapshot[i])>=rank)
+        break;
+    return Math.min(upperBoundOf(i),getMax());
+  }
+
+  /**
+   * Clears all recorded latencies. Values recorded concurrently may or may
+   * not be cleared.
+   */
+  public void reset()
+  {
+    for (int i=0; i<BUCKETS; i++)
+      counts.set(i,0);
+    count.reset();
+    total.reset();
+    max.set(0);
+  }
+
+  // -- Buckets --
+
+  /**
+   * Returns the bucket index of a value.
+   */
+  static int bucketOf(long value)
+  {
+    if (value<LINEAR)
+      return (int)value;
+    int shift = 63-Long.numberOfLeadingZeros(value)-SUB_BITS;
+    if (shift>MAX_BIT-SUB_BITS)
+      return BUCKETS-1;
+    return LINEAR+(shift-1)*SUB_COUNT+(int)(value>>>shift)-SUB_COUNT;
+  }
+
+  /**
+   * Returns the largest value of a bucket.
+   */
+  static long upperBoundOf(int bucket)
+  {
+    if (bucket<LINEAR)
+      return bucket;
+    int k = bucket-LINEAR;
+    int shift = k/SUB_COUNT+1;
+    long sub = k%SUB_COUNT+SUB_COUNT;
+    return ((sub+1)<<shift)-1;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format(Locale.US,"n=%d mean=%.0f p99=%d max=%d",
+      getCount(),getMean(),getPercentile(99),getMax());
+  }
+
+}
+
+// EOF
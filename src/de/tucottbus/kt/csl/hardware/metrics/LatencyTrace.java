@@ -0,0 +1,379 @@
+package de.tucottbus.kt.csl.hardware.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.tucottbus.kt.lcars.logging.Log;
+
+/**
+ * Trace of the latencies of the audio blocks of the microphone array, from
+ * the capture by the PortAudio callback to the beamformer output and to the
+ * steering target.
+ *
+ * <p>Every block of {@link
+ * de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants#FRAME_SIZE
+ * FRAME_SIZE} frames is assigned a monotonic block sequence number by {@link
+ * #capture(long)}. The processing stages pass the number on and {@linkplain
+ * #record(Stage, long) record} a time stamp when they are done with the
+ * block.</p>
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The time stamps are stored in a preallocated ring of events. Once
+ *     the ring is full, the oldest events are overwritten. The capacity
+ *     defaults to 65536 events (about 2 minutes of audio) and can be changed
+ *     by the system property <code>csl.latencyTrace.capacity</code>.</li>
+ *   <li>Recording is lock-free and does not allocate. It may be called from
+ *     the audio callback. The ring may be {@linkplain #write(File) written}
+ *     while recording, events being overwritten are skipped.</li>
+ *   <li>The latencies since capture are also recorded into histograms of the
+ *     {@linkplain MetricsRegistry#getComponent(String) component registry}
+ *     <code>LatencyTrace</code>, so they show on the {@link MetricsPanel}.</li>
+ *   <li>{@link #write(File)} dumps the ring to a file. {@link
+ *     LatencyTraceAnalyzer} computes the latency distributions of all stages
+ *     from such a file.</li>
+ * </ul>
+ */
+public final class LatencyTrace
+{
+  /**
+   * The processing stages of an audio block.
+   */
+  public enum Stage
+  {
+    /**
+     * The block was captured by the audio callback.
+     */
+    CAPTURED(null),
+
+    /**
+     * The beamformer has computed the output signal of the block.
+     */
+    BEAMFORMED(CAPTURED),
+
+    /**
+     * The output signal was written to the audio output line.
+     */
+    OUTPUT_WRITTEN(BEAMFORMED),
+
+    /**
+     * The block was queued for the direction of arrival estimator.
+     */
+    DOA_QUEUED(CAPTURED),
+
+    /**
+     * The direction of arrival estimator took the block from its queue.
+     */
+    DOA_DEQUEUED(DOA_QUEUED),
+
+    /**
+     * The target was localized from the block.
+     */
+    LOCALIZED(DOA_DEQUEUED),
+
+    /**
+     * The localized target was checked for plausibility and published by the
+     * direction of arrival estimator.
+     */
+    PLAUSIBILITY_CHECKED(LOCALIZED),
+
+    /**
+     * The target estimated from the block was taken into the microphone array
+     * state, i.&nbsp;e. it steers the beamformer.
+     */
+    STEERED(PLAUSIBILITY_CHECKED);
+
+    private final Stage predecessor;
+
+    private Stage(Stage predecessor)
+    {
+      this.predecessor = predecessor;
+    }
+
+    /**
+     * Returns the preceding stage, <code>null</code> for {@link #CAPTURED}.
+     */
+    public Stage getPredecessor()
+    {
+      return predecessor;
+    }
+
+    /**
+     * Returns the metric name of the latency since capture, e.&nbsp;g.
+     * <code>output.written.time</code>.
+     */
+    public String getMetricName()
+    {
+      return name().toLowerCase().replace('_','.')+".time";
+    }
+  }
+
+  /**
+   * The default number of events.
+   */
+  public static final int DEFAULT_CAPACITY = 1<<16;
+
+  /**
+   * Number of recent blocks whose capture times are kept for the latency
+   * histograms.
+   */
+  private static final int BLOCK_WINDOW = 1<<10;
+
+  private static final Stage[] STAGES = Stage.values();
+
+  /**
+   * Position of the stage ordinal in a packed event, the block sequence number
+   * takes the lower bits.
+   */
+  private static final int STAGE_SHIFT = 56;
+
+  private final int capacity;
+  private final int mask;
+
+  /**
+   * The event ring, three elements per event: the event sequence number plus
+   * one (0 while the event is being written), the block sequence number and
+   * stage ordinal packed into one long, and the time.
+   */
+  private final AtomicLongArray events;
+  private final AtomicLong claimed = new AtomicLong();
+
+  private final AtomicLong      nextBlock = new AtomicLong();
+  private final AtomicLongArray captures  = new AtomicLongArray(2*BLOCK_WINDOW);
+
+  private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+
+  private volatile boolean enabled = true;
+
+  // -- Life cycle --
+
+  /**
+   * Holder of the singleton instance, which is created on first use without
+   * locking.
+   */
+  private static final class Singleton
+  {
+    static final LatencyTrace INSTANCE = new LatencyTrace(
+      Integer.getInteger("csl.latencyTrace.capacity",DEFAULT_CAPACITY),
+      MetricsRegistry.getComponent("LatencyTrace"));
+  }
+
+  /**
+   * Returns the latency trace of the microphone array audio blocks. Does not
+   * lock and may be called from the audio callback.
+   */
+  public static LatencyTrace getInstance()
+  {
+    return Singleton.INSTANCE;
+  }
+
+  /**
+   * Creates a new latency trace.
+   *
+   * @param capacity
+   *          The minimal number of events, rounded up to the next power of two.
+   * @param metrics
+   *          The registry to create the latency histograms in.
+   */
+  public LatencyTrace(int capacity, MetricsRegistry metrics)
+  {
+    if (capacity<1 || capacity>(1<<24))
+      throw new IllegalArgumentException("Invalid capacity "+capacity);
+    int c = 1;
+    while (c<capacity)
+      c <<= 1;
+    this.capacity = c;
+    this.mask = c-1;
+    this.events = new AtomicLongArray(3*c);
+    for (int i=0; i<2*BLOCK_WINDOW; i+=2)
+      captures.set(i,-1);
+    for (Stage stage : STAGES)
+      if (stage.getPredecessor()!=null)
+        histograms[stage.ordinal()] = metrics.histogram(stage.getMetricName());
+  }
+
+  // -- Recording --
+
+  /**
+   * Assigns the next block sequence number and records the {@link
+   * Stage#CAPTURED} event.
+   *
+   * @param captureNanos
+   *          The capture time as obtained from {@link System#nanoTime()}.
+   * @return The block sequence number, &ge;0.
+   */
+  public long capture(long captureNanos)
+  {
+    long block = nextBlock.getAndIncrement();
+    int i = 2*((int)block&(BLOCK_WINDOW-1));
+    captures.set(i,-1);
+    captures.set(i+1,captureNanos);
+    captures.set(i,block);
+    if (enabled)
+      put(block,Stage.CAPTURED,captureNanos);
+    return block;
+  }
+
+  /**
+   * Records that a block has passed a processing stage now.
+   *
+   * @param stage
+   *          The stage.
+   * @param block
+   *          The block sequence number, negative numbers are ignored.
+   */
+  public void record(Stage stage, long block)
+  {
+    if (block<0 || !enabled)
+      return;
+    long now = System.nanoTime();
+    put(block,stage,now);
+
+    LatencyHistogram histogram = histograms[stage.ordinal()];
+    if (histogram==null)
+      return;
+    int i = 2*((int)block&(BLOCK_WINDOW-1));
+    if (captures.get(i)!=block)
+      return;
+    long captureNanos = captures.get(i+1);
+    if (captures.get(i)==block)
+      histogram.record(now-captureNanos);
+  }
+
+  /**
+   * Writes an event into the ring. All elements are written with volatile
+   * semantics, so a reader which sees the same event sequence number before
+   * and after reading the event data has read a consistent event.
+   */
+  private void put(long block, Stage stage, long nanos)
+  {
+    long n = claimed.getAndIncrement();
+    int i = 3*((int)n&mask);
+    events.set(i,0);
+    events.set(i+1,(long)stage.ordinal()<<STAGE_SHIFT|block);
+    events.set(i+2,nanos);
+    events.set(i,n+1);
+  }
+
+  // -- Getters and setters --
+
+  /**
+   * Enables or disables recording. Block sequence numbers are assigned
+   * anyway.
+   */
+  public void setEnabled(boolean enabled)
+  {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Determines if recording is enabled.
+   */
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /**
+   * Returns the number of events the ring can hold.
+   */
+  public int getCapacity()
+  {
+    return capacity;
+  }
+
+  /**
+   * Returns the total number of events recorded.
+   */
+  public long getEventCount()
+  {
+    return claimed.get();
+  }
+
+  /**
+   * Returns the number of blocks captured.
+   */
+  public long getBlockCount()
+  {
+    return nextBlock.get();
+  }
+
+  // -- Dumping --
+
+  /**
+   * Writes the events in the ring to a file, oldest first. Each line
+   * contains the block sequence number, the stage and the time in
+   * nanoseconds, separated by blanks. Events being overwritten while the
+   * ring is written are skipped.
+   *
+   * @param file
+   *          The file.
+   * @throws IOException
+   *           on I/O errors.
+   * @see LatencyTraceAnalyzer
+   */
+  public void write(File file) throws IOException
+  {
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+      Files.newOutputStream(file.toPath()),StandardCharsets.US_ASCII)))
+    {
+      write(writer);
+    }
+  }
+
+  /**
+   * Writes the events in the ring, see {@link #write(File)}.
+   *
+   * @param writer
+   *          The writer.
+   * @throws IOException
+   *           on I/O errors.
+   */
+  public void write(Writer writer) throws IOException
+  {
+    writer.write("# block stage nanos\n");
+    long end = claimed.get();
+    for (long n=Math.max(0,end-capacity); n<end; n++)
+    {
+      int i = 3*((int)n&mask);
+      if (events.get(i)!=n+1)
+        continue;
+      long packed = events.get(i+1);
+      long nanos = events.get(i+2);
+      if (events.get(i)!=n+1)
+        continue;
+      long block = packed&((1L<<STAGE_SHIFT)-1);
+      int stage = (int)(packed>>>STAGE_SHIFT);
+      writer.write(block+" "+STAGES[stage].name()+" "+nanos+"\n");
+    }
+  }
+
+  /**
+   * Writes the events to the file given by the system property
+   * <code>csl.latencyTrace.file</code>, if set. Errors are logged.
+   */
+  public static void writeFromSystemProperties()
+  {
+    String file = System.getProperty("csl.latencyTrace.file");
+    if (file==null)
+      return;
+    try
+    {
+      getInstance().write(new File(file));
+    }
+    catch (IOException e)
+    {
+      Log.err("Cannot write latency trace: "+e.getMessage());
+    }
+  }
+
+}
+
+// EOF
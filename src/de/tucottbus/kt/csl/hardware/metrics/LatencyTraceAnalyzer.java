@@ -0,0 +1,228 @@
+package de.tucottbus.kt.csl.hardware.metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import de.tucottbus.kt.csl.hardware.metrics.LatencyTrace.Stage;
+
+/**
+ * Offline tool computing the latency distributions of the processing stages
+ * from a {@linkplain LatencyTrace#write(File) latency trace file}.
+ *
+ * <p>For every stage, two distributions are computed: the latency since the
+ * block was captured and the latency since the block passed the {@linkplain
+ * Stage#getPredecessor() preceding stage}. Events of blocks whose capture
+ * event is not in the file are ignored.</p>
+ *
+ * <p>Usage: <code>java LatencyTraceAnalyzer &lt;trace file&gt;</code></p>
+ */
+public final class LatencyTraceAnalyzer
+{
+  private static final Stage[] STAGES = Stage.values();
+
+  private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+  private final LatencyHistogram[] sinceCapture = new LatencyHistogram[STAGES.length];
+  private final LatencyHistogram[] sincePredecessor = new LatencyHistogram[STAGES.length];
+  private long blocks;
+  private long ignored;
+
+  /**
+   * Creates a new analyzer.
+   */
+  public LatencyTraceAnalyzer()
+  {
+    for (int i=0; i<STAGES.length; i++)
+    {
+      sinceCapture[i] = new LatencyHistogram();
+      sincePredecessor[i] = new LatencyHistogram();
+    }
+  }
+
+  /**
+   * Reads a latency trace file and adds its events to the distributions.
+   *
+   * @param file
+   *          The file.
+   * @throws IOException
+   *           on I/O errors or if the file is malformed.
+   */
+  public void read(File file) throws IOException
+  {
+    try (Reader reader = Files.newBufferedReader(file.toPath(),StandardCharsets.US_ASCII))
+    {
+      read(reader);
+    }
+  }
+
+  /**
+   * Reads a latency trace and adds its events to the distributions.
+   *
+   * @param reader
+   *          The reader.
+   * @throws IOException
+   *           on I/O errors or if the trace is malformed.
+   */
+  public void read(Reader reader) throws IOException
+  {
+    HashMap<Long,long[]> times = new HashMap<Long,long[]>();
+    BufferedReader in = reader instanceof BufferedReader
+      ? (BufferedReader)reader : new BufferedReader(reader);
+    int n = 0;
+    for (String line; (line=in.readLine())!=null; )
+    {
+      n++;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#"))
+        continue;
+      String[] fields = line.split("\\s+");
+      try
+      {
+        if (fields.length!=3)
+          throw new IllegalArgumentException();
+        long block = Long.parseLong(fields[0]);
+        Stage stage = Stage.valueOf(fields[1]);
+        long nanos = Long.parseLong(fields[2]);
+        long[] t = times.get(block);
+        if (t==null)
+        {
+          t = new long[STAGES.length];
+          Arrays.fill(t,Long.MIN_VALUE);
+          times.put(block,t);
+        }
+        t[stage.ordinal()] = nanos;
+      }
+      catch (IllegalArgumentException e)
+      {
+        throw new IOException("Malformed trace in line "+n+": \""+line+"\"");
+      }
+    }
+
+    for (Map.Entry<Long,long[]> entry : times.entrySet())
+    {
+      long[] t = entry.getValue();
+      long captured = t[Stage.CAPTURED.ordinal()];
+      if (captured==Long.MIN_VALUE)
+      {
+        ignored++;
+        continue;
+      }
+      blocks++;
+      for (Stage stage : STAGES)
+      {
+        long nanos = t[stage.ordinal()];
+        if (stage.getPredecessor()==null || nanos==Long.MIN_VALUE)
+          continue;
+        sinceCapture[stage.ordinal()].record(nanos-captured);
+        long previous = t[stage.getPredecessor().ordinal()];
+        if (previous!=Long.MIN_VALUE)
+          sincePredecessor[stage.ordinal()].record(nanos-previous);
+      }
+    }
+  }
+
+  /**
+   * Returns the distribution of the latencies of a stage since capture.
+   */
+  public LatencyHistogram getSinceCapture(Stage stage)
+  {
+    return sinceCapture[stage.ordinal()];
+  }
+
+  /**
+   * Returns the distribution of the latencies of a stage since the preceding
+   * stage.
+   */
+  public LatencyHistogram getSincePredecessor(Stage stage)
+  {
+    return sincePredecessor[stage.ordinal()];
+  }
+
+  /**
+   * Returns the number of blocks analyzed.
+   */
+  public long getBlockCount()
+  {
+    return blocks;
+  }
+
+  /**
+   * Returns the number of blocks ignored because their capture event was
+   * missing.
+   */
+  public long getIgnoredBlockCount()
+  {
+    return ignored;
+  }
+
+  /**
+   * Returns a table of the latency distributions in milliseconds.
+   */
+  public String getReport()
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format(Locale.US,"%d blocks, %d ignored%n",blocks,ignored));
+    appendTable(sb,"Latency since capture [ms]",sinceCapture);
+    appendTable(sb,"Latency since preceding stage [ms]",sincePredecessor);
+    return sb.toString();
+  }
+
+  private static void appendTable(StringBuilder sb, String title, LatencyHistogram[] histograms)
+  {
+    sb.append(String.format(Locale.US,"%n%s%n%-22s %8s %8s",title,"STAGE","N","MEAN"));
+    for (double p : PERCENTILES)
+      sb.append(String.format(Locale.US," %8s","P"+(p==Math.rint(p) ? String.valueOf((int)p) : String.valueOf(p))));
+    sb.append(String.format(Locale.US," %8s%n","MAX"));
+    for (Stage stage : STAGES)
+    {
+      if (stage.getPredecessor()==null)
+        continue;
+      LatencyHistogram histogram = histograms[stage.ordinal()];
+      sb.append(String.format(Locale.US,"%-22s %8d %8.3f",stage.name(),histogram.getCount(),
+        histogram.getMean()/1E6));
+      for (double p : PERCENTILES)
+        sb.append(String.format(Locale.US," %8.3f",histogram.getPercentile(p)/1E6));
+      sb.append(String.format(Locale.US," %8.3f%n",histogram.getMax()/1E6));
+    }
+  }
+
+  // == Main method ==
+
+  /**
+   * Prints the latency distributions of one or more latency trace files.
+   *
+   * @param args
+   *          The trace files.
+   */
+  public static void main(String[] args)
+  {
+    if (args.length==0)
+    {
+      System.err.println("Usage: LatencyTraceAnalyzer <trace file> [<trace file> ...]");
+      System.exit(1);
+    }
+    LatencyTraceAnalyzer analyzer = new LatencyTraceAnalyzer();
+    try
+    {
+      for (String arg : args)
+        analyzer.read(new File(arg));
+    }
+    catch (IOException e)
+    {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+    System.out.print(analyzer.getReport());
+  }
+
+}
+
+// EOF
@@ -0,0 +1,167 @@
+package de.tucottbus.kt.csl.hardware.metrics;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import de.tucottbus.kt.csl.hardware.audio.input.AudioFrameRing;
+import de.tucottbus.kt.csl.hardware.metrics.LatencyTrace.Stage;
+import de.tucottbus.kt.csl.test.TestReport;
+
+/**
+ * Tests {@link LatencyTrace} and {@link LatencyTraceAnalyzer}: block numbering,
+ * concurrent recording, ring wrap-around, the latency histograms, the trace
+ * file round trip and the propagation of block numbers through the {@link
+ * AudioFrameRing}.
+ */
+public class LatencyTraceTest
+{
+  public static void main(String[] args) throws Exception
+  {
+    TestReport report = new TestReport();
+
+    // Block numbering and histograms
+    MetricsRegistry registry = new MetricsRegistry("Test");
+    LatencyTrace trace = new LatencyTrace(1000,registry);
+    report.check("capacity rounded up",trace.getCapacity()==1024);
+    long now = System.nanoTime();
+    long b0 = trace.capture(now-5000000);
+    long b1 = trace.capture(now-1000000);
+    trace.record(Stage.BEAMFORMED,b0);
+    trace.record(Stage.BEAMFORMED,b1);
+    trace.record(Stage.BEAMFORMED,-1);
+    LatencyHistogram beamformed = registry.histogram(Stage.BEAMFORMED.getMetricName());
+    report.check("block numbers",b0==0 && b1==1 && trace.getBlockCount()==2);
+    report.check("untraced blocks ignored",trace.getEventCount()==4);
+    report.check("histogram since capture",beamformed.getCount()==2
+      && beamformed.getMax()>=5000000 && beamformed.getPercentile(50)>=1000000);
+    trace.setEnabled(false);
+    long b2 = trace.capture(System.nanoTime());
+    trace.record(Stage.BEAMFORMED,b2);
+    report.check("disabled",b2==2 && trace.getEventCount()==4 && beamformed.getCount()==2);
+    trace.setEnabled(true);
+
+    // Concurrent recording and wrap-around
+    trace = new LatencyTrace(1<<12,new MetricsRegistry("Test2"));
+    final LatencyTrace t = trace;
+    Thread[] threads = new Thread[4];
+    for (int i=0; i<threads.length; i++)
+    {
+      threads[i] = new Thread(()->
+      {
+        for (int j=0; j<10000; j++)
+        {
+          long block = t.capture(System.nanoTime());
+          t.record(Stage.DOA_QUEUED,block);
+          t.record(Stage.DOA_DEQUEUED,block);
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    report.check("concurrent capture",trace.getBlockCount()==40000
+      && trace.getEventCount()==120000);
+    StringWriter writer = new StringWriter();
+    trace.write(writer);
+    String[] lines = writer.toString().split("\n");
+    report.check("wrap-around keeps newest events",lines.length==1+trace.getCapacity()
+      && lines[0].startsWith("#"));
+
+    // Writing while recording
+    final LatencyTrace t2 = new LatencyTrace(1<<8,new MetricsRegistry("Test5"));
+    Thread recorder = new Thread(()->
+    {
+      for (long j=0; j<2000000; j++)
+        t2.capture(7*j);
+    });
+    recorder.start();
+    boolean consistent = true;
+    int dumps = 0;
+    while (recorder.isAlive())
+    {
+      writer = new StringWriter();
+      t2.write(writer);
+      for (String line : writer.toString().split("\n"))
+      {
+        if (line.startsWith("#"))
+          continue;
+        String[] fields = line.split(" ");
+        consistent &= fields[1].equals("CAPTURED")
+          && Long.parseLong(fields[2])==7*Long.parseLong(fields[0]);
+      }
+      dumps++;
+    }
+    recorder.join();
+    report.check("consistent events while recording",consistent && dumps>0);
+
+    // Round trip through the analyzer
+    trace = new LatencyTrace(1<<10,new MetricsRegistry("Test3"));
+    long c = System.nanoTime();
+    StringBuilder sb = new StringBuilder("# block stage nanos\n");
+    for (int i=0; i<100; i++)
+    {
+      long base = c+i*10000000L;
+      sb.append(i).append(" CAPTURED ").append(base).append('\n');
+      sb.append(i).append(" BEAMFORMED ").append(base+2000000).append('\n');
+      sb.append(i).append(" OUTPUT_WRITTEN ").append(base+2500000).append('\n');
+    }
+    sb.append("100 OUTPUT_WRITTEN ").append(c).append('\n');
+    LatencyTraceAnalyzer analyzer = new LatencyTraceAnalyzer();
+    analyzer.read(new StringReader(sb.toString()));
+    report.check("analyzer blocks",analyzer.getBlockCount()==100
+      && analyzer.getIgnoredBlockCount()==1);
+    report.check("analyzer since capture",
+      analyzer.getSinceCapture(Stage.OUTPUT_WRITTEN).getCount()==100
+      && analyzer.getSinceCapture(Stage.OUTPUT_WRITTEN).getMax()==2500000);
+    report.check("analyzer since predecessor",
+      analyzer.getSincePredecessor(Stage.OUTPUT_WRITTEN).getMax()==500000
+      && analyzer.getSincePredecessor(Stage.LOCALIZED).getCount()==0);
+    report.check("analyzer report",analyzer.getReport().contains("OUTPUT_WRITTEN"));
+
+    long block = trace.capture(System.nanoTime());
+    trace.record(Stage.BEAMFORMED,block);
+    writer = new StringWriter();
+    trace.write(writer);
+    analyzer = new LatencyTraceAnalyzer();
+    analyzer.read(new StringReader(writer.toString()));
+    report.check("write/read round trip",analyzer.getBlockCount()==1
+      && analyzer.getSinceCapture(Stage.BEAMFORMED).getCount()==1);
+
+    boolean rejected = false;
+    try
+    {
+      new LatencyTraceAnalyzer().read(new StringReader("0 CAPTURED 1\n0 NO_STAGE 2\n"));
+    }
+    catch (IOException e)
+    {
+      rejected = e.getMessage().contains("line 2");
+    }
+    report.check("malformed trace",rejected);
+
+    // Block numbers through the frame ring
+    AudioFrameRing ring = new AudioFrameRing(4,2,8,AudioFrameRing.DropPolicy.DROP_OLDEST);
+    float[][] frame = new float[2][8];
+    ring.offer(frame,17);
+    ring.offer(frame);
+    boolean tagged = ring.poll(frame) && ring.getPolledTag()==17;
+    tagged &= ring.poll(frame) && ring.getPolledTag()==-1;
+    report.check("frame ring tags",tagged);
+
+    // Recording time
+    trace = new LatencyTrace(1<<16,new MetricsRegistry("Test4"));
+    int runs = 1000000;
+    for (int i=0; i<runs; i++)
+      trace.record(Stage.BEAMFORMED,trace.capture(System.nanoTime()));
+    long t0 = System.nanoTime();
+    for (int i=0; i<runs; i++)
+      trace.record(Stage.BEAMFORMED,trace.capture(System.nanoTime()));
+    long t1 = System.nanoTime();
+    report.info("capture+record: %.1f ns",(double)(t1-t0)/runs);
+
+    report.exit();
+  }
+
+}
+
+// EOF
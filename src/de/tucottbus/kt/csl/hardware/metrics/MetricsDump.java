@@ -0,0 +1,211 @@
+package de.tucottbus.kt.csl.hardware.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Formats runtime metrics as text or JSON.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The text format lists one metric per line and gives latencies in
+ *     microseconds. It is meant for humans.</li>
+ *   <li>The JSON format contains one object per registry and gives latencies
+ *     in nanoseconds. Latency histograms are objects with the fields
+ *     <code>count</code>, <code>mean</code>, <code>p50</code>,
+ *     <code>p90</code>, <code>p99</code> and <code>max</code>.</li>
+ * </ul>
+ *
+ * @see MetricsFileWriter
+ */
+public final class MetricsDump
+{
+  /**
+   * The percentiles listed for latency histograms.
+   */
+  private static final int[] PERCENTILES = { 50, 90, 99 };
+
+  private MetricsDump()
+  {
+  }
+
+  /**
+   * Formats metrics as text.
+   *
+   * @param registries
+   *          The metrics registries.
+   */
+  public static String toText(Collection<MetricsRegistry> registries)
+  {
+    StringBuilder sb = new StringBuilder();
+    for (MetricsRegistry registry : registries)
+    {
+      sb.append('[').append(registry.getName()).append("]\n");
+      for (Map.Entry<String,Object> entry : registry.getMetrics().entrySet())
+        sb.append(String.format(Locale.US,"  %-28s %s\n",entry.getKey(),
+          formatText(entry.getValue())));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Formats metrics as JSON.
+   *
+   * @param registries
+   *          The metrics registries.
+   */
+  public static String toJson(Collection<MetricsRegistry> registries)
+  {
+    StringBuilder sb = new StringBuilder("{");
+    String sep = "\n";
+    for (MetricsRegistry registry : registries)
+    {
+      sb.append(sep).append("  ");
+      appendJsonString(sb,registry.getName()).append(": {");
+      String sep2 = "\n";
+      for (Map.Entry<String,Object> entry : registry.getMetrics().entrySet())
+      {
+        sb.append(sep2).append("    ");
+        appendJsonString(sb,entry.getKey()).append(": ");
+        appendJsonValue(sb,entry.getValue());
+        sep2 = ",\n";
+      }
+      sb.append(sep2.equals("\n") ? "}" : "\n  }");
+      sep = ",\n";
+    }
+    return sb.append("\n}\n").toString();
+  }
+
+  /**
+   * Formats the value of a metric as text. Latencies are given in
+   * microseconds.
+   *
+   * @param metric
+   *          A {@link Counter}, {@link IGauge} or {@link LatencyHistogram}.
+   */
+  public static String formatText(Object metric)
+  {
+    if (metric instanceof Counter)
+      return String.valueOf(((Counter)metric).get());
+    if (metric instanceof IGauge)
+      return formatGauge(getValue((IGauge)metric));
+    if (metric instanceof LatencyHistogram)
+    {
+      LatencyHistogram histogram = (LatencyHistogram)metric;
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format(Locale.US,"n=%d mean=%.1f",histogram.getCount(),
+        histogram.getMean()/1000));
+      for (int p : PERCENTILES)
+        sb.append(String.format(Locale.US," p%d=%.1f",p,histogram.getPercentile(p)/1000.));
+      sb.append(String.format(Locale.US," max=%.1f us",histogram.getMax()/1000.));
+      return sb.toString();
+    }
+    return String.valueOf(metric);
+  }
+
+  /**
+   * Writes the metrics to a file. The file is replaced atomically, so readers
+   * never see a partial dump.
+   *
+   * @param file
+   *          The file. If its name ends with <code>.json</code>, the metrics
+   *          are written in JSON format, otherwise as text.
+   * @param registries
+   *          The metrics registries.
+   * @throws IOException
+   *           on I/O errors.
+   */
+  public static void write(File file, Collection<MetricsRegistry> registries)
+  throws IOException
+  {
+    String dump = file.getName().toLowerCase(Locale.US).endsWith(".json")
+      ? toJson(registries) : toText(registries);
+    File dir = file.getAbsoluteFile().getParentFile();
+    File tmp = File.createTempFile(file.getName(),".tmp",dir);
+    try
+    {
+      Files.write(tmp.toPath(),dump.getBytes(StandardCharsets.UTF_8));
+      try
+      {
+        Files.move(tmp.toPath(),file.toPath(),StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e)
+      {
+        Files.move(tmp.toPath(),file.toPath(),StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    finally
+    {
+      Files.deleteIfExists(tmp.toPath());
+    }
+  }
+
+  // -- Auxiliary methods --
+
+  private static double getValue(IGauge gauge)
+  {
+    try
+    {
+      return gauge.getValue();
+    }
+    catch (RuntimeException e)
+    {
+      return Double.NaN;
+    }
+  }
+
+  private static String formatGauge(double value)
+  {
+    if (value==Math.rint(value) && !Double.isInfinite(value) && Math.abs(value)<1E15)
+      return String.valueOf((long)value);
+    return String.format(Locale.US,"%.3f",value);
+  }
+
+  private static void appendJsonValue(StringBuilder sb, Object metric)
+  {
+    if (metric instanceof Counter)
+      sb.append(((Counter)metric).get());
+    else if (metric instanceof IGauge)
+    {
+      double value = getValue((IGauge)metric);
+      sb.append(Double.isNaN(value) || Double.isInfinite(value) ? "null" : formatGauge(value));
+    }
+    else if (metric instanceof LatencyHistogram)
+    {
+      LatencyHistogram histogram = (LatencyHistogram)metric;
+      sb.append("{ \"count\": ").append(histogram.getCount());
+      sb.append(String.format(Locale.US,", \"mean\": %.1f",histogram.getMean()));
+      for (int p : PERCENTILES)
+        sb.append(", \"p").append(p).append("\": ").append(histogram.getPercentile(p));
+      sb.append(", \"max\": ").append(histogram.getMax()).append(" }");
+    }
+    else
+      appendJsonString(sb,String.valueOf(metric));
+  }
+
+  private static StringBuilder appendJsonString(StringBuilder sb, String s)
+  {
+    sb.append('"');
+    for (int i=0; i<s.length(); i++)
+    {
+      char c = s.charAt(i);
+      if (c=='"' || c=='\\')
+        sb.append('\\').append(c);
+      else if (c<0x20)
+        sb.append(String.format("\\u%04x",(int)c));
+      else
+        sb.append(c);
+    }
+    return sb.append('"');
+  }
+
+}
+
+// EOF
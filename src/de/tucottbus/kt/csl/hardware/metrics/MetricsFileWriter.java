@@ -0,0 +1,106 @@
+package de.tucottbus.kt.csl.hardware.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import de.tucottbus.kt.csl.hardware.AHardware;
+import de.tucottbus.kt.lcars.logging.Log;
+
+/**
+ * Periodically writes the {@linkplain AHardware#collectMetrics() metrics of
+ * all hardware wrappers} to a file.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>{@link de.tucottbus.kt.csl.hardware.CslHardware#startAll()} starts
+ *     the writer if the system property <code>csl.metrics.file</code> is set.
+ *     The period defaults to 10 seconds and can be changed by the system
+ *     property <code>csl.metrics.period</code> (in milliseconds).</li>
+ *   <li>The file format is determined by its name, see {@link
+ *     MetricsDump#write(File, java.util.Collection)}.</li>
+ *   <li>The writer runs on a daemon thread of its own.</li>
+ * </ul>
+ */
+public final class MetricsFileWriter
+{
+  /**
+   * The default period in milliseconds.
+   */
+  public static final long DEFAULT_PERIOD = 10000;
+
+  private static ScheduledExecutorService executor;
+  private static ScheduledFuture<?> future;
+
+  private MetricsFileWriter()
+  {
+  }
+
+  /**
+   * Starts writing the metrics periodically. A writer already running is
+   * stopped.
+   *
+   * @param file
+   *          The file.
+   * @param period
+   *          The period in milliseconds.
+   */
+  public static synchronized void start(File file, long period)
+  {
+    stop();
+    if (executor==null)
+      executor = Executors.newSingleThreadScheduledExecutor((r)->
+      {
+        Thread t = new Thread(r,"MetricsFileWriter");
+        t.setDaemon(true);
+        return t;
+      });
+    Log.info("Writing hardware metrics to "+file.getAbsolutePath());
+    future = executor.scheduleAtFixedRate(()->
+    {
+      try
+      {
+        MetricsDump.write(file,AHardware.collectMetrics());
+      }
+      catch (IOException e)
+      {
+        Log.err("Cannot write hardware metrics: "+e.getMessage());
+      }
+    },period,period,TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Starts writing the metrics periodically if the system property
+   * <code>csl.metrics.file</code> is set.
+   */
+  public static void startFromSystemProperties()
+  {
+    String file = System.getProperty("csl.metrics.file");
+    if (file!=null)
+      start(new File(file),Long.getLong("csl.metrics.period",DEFAULT_PERIOD));
+  }
+
+  /**
+   * Stops writing the metrics.
+   */
+  public static synchronized void stop()
+  {
+    if (future!=null)
+      future.cancel(false);
+    future = null;
+  }
+
+  /**
+   * Determines if the metrics are being written.
+   */
+  public static synchronized boolean isRunning()
+  {
+    return future!=null;
+  }
+
+}
+
+// EOF
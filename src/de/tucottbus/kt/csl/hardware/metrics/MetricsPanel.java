@@ -0,0 +1,118 @@
+package de.tucottbus.kt.csl.hardware.metrics;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import de.tucottbus.kt.csl.hardware.AHardware;
+import de.tucottbus.kt.csl.hardware.AHardware.HardwareAccessPanel;
+import de.tucottbus.kt.lcars.IScreen;
+import de.tucottbus.kt.lcars.LCARS;
+import de.tucottbus.kt.lcars.elements.EEvent;
+import de.tucottbus.kt.lcars.elements.EEventListenerAdapter;
+import de.tucottbus.kt.lcars.elements.ELabel;
+import de.tucottbus.kt.lcars.elements.EValue;
+
+/**
+ * LCARS low-level hardware access panel listing the {@linkplain
+ * AHardware#collectMetrics() runtime metrics} of all running hardware
+ * wrappers. The list is refreshed twice a second. Touch the title to turn the
+ * pages.
+ */
+public class MetricsPanel extends HardwareAccessPanel
+{
+  private static final int ROWS   = 34;
+  private static final int ROW_H  = 23;
+
+  private EValue   eTitle;
+  private ELabel[] eNames;
+  private ELabel[] eValues;
+  private int      page;
+
+  public MetricsPanel(IScreen iscreen)
+  {
+    super(iscreen,AHardware.class);
+  }
+
+  @Override
+  protected void createSubPanels()
+  {
+    eTitle = new EValue(this,677,140,1220,44,LCARS.EC_ELBOUP|LCARS.ES_LABEL_W|LCARS.ES_RECT_RND,"RUNTIME METRICS");
+    eTitle.setValueMargin(24);
+    eTitle.addEEventListener(new EEventListenerAdapter()
+    {
+      @Override
+      public void touchDown(EEvent ee)
+      {
+        page++;
+        update();
+      }
+    });
+    add(eTitle);
+
+    int style = LCARS.EC_PRIMARY|LCARS.ES_STATIC|LCARS.EF_SMALL;
+    eNames = new ELabel[ROWS];
+    eValues = new ELabel[ROWS];
+    for (int i=0; i<ROWS; i++)
+    {
+      int y = 200+i*ROW_H;
+      eNames[i] = new ELabel(this,677,y,420,ROW_H,style|LCARS.ES_LABEL_W,null);
+      add(eNames[i]);
+      eValues[i] = new ELabel(this,1110,y,787,ROW_H,style|LCARS.ES_LABEL_W,null);
+      add(eValues[i]);
+    }
+  }
+
+  @Override
+  protected void fps2()
+  {
+    super.fps2();
+    update();
+  }
+
+  /**
+   * Collects the metrics and displays the current page.
+   */
+  protected void update()
+  {
+    if (eTitle==null)
+      return;
+
+    ArrayList<String[]> lines = new ArrayList<String[]>();
+    for (MetricsRegistry registry : AHardware.collectMetrics())
+    {
+      lines.add(new String[] { registry.getName().toUpperCase(), null });
+      for (Map.Entry<String,Object> entry : registry.getMetrics().entrySet())
+        lines.add(new String[] { "  "+entry.getKey().toUpperCase(),
+          MetricsDump.formatText(entry.getValue()).toUpperCase() });
+    }
+
+    int pages = Math.max(1,(lines.size()+ROWS-1)/ROWS);
+    page %= pages;
+    eTitle.setValue(String.format("%d/%d",page+1,pages));
+    for (int i=0; i<ROWS; i++)
+    {
+      int j = page*ROWS+i;
+      String[] line = j<lines.size() ? lines.get(j) : null;
+      eNames[i].setLabel(line!=null ? line[0] : null);
+      eNames[i].setColorStyle(line!=null && line[1]==null ? LCARS.EC_ELBOUP : LCARS.EC_PRIMARY);
+      eValues[i].setLabel(line!=null ? line[1] : null);
+    }
+  }
+
+  // == Main method ==
+
+  /**
+   * Starts LCARS with the {@link MetricsPanel}.
+   *
+   * @param args
+   *          The command line arguments, see {@link LCARS#main(String[])}.
+   */
+  public static void main(String[] args)
+  {
+    args = LCARS.setArg(args,"--panel=",MetricsPanel.class.getName());
+    LCARS.main(args);
+  }
+
+}
+
+// EOF
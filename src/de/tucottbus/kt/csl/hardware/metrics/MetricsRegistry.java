@@ -0,0 +1,183 @@
+package de.tucottbus.kt.csl.hardware.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named set of runtime metrics of a hardware wrapper or another component.
+ * Every {@link de.tucottbus.kt.csl.hardware.AHardware AHardware} wrapper has
+ * a registry of its own, other components, like the sensitivity plot
+ * renderers, use a {@linkplain #getComponent(String) component registry}.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>Metrics are created on first access and should be obtained once,
+ *     e.&nbsp;g. into a final field, and not be looked up on the hot
+ *     path.</li>
+ *   <li>Recording into {@link Counter}s and {@link LatencyHistogram}s is
+ *     lock-free, {@link IGauge}s are sampled when the metrics are
+ *     collected.</li>
+ *   <li>Metric names are dot-separated, lower case identifiers like
+ *     <code>callback.time</code>. Latency histograms should be named
+ *     <code>&lt;something&gt;.time</code>.</li>
+ * </ul>
+ *
+ * @see de.tucottbus.kt.csl.hardware.AHardware#collectMetrics()
+ * @see MetricsDump
+ */
+public final class MetricsRegistry
+{
+  private final String name;
+  private final ConcurrentHashMap<String,Object> metrics
+    = new ConcurrentHashMap<String,Object>();
+
+  /**
+   * The component registries.
+   */
+  private static final ConcurrentHashMap<String,MetricsRegistry> components
+    = new ConcurrentHashMap<String,MetricsRegistry>();
+
+  /**
+   * Creates a new metrics registry.
+   *
+   * @param name
+   *          The name, typically the simple class name of the hardware
+   *          wrapper.
+   */
+  public MetricsRegistry(String name)
+  {
+    if (name==null)
+      throw new NullPointerException();
+    this.name = name;
+  }
+
+  /**
+   * Returns the registry of a component which is not a hardware wrapper,
+   * creating it if necessary.
+   *
+   * @param name
+   *          The name of the component.
+   */
+  public static MetricsRegistry getComponent(String name)
+  {
+    MetricsRegistry registry = components.get(name);
+    if (registry==null)
+    {
+      components.putIfAbsent(name,new MetricsRegistry(name));
+      registry = components.get(name);
+    }
+    return registry;
+  }
+
+  /**
+   * Returns all component registries ordered by name.
+   */
+  public static Collection<MetricsRegistry> getComponents()
+  {
+    return new TreeMap<String,MetricsRegistry>(components).values();
+  }
+
+  /**
+   * Returns the name.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Returns a counter, creating it if necessary.
+   *
+   * @param name
+   *          The name of the counter.
+   * @throws IllegalArgumentException
+   *           if another kind of metric is registered under this name.
+   */
+  public Counter counter(String name)
+  {
+    return get(name,Counter.class);
+  }
+
+  /**
+   * Returns a latency histogram, creating it if necessary.
+   *
+   * @param name
+   *          The name of the histogram.
+   * @throws IllegalArgumentException
+   *           if another kind of metric is registered under this name.
+   */
+  public LatencyHistogram histogram(String name)
+  {
+    return get(name,LatencyHistogram.class);
+  }
+
+  /**
+   * Registers a gauge. A gauge previously registered under the same name is
+   * replaced.
+   *
+   * @param name
+   *          The name of the gauge.
+   * @param gauge
+   *          The gauge.
+   * @throws IllegalArgumentException
+   *           if another kind of metric is registered under this name.
+   */
+  public void gauge(String name, IGauge gauge)
+  {
+    if (gauge==null)
+      throw new NullPointerException();
+    metrics.compute(name,(key,old)->
+    {
+      if (old!=null && !(old instanceof IGauge))
+        throw new IllegalArgumentException("Metric \""+name+"\" is a "
+          + old.getClass().getSimpleName());
+      return gauge;
+    });
+  }
+
+  /**
+   * Returns a snapshot of the metrics ordered by name. The values are
+   * {@link Counter}s, {@link IGauge}s or {@link LatencyHistogram}s.
+   */
+  public SortedMap<String,Object> getMetrics()
+  {
+    return Collections.unmodifiableSortedMap(new TreeMap<String,Object>(metrics));
+  }
+
+  /**
+   * Resets all latency histograms.
+   */
+  public void resetHistograms()
+  {
+    for (Object metric : new ArrayList<Object>(metrics.values()))
+      if (metric instanceof LatencyHistogram)
+        ((LatencyHistogram)metric).reset();
+  }
+
+  private <T> T get(String name, Class<T> type)
+  {
+    Object metric = metrics.get(name);
+    if (metric==null)
+    {
+      metrics.putIfAbsent(name,type==Counter.class ? new Counter() : new LatencyHistogram());
+      metric = metrics.get(name);
+    }
+    if (!type.isInstance(metric))
+      throw new IllegalArgumentException("Metric \""+name+"\" is a "
+        + metric.getClass().getSimpleName());
+    return type.cast(metric);
+  }
+
+  @Override
+  public String toString()
+  {
+    return name;
+  }
+
+}
+
+// EOF
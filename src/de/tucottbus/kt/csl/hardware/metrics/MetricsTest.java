@@ -0,0 +1,143 @@
+package de.tucottbus.kt.csl.hardware.metrics;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import de.tucottbus.kt.csl.test.TestReport;
+
+/**
+ * Tests {@link LatencyHistogram}, {@link MetricsRegistry} and {@link
+ * MetricsDump}: bucket accuracy, percentiles, concurrent recording and the
+ * text and JSON formats.
+ */
+public class MetricsTest
+{
+  public static void main(String[] args) throws Exception
+  {
+    TestReport report = new TestReport();
+
+    // Buckets
+    Random random = new Random(0);
+    boolean bounded = true;
+    boolean monotonic = true;
+    for (int i=0; i<1000000; i++)
+    {
+      long v = random.nextLong()>>>(24+random.nextInt(40));
+      long upper = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(v));
+      bounded &= upper>=v && upper-v<=v/16;
+      monotonic &= LatencyHistogram.bucketOf(v)<=LatencyHistogram.bucketOf(v+1);
+    }
+    report.check("bucket bounds within 1/16",bounded);
+    report.check("buckets monotonic",monotonic);
+    report.check("overflow bucket",LatencyHistogram.bucketOf(Long.MAX_VALUE)
+      ==LatencyHistogram.bucketOf(1L<<50));
+
+    // Percentiles
+    LatencyHistogram histogram = new LatencyHistogram();
+    long[] values = new long[100000];
+    for (int i=0; i<values.length; i++)
+    {
+      values[i] = (long)Math.exp(8+2*random.nextGaussian());
+      histogram.record(values[i]);
+    }
+    Arrays.sort(values);
+    boolean accurate = true;
+    for (double p : new double[] { 1, 50, 90, 99, 99.9, 100 })
+    {
+      long exact = values[(int)Math.ceil(p/100*values.length)-1];
+      long approx = histogram.getPercentile(p);
+      accurate &= approx>=exact && approx-exact<=exact/16;
+    }
+    report.check("percentiles within 1/16",accurate);
+    report.check("max",histogram.getMax()==values[values.length-1]
+      && histogram.getPercentile(100)==histogram.getMax());
+    histogram.reset();
+    report.check("reset",histogram.getCount()==0 && histogram.getPercentile(50)==0);
+
+    // Concurrent recording
+    MetricsRegistry registry = new MetricsRegistry("Test");
+    Thread[] threads = new Thread[4];
+    for (int i=0; i<threads.length; i++)
+    {
+      threads[i] = new Thread(()->
+      {
+        Counter counter = registry.counter("events");
+        LatencyHistogram time = registry.histogram("event.time");
+        for (int j=0; j<250000; j++)
+        {
+          counter.increment();
+          time.record(j%1000);
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    report.check("concurrent counter",registry.counter("events").get()==1000000);
+    report.check("concurrent histogram",registry.histogram("event.time").getCount()==1000000
+      && registry.histogram("event.time").getMax()==999
+      && registry.histogram("event.time").getMean()==499.5);
+
+    // Registry
+    boolean rejected = false;
+    try
+    {
+      registry.histogram("events");
+    }
+    catch (IllegalArgumentException e)
+    {
+      rejected = true;
+    }
+    report.check("metric type conflict",rejected);
+    registry.gauge("queue.depth",()->1);
+    registry.gauge("queue.depth",()->2.5);
+    report.check("gauge replaced",((IGauge)registry.getMetrics().get("queue.depth")).getValue()==2.5);
+    report.check("component registry",MetricsRegistry.getComponent("Test")
+      ==MetricsRegistry.getComponent("Test") && MetricsRegistry.getComponents().size()==1);
+
+    // Dumps
+    registry.gauge("broken",()->{ throw new IllegalStateException(); });
+    String text = MetricsDump.toText(Arrays.asList(registry));
+    report.check("text dump",text.startsWith("[Test]\n")
+      && text.contains("  events                       1000000\n")
+      && text.contains("  queue.depth                  2.500\n")
+      && text.contains("  broken                       NaN\n")
+      && text.contains(" p99=1.0 max=1.0 us\n"));
+    String json = MetricsDump.toJson(Arrays.asList(registry,new MetricsRegistry("Empty \"quoted\"")));
+    report.check("JSON dump",json.contains("\"events\": 1000000,")
+      && json.contains("\"broken\": null,")
+      && json.contains("\"event.time\": { \"count\": 1000000, \"mean\": 499.5, \"p50\": 511,")
+      && json.contains("\"Empty \\\"quoted\\\"\": {}")
+      && json.replaceAll("[^{]","").length()==json.replaceAll("[^}]","").length());
+    File file = File.createTempFile("metrics",".json");
+    try
+    {
+      MetricsDump.write(file,Arrays.asList(registry));
+      String written = new String(Files.readAllBytes(file.toPath()),StandardCharsets.UTF_8);
+      report.check("dump file",written.equals(MetricsDump.toJson(Arrays.asList(registry))));
+    }
+    finally
+    {
+      file.delete();
+    }
+
+    // Recording time
+    LatencyHistogram time = new LatencyHistogram();
+    int runs = 10000000;
+    for (int i=0; i<runs; i++)
+      time.record(i&0xFFFF);
+    long t0 = System.nanoTime();
+    for (int i=0; i<runs; i++)
+      time.record(i&0xFFFF);
+    long t1 = System.nanoTime();
+    report.info("record: %.1f ns",(double)(t1-t0)/runs);
+
+    report.exit();
+  }
+
+}
+
+// EOF
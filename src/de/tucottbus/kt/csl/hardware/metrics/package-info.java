@@ -0,0 +1,6 @@
+/**
+ * This package contains runtime metrics of the hardware wrappers (counters,
+ * gauges and latency histograms), their text, JSON and LCARS views and the
+ * end-to-end latency trace of the microphone array audio blocks.
+ */
+package de.tucottbus.kt.csl.hardware.metrics;
\ No newline at end of file
@@ -181,6 +181,27 @@ extends ACompositeHardware implements Observer
   public abstract Point3d getMicPosition(int micId)
   throws IllegalArgumentException;
   
+  /**
+   * Stores the position of a single microphone relative to the center of the
+   * 2D microphone array in an existing point. Derived classes should override
+   * this method if {@link #getMicPosition(int)} creates a new point.
+   * 
+   * @param micId
+   *          The microphone ID, [0...31] for {@link MicArrayViewer} and 
+   *          [32...63] for {@link MicArrayCeiling}.
+   * @param result
+   *          The point to store the relative coordinates (cm) in.
+   * @return <code>result</code>
+   * @throws IllegalArgumentException
+   *           if {@link micId} is out of range.
+   */
+  public Point3d getMicPosition(int micId, Point3d result)
+  throws IllegalArgumentException
+  {
+    result.set(getMicPosition(micId));
+    return result;
+  }
+  
   /**
    * Select a preset of active microphones.
    * @param presetId 
@@ -477,6 +498,8 @@ extends ACompositeHardware implements Observer
           //meanDelay /= (getMaxMicId()-getMinMicId()+1);
         }
         
+        // Stage all LED colors as one frame
+        ColorMeta[] frame = new ColorMeta[32];
         for (int micId=minMicId; micId<=maxMicId; micId++)
         {
           ColorMeta color = ColorMeta.BLACK;
@@ -496,16 +519,19 @@ extends ACompositeHardware implements Observer
             break;
           }
 
-          try {
-            if(isMicActive(micId)){
-              ledController.setColor(micId-minMicId,color);
-            } else {
-              ledController.setColor(micId-minMicId,ColorMeta.BLACK);
-            }
-          }
-          catch (Exception e) {
-           logErr(e.getMessage(),e);
-          }
+          frame[micId-minMicId] = isMicActive(micId) ? color : ColorMeta.BLACK;
+        }
+
+        try
+        {
+          for (int i=0; i<frame.length; i++)
+            if (frame[i]==null)
+              frame[i] = ledController.getColor(i);
+          ledController.setColors(frame);
+        }
+        catch (Exception e)
+        {
+          logErr(e.getMessage(),e);
         }
       }
     });
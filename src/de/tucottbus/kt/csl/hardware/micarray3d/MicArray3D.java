@@ -24,9 +24,9 @@ import de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadi;
 import de.tucottbus.kt.csl.hardware.audio.output.MAudioDeviceLine34;
 import de.tucottbus.kt.csl.hardware.led.LedControllerCeiling;
 import de.tucottbus.kt.csl.hardware.led.LedControllerViewer;
+import de.tucottbus.kt.csl.hardware.metrics.LatencyTrace;
 import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.Beamformer3D;
 import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.DoAEstimator;
-import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb.Steering;
 import de.tucottbus.kt.csl.hardware.micarray3d.trolley.LaserSensor;
 import de.tucottbus.kt.csl.hardware.micarray3d.trolley.Motor;
 import de.tucottbus.kt.csl.lcars.contributors.ESensitivityPlots;
@@ -127,7 +127,30 @@ implements Runnable, Observer
   /**
    * The most recent known microphone array stateCache.
    */
-  private MicArrayState stateCache;
+  private volatile MicArrayState stateCache;
+  
+  /**
+   * Change-tracked working copy of the microphone array state, updated in
+   * place by the guard thread.
+   */
+  private final MicArrayStateBuffer stateBuffer = new MicArrayStateBuffer();
+  
+  /**
+   * Temporary microphone position of {@link #updateStateInt()}.
+   */
+  private final Point3d tmpMicPos = new Point3d();
+  
+  /**
+   * {@linkplain LatencyTrace Latency trace} sequence number of the audio block
+   * the current steering target was estimated from.
+   */
+  private long steeredBlock = -1;
+
+  /**
+   * The atomic sub-devices (<code>values()</code> creates a new array on each
+   * call).
+   */
+  private static final MicArrayState.SUBDEV[] SUBDEVS = MicArrayState.SUBDEV.values();
   
   // -- Life cycle --
 
@@ -217,20 +240,24 @@ implements Runnable, Observer
       // Update micarray state
       try
       {
-        MicArrayState state = getStateInt();
-        if (stateCache==null || !stateCache.equals(state))
+        int dirty;
+        synchronized (stateBuffer)
         {
-          boolean target  = stateCache==null || !stateCache.target.equals(state.target);
-          boolean trlyPos = stateCache==null || (stateCache.trolleyPos!=state.trolleyPos);
-          boolean actMics = stateCache==null || !Arrays.equals(stateCache.activeMics,state.activeMics);
-          boolean connect = stateCache==null || !stateCache.connected.equals(state.connected);
+          dirty = updateStateInt();
+          if (dirty!=0)
+            stateCache = stateBuffer.publish();
+        }
+        if (dirty!=0)
+        {
+          boolean target  = (dirty&MicArrayStateBuffer.TARGET    )!=0;
+          boolean trlyPos = (dirty&MicArrayStateBuffer.TROLLEYPOS)!=0;
+          boolean actMics = (dirty&MicArrayStateBuffer.ACTIVEMICS)!=0;
+          boolean connect = (dirty&MicArrayStateBuffer.CONNECTION)!=0;
 
           if (target ) { setChanged(); notifyObserversAsync(NOTIFY_STEERTARGET); }
           if (trlyPos) { setChanged(); notifyObserversAsync(NOTIFY_TROLLEYPOS ); }
           if (actMics) { setChanged(); notifyObserversAsync(NOTIFY_ACTIVEMICS ); }
           if (connect) { setChanged(); notifyObserversAsync(NOTIFY_CONNECTION ); }
-
-          stateCache = state;
         }
       }
       catch (Exception e)
@@ -314,12 +341,26 @@ implements Runnable, Observer
   /**
    * Returns the current stateCache of the microphone array. The returned object is
    * a copy of internal data. Modifications will have no effect on the array.
+   * 
+   * <p>The object is replaced only if the state changes, readers may detect
+   * changes by identity or by {@link MicArrayState#version}. The object must
+   * not be modified.</p>
    */
   public MicArrayState getState()
   {
     return stateCache;
   }
   
+  /**
+   * Returns the {@linkplain MicArrayState#version version} of the current 
+   * microphone array state or 0 if no state is known yet.
+   */
+  public long getStateVersion()
+  {
+    MicArrayState state = stateCache;
+    return state!=null ? state.version : 0;
+  }
+  
   /**
    * Sets the array into a new stateCache. This involves
    * <ul>
@@ -339,7 +380,10 @@ implements Runnable, Observer
   throws HardwareException
   {
     if(micArrayState!=null)
-      stateCache=micArrayState;
+      synchronized (stateBuffer)
+      {
+        stateCache=stateBuffer.publish(micArrayState);
+      }
   }
   
   /**
@@ -561,67 +605,70 @@ implements Runnable, Observer
   }
   
   /**
-   * Retrieves the current microphone array state from the underlying hardware
-   * wrappers.
+   * Updates the {@linkplain #stateBuffer working copy} of the microphone array
+   * state from the underlying hardware wrappers. Does not allocate memory if
+   * the hardware state is unchanged.
    * 
-   * @return The state.
+   * @return The {@link MicArrayStateBuffer} dirty flags, 0 if nothing changed.
    */
-  protected MicArrayState getStateInt()
+  protected int updateStateInt()
   {
-    MicArrayState mas = new MicArrayState();
-
     // Absolute positions of microphones and trolley
     Point3d offset = micArrayViewer.getPosition();
     for (int i=0; i<32; i++)
-    {
-      mas.positions[i] = new Point3d(micArrayViewer.getMicPosition(i));
-      mas.positions[i].add(offset);
-    }
+      stateBuffer.setMicPosition(i,micArrayViewer.getMicPosition(i,tmpMicPos),offset);
     offset = micArrayCeiling.getPosition();
-    mas.trolleyPos = offset.y;
+    stateBuffer.setTrolleyPos(offset.y);
     for (int i=32; i<64; i++)
+      stateBuffer.setMicPosition(i,micArrayCeiling.getMicPosition(i,tmpMicPos),offset);
+    
+    // Steering target (steering info is computed on publishing)
+    stateBuffer.setTarget(doAEstimator.getTargetSource());
+    long targetBlock = doAEstimator.getTargetBlock();
+    if (targetBlock!=steeredBlock)
     {
-      mas.positions[i] = new Point3d(micArrayCeiling.getMicPosition(i));
-      mas.positions[i].add(offset);
+      steeredBlock = targetBlock;
+      LatencyTrace.getInstance().record(LatencyTrace.Stage.STEERED,targetBlock);
     }
     
-    // Steering info
-    mas.target.set(doAEstimator.getTargetSource());
-    float[] delays   = Steering.getDelays(mas.positions, mas.target);
-    float[] steerVec = Steering.getSteeringVectorFromDelays(delays);
-    float[] gains    = Steering.getGains(mas.positions, mas.target);
-    mas.delays       = Arrays.copyOf(delays, delays.length);
-    mas.steerVec     = Arrays.copyOf(steerVec, steerVec.length);
-    mas.gains        = Arrays.copyOf(gains, gains.length);
-    
     // Microphone activation states
-    mas.activeMics = getActiveMics();
+    try
+    {
+      for (int i=micArrayViewer.getMinMicId(); i<=micArrayViewer.getMaxMicId(); i++)
+        stateBuffer.setMicActive(i,micArrayViewer.isMicActive(i));
+      for (int i=micArrayCeiling.getMinMicId(); i<=micArrayCeiling.getMaxMicId(); i++)
+        stateBuffer.setMicActive(i,micArrayCeiling.isMicActive(i));
+    } 
+    catch (Exception e) 
+    {
+      logErr(e.getMessage(), e);
+    }
     
     // Connection states of atomic sub-devices
-    for (MicArrayState.SUBDEV dev : MicArrayState.SUBDEV.values())
+    for (MicArrayState.SUBDEV dev : SUBDEVS)
       switch (dev)
       {
       case LED_CONTROLLER_VIEWER:
-        mas.connected.put(dev,LedControllerViewer.getInstance().isConnected());
+        stateBuffer.setConnected(dev,LedControllerViewer.getInstance().isConnected());
         break;
       case LED_CONTROLLER_CEILING:
-        mas.connected.put(dev,LedControllerCeiling.getInstance().isConnected());
+        stateBuffer.setConnected(dev,LedControllerCeiling.getInstance().isConnected());
         break;
       case MOTOR:
-        mas.connected.put(dev,Motor.getInstance().isConnected());
+        stateBuffer.setConnected(dev,Motor.getInstance().isConnected());
         break;
       case LASER_SENSOR:
-        mas.connected.put(dev,LaserSensor.getInstance().isConnected());
+        stateBuffer.setConnected(dev,LaserSensor.getInstance().isConnected());
         break;
       case RME_HDSP_MADI:
-        mas.connected.put(dev,RmeHdspMadi.getInstance().isConnected());
+        stateBuffer.setConnected(dev,RmeHdspMadi.getInstance().isConnected());
         break;
       case MAUDIO_LINE34:
-        mas.connected.put(dev,MAudioDeviceLine34.getInstance().isConnected());
+        stateBuffer.setConnected(dev,MAudioDeviceLine34.getInstance().isConnected());
         break;
       }
     
-    return mas;
+    return stateBuffer.getDirty();
   }
   
   // -- LCARS --
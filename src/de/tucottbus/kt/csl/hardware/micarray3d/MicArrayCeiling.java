@@ -109,7 +109,18 @@ public final class MicArrayCeiling extends AMicArray3DPart
    * @return Point3d
    */
   private Point3d doRotation(Point3d point){
-    Point3d out = new Point3d();
+    return doRotation(point,new Point3d());
+  }
+  
+  /**
+   * Rotation by angle {@link #ANGLE} of the microphone array into an existing
+   * point.
+   * 
+   * @param point - Point3d
+   * @param out - Point3d to store the result in, must not be <code>point</code>
+   * @return <code>out</code>
+   */
+  private Point3d doRotation(Point3d point, Point3d out){
     out.setX(point.x);
     out.setY(cos * point.y - sin * point.z);
     out.setZ(sin * point.y + cos * point.z);
@@ -206,6 +217,17 @@ public final class MicArrayCeiling extends AMicArray3DPart
     return doRotation(micPos[micId-getMinMicId()]);
   }
   
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Point3d getMicPosition(int micId, Point3d result) 
+  throws IllegalArgumentException 
+  {
+    checkMicId(micId);
+    return doRotation(micPos[micId-getMinMicId()],result);
+  }
+  
   /**
    * Get the relative microphone position without the rotation of {@link #ANGLE}
    * @param micId
@@ -34,6 +34,7 @@ import de.tucottbus.kt.csl.hardware.micarray3d.trolley.Motor;
  *   <li>{@link #gains}</li>
  *   <li>{@link #activeMics}</li>
  *   <li>{@link #numberOfActiveMics}</li>
+ *   <li>{@link #version}</li>
  * </ul>
  * 
  * @author Martin Birth
@@ -136,6 +137,42 @@ public class MicArrayState implements Serializable
   public EnumMap<SUBDEV, Boolean> connected 
     = new EnumMap<SUBDEV, Boolean>(SUBDEV.class);
   
+  /**
+   * The version of the state. {@link MicArray3D} increments the version each
+   * time it publishes a changed state, so readers can detect changes without
+   * comparing the contents. States not created by {@link MicArray3D} have
+   * version 0.
+   */
+  public long version = 0;
+  
+  /**
+   * Creates an empty microphone array state.
+   */
+  public MicArrayState()
+  {
+  }
+  
+  /**
+   * Creates a deep copy of a microphone array state.
+   * 
+   * @param other
+   *          The state to copy.
+   */
+  public MicArrayState(MicArrayState other)
+  {
+    target.set(other.target);
+    for (int i=0; i<CH_NUM; i++)
+      if (other.positions[i]!=null)
+        positions[i] = new Point3d(other.positions[i]);
+    trolleyPos = other.trolleyPos;
+    delays     = Arrays.copyOf(other.delays,other.delays.length);
+    steerVec   = Arrays.copyOf(other.steerVec,other.steerVec.length);
+    gains      = Arrays.copyOf(other.gains,other.gains.length);
+    activeMics = Arrays.copyOf(other.activeMics,other.activeMics.length);
+    connected.putAll(other.connected);
+    version    = other.version;
+  }
+  
   @Override
   public boolean equals(Object obj)
   {
@@ -0,0 +1,222 @@
+package de.tucottbus.kt.csl.hardware.micarray3d;
+
+import javax.vecmath.Point3d;
+
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb.Steering;
+
+/**
+ * Change-tracked working copy of the {@linkplain MicArrayState microphone
+ * array state} used by the {@link MicArray3D} guard thread.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The setters update the working state in place and record changed
+ *     fields as dirty flags. Polling unchanged hardware allocates nothing.
+ *     </li>
+ *   <li>{@link #publish()} recomputes the steering information if the target
+ *     or the microphone positions changed and returns a new, versioned copy.
+ *     Published states are never modified, readers can detect changes by
+ *     identity or by {@link MicArrayState#version}.</li>
+ *   <li>The buffer is not thread-safe.</li>
+ * </ul>
+ */
+final class MicArrayStateBuffer
+{
+  /**
+   * Dirty flag: the steering target changed.
+   */
+  static final int TARGET = 0x01;
+
+  /**
+   * Dirty flag: a microphone position changed.
+   */
+  static final int POSITIONS = 0x02;
+
+  /**
+   * Dirty flag: the trolley position changed.
+   */
+  static final int TROLLEYPOS = 0x04;
+
+  /**
+   * Dirty flag: a microphone activation state changed.
+   */
+  static final int ACTIVEMICS = 0x08;
+
+  /**
+   * Dirty flag: a connection state changed.
+   */
+  static final int CONNECTION = 0x10;
+
+  /**
+   * All dirty flags.
+   */
+  static final int ALL = TARGET|POSITIONS|TROLLEYPOS|ACTIVEMICS|CONNECTION;
+
+  private final MicArrayState work = new MicArrayState();
+  private int  dirty   = ALL;
+  private long version = 0;
+
+  /**
+   * Creates a new state buffer. Initially all fields are dirty.
+   */
+  MicArrayStateBuffer()
+  {
+    for (int i=0; i<work.positions.length; i++)
+      work.positions[i] = new Point3d();
+    for (MicArrayState.SUBDEV dev : MicArrayState.SUBDEV.values())
+      work.connected.put(dev,Boolean.FALSE);
+  }
+
+  /**
+   * Sets the steering target.
+   *
+   * @param target
+   *          The target in the CSL coordinate system (cm).
+   */
+  void setTarget(Point3d target)
+  {
+    if (work.target.equals(target))
+      return;
+    work.target.set(target);
+    dirty |= TARGET;
+  }
+
+  /**
+   * Sets the absolute position of a microphone.
+   *
+   * @param micId
+   *          The microphone ID, [0...63].
+   * @param relPos
+   *          The position relative to the center of the sub-array (cm).
+   * @param offset
+   *          The position of the center of the sub-array (cm).
+   */
+  void setMicPosition(int micId, Point3d relPos, Point3d offset)
+  {
+    Point3d p = work.positions[micId];
+    double x = relPos.x+offset.x;
+    double y = relPos.y+offset.y;
+    double z = relPos.z+offset.z;
+    if (p.x==x && p.y==y && p.z==z)
+      return;
+    p.set(x,y,z);
+    dirty |= POSITIONS;
+  }
+
+  /**
+   * Sets the trolley position.
+   *
+   * @param trolleyPos
+   *          The y-coordinate of the ceiling sub-array (cm).
+   */
+  void setTrolleyPos(double trolleyPos)
+  {
+    if (work.trolleyPos==trolleyPos)
+      return;
+    work.trolleyPos = trolleyPos;
+    dirty |= TROLLEYPOS;
+  }
+
+  /**
+   * Sets the activation state of a microphone.
+   *
+   * @param micId
+   *          The microphone ID, [0...63].
+   * @param active
+   *          The activation state.
+   */
+  void setMicActive(int micId, boolean active)
+  {
+    if (work.activeMics[micId]==active)
+      return;
+    work.activeMics[micId] = active;
+    dirty |= ACTIVEMICS;
+  }
+
+  /**
+   * Sets the connection state of an atomic sub-device.
+   *
+   * @param dev
+   *          The sub-device.
+   * @param connected
+   *          The connection state.
+   */
+  void setConnected(MicArrayState.SUBDEV dev, boolean connected)
+  {
+    Boolean old = work.connected.get(dev);
+    if (old!=null && old.booleanValue()==connected)
+      return;
+    work.connected.put(dev,Boolean.valueOf(connected));
+    dirty |= CONNECTION;
+  }
+
+  /**
+   * Returns the dirty flags, a combination of {@link #TARGET}, {@link
+   * #POSITIONS}, {@link #TROLLEYPOS}, {@link #ACTIVEMICS} and {@link
+   * #CONNECTION}, or 0 if nothing changed since the last {@link #publish()}.
+   */
+  int getDirty()
+  {
+    return dirty;
+  }
+
+  /**
+   * Returns the version of the last published state.
+   */
+  long getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * Publishes the working state and clears the dirty flags.
+   *
+   * @return A new copy of the working state with an incremented version.
+   */
+  MicArrayState publish()
+  {
+    if ((dirty&(TARGET|POSITIONS))!=0)
+    {
+      Steering.getDelays(work.positions,work.target,work.delays);
+      Steering.getSteeringVectorFromDelays(work.delays,work.steerVec);
+      Steering.getGains(work.positions,work.target,work.gains);
+    }
+    work.version = ++version;
+    dirty = 0;
+    return new MicArrayState(work);
+  }
+
+  /**
+   * Replaces the working state and publishes it. Subsequent setters will
+   * compare against the new state.
+   *
+   * @param state
+   *          The new state.
+   * @return A new copy of <code>state</code> with an incremented version.
+   */
+  MicArrayState publish(MicArrayState state)
+  {
+    work.target.set(state.target);
+    for (int i=0; i<work.positions.length; i++)
+      work.positions[i].set(state.positions[i]);
+    work.trolleyPos = state.trolleyPos;
+    System.arraycopy(state.delays,0,work.delays,0,work.delays.length);
+    System.arraycopy(state.steerVec,0,work.steerVec,0,work.steerVec.length);
+    System.arraycopy(state.gains,0,work.gains,0,work.gains.length);
+    System.arraycopy(state.activeMics,0,work.activeMics,0,work.activeMics.length);
+    work.connected.putAll(state.connected);
+    work.version = ++version;
+    dirty = 0;
+    return new MicArrayState(work);
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName()+"[version="+version+", dirty=0x"
+      + Integer.toHexString(dirty)+"]";
+  }
+
+}
+
+// EOF
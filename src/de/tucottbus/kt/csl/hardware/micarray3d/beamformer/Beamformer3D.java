@@ -10,13 +10,16 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import de.tucottbus.kt.csl.hardware.AHardware;
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
 import de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadi;
 import de.tucottbus.kt.csl.hardware.audio.output.MAudioDeviceLine34;
+import de.tucottbus.kt.csl.hardware.metrics.LatencyTrace;
 import de.tucottbus.kt.csl.hardware.micarray3d.MicArray3D;
 import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayCeiling;
 import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayState;
 import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayViewer;
 import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb.DSBeamformer;
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb.MultiBeamformer;
 import de.tucottbus.kt.lcars.contributors.ElementContributor;
 
 /**
@@ -44,6 +47,11 @@ public final class Beamformer3D extends DSBeamformer implements Observer, Runnab
    * Last known levels of the 64 microphone input channels.
    */
   private volatile float[] levels;
+  
+  /**
+   * Engine for additional simultaneous beams, created on demand.
+   */
+  private volatile MultiBeamformer multiBeamformer;
 
   // -- Singleton implementation --
   private static volatile Beamformer3D singleton = null;
@@ -160,6 +168,9 @@ public final class Beamformer3D extends DSBeamformer implements Observer, Runnab
     if(levelFilterService!=null)
       levelFilterService.shutdownNow();
     
+    if(multiBeamformer!=null)
+      multiBeamformer.dispose();
+    
     if (guard!=null)
     {
       runGuard = false;
@@ -276,22 +287,35 @@ public final class Beamformer3D extends DSBeamformer implements Observer, Runnab
   /**
    * Sending the audio data directly to the DS-beamformer and put it on the output device.
    * @param inBuffer
+   * @param block
+   *          The {@linkplain LatencyTrace latency trace} sequence number of 
+   *          the block, -1 if not traced.
    * @see DSBeamformer
    */
-  public void sendAudioToBeamformer(float[] inBuffer){
+  public void sendAudioToBeamformer(float[] inBuffer, long block){
     MicArrayState state = MicArray3D.getInstance().getState();
     if(state==null)
       return;
+    
+    // Additional beams, must run first as the integer delay mode modifies inBuffer
+    MultiBeamformer mbf = multiBeamformer;
+    if(mbf!=null){
+      mbf.setMicArrayState(state);
+      mbf.setChannelGains(hammerfallAudioDevice.getCalibrationGains());
+      mbf.process(inBuffer);
+    }
+    
     delayAndSumBeamforming(state, inBuffer);
-    sendAudioToOutput(outFloatBuffer);
+    LatencyTrace.getInstance().record(LatencyTrace.Stage.BEAMFORMED, block);
+    sendAudioToOutput(outFloatBuffer, block);
   }
   
   /**
    * {@inheritDoc}
    */
   @Override
-  public void sendAudioToOutput(float[] audioData) {
-    mAudioDeviceLine34.sendAudioData(audioData);
+  public void sendAudioToOutput(float[] audioData, long block) {
+    mAudioDeviceLine34.sendAudioData(audioData, block);
   }
 
   /**
@@ -302,6 +326,24 @@ public final class Beamformer3D extends DSBeamformer implements Observer, Runnab
     return outFloatBuffer;
   }
   
+  /**
+   * Returns the engine computing additional simultaneous beams from the 
+   * microphone input. The engine is created on the first call; add beams to
+   * it and route them to audio output devices or listeners.
+   * 
+   * @see MultiBeamformer#addBeam(javax.vecmath.Point3d)
+   */
+  public synchronized MultiBeamformer getMultiBeamformer()
+  {
+    if (multiBeamformer==null)
+    {
+      int threads = Math.max(1,Runtime.getRuntime().availableProcessors()-1);
+      multiBeamformer = new MultiBeamformer(RmeHdspMadi.CHANNEL_COUNT,
+          AudioInputConstants.FRAME_SIZE,threads);
+    }
+    return multiBeamformer;
+  }
+  
   // -- Operations --
 
   /**
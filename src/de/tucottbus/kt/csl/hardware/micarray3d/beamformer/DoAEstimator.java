@@ -1,8 +1,6 @@
 package de.tucottbus.kt.csl.hardware.micarray3d.beamformer;
 
-import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.vecmath.Point3d;
@@ -11,8 +9,11 @@ import Jama.Matrix;
 import de.tucottbus.kt.csl.CSL;
 import de.tucottbus.kt.csl.hardware.AAtomicHardware;
 import de.tucottbus.kt.csl.hardware.AHardware;
+import de.tucottbus.kt.csl.hardware.audio.input.AudioFrameRing;
 import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
 import de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadi;
+import de.tucottbus.kt.csl.hardware.metrics.LatencyHistogram;
+import de.tucottbus.kt.csl.hardware.metrics.LatencyTrace;
 import de.tucottbus.kt.csl.hardware.micarray3d.MicArray3D;
 import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayState;
 import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.ChannelSelector;
@@ -47,6 +48,12 @@ public final class DoAEstimator extends AAtomicHardware implements Runnable{
    */
   private final static int FRAME_SIZE =  AudioInputConstants.FRAME_SIZE;
   
+  /**
+   * Number of audio frames buffered between the audio callback and the guard
+   * thread (about 186 ms).
+   */
+  private final static int RING_CAPACITY = 16;
+  
   /**
    * The default target (0,0,160) cm.
    * 
@@ -102,9 +109,28 @@ public final class DoAEstimator extends AAtomicHardware implements Runnable{
   private boolean autoMode = false;
   
   /**
-   * Audio data queue
+   * Audio data ring, filled by the audio callback. If the estimator falls
+   * behind, the oldest frames are dropped.
+   */
+  private final AudioFrameRing audioDataRing = new AudioFrameRing(RING_CAPACITY,
+      RmeHdspMadi.CHANNEL_COUNT, FRAME_SIZE, AudioFrameRing.DropPolicy.DROP_OLDEST);
+  
+  /**
+   * Current audio frame, copied out of {@link #audioDataRing}
+   */
+  private final float[][] audioInputData = new float[RmeHdspMadi.CHANNEL_COUNT][FRAME_SIZE];
+  
+  /**
+   * {@linkplain LatencyTrace Latency trace} sequence number of the current
+   * audio frame, -1 if not traced
+   */
+  private long audioInputBlock = -1;
+  
+  /**
+   * {@linkplain LatencyTrace Latency trace} sequence number of the audio frame
+   * the {@link #targetSource} was estimated from, -1 if none
    */
-  private final Queue<float[][]> audioDataQueue=new LinkedBlockingQueue<float[][]>();
+  private volatile long targetBlock = -1;
   
   /**
    * Current microphone array state
@@ -126,6 +152,11 @@ public final class DoAEstimator extends AAtomicHardware implements Runnable{
   
   private final float[][] audioInputData2x = new float[RmeHdspMadi.CHANNEL_COUNT][AudioInputConstants.FRAME_SIZE*2];
   
+  /**
+   * Durations of processing one audio frame
+   */
+  private final LatencyHistogram frameTime = getMetrics().histogram("frame.time");
+  
   //################### running process ###################
   
   /**
@@ -137,6 +168,11 @@ public final class DoAEstimator extends AAtomicHardware implements Runnable{
     localizers=new Localizers();
     plausibilityChecker=new PlausibilityChecker();
     
+    // Register metrics
+    getMetrics().gauge("ring.depth", audioDataRing::size);
+    getMetrics().gauge("ring.overruns", audioDataRing::getOverruns);
+    getMetrics().gauge("ring.frames", audioDataRing::getFramesWritten);
+    
     // Start the guard thread
     guard = new Thread(this,getClass().getSimpleName()+".guard");
     guard.start();
@@ -178,8 +214,12 @@ public final class DoAEstimator extends AAtomicHardware implements Runnable{
             break;
           }
 
-          if (!audioDataQueue.isEmpty()) {
+          while (audioDataRing.poll(audioInputData)) {
+            long t0 = System.nanoTime();
+            audioInputBlock = audioDataRing.getPolledTag();
+            LatencyTrace.getInstance().record(LatencyTrace.Stage.DOA_DEQUEUED, audioInputBlock);
             runDoAEstimator();
+            frameTime.recordSince(t0);
           }
           
           if(!isConnected())
@@ -281,7 +321,7 @@ public final class DoAEstimator extends AAtomicHardware implements Runnable{
    * Core method to run the DoAEstimator.<br>
    * 
    *  <ol><b>Step sequence:</b>
-   *  <li>Read audio data from queue</li>
+   *  <li>Read audio data from ring</li>
    *  <li>Merging to frames</li>
    *  <li>Running analysis filter (GCC function)</li> 
    *  <li>Running target localization</li> 
@@ -296,8 +336,7 @@ public final class DoAEstimator extends AAtomicHardware implements Runnable{
     if(DEBUG)
       time = System.currentTimeMillis();
     
-    // 1. get audio data from queue
-    float[][] audioInputData = audioDataQueue.poll();
+    // 1. audio data were copied from the ring to audioInputData
     if(isAutoMode()==false)
       return;
     
@@ -365,6 +404,7 @@ public final class DoAEstimator extends AAtomicHardware implements Runnable{
       if(targetMatrix2==null)
         return;
     }
+    LatencyTrace.getInstance().record(LatencyTrace.Stage.LOCALIZED, audioInputBlock);
     
     // 6. Verification of positions for plausibility
     Point3d targetA1 = null;
@@ -382,6 +422,8 @@ public final class DoAEstimator extends AAtomicHardware implements Runnable{
       if (DEBUG)
         System.out.println("T2: "+targetA2.toString());
     }
+    LatencyTrace.getInstance().record(LatencyTrace.Stage.PLAUSIBILITY_CHECKED, audioInputBlock);
+    targetBlock = audioInputBlock;
     
     // 7. particle filter
     // TODO: create classes
@@ -391,11 +433,26 @@ public final class DoAEstimator extends AAtomicHardware implements Runnable{
   }
   
   /**
-   * Directly adding audio data to the processing pipeline
-   * @param framesPerChannel
+   * Directly adding audio data to the processing pipeline. The data are copied,
+   * so the caller may reuse the array. This method neither blocks nor allocates
+   * and may be called from the audio callback.
+   * @param framesPerChannel - float[n][m] array with n channels and m audio samples
+   * @param block - {@linkplain LatencyTrace latency trace} sequence number of the frame, -1 if not traced
+   * @return false, if the ring was full and the frame was dropped
+   */
+  public boolean addAudioDataToQueue(float[][] framesPerChannel, long block){
+    boolean queued = audioDataRing.offer(framesPerChannel, block);
+    if (queued)
+      LatencyTrace.getInstance().record(LatencyTrace.Stage.DOA_QUEUED, block);
+    return queued;
+  }
+  
+  /**
+   * Get the number of audio frames dropped, because the estimator fell behind.
+   * @return long
    */
-  public void addAudioDataToQueue(float[][] framesPerChannel){
-    audioDataQueue.add(framesPerChannel);
+  public long getOverruns(){
+    return audioDataRing.getOverruns();
   }
 
   /**
@@ -406,6 +463,16 @@ public final class DoAEstimator extends AAtomicHardware implements Runnable{
     return targetSource;
   }
   
+  /**
+   * Get the {@linkplain LatencyTrace latency trace} sequence number of the
+   * audio frame the {@linkplain #getTargetSource() target source point} was
+   * estimated from.
+   * @return long, -1 if none
+   */
+  public long getTargetBlock() {
+    return targetBlock;
+  }
+  
   /**
    * Set a target point for 3d beamforming.
    * @param target - Point3d
@@ -10,14 +10,13 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Locale;
 import java.util.Map.Entry;
-import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.vecmath.Point3d;
 
 import de.tucottbus.kt.csl.hardware.AAtomicHardware;
 import de.tucottbus.kt.csl.hardware.AHardware;
+import de.tucottbus.kt.csl.hardware.audio.input.AudioFrameRing;
 import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
 import de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadi;
 import de.tucottbus.kt.csl.hardware.audio.utils.WavePlayer;
@@ -92,15 +91,28 @@ public class MicrophoneGCCTester extends AAtomicHardware implements Runnable{
   private boolean runAnalysis = Boolean.FALSE;
   
   /**
-   * Audio data queue
+   * Audio data ring, filled by the audio callback and drained by the guard
+   * thread while the test is running.
    */
-  private final Queue<float[][]> audioDataQueue2 = new ConcurrentLinkedQueue<float[][]>();
+  private final AudioFrameRing audioDataRing = new AudioFrameRing(32,
+      RmeHdspMadi.CHANNEL_COUNT, AudioInputConstants.FRAME_SIZE, AudioFrameRing.DropPolicy.DROP_NEWEST);
+  
+  /**
+   * Frames copied out of the ring
+   */
+  private final float[][] audioInputData1 = new float[RmeHdspMadi.CHANNEL_COUNT][AudioInputConstants.FRAME_SIZE];
+  private final float[][] audioInputData2 = new float[RmeHdspMadi.CHANNEL_COUNT][AudioInputConstants.FRAME_SIZE];
   
   /**
    * Array of the audio Data
    */
   private float[][] audioInputData2x = new float[RmeHdspMadi.CHANNEL_COUNT][AudioInputConstants.FRAME_SIZE*2];
   
+  /**
+   * Number of analyzed frame pairs
+   */
+  private int analyzedFrames = 0;
+  
   /**
    * Hashmaps for running process
    */
@@ -169,6 +181,8 @@ public class MicrophoneGCCTester extends AAtomicHardware implements Runnable{
             break;
           }
 
+          analyzeQueuedFrames();
+          
           if (isConnected()) {
             runAnalysis();
           } else {
@@ -259,21 +273,33 @@ public class MicrophoneGCCTester extends AAtomicHardware implements Runnable{
   }
   
   /**
-   * Directly adding audio data to the processing pipeline
+   * Directly adding audio data to the processing pipeline. The data are copied,
+   * so the caller may reuse the array.
    * @param framesPerChannel
    */
   public void addAudioDataToQueue(float[][] framesPerChannel){
-    audioDataQueue2.add(framesPerChannel);
+    audioDataRing.offer(framesPerChannel);
   }
   
   /**
    * Running the analysis process
    */
   private void runAnalysis(){
-    System.out.println("InputData sample size: "+audioDataQueue2.size()/2+" [frames] \n");
-    while(!audioDataQueue2.isEmpty()){
-      float[][] audioInputData1 = audioDataQueue2.poll();
-      float[][] audioInputData2 = audioDataQueue2.poll();
+    analyzeQueuedFrames();
+    System.out.println("InputData sample size: "+analyzedFrames+" [frames] \n");
+    if(audioDataRing.getOverruns()>0)
+      System.out.println("Warning: "+audioDataRing.getOverruns()+" frames dropped, analysis too slow.\n");
+    evaluate();
+  }
+  
+  /**
+   * Drains the audio data ring and runs the delay analysis on pairs of frames
+   */
+  private void analyzeQueuedFrames(){
+    while(audioDataRing.size()>=2){
+      audioDataRing.poll(audioInputData1);
+      audioDataRing.poll(audioInputData2);
+      analyzedFrames++;
       
       for (int i = 0; i < RmeHdspMadi.CHANNEL_COUNT; i++) {
         System.arraycopy(audioInputData1[i], 0, audioInputData2x[i], 0, AudioInputConstants.FRAME_SIZE);
@@ -334,10 +360,14 @@ public class MicrophoneGCCTester extends AAtomicHardware implements Runnable{
           list1.add(tData.getTauValue());
         }
       }
+      // end array 2
     }
-    // end array 2
-        
-    // data evaluation with variance calculation and command line print out
+  }
+  
+  /**
+   * Data evaluation with variance calculation and command line print out
+   */
+  private void evaluate(){
     System.out.println("- Evaluation report:");
     System.out.println("---");
     double[] variances1 = null;
@@ -0,0 +1,364 @@
+package de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa;
+
+import java.util.Arrays;
+
+import de.tucottbus.kt.csl.hardware.audio.utils.FFT;
+
+/**
+ * Batched generalized cross correlation with phase transform (GCC-PHAT) for
+ * any number of microphone pairs.<br>
+ * <br>
+ * The spectrum of every channel is computed once per frame by
+ * {@link #putChannel(int, float[])}. {@link #compute()} forms the PHAT
+ * weighted cross spectrum of every registered pair, transforms it back to the
+ * time domain and searches the correlation peak. The peak position is refined
+ * by parabolic interpolation and stored in a dense table of sub-sample delays
+ * indexed by the pair id returned by {@link #addPair(int, int, int)}.<br>
+ * <br>
+ * All data are kept in flat primitive arrays which are allocated once, so
+ * running the analysis does not create any objects. Instances are not
+ * thread-safe.
+ *
+ * @see DelayAnalysis
+ */
+public final class GccPhat {
+
+  /**
+   * Cross spectrum magnitudes below this value are not weighted
+   */
+  private final static double PHAT_EPSILON = 1E-20;
+
+  /**
+   * Object for Fourier transformation
+   */
+  private final FFT fft;
+
+  /**
+   * The frame length in samples
+   */
+  private final int frameLength;
+
+  /**
+   * The number of channels
+   */
+  private final int channelCount;
+
+  /**
+   * The FFT length
+   */
+  private final int n;
+
+  /**
+   * Number of doubles per spectrum, (n/2+1) interleaved bins
+   */
+  private final int stride;
+
+  /**
+   * Half spectra of all channels, channel c starts at c*{@link #stride}
+   */
+  private final double[] spectra;
+
+  /**
+   * Flags of the channels with a spectrum of the current frame
+   */
+  private final boolean[] valid;
+
+  /**
+   * Optional spectral weights, interleaved, or {@code null}
+   */
+  private double[] weights;
+
+  /**
+   * Cross spectrum buffer
+   */
+  private final double[] cross;
+
+  /**
+   * Cross correlation buffer, circular lag order
+   */
+  private final double[] corr;
+
+  private int pairCount;
+  private int[] pairRef = new int[16];
+  private int[] pairChannel = new int[16];
+  private int[] pairMaxLag = new int[16];
+
+  /**
+   * Sub-sample delays of all pairs [samples]
+   */
+  private float[] delays = new float[16];
+
+  /**
+   * Correlation peak values of all pairs
+   */
+  private float[] peaks = new float[16];
+
+  /**
+   * Creates a new GCC-PHAT engine.
+   *
+   * @param frameLength
+   *          - the number of samples per channel and frame
+   * @param channelCount
+   *          - the number of channels
+   */
+  public GccPhat(int frameLength, int channelCount) {
+    if (frameLength<2 || channelCount<1)
+      throw new IllegalArgumentException("Invalid dimensions "+channelCount+"x"+frameLength);
+    this.fft = new FFT();
+    this.frameLength = frameLength;
+    this.channelCount = channelCount;
+    this.n = FFT.getFftLength(frameLength);
+    this.stride = n+2;
+    this.spectra = new double[channelCount*stride];
+    this.valid = new boolean[channelCount];
+    this.cross = new double[stride];
+    this.corr = new double[n];
+  }
+
+  // ***************************************************************************
+  // ******* configuration
+  // ***************************************************************************
+
+  /**
+   * Sets spectral weights, e.g. a band pass filter, which are applied to every
+   * channel spectrum.
+   *
+   * @param weights
+   *          - interleaved complex weights of the bins from DC upwards; bins
+   *          without a weight are set to zero. {@code null} disables
+   *          weighting.
+   */
+  public void setWeights(double[] weights) {
+    this.weights = weights;
+  }
+
+  /**
+   * Registers a microphone pair.
+   *
+   * @param refChannel
+   *          - the reference channel
+   * @param channel
+   *          - the other channel
+   * @param maxLag
+   *          - the maximal delay to search [samples]
+   * @return the pair id, the index into the delay table
+   */
+  public int addPair(int refChannel, int channel, int maxLag) {
+    checkChannel(refChannel);
+    checkChannel(channel);
+    if (pairCount==pairRef.length) {
+      int capacity = pairCount*2;
+      pairRef = Arrays.copyOf(pairRef, capacity);
+      pairChannel = Arrays.copyOf(pairChannel, capacity);
+      pairMaxLag = Arrays.copyOf(pairMaxLag, capacity);
+      delays = Arrays.copyOf(delays, capacity);
+      peaks = Arrays.copyOf(peaks, capacity);
+    }
+    pairRef[pairCount] = refChannel;
+    pairChannel[pairCount] = channel;
+    pairMaxLag[pairCount] = Math.max(1, Math.min(maxLag, n/2-1));
+    delays[pairCount] = Float.NaN;
+    peaks[pairCount] = Float.NaN;
+    return pairCount++;
+  }
+
+  /**
+   * Removes all microphone pairs.
+   */
+  public void clearPairs() {
+    pairCount = 0;
+  }
+
+  /**
+   * Returns the number of registered microphone pairs.
+   */
+  public int getPairCount() {
+    return pairCount;
+  }
+
+  // ***************************************************************************
+  // ******* running
+  // ***************************************************************************
+
+  /**
+   * Discards the spectra of the current frame.
+   */
+  public void newFrame() {
+    Arrays.fill(valid, false);
+  }
+
+  /**
+   * Computes and stores the spectrum of one channel of the current frame.
+   *
+   * @param channel
+   *          - the channel
+   * @param frame
+   *          - the audio samples, {@link #getFrameLength()} values
+   */
+  public void putChannel(int channel, float[] frame) {
+    checkChannel(channel);
+    if (frame.length!=frameLength)
+      throw new IllegalArgumentException("Frame length "+frame.length+" != "+frameLength);
+
+    fft.getFFTSpectrum(frame, cross);
+    final int off = channel*stride;
+    if (weights==null) {
+      System.arraycopy(cross, 0, spectra, off, stride);
+    } else {
+      final int w = Math.min(weights.length, stride) & ~1;
+      for (int i = 0; i < w; i += 2) {
+        double re = cross[i], im = cross[i+1];
+        spectra[off+i] = re*weights[i]-im*weights[i+1];
+        spectra[off+i+1] = re*weights[i+1]+im*weights[i];
+      }
+      Arrays.fill(spectra, off+w, off+stride, 0);
+    }
+    valid[channel] = true;
+  }
+
+  /**
+   * Runs the GCC-PHAT for all registered pairs. Pairs with a channel missing in
+   * the current frame get a delay of {@link Float#NaN}.
+   */
+  public void compute() {
+    for (int p = 0; p < pairCount; p++) {
+      if (!valid[pairRef[p]] || !valid[pairChannel[p]]) {
+        delays[p] = Float.NaN;
+        peaks[p] = Float.NaN;
+        continue;
+      }
+      correlate(pairRef[p], pairChannel[p]);
+
+      // integer peak search in [-maxLag, maxLag)
+      final int maxLag = pairMaxLag[p];
+      int bestLag = -maxLag;
+      double max = Double.NEGATIVE_INFINITY;
+      for (int lag = -maxLag; lag < maxLag; lag++) {
+        double elem = corr[lag<0 ? lag+n : lag];
+        if (elem > max) {
+          max = elem;
+          bestLag = lag;
+        }
+      }
+
+      // parabolic interpolation
+      double ym = corr[bestLag-1<0 ? bestLag-1+n : bestLag-1];
+      double yp = corr[bestLag+1<0 ? bestLag+1+n : bestLag+1];
+      double denom = ym-2*max+yp;
+      double delta = denom<0 ? 0.5*(ym-yp)/denom : 0;
+      if (delta>0.5) delta = 0.5;
+      if (delta<-0.5) delta = -0.5;
+
+      delays[p] = (float)(bestLag+delta);
+      peaks[p] = (float)(max-0.25*(ym-yp)*delta);
+    }
+  }
+
+  /**
+   * Computes the cross correlation of two channels of the current frame into
+   * {@link #corr}.
+   */
+  private void correlate(int refChannel, int channel) {
+    final int a = refChannel*stride;
+    final int b = channel*stride;
+    for (int i = 0; i < stride; i += 2) {
+      // X_ref * conj(X_i) / |X_ref * conj(X_i)|
+      double ar = spectra[a+i], ai = spectra[a+i+1];
+      double br = spectra[b+i], bi = spectra[b+i+1];
+      double re = ar*br+ai*bi;
+      double im = ai*br-ar*bi;
+      double mag = Math.sqrt(re*re+im*im);
+      if (mag>PHAT_EPSILON) {
+        re /= mag;
+        im /= mag;
+      }
+      cross[i] = re;
+      cross[i+1] = im;
+    }
+    cross[1] = 0;
+    cross[stride-1] = 0;
+    fft.getInverseFftSpectrum(cross, corr, n);
+  }
+
+  // ***************************************************************************
+  // ******* results
+  // ***************************************************************************
+
+  /**
+   * Returns the dense delay table. Entry p is the sub-sample delay of pair p
+   * [samples]; positive values mean the signal arrives at the reference channel
+   * later. The array may be longer than {@link #getPairCount()} and is
+   * overwritten by the next {@link #compute()}.
+   */
+  public float[] getDelays() {
+    return delays;
+  }
+
+  /**
+   * Returns the sub-sample delay of one pair [samples].
+   *
+   * @param pair
+   *          - the pair id
+   */
+  public float getDelay(int pair) {
+    checkPair(pair);
+    return delays[pair];
+  }
+
+  /**
+   * Returns the interpolated correlation peak of one pair. Values close to 1
+   * indicate a single dominant source.
+   *
+   * @param pair
+   *          - the pair id
+   */
+  public float getPeak(int pair) {
+    checkPair(pair);
+    return peaks[pair];
+  }
+
+  /**
+   * Copies the cross correlation function of one pair of the current frame.
+   * The result is centered, i.e. lag 0 is at index n/2. Intended for debugging
+   * and plotting.
+   *
+   * @param pair
+   *          - the pair id
+   * @param dst
+   *          - receives n values, may be {@code null}
+   * @return the correlation function
+   */
+  public double[] getCorrelation(int pair, double[] dst) {
+    checkPair(pair);
+    if (dst==null || dst.length<n)
+      dst = new double[n];
+    correlate(pairRef[pair], pairChannel[pair]);
+    System.arraycopy(corr, n/2, dst, 0, n/2);
+    System.arraycopy(corr, 0, dst, n/2, n/2);
+    return dst;
+  }
+
+  /**
+   * Returns the number of samples per channel and frame.
+   */
+  public int getFrameLength() {
+    return frameLength;
+  }
+
+  /**
+   * Returns the FFT length.
+   */
+  public int getFftLength() {
+    return n;
+  }
+
+  private void checkChannel(int channel) {
+    if (channel<0 || channel>=channelCount)
+      throw new IllegalArgumentException("Invalid channel "+channel);
+  }
+
+  private void checkPair(int pair) {
+    if (pair<0 || pair>=pairCount)
+      throw new IllegalArgumentException("Invalid pair "+pair);
+  }
+}
@@ -208,7 +208,7 @@ public class Localizers {
       TauData tData = tauDataHM.get(refMicId+","+j);
       if(tData == null)
         continue;
-      bMat.set(m++, n++, -((tData.getTauValue()*SAMPLEMETER)-rs1) );
+      bMat.set(m++, n++, -((tData.getTau()*SAMPLEMETER)-rs1) );
     }
     
     return bMat;
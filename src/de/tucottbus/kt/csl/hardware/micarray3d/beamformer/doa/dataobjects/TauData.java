@@ -10,18 +10,28 @@ public class TauData {
   
   private final int micId;
   
-  private final int tauValue;
+  private final float tau;
   
   private double r_si;
   
   private final Point3d micPosition;
 
   public TauData(int refMicId, int micId, int tauValue, Point3d micPosition){
+    this(refMicId, micId, (float)tauValue, micPosition);
+  }
+  
+  /**
+   * @param refMicId
+   * @param micId
+   * @param tau - sub-sample delay [samples]
+   * @param micPosition
+   */
+  public TauData(int refMicId, int micId, float tau, Point3d micPosition){
     this.refMicId=refMicId;
     this.micId=micId;
-    this.tauValue=tauValue;
+    this.tau=tau;
     this.micPosition=micPosition;
-    r_si=tauValue*Localizers.SAMPLEMETER;
+    r_si=tau*Localizers.SAMPLEMETER;
   }
   
   public int getRefMicId() {
@@ -32,8 +42,18 @@ public class TauData {
     return micId;
   }
 
+  /**
+   * Get the delay rounded to full samples.
+   */
   public int getTauValue() {
-    return tauValue;
+    return Math.round(tau);
+  }
+  
+  /**
+   * Get the sub-sample delay [samples].
+   */
+  public float getTau() {
+    return tau;
   }
   
   public void setRi(double rsi){
@@ -0,0 +1,467 @@
+package de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.particlefilter;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+
+/**
+ * Particle filter keeping the particle states in flat arrays. Unlike {@link
+ * ParticleFilter}, it creates no particle objects and handles 10<sup>4</sup>
+ * to 10<sup>5</sup> particles per DoA frame.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The states are stored as a structure of arrays, see {@link
+ *     VectorEvaluator}. Resampling gathers into a second set of arrays and
+ *     swaps them, no particles are cloned.</li>
+ *   <li>Resampling is systematic or stratified (O(N), no sorting) and only
+ *     done if the effective sample size drops below a threshold.</li>
+ *   <li>Prediction, evaluation and dispersion run in parallel on the common
+ *     {@link ForkJoinPool}. Each chunk of particles draws from its own {@link
+ *     SplittableRandom} split off the filter's generator, so the results are
+ *     reproducible for a given seed. The generator of a chunk is also passed
+ *     to the {@link VectorEvaluator}.</li>
+ *   <li>The dynamics are those of the {@link DynamicsModel}: velocities follow
+ *     <code>v' = a v + b n</code> with Gaussian noise <code>n</code>,
+ *     coordinates <code>x' = x + &Delta;t v'</code>.</li>
+ *   <li>The filter is not thread-safe.</li>
+ * </ul>
+ */
+public class ArrayParticleFilter
+{
+  /**
+   * Resampling schemes.
+   */
+  public static enum Resampling
+  {
+    /**
+     * One uniform random offset for all strata.
+     */
+    SYSTEMATIC,
+
+    /**
+     * An independent uniform random offset in each stratum.
+     */
+    STRATIFIED
+  }
+
+  /**
+   * Number of particles processed sequentially by one task.
+   */
+  private static final int CHUNK_SIZE = 4096;
+
+  private final int dim;
+  private final int count;
+  private double[][] state;
+  private double[][] next;
+  private final double[] weights;
+  private final int[] source;
+  private final int[] copyIndex;
+  private final SplittableRandom random;
+
+  private VectorEvaluator evaluator;
+  private Resampling resampling = Resampling.SYSTEMATIC;
+  private double threshold;
+  private double velocityDecay;
+  private double velocityNoise;
+  private double deltaT;
+
+  // -- Life cycle --
+
+  /**
+   * Creates a new particle filter. All particles are at the origin with zero
+   * velocity and equal weight.
+   *
+   * @param dim
+   *          The number of spatial dimensions, usually 2 or 3.
+   * @param count
+   *          The number of particles.
+   * @param evaluator
+   *          The likelihood function.
+   * @param seed
+   *          The seed of the random number generator.
+   */
+  public ArrayParticleFilter(int dim, int count, VectorEvaluator evaluator, long seed)
+  {
+    if (dim<1)
+      throw new IllegalArgumentException("Invalid dimension "+dim);
+    if (count<1)
+      throw new IllegalArgumentException("Invalid particle count "+count);
+    this.dim       = dim;
+    this.count     = count;
+    this.state     = new double[2*dim][count];
+    this.next      = new double[2*dim][count];
+    this.weights   = new double[count];
+    this.source    = new int[count];
+    this.copyIndex = new int[count];
+    this.random    = new SplittableRandom(seed);
+    this.evaluator = evaluator;
+    this.threshold = count/10.;
+    Arrays.fill(weights,1.0/count);
+    setDynamics(DynamicsModel.V,DynamicsModel.BETA,
+      (double)AudioInputConstants.FRAME_SIZE/AudioInputConstants.SAMPLERATE);
+  }
+
+  /**
+   * Distributes the particles uniformly in a box and resets their velocities
+   * and weights.
+   *
+   * @param min
+   *          The minimal coordinates, <code>dim</code> values.
+   * @param max
+   *          The maximal coordinates, <code>dim</code> values.
+   */
+  public void initUniform(double[] min, double[] max)
+  {
+    for (int k=0; k<dim; k++)
+    {
+      double[] x = state[k];
+      double[] v = state[dim+k];
+      for (int i=0; i<count; i++)
+      {
+        x[i] = min[k]+(max[k]-min[k])*random.nextDouble();
+        v[i] = 0;
+      }
+    }
+    Arrays.fill(weights,1.0/count);
+    Arrays.fill(copyIndex,0);
+  }
+
+  // -- Getters and setters --
+
+  /**
+   * Returns the number of spatial dimensions.
+   */
+  public int getDimensions()
+  {
+    return dim;
+  }
+
+  /**
+   * Returns the number of particles.
+   */
+  public int getParticleCount()
+  {
+    return count;
+  }
+
+  /**
+   * Returns the particle states. The arrays are swapped on resampling, callers
+   * must not keep references across {@link #resample()}.
+   *
+   * @return <code>2*dim</code> arrays of {@link #getParticleCount()} values,
+   *         see {@link VectorEvaluator}.
+   */
+  public double[][] getState()
+  {
+    return state;
+  }
+
+  /**
+   * Returns the particle weights (not normalized).
+   */
+  public double[] getWeights()
+  {
+    return weights;
+  }
+
+  /**
+   * Sets the state of a particle.
+   *
+   * @param i
+   *          The particle index.
+   * @param coords
+   *          The coordinates, <code>dim</code> values.
+   * @param velocity
+   *          The velocity, <code>dim</code> values, or <code>null</code> for
+   *          zero velocity.
+   */
+  public void setParticle(int i, double[] coords, double[] velocity)
+  {
+    for (int k=0; k<dim; k++)
+    {
+      state[k][i] = coords[k];
+      state[dim+k][i] = velocity!=null ? velocity[k] : 0;
+    }
+  }
+
+  /**
+   * Sets the likelihood function.
+   */
+  public void setEvaluator(VectorEvaluator evaluator)
+  {
+    this.evaluator = evaluator;
+  }
+
+  /**
+   * Sets the resampling scheme, {@link Resampling#SYSTEMATIC} by default.
+   */
+  public void setResampling(Resampling resampling)
+  {
+    if (resampling==null)
+      throw new IllegalArgumentException("Resampling is null");
+    this.resampling = resampling;
+  }
+
+  /**
+   * Sets the effective sample size below which {@link #resample()} resamples
+   * the particles. The default is 1/10 of the particle count, like {@link
+   * ParticleFilter}.
+   */
+  public void setThreshold(double threshold)
+  {
+    this.threshold = threshold;
+  }
+
+  /**
+   * Sets the parameters of the dynamics model.
+   *
+   * @param velocity
+   *          The mean speed in coordinate units per second.
+   * @param beta
+   *          The velocity decay rate in 1/s.
+   * @param deltaT
+   *          The time between two predictions in seconds.
+   */
+  public void setDynamics(double velocity, double beta, double deltaT)
+  {
+    this.deltaT        = deltaT;
+    this.velocityDecay = Math.exp(-beta*deltaT);
+    this.velocityNoise = velocity*Math.sqrt(1-velocityDecay*velocityDecay);
+  }
+
+  // -- Operations --
+
+  /**
+   * Moves all particles according to the dynamics model.
+   */
+  public void predict()
+  {
+    new Task(Task.PREDICT,0,count,random.split(),0).invoke();
+  }
+
+  /**
+   * Computes the particle weights by the likelihood function.
+   */
+  public void evaluate()
+  {
+    new Task(Task.EVALUATE,0,count,random.split(),0).invoke();
+  }
+
+  /**
+   * Adds Gaussian noise to the coordinates of all particles which are not the
+   * first copy of their source particle in the last resampling.
+   *
+   * @param spread
+   *          The standard deviation in coordinate units.
+   */
+  public void disperse(double spread)
+  {
+    new Task(Task.DISPERSE,0,count,random.split(),spread).invoke();
+  }
+
+  /**
+   * Returns the effective sample size 1/&Sigma;w<sub>i</sub><sup>2</sup> of
+   * the normalized weights.
+   */
+  public double getEffectiveSampleSize()
+  {
+    double sum = 0;
+    double sumSq = 0;
+    for (int i=0; i<count; i++)
+    {
+      sum += weights[i];
+      sumSq += weights[i]*weights[i];
+    }
+    return sumSq>0 ? sum*sum/sumSq : 0;
+  }
+
+  /**
+   * Resamples the particles if the {@linkplain #getEffectiveSampleSize()
+   * effective sample size} is below the threshold. Afterwards all weights are
+   * equal.
+   *
+   * @return <code>true</code> if the particles were resampled.
+   */
+  public boolean resample()
+  {
+    double sum = 0;
+    double sumSq = 0;
+    for (int i=0; i<count; i++)
+    {
+      sum += weights[i];
+      sumSq += weights[i]*weights[i];
+    }
+    if (!(sumSq>0) || sum*sum/sumSq>threshold)
+      return false;
+
+    // Select source particles (weights need not be normalized)
+    double step = sum/count;
+    double offset = step*random.nextDouble();
+    double cumulative = weights[0];
+    int i = 0;
+    for (int j=0; j<count; j++)
+    {
+      double u;
+      if (resampling==Resampling.STRATIFIED)
+        u = step*(j+random.nextDouble());
+      else
+        u = offset+step*j;
+      while (cumulative<u && i<count-1)
+        cumulative += weights[++i];
+      source[j] = i;
+      copyIndex[j] = (j>0 && source[j-1]==i) ? copyIndex[j-1]+1 : 0;
+    }
+
+    // Gather and swap state arrays
+    new Task(Task.GATHER,0,count,null,0).invoke();
+    double[][] swap = state;
+    state = next;
+    next = swap;
+    Arrays.fill(weights,step);
+    return true;
+  }
+
+  /**
+   * Computes the weighted mean of the particle coordinates.
+   *
+   * @param result
+   *          Array to store the <code>dim</code> coordinates in.
+   * @return <code>result</code>
+   */
+  public double[] getEstimate(double[] result)
+  {
+    double sum = 0;
+    for (int i=0; i<count; i++)
+      sum += weights[i];
+    for (int k=0; k<dim; k++)
+    {
+      double[] x = state[k];
+      double s = 0;
+      for (int i=0; i<count; i++)
+        s += weights[i]*x[i];
+      result[k] = sum>0 ? s/sum : 0;
+    }
+    return result;
+  }
+
+  /**
+   * Runs one filter step: {@link #predict()}, {@link #evaluate()}, {@link
+   * #resample()} and, if resampled, {@link #disperse(double)}.
+   *
+   * @param spread
+   *          The standard deviation of the dispersion noise.
+   * @return <code>true</code> if the particles were resampled.
+   */
+  public boolean step(double spread)
+  {
+    predict();
+    evaluate();
+    if (!resample())
+      return false;
+    disperse(spread);
+    return true;
+  }
+
+  // -- Parallel operations --
+
+  /**
+   * An operation on a range of particles, split recursively into chunks of at
+   * most {@link ArrayParticleFilter#CHUNK_SIZE CHUNK_SIZE} particles.
+   */
+  private final class Task extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    static final int PREDICT  = 0;
+    static final int EVALUATE = 1;
+    static final int DISPERSE = 2;
+    static final int GATHER   = 3;
+
+    private final int op;
+    private final int from;
+    private final int to;
+    private final SplittableRandom rnd;
+    private final double spread;
+
+    Task(int op, int from, int to, SplittableRandom rnd, double spread)
+    {
+      this.op     = op;
+      this.from   = from;
+      this.to     = to;
+      this.rnd    = rnd;
+      this.spread = spread;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (to-from>CHUNK_SIZE)
+      {
+        int mid = (from+to)>>>1;
+        SplittableRandom r = rnd!=null ? rnd.split() : null;
+        invokeAll(new Task(op,from,mid,r,spread),new Task(op,mid,to,rnd,spread));
+        return;
+      }
+
+      switch (op)
+      {
+      case PREDICT:
+        for (int k=0; k<dim; k++)
+        {
+          double[] x = state[k];
+          double[] v = state[dim+k];
+          for (int i=from; i<to; i++)
+          {
+            v[i] = velocityDecay*v[i]+velocityNoise*gaussian(rnd);
+            x[i] += deltaT*v[i];
+          }
+        }
+        break;
+      case EVALUATE:
+        evaluator.evaluate(state,from,to,weights,rnd);
+        break;
+      case DISPERSE:
+        for (int k=0; k<dim; k++)
+        {
+          double[] x = state[k];
+          for (int i=from; i<to; i++)
+            if (copyIndex[i]>0)
+              x[i] += spread*gaussian(rnd);
+        }
+        break;
+      case GATHER:
+        for (int k=0; k<2*dim; k++)
+        {
+          double[] src = state[k];
+          double[] dst = next[k];
+          for (int i=from; i<to; i++)
+            dst[i] = src[source[i]];
+        }
+        break;
+      }
+    }
+  }
+
+  /**
+   * Draws a standard normal value (Marsaglia polar method).
+   */
+  private static double gaussian(SplittableRandom rnd)
+  {
+    double v1, v2, s;
+    do
+    {
+      v1 = 2*rnd.nextDouble()-1;
+      v2 = 2*rnd.nextDouble()-1;
+      s = v1*v1+v2*v2;
+    }
+    while (s>=1 || s==0);
+    return v1*Math.sqrt(-2*Math.log(s)/s);
+  }
+
+}
+
+// EOF
@@ -23,12 +23,12 @@ public class DynamicsModel {
   /**
    * Speed [m/s]
    */
-  private final static double V = 1;
+  final static double V = 1;
   
   /**
    * angular velocity [1/s]
    */
-  private final static double BETA = 10;
+  final static double BETA = 10;
   
   /**
    * Time between two measurements [s]
@@ -1,6 +1,7 @@
 package de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.particlefilter;
 
 import java.util.Random;
+import java.util.SplittableRandom;
 
 import javax.vecmath.Point2d;
 import javax.vecmath.Point3d;
@@ -8,7 +9,7 @@ import javax.vecmath.Point3d;
 import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.dataobjects.Particle2D;
 import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.dataobjects.Particle3D;
 
-public class MultiEvaluator<T> implements ParticleEvaluator<T> {
+public class MultiEvaluator<T> implements ParticleEvaluator<T>, VectorEvaluator {
   private double mu = 0;
 
   private double sigma = 20;
@@ -31,6 +32,19 @@ public class MultiEvaluator<T> implements ParticleEvaluator<T> {
     return gauss+error;
   }
   
+  /**
+   * Vectorised evaluation for the {@link ArrayParticleFilter}, equivalent to
+   * {@link #evaluate(Object)} of each particle. The noise is drawn from the
+   * generator of the range, so the filter is reproducible for its seed.
+   */
+  @Override
+  public void evaluate(double[][] state, int from, int to, double[] weights,
+      SplittableRandom random) {
+    double[] x = state[0];
+    for (int i = from; i < to; i++)
+      weights[i] = gaussian(x[i], mu, sigma) + (noise!=0 ? random.nextDouble() * noise : 0);
+  }
+  
   public static double gaussian(double x, double mu, double sigma) {
     double d2 = (x - mu) * (x - mu);
     return Math.exp(-d2 / sigma);
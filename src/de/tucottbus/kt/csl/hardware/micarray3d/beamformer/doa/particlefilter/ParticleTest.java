@@ -1,6 +1,8 @@
 package de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.particlefilter;
 
+import java.util.Arrays;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 import javax.vecmath.Point2d;
 
@@ -21,8 +23,76 @@ public class ParticleTest {
     }
   }
   
+  /**
+   * Tracks a source moving on a circle with an {@link ArrayParticleFilter} and
+   * prints the tracking error and the time per step.
+   * 
+   * @param N
+   *          The number of particles.
+   */
+  public static void testArrayParticleFilter(final int N) {
+    final double[] source = new double[3];
+    VectorEvaluator evaluator = new VectorEvaluator() {
+      @Override
+      public void evaluate(double[][] state, int from, int to, double[] weights,
+          SplittableRandom random) {
+        for (int i = from; i < to; i++) {
+          double dx = state[0][i] - source[0];
+          double dy = state[1][i] - source[1];
+          double dz = state[2][i] - source[2];
+          weights[i] = Math.exp(-0.5 * (dx * dx + dy * dy + dz * dz) / (20 * 20));
+        }
+      }
+    };
+    ArrayParticleFilter filter = new ArrayParticleFilter(3, N, evaluator, 4711);
+    filter.initUniform(new double[] { -220, -220, 0 }, new double[] { 220, 220, 250 });
+    filter.setDynamics(300, 10, 0.01); // cm/s, 1/s, s
+    
+    double[] estimate = new double[3];
+    int steps = 200;
+    long then = System.nanoTime();
+    double error = 0;
+    for (int t = 0; t < steps; t++) {
+      double phi = 2 * Math.PI * t / steps;
+      source[0] = 100 * Math.cos(phi);
+      source[1] = 100 * Math.sin(phi);
+      source[2] = 160;
+      filter.step(5);
+      filter.getEstimate(estimate);
+      if (t >= steps / 2)
+        error += Math.sqrt((estimate[0] - source[0]) * (estimate[0] - source[0])
+            + (estimate[1] - source[1]) * (estimate[1] - source[1])
+            + (estimate[2] - source[2]) * (estimate[2] - source[2]));
+    }
+    double millis = (System.nanoTime() - then) / 1E6 / steps;
+    System.out.println(String.format("ArrayParticleFilter: %d particles, %.2f ms/step, "
+        + "mean error %.1f cm", N, millis, error / (steps - steps / 2)));
+  }
+  
+  /**
+   * Runs two {@link ArrayParticleFilter}s with the same seed and a noisy
+   * {@link MultiEvaluator} and prints if their estimates are equal.
+   */
+  public static void testReproducible() {
+    MultiEvaluator<Particle2D> evaluator = new MultiEvaluator<Particle2D>();
+    evaluator.setNoise(0.1);
+    double[][] estimates = new double[2][2];
+    for (int run = 0; run < 2; run++) {
+      ArrayParticleFilter filter = new ArrayParticleFilter(2, 50000, evaluator, 4711);
+      filter.initUniform(new double[] { -220, 0 }, new double[] { 220, 250 });
+      for (int t = 0; t < 20; t++)
+        filter.step(5);
+      filter.getEstimate(estimates[run]);
+    }
+    System.out.println(String.format("ArrayParticleFilter: reproducible with noisy evaluator: %b",
+        Arrays.equals(estimates[0], estimates[1])));
+  }
+
   public static void main(String[] args) {
     new ParticleTest();
+    testReproducible();
+    testArrayParticleFilter(10000);
+    testArrayParticleFilter(100000);
   }
 
 }
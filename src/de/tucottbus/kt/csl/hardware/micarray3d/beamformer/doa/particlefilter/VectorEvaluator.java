@@ -0,0 +1,41 @@
+package de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.particlefilter;
+
+import java.util.SplittableRandom;
+
+/**
+ * Likelihood function evaluating a range of particles of an {@link
+ * ArrayParticleFilter} at once. This is the vectorised counterpart of {@link
+ * ParticleEvaluator}.
+ *
+ * <p>The particle states are passed as a structure of arrays:
+ * <code>state[k][i]</code> is component <code>k</code> of particle
+ * <code>i</code>. Components <code>0...dim-1</code> are the coordinates,
+ * components <code>dim...2*dim-1</code> the velocities.</p>
+ *
+ * <p>Implementations must be thread-safe, the filter evaluates disjoint ranges
+ * of particles concurrently. Random values must be drawn from the generator
+ * passed with each range, not from a shared one, so that the results are
+ * reproducible for the seed of the filter.</p>
+ */
+public interface VectorEvaluator
+{
+  /**
+   * Evaluates particles.
+   *
+   * @param state
+   *          The particle states, must not be modified.
+   * @param from
+   *          Index of the first particle to evaluate (inclusive).
+   * @param to
+   *          Index of the last particle to evaluate (exclusive).
+   * @param weights
+   *          Array to store the non-negative likelihoods in, at indices
+   *          <code>from...to-1</code>.
+   * @param random
+   *          The random number generator of the range.
+   */
+  public void evaluate(double[][] state, int from, int to, double[] weights,
+      SplittableRandom random);
+}
+
+// EOF
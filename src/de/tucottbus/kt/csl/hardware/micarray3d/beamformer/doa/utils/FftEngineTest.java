@@ -0,0 +1,140 @@
+package de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.utils;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+import de.tucottbus.kt.csl.hardware.audio.utils.FFT;
+import de.tucottbus.kt.csl.hardware.audio.utils.FftEngine;
+
+/**
+ * Checks the numerical equivalence of {@link FFT} and {@link FftEngine} with
+ * the commons-math {@link FastFourierTransformer} and measures the speed of
+ * both implementations.
+ */
+public class FftEngineTest {
+
+  /**
+   * Maximal tolerated absolute deviation
+   */
+  private static final double EPSILON = 1E-9;
+
+  private static final FastFourierTransformer reference = new FastFourierTransformer(DftNormalization.UNITARY);
+
+  /**
+   * The former implementation of {@link FFT#getFFTSpectrum(float[], Boolean)}.
+   */
+  private static Complex[] getReferenceSpectrum(float[] frame, boolean halfSpect){
+    int powerOf2 = FFT.getNextPowerOf2Value(frame.length);
+    double[] window = new double[powerOf2*2];
+    int destPos = (int) Math.ceil((powerOf2*2-powerOf2)/2);
+    for (int i = 0; i < frame.length; i++) {
+      window[i+destPos] = frame[i]*0.5f * (1f - (float) Math.cos(2*Math.PI * i / (frame.length - 1f)));
+    }
+    Complex[] spec = reference.transform(window, TransformType.FORWARD);
+    return halfSpect ? Arrays.copyOf(spec, spec.length/2) : spec;
+  }
+
+  /**
+   * The former implementation of {@link FFT#getInverseFftSpectrum(Complex[], boolean)}.
+   */
+  private static Complex[] getReferenceInverse(Complex[] spectrum, boolean halfSpectrum){
+    Complex[] transSpectrum = spectrum;
+    if(halfSpectrum){
+      transSpectrum = new Complex[spectrum.length*2];
+      System.arraycopy(spectrum, 0, transSpectrum, 0, spectrum.length);
+      int k = spectrum.length-1;
+      for (int i = transSpectrum.length/2; i < transSpectrum.length; i++) {
+        transSpectrum[i] = spectrum[k--].conjugate();
+      }
+    }
+    return reference.transform(transSpectrum, TransformType.INVERSE);
+  }
+
+  private static double maxDeviation(Complex[] a, Complex[] b){
+    if(a.length!=b.length)
+      return Double.POSITIVE_INFINITY;
+    double max = 0;
+    for (int i = 0; i < a.length; i++) {
+      max = Math.max(max, a[i].subtract(b[i]).abs());
+    }
+    return max;
+  }
+
+  private static boolean check(String name, double deviation){
+    boolean ok = deviation<EPSILON;
+    System.out.println(String.format(Locale.US,"%-40s max. deviation %.3e %s",name,deviation,ok?"OK":"FAILED"));
+    return ok;
+  }
+
+  public static void main(String[] args) {
+    Random random = new Random(4711);
+    FFT fft = new FFT();
+    boolean ok = true;
+
+    for (int frameLength : new int[]{ 100, 333, AudioInputConstants.FRAME_SIZE, 1000, 2*AudioInputConstants.FRAME_SIZE }) {
+      float[] frame = new float[frameLength];
+      for (int i = 0; i < frame.length; i++) {
+        frame[i] = (float)random.nextGaussian();
+      }
+
+      for (boolean half : new boolean[]{ false, true }) {
+        Complex[] expected = getReferenceSpectrum(frame, half);
+        Complex[] actual = fft.getFFTSpectrum(frame, half);
+        ok &= check("FFT "+frameLength+(half?" half":" full"), maxDeviation(expected, actual));
+
+        expected = getReferenceInverse(expected, half);
+        actual = fft.getInverseFftSpectrum(actual, half);
+        ok &= check("IFFT "+frameLength+(half?" half":" full"), maxDeviation(expected, actual));
+      }
+
+      // Primitive forward and inverse round trip
+      int n = FFT.getFftLength(frameLength);
+      double[] spectrum = new double[n+2];
+      double[] signal = new double[n];
+      fft.getFFTSpectrum(frame, spectrum);
+      fft.getInverseFftSpectrum(spectrum, signal, n);
+      float[] window = FftEngine.getHannWindow(frameLength);
+      double max = 0;
+      for (int i = 0; i < n; i++) {
+        int j = i-n/4;
+        double x = j>=0 && j<frameLength ? frame[j]*window[j] : 0;
+        max = Math.max(max, Math.abs(signal[i]-x));
+      }
+      ok &= check("Round trip "+frameLength, max);
+    }
+
+    // Speed
+    float[] frame = new float[2*AudioInputConstants.FRAME_SIZE];
+    for (int i = 0; i < frame.length; i++) {
+      frame[i] = (float)random.nextGaussian();
+    }
+    double[] spectrum = new double[FFT.getFftLength(frame.length)+2];
+    int runs = 20000;
+    for (int pass = 0; pass < 2; pass++) {
+      long t0 = System.nanoTime();
+      for (int i = 0; i < runs; i++)
+        getReferenceSpectrum(frame, true);
+      long t1 = System.nanoTime();
+      for (int i = 0; i < runs; i++)
+        fft.getFFTSpectrum(frame, true);
+      long t2 = System.nanoTime();
+      for (int i = 0; i < runs; i++)
+        fft.getFFTSpectrum(frame, spectrum);
+      long t3 = System.nanoTime();
+      if (pass==1) {
+        System.out.println(String.format(Locale.US,"commons-math:      %6.2f us/frame",(t1-t0)/1E3/runs));
+        System.out.println(String.format(Locale.US,"FFT (Complex[]):   %6.2f us/frame",(t2-t1)/1E3/runs));
+        System.out.println(String.format(Locale.US,"FFT (double[]):    %6.2f us/frame",(t3-t2)/1E3/runs));
+      }
+    }
+
+    System.out.println(ok ? "All tests passed." : "Some tests FAILED.");
+  }
+}
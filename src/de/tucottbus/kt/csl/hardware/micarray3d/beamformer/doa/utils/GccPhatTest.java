@@ -0,0 +1,93 @@
+package de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.utils;
+
+import java.util.Locale;
+import java.util.Random;
+
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.doa.GccPhat;
+
+/**
+ * Checks the sub-sample delays of the batched {@link GccPhat} with synthetic
+ * signals and measures the time per frame for all pairs of 32 microphones.
+ */
+public class GccPhatTest {
+
+  private static final int CHANNELS = 32;
+
+  private static final int FRAME_LENGTH = 2*AudioInputConstants.FRAME_SIZE;
+
+  /**
+   * Creates broadband noise, a sum of sinusoids between 100 and 20000 Hz,
+   * delayed by a fractional number of samples.
+   */
+  private static float[] getDelayedNoise(double[] freqs, double[] phases, double delay){
+    float[] frame = new float[FRAME_LENGTH];
+    for (int i = 0; i < frame.length; i++) {
+      double t = (i-delay)/AudioInputConstants.SAMPLERATE;
+      double x = 0;
+      for (int k = 0; k < freqs.length; k++)
+        x += Math.sin(2*Math.PI*freqs[k]*t+phases[k]);
+      frame[i] = (float)(x/Math.sqrt(freqs.length));
+    }
+    return frame;
+  }
+
+  public static void main(String[] args) {
+    Random random = new Random(4711);
+    double[] freqs = new double[500];
+    double[] phases = new double[freqs.length];
+    for (int k = 0; k < freqs.length; k++) {
+      freqs[k] = 100+19900*random.nextDouble();
+      phases[k] = 2*Math.PI*random.nextDouble();
+    }
+
+    double[] trueDelays = new double[CHANNELS];
+    float[][] frames = new float[CHANNELS][];
+    for (int c = 0; c < CHANNELS; c++) {
+      trueDelays[c] = c==0 ? 0 : 20*(random.nextDouble()-0.5);
+      frames[c] = getDelayedNoise(freqs, phases, trueDelays[c]);
+    }
+
+    GccPhat gcc = new GccPhat(FRAME_LENGTH, CHANNELS);
+    for (int ref = 0; ref < CHANNELS; ref++)
+      for (int c = ref+1; c < CHANNELS; c++)
+        gcc.addPair(ref, c, 32);
+
+    gcc.newFrame();
+    for (int c = 0; c < CHANNELS; c++)
+      gcc.putChannel(c, frames[c]);
+    gcc.compute();
+
+    // accuracy, a delay of channel c shows up as a negative lag
+    double maxErr = 0;
+    double maxErrInt = 0;
+    int p = 0;
+    for (int ref = 0; ref < CHANNELS; ref++) {
+      for (int c = ref+1; c < CHANNELS; c++, p++) {
+        double expected = trueDelays[ref]-trueDelays[c];
+        maxErr = Math.max(maxErr, Math.abs(gcc.getDelay(p)-expected));
+        maxErrInt = Math.max(maxErrInt, Math.abs(Math.round(gcc.getDelay(p))-expected));
+        if (ref==0 && c<6)
+          System.out.println(String.format(Locale.US,"Pair 0,%d: expected %6.3f, got %6.3f (peak %.3f)",c,expected,gcc.getDelay(p),gcc.getPeak(p)));
+      }
+    }
+    System.out.println(String.format(Locale.US,"%d pairs, max. error %.3f samples (integer search %.3f)",gcc.getPairCount(),maxErr,maxErrInt));
+
+    // speed
+    int runs = 200;
+    for (int pass = 0; pass < 2; pass++) {
+      long t0 = System.nanoTime();
+      for (int r = 0; r < runs; r++) {
+        gcc.newFrame();
+        for (int c = 0; c < CHANNELS; c++)
+          gcc.putChannel(c, frames[c]);
+        gcc.compute();
+      }
+      long t1 = System.nanoTime();
+      if (pass==1)
+        System.out.println(String.format(Locale.US,"%.1f us/frame, %.2f us/pair",(t1-t0)/1E3/runs,(t1-t0)/1E3/runs/gcc.getPairCount()));
+    }
+
+    System.out.println(maxErr<0.25 ? "Test passed." : "Test FAILED.");
+  }
+}
@@ -35,6 +35,20 @@ public class StaticBandpassFIR {
     return bandpass;
   }
   
+  /**
+   * Get the bandpass filter of {@link #getComplexBandpass1024()} as an array of
+   * 2048 interleaved real and imaginary parts.
+   * @return double[] array
+   */
+  public static double[] getInterleavedBandpass1024(){
+    double[] bandpass = new double[2*fir_bandpass_real.length];
+    for (int i = 0; i < fir_bandpass_real.length; i++) {
+      bandpass[2*i]=fir_bandpass_real[i];
+      bandpass[2*i+1]=fir_bandpass_image[i];
+    }
+    return bandpass;
+  }
+  
   private static double[] fir_bandpass_real = new double[] { -0.00026914,
       -0.00018685, 9.9973e-05, 0.00014468, -1.7352e-05, -0.043801, -0.31261,
       -0.59781, -0.84355, -0.98662, -1.004, -0.89724, -0.68646, -0.40466,
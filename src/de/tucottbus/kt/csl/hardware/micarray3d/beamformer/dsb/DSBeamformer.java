@@ -1,5 +1,7 @@
 package de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb;
 
+import java.util.Arrays;
+
 import de.tucottbus.kt.csl.hardware.ACompositeHardware;
 import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
 import de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadi;
@@ -19,6 +21,32 @@ public abstract class DSBeamformer extends ACompositeHardware {
    */
   private static final float OUT_GAIN = 70000;
 
+  /**
+   * Calibration gains used if there is no audio input device
+   */
+  private static final float[] UNIT_GAINS = new float[RmeHdspMadi.CHANNEL_COUNT];
+  static
+  {
+    Arrays.fill(UNIT_GAINS,1f);
+  }
+
+  /**
+   * Methods of delaying the microphone signals.
+   */
+  public static enum DelayMode
+  {
+    /**
+     * Delays are truncated to full samples.
+     */
+    INTEGER,
+
+    /**
+     * Delays are realized with sub-sample precision by a {@linkplain
+     * FractionalDelayFilter windowed sinc interpolator}.
+     */
+    FRACTIONAL
+  }
+
   // -- declarations --
   
   /**
@@ -46,17 +74,47 @@ public abstract class DSBeamformer extends ACompositeHardware {
    */
   private final float[] delayBuffer = new float[numFrames * channels * 2];
 
+  /**
+   * The delay line of the fractional delay mode
+   */
+  private final FractionalDelayFilter fractionalDelay = new FractionalDelayFilter(channels, numFrames);
+
+  /**
+   * Buffer of the delayed samples in the fractional delay mode
+   */
+  private final float[] fractionalBuffer = new float[numFrames * channels];
+
+  private volatile DelayMode delayMode = DelayMode.INTEGER;
+
+  /**
+   * Set when the delay mode changed, the delay line is cleared by the audio
+   * thread
+   */
+  private volatile boolean resetDelayLine = false;
+
   // -- Core of the audio implementation --
 
   /**
    * Step 1: Delay of the samples in inBuffer of the Steering Vector and writing back
    * the delayed samples.<br>
    * Step 2: Summing all samples to a mono signal and output the data to a byte output
-   * stream.
+   * stream.<br>
+   * In the {@linkplain DelayMode#FRACTIONAL fractional delay mode} the samples are
+   * delayed by a {@link FractionalDelayFilter} and the input buffer is not modified.
    * 
    * @throws InterruptedException
    */
   protected float[] delayAndSumBeamforming(MicArrayState state, float[] inputBuffer) {
+    if (delayMode==DelayMode.FRACTIONAL) {
+      if (resetDelayLine) {
+        resetDelayLine = false;
+        fractionalDelay.reset();
+      }
+      fractionalDelay.update(state);
+      fractionalDelay.process(inputBuffer, fractionalBuffer, state.activeMics);
+      return sum(state, fractionalBuffer);
+    }
+    
     for (int i = numFrames * channels; i < delayBuffer.length; i++)
       delayBuffer[i] = 0f;
 
@@ -77,7 +135,20 @@ public abstract class DSBeamformer extends ACompositeHardware {
     System.arraycopy(delayBuffer, inputBuffer.length, delayBuffer, 0,
         inputBuffer.length);
 
-    float[] calibrationGains = hammerfallAudioDevice.getCalibrationGains();
+    return sum(state, inputBuffer);
+  }
+  
+  /**
+   * Step 2: Summing all delayed samples to a mono signal.
+   * 
+   * @param state
+   *          The microphone array state.
+   * @param delayedBuffer
+   *          The delayed samples, interleaved.
+   * @return The output buffer
+   */
+  private float[] sum(MicArrayState state, float[] delayedBuffer) {
+    float[] calibrationGains = hammerfallAudioDevice!=null ? hammerfallAudioDevice.getCalibrationGains() : UNIT_GAINS;
     
     // summing the float samples to byte buffer
     int numberOfActiveMics = state.getNumberOfActiveMics();
@@ -88,9 +159,9 @@ public abstract class DSBeamformer extends ACompositeHardware {
         if (state.activeMics[channel] == false) {
           continue;
         }
-        if (inputBuffer[nin] == 0)
+        if (delayedBuffer[nin] == 0)
           deactivatedCount++;
-        sample += calibrationGains[channel] * inputBuffer[nin] * state.gains[channel] * state.steerVec[channel];
+        sample += calibrationGains[channel] * delayedBuffer[nin] * state.gains[channel] * state.steerVec[channel];
       }
 
       sample = 1.5f * (sample / (numberOfActiveMics - deactivatedCount));
@@ -102,6 +173,26 @@ public abstract class DSBeamformer extends ACompositeHardware {
     return outFloatBuffer;
   }
   
+  /**
+   * Sets the method of delaying the microphone signals.
+   * @param delayMode
+   *          The new delay mode.
+   */
+  public void setDelayMode(DelayMode delayMode) {
+    if (delayMode==null)
+      throw new IllegalArgumentException("Delay mode is null");
+    if (delayMode!=this.delayMode)
+      resetDelayLine = true;
+    this.delayMode = delayMode;
+  }
+  
+  /**
+   * Returns the method of delaying the microphone signals.
+   */
+  public DelayMode getDelayMode() {
+    return delayMode;
+  }
+  
   /**
    * Setting the level value of the beamformer output buffer.
    * @param buffer float[]
@@ -125,8 +216,11 @@ public abstract class DSBeamformer extends ACompositeHardware {
   /**
    * Sending the beamformer output to hardware ouput interface.
    * @param audioData
+   * @param block
+   *          The {@linkplain de.tucottbus.kt.csl.hardware.metrics.LatencyTrace
+   *          latency trace} sequence number of the block, -1 if not traced.
    */
-  protected abstract void sendAudioToOutput(float[] audioData);
+  protected abstract void sendAudioToOutput(float[] audioData, long block);
   
   /**
    * Get the beamformer output audio data.
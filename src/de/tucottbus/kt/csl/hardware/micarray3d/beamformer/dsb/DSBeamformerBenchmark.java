@@ -0,0 +1,126 @@
+package de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Random;
+
+import de.tucottbus.kt.csl.hardware.AHardware;
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+import de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadi;
+import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayState;
+import de.tucottbus.kt.lcars.contributors.ElementContributor;
+
+/**
+ * Compares the CPU cost per block of the {@linkplain DSBeamformer.DelayMode
+ * delay modes} of the {@link DSBeamformer} for 32 and 64 active microphones.
+ * The beamformer runs offline on synthetic audio data with the
+ * {@linkplain MicArrayState#getDummy() dummy microphone array state}.
+ */
+public class DSBeamformerBenchmark
+{
+  private static final int BLOCKS = 5000;
+
+  /**
+   * Beamformer without audio devices.
+   */
+  private static class OfflineBeamformer extends DSBeamformer
+  {
+    @Override
+    public String getName()
+    {
+      return "Offline Beamformer";
+    }
+
+    @Override
+    public Collection<AHardware> getChildren()
+    {
+      return new ArrayList<AHardware>();
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+      return true;
+    }
+
+    @Override
+    public AHardware getParent()
+    {
+      return null;
+    }
+
+    @Override
+    public ElementContributor getLcarsSubpanel(int x, int y)
+    {
+      return null;
+    }
+
+    @Override
+    protected void sendAudioToOutput(float[] audioData, long block)
+    {
+    }
+
+    @Override
+    public float[] getAudioOutputData()
+    {
+      return outFloatBuffer;
+    }
+
+    float[] process(MicArrayState state, float[] inputBuffer)
+    {
+      return delayAndSumBeamforming(state,inputBuffer);
+    }
+  }
+
+  /**
+   * Runs the beamformer and returns the time per block in microseconds.
+   */
+  private static double measure(OfflineBeamformer bf, MicArrayState state, float[][] blocks)
+  {
+    float[] inputBuffer = new float[blocks[0].length];
+    long t0 = System.nanoTime();
+    for (int i=0; i<BLOCKS; i++)
+    {
+      // The integer mode writes the delayed samples back to the input buffer
+      System.arraycopy(blocks[i%blocks.length],0,inputBuffer,0,inputBuffer.length);
+      bf.process(state,inputBuffer);
+    }
+    return (System.nanoTime()-t0)/1E3/BLOCKS;
+  }
+
+  public static void main(String[] args)
+  {
+    Random random = new Random(4711);
+    float[][] blocks = new float[16][AudioInputConstants.FRAME_SIZE*RmeHdspMadi.CHANNEL_COUNT];
+    for (float[] block : blocks)
+      for (int i=0; i<block.length; i++)
+        block[i] = (float)(0.01*random.nextGaussian());
+
+    OfflineBeamformer bf = new OfflineBeamformer();
+    double blockTime = 1E6*AudioInputConstants.FRAME_SIZE/AudioInputConstants.SAMPLERATE;
+    System.out.println(String.format(Locale.US,"Block of %d samples = %.0f us real time",
+        AudioInputConstants.FRAME_SIZE,blockTime));
+
+    for (int mics : new int[]{ 32, 64 })
+    {
+      MicArrayState state = MicArrayState.getDummy();
+      Arrays.fill(state.activeMics,false);
+      Arrays.fill(state.activeMics,0,mics,true);
+
+      for (DSBeamformer.DelayMode mode : DSBeamformer.DelayMode.values())
+      {
+        bf.setDelayMode(mode);
+        measure(bf,state,blocks); // warm up
+        double us = measure(bf,state,blocks);
+        System.out.println(String.format(Locale.US,"%2d mics, %-10s %8.1f us/block (%4.1f %% real time)",
+            mics,mode,us,100*us/blockTime));
+      }
+    }
+
+    bf.dispose();
+  }
+}
+
+// EOF
@@ -0,0 +1,212 @@
+package de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb;
+
+import java.util.Arrays;
+
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayState;
+
+/**
+ * Fractional delay line for all microphone channels. Every channel is delayed
+ * by its steering delay with sub-sample precision by a Hann-windowed sinc
+ * interpolator of {@link #TAPS} coefficients.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The integer delays and interpolator coefficients are computed once per
+ *     {@link MicArrayState} instance. Processing a block does not allocate any
+ *     memory.</li>
+ *   <li>The interpolator adds a constant latency of {@link #TAPS}/2-1 samples
+ *     to all channels.</li>
+ *   <li>Instances are not thread-safe.</li>
+ * </ul>
+ */
+public final class FractionalDelayFilter
+{
+  /**
+   * Number of interpolator coefficients per channel.
+   */
+  public static final int TAPS = 8;
+
+  /**
+   * Maximal steering delay in samples, longer delays are clipped.
+   */
+  public static final int MAX_DELAY = 4096;
+
+  private final int channels;
+  private final int frameSize;
+
+  /**
+   * The delay lines, one ring buffer per channel.
+   */
+  private final float[][] rings;
+
+  /**
+   * Ring buffer index mask.
+   */
+  private final int mask;
+
+  /**
+   * Ring buffer index of the first sample of the current block.
+   */
+  private int writePos;
+
+  /**
+   * Integer part of the delay of every channel (samples).
+   */
+  private final int[] intDelays;
+
+  /**
+   * Interpolator coefficients of every channel.
+   */
+  private final float[][] coeffs;
+
+  /**
+   * The state the tables were computed for.
+   */
+  private MicArrayState tableState;
+
+  /**
+   * Creates a new fractional delay filter.
+   *
+   * @param channels
+   *          The number of channels.
+   * @param frameSize
+   *          The number of samples per channel and block.
+   */
+  public FractionalDelayFilter(int channels, int frameSize)
+  {
+    if (channels<1 || frameSize<1)
+      throw new IllegalArgumentException("Invalid dimensions "+channels+"x"+frameSize);
+    this.channels = channels;
+    this.frameSize = frameSize;
+
+    int size = 1;
+    while (size<MAX_DELAY+TAPS+frameSize)
+      size <<= 1;
+    this.rings = new float[channels][size];
+    this.mask = size-1;
+    this.intDelays = new int[channels];
+    this.coeffs = new float[channels][TAPS];
+  }
+
+  /**
+   * Computes the delay tables for a microphone array state, unless they have
+   * been computed for this state before. The delays are taken from the
+   * {@linkplain MicArrayState#steerVec steering vector}.
+   *
+   * @param state
+   *          The microphone array state.
+   */
+  public void update(MicArrayState state)
+  {
+    if (state==tableState)
+      return;
+    for (int c=0; c<channels; c++)
+      setDelay(c,state.steerVec[c]*AudioInputConstants.SAMPLERATE);
+    tableState = state;
+  }
+
+  /**
+   * Sets the delay of one channel.
+   *
+   * @param channel
+   *          The channel.
+   * @param delay
+   *          The delay in samples, clipped to [0, {@link #MAX_DELAY}].
+   */
+  public void setDelay(int channel, double delay)
+  {
+    intDelays[channel] = getCoefficients(delay,coeffs[channel]);
+    tableState = null;
+  }
+
+  /**
+   * Computes the interpolator coefficients of a delay.
+   *
+   * @param delay
+   *          The delay in samples, clipped to [0, {@link #MAX_DELAY}].
+   * @param h
+   *          Receives the {@link #TAPS} coefficients.
+   * @return The integer part of the delay.
+   */
+  static int getCoefficients(double delay, float[] h)
+  {
+    if (!(delay>0)) delay = 0;
+    if (delay>MAX_DELAY) delay = MAX_DELAY;
+    int n0 = (int)Math.floor(delay);
+    double frac = delay-n0;
+
+    // Windowed sinc centered between the taps TAPS/2-1 and TAPS/2
+    double sum = 0;
+    for (int k=0; k<TAPS; k++)
+    {
+      double x = k-(TAPS/2-1)-frac;
+      double sinc = x==0 ? 1 : Math.sin(Math.PI*x)/(Math.PI*x);
+      double window = 0.5*(1+Math.cos(Math.PI*x/(TAPS/2)));
+      h[k] = (float)(sinc*window);
+      sum += h[k];
+    }
+    for (int k=0; k<TAPS; k++)
+      h[k] /= sum;
+    return n0;
+  }
+
+  /**
+   * Delays one block of interleaved audio data.
+   *
+   * @param inputBuffer
+   *          The input samples, {@code frameSize} x {@code channels} values.
+   * @param outputBuffer
+   *          Receives the delayed samples in the same layout. Inactive channels
+   *          are set to zero.
+   * @param activeMics
+   *          The microphone activation states, may be {@code null} if all
+   *          channels are active.
+   */
+  public void process(float[] inputBuffer, float[] outputBuffer, boolean[] activeMics)
+  {
+    // Write block into delay lines
+    for (int c=0; c<channels; c++)
+    {
+      float[] ring = rings[c];
+      for (int t=0, n=c; t<frameSize; t++, n+=channels)
+        ring[(writePos+t)&mask] = inputBuffer[n];
+    }
+
+    // Interpolate
+    for (int c=0; c<channels; c++)
+    {
+      if (activeMics!=null && !activeMics[c])
+      {
+        for (int t=0, n=c; t<frameSize; t++, n+=channels)
+          outputBuffer[n] = 0f;
+        continue;
+      }
+
+      float[] ring = rings[c];
+      float[] h = coeffs[c];
+      int base = writePos-intDelays[c];
+      for (int t=0, n=c; t<frameSize; t++, n+=channels)
+      {
+        int idx = base+t;
+        float acc = 0f;
+        for (int k=0; k<TAPS; k++)
+          acc += h[k]*ring[(idx-k)&mask];
+        outputBuffer[n] = acc;
+      }
+    }
+    writePos = (writePos+frameSize)&mask;
+  }
+
+  /**
+   * Clears the delay lines.
+   */
+  public void reset()
+  {
+    for (float[] ring : rings)
+      Arrays.fill(ring,0f);
+    writePos = 0;
+  }
+}
+
+// EOF
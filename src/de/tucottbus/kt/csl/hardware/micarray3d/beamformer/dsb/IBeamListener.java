@@ -0,0 +1,20 @@
+package de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb;
+
+/**
+ * Interface to receive the audio output of a beam of the
+ * {@link MultiBeamformer}.
+ */
+public interface IBeamListener {
+
+  /**
+   * Called by a worker thread of the {@link MultiBeamformer} when a block of
+   * beam output is available.
+   *
+   * @param beam
+   *          The beam.
+   * @param audioData
+   *          The output samples. The array is reused for the next block and
+   *          must not be kept.
+   */
+  public void beamAudio(MultiBeamformer.Beam beam, float[] audioData);
+}
@@ -0,0 +1,512 @@
+package de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.vecmath.Point3d;
+
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+import de.tucottbus.kt.csl.hardware.audio.output.AAudioOutputDevice;
+import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayState;
+import de.tucottbus.kt.lcars.logging.Log;
+
+/**
+ * Delay and sum beamformer computing any number of simultaneous beams, e.g.
+ * one per tracked speaker or a grid of beams for a power map.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>All beams share one delay line. {@link #process(float[])} only copies
+ *     a block of interleaved audio data into the delay line and returns, the
+ *     beams are computed by a fixed pool of worker threads. Each beam is
+ *     pinned to the worker with the fewest beams when it is added, so its
+ *     delay tables and output buffer are only touched by that worker.</li>
+ *   <li>Every beam is steered with sub-sample precision by the interpolator of
+ *     the {@link FractionalDelayFilter}. The delay tables are recomputed when
+ *     the beam target or the {@linkplain #setMicArrayState(MicArrayState)
+ *     microphone array state} changes.</li>
+ *   <li>The output of a beam is sent to its {@linkplain
+ *     Beam#setOutputDevice(AAudioOutputDevice) audio output device} and/or
+ *     its {@linkplain Beam#setListener(IBeamListener) listener}.</li>
+ *   <li>If the workers fall more than {@link #MAX_PENDING} blocks behind,
+ *     input blocks are dropped and counted as {@linkplain #getOverruns()
+ *     overruns}.</li>
+ * </ul>
+ */
+public final class MultiBeamformer
+{
+  /**
+   * Maximal number of blocks the workers may fall behind.
+   */
+  public static final int MAX_PENDING = 4;
+
+  private final int channels;
+  private final int frameSize;
+
+  /**
+   * The shared delay line, one ring buffer per channel.
+   */
+  private final float[][] rings;
+
+  /**
+   * Ring buffer index mask.
+   */
+  private final int mask;
+
+  /**
+   * Sequence number of the last block written to the delay line.
+   */
+  private volatile long published = -1;
+
+  private final AtomicLong overruns = new AtomicLong();
+
+  /**
+   * The beams, copy-on-write.
+   */
+  private volatile Beam[] beams = new Beam[0];
+
+  private volatile MicArrayState state;
+
+  /**
+   * Calibration gains of the channels, or {@code null}.
+   */
+  private volatile float[] channelGains;
+
+  private final Worker[] workers;
+
+  private volatile boolean running = true;
+
+  private int beamIdCounter = 0;
+
+  /**
+   * Creates a new multi-beamformer and starts its worker threads.
+   *
+   * @param channels
+   *          The number of audio channels.
+   * @param frameSize
+   *          The number of samples per channel and block.
+   * @param threads
+   *          The number of worker threads, &ge;1.
+   */
+  public MultiBeamformer(int channels, int frameSize, int threads)
+  {
+    if (channels<1 || frameSize<1)
+      throw new IllegalArgumentException("Invalid dimensions "+channels+"x"+frameSize);
+    if (threads<1)
+      throw new IllegalArgumentException("Invalid number of threads "+threads);
+    this.channels = channels;
+    this.frameSize = frameSize;
+
+    int size = 1;
+    while (size<FractionalDelayFilter.MAX_DELAY+FractionalDelayFilter.TAPS+(MAX_PENDING+1)*frameSize)
+      size <<= 1;
+    this.rings = new float[channels][size];
+    this.mask = size-1;
+
+    workers = new Worker[threads];
+    for (int i=0; i<threads; i++)
+    {
+      workers[i] = new Worker(i);
+      workers[i].start();
+    }
+  }
+
+  // -- Beams --
+
+  /**
+   * Adds a new beam.
+   *
+   * @param target
+   *          The steering target in the CSL coordinate system (centimeters).
+   * @return The beam.
+   */
+  public synchronized Beam addBeam(Point3d target)
+  {
+    int[] load = new int[workers.length];
+    for (Beam other : beams)
+      load[other.worker]++;
+    int worker = 0;
+    for (int i=1; i<load.length; i++)
+      if (load[i]<load[worker])
+        worker = i;
+
+    Beam beam = new Beam(beamIdCounter++,worker,channels,frameSize);
+    beam.setTarget(target);
+    Beam[] b = Arrays.copyOf(beams,beams.length+1);
+    b[b.length-1] = beam;
+    beams = b;
+    return beam;
+  }
+
+  /**
+   * Removes a beam.
+   *
+   * @param beam
+   *          The beam.
+   */
+  public synchronized void removeBeam(Beam beam)
+  {
+    Beam[] b = beams;
+    for (int i=0; i<b.length; i++)
+      if (b[i]==beam)
+      {
+        Beam[] c = new Beam[b.length-1];
+        System.arraycopy(b,0,c,0,i);
+        System.arraycopy(b,i+1,c,i,c.length-i);
+        beams = c;
+        return;
+      }
+  }
+
+  /**
+   * Returns a copy of the list of beams.
+   */
+  public Beam[] getBeams()
+  {
+    return beams.clone();
+  }
+
+  /**
+   * Returns the number of beams.
+   */
+  public int getBeamCount()
+  {
+    return beams.length;
+  }
+
+  /**
+   * Sets the microphone array state providing the microphone positions and
+   * activation states. No beams are computed before a state has been set.
+   *
+   * @param state
+   *          The state.
+   */
+  public void setMicArrayState(MicArrayState state)
+  {
+    this.state = state;
+  }
+
+  /**
+   * Sets calibration gains of the input channels.
+   *
+   * @param channelGains
+   *          One gain per channel, {@code null} for unit gains.
+   */
+  public void setChannelGains(float[] channelGains)
+  {
+    this.channelGains = channelGains;
+  }
+
+  // -- Processing --
+
+  /**
+   * Writes a block of interleaved audio data into the delay line and wakes up
+   * the workers. Does not block. To be called by one thread only, usually the
+   * audio callback.
+   *
+   * @param inBuffer
+   *          The audio data, {@code frameSize} x {@code channels} values.
+   */
+  public void process(float[] inBuffer)
+  {
+    if (!running || beams.length==0)
+      return;
+
+    final long seq = published+1;
+    for (Worker w : workers)
+      if (seq-w.done>MAX_PENDING)
+      {
+        overruns.incrementAndGet();
+        return;
+      }
+
+    final int writePos = (int)(seq*frameSize) & mask;
+    for (int c=0; c<channels; c++)
+    {
+      float[] ring = rings[c];
+      for (int t=0, n=c; t<frameSize; t++, n+=channels)
+        ring[(writePos+t)&mask] = inBuffer[n];
+    }
+
+    published = seq;
+    for (Worker w : workers)
+      LockSupport.unpark(w);
+  }
+
+  /**
+   * Waits until the workers have processed all blocks passed to {@link
+   * #process(float[])}.
+   */
+  public void flush()
+  {
+    for (Worker w : workers)
+      while (running && w.done<published)
+        Thread.yield();
+  }
+
+  /**
+   * Returns the number of dropped input blocks.
+   */
+  public long getOverruns()
+  {
+    return overruns.get();
+  }
+
+  /**
+   * Returns the number of worker threads.
+   */
+  public int getThreadCount()
+  {
+    return workers.length;
+  }
+
+  /**
+   * Stops the worker threads.
+   */
+  public void dispose()
+  {
+    running = false;
+    for (Worker w : workers)
+    {
+      w.interrupt();
+      try { w.join(); } catch (InterruptedException e) {}
+    }
+  }
+
+  /**
+   * Computes one block of a beam.
+   */
+  private void computeBeam(Beam beam, long seq, MicArrayState state, float[] channelGains)
+  {
+    beam.update(state,channelGains);
+
+    final float[] out = beam.output;
+    Arrays.fill(out,0f);
+    final int base0 = (int)(seq*frameSize);
+    for (int c=0; c<channels; c++)
+    {
+      final float weight = beam.weights[c];
+      if (weight==0f)
+        continue;
+      final float[] ring = rings[c];
+      final float[] h = beam.coeffs[c];
+      final int base = base0-beam.intDelays[c];
+      for (int t=0; t<frameSize; t++)
+      {
+        int idx = base+t;
+        float acc = 0f;
+        for (int k=0; k<FractionalDelayFilter.TAPS; k++)
+          acc += h[k]*ring[(idx-k)&mask];
+        out[t] += weight*acc;
+      }
+    }
+
+    AAudioOutputDevice device = beam.outputDevice;
+    if (device!=null)
+      device.sendAudioData(out);
+    IBeamListener listener = beam.listener;
+    if (listener!=null)
+      listener.beamAudio(beam,out);
+  }
+
+  // -- Nested classes --
+
+  /**
+   * A worker thread computing the beams pinned to it.
+   */
+  private final class Worker extends Thread
+  {
+    private final int index;
+
+    /**
+     * Sequence number of the last processed block.
+     */
+    volatile long done = -1;
+
+    Worker(int index)
+    {
+      super(MultiBeamformer.class.getSimpleName()+".worker-"+index);
+      this.index = index;
+      setDaemon(true);
+      setPriority(Thread.MAX_PRIORITY);
+    }
+
+    @Override
+    public void run()
+    {
+      while (running)
+      {
+        if (done>=published)
+        {
+          LockSupport.park(this);
+          continue;
+        }
+
+        final long seq = done+1;
+        final MicArrayState s = state;
+        final float[] g = channelGains;
+        final Beam[] b = beams;
+        if (s!=null)
+          for (Beam beam : b)
+          {
+            if (beam.worker!=index)
+              continue;
+            try
+            {
+              computeBeam(beam,seq,s,g);
+            }
+            catch (Exception e)
+            {
+              Log.err("Error computing beam "+beam.getId(),e);
+            }
+          }
+        done = seq;
+      }
+    }
+  }
+
+  /**
+   * One beam of the {@link MultiBeamformer}.
+   */
+  public static final class Beam
+  {
+    private final int id;
+
+    /**
+     * Index of the worker computing this beam.
+     */
+    private final int worker;
+
+    private volatile Point3d target;
+
+    private volatile float gain = 1f;
+
+    private volatile AAudioOutputDevice outputDevice;
+
+    private volatile IBeamListener listener;
+
+    // Delay tables, owned by the worker thread computing this beam
+    private Point3d tableTarget;
+    private MicArrayState tableState;
+    private float tableGain;
+    private float[] tableChannelGains;
+    private final int[] intDelays;
+    private final float[][] coeffs;
+    private final float[] weights;
+    private final float[] output;
+
+    Beam(int id, int worker, int channels, int frameSize)
+    {
+      this.id = id;
+      this.worker = worker;
+      this.intDelays = new int[channels];
+      this.coeffs = new float[channels][FractionalDelayFilter.TAPS];
+      this.weights = new float[channels];
+      this.output = new float[frameSize];
+    }
+
+    /**
+     * Returns the beam id.
+     */
+    public int getId()
+    {
+      return id;
+    }
+
+    /**
+     * Steers the beam.
+     *
+     * @param target
+     *          The steering target in the CSL coordinate system (centimeters).
+     */
+    public void setTarget(Point3d target)
+    {
+      if (target==null)
+        throw new IllegalArgumentException("Target is null");
+      this.target = new Point3d(target);
+    }
+
+    /**
+     * Returns a copy of the steering target.
+     */
+    public Point3d getTarget()
+    {
+      return new Point3d(target);
+    }
+
+    /**
+     * Sets the output gain of the beam.
+     */
+    public void setGain(float gain)
+    {
+      this.gain = gain;
+    }
+
+    public float getGain()
+    {
+      return gain;
+    }
+
+    /**
+     * Routes the beam output to an audio output device.
+     *
+     * @param outputDevice
+     *          The device, {@code null} to detach the beam.
+     */
+    public void setOutputDevice(AAudioOutputDevice outputDevice)
+    {
+      this.outputDevice = outputDevice;
+    }
+
+    public AAudioOutputDevice getOutputDevice()
+    {
+      return outputDevice;
+    }
+
+    /**
+     * Sets a listener receiving the beam output.
+     *
+     * @param listener
+     *          The listener, {@code null} to remove the listener.
+     */
+    public void setListener(IBeamListener listener)
+    {
+      this.listener = listener;
+    }
+
+    public IBeamListener getListener()
+    {
+      return listener;
+    }
+
+    /**
+     * Recomputes the delay tables if the target, gain or state changed.
+     */
+    void update(MicArrayState state, float[] channelGains)
+    {
+      final Point3d t = target;
+      final float g = gain;
+      if (t==tableTarget && state==tableState && g==tableGain && channelGains==tableChannelGains)
+        return;
+
+      float[] delays = Steering.getDelays(state.positions,t);
+      float[] steerVec = Steering.getSteeringVectorFromDelays(delays);
+      int activeMics = Math.max(1,state.getNumberOfActiveMics());
+      for (int c=0; c<intDelays.length; c++)
+      {
+        intDelays[c] = FractionalDelayFilter.getCoefficients(
+            steerVec[c]*AudioInputConstants.SAMPLERATE,coeffs[c]);
+        float cg = channelGains!=null ? channelGains[c] : 1f;
+        weights[c] = state.activeMics[c] ? g*cg/activeMics : 0f;
+      }
+
+      tableTarget = t;
+      tableState = state;
+      tableGain = g;
+      tableChannelGains = channelGains;
+    }
+  }
+}
+
+// EOF
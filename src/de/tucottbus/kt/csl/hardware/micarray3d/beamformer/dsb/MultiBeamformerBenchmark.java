@@ -0,0 +1,86 @@
+package de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.vecmath.Point3d;
+
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+import de.tucottbus.kt.csl.hardware.audio.input.audiodevices.RmeHdspMadi;
+import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayState;
+
+/**
+ * Measures the throughput of the {@link MultiBeamformer} in beams x channels
+ * per block of {@link AudioInputConstants#FRAME_SIZE} samples for different
+ * numbers of beams, channels and worker threads. The beamformer runs offline on
+ * synthetic audio data with the {@linkplain MicArrayState#getDummy() dummy
+ * microphone array state}.
+ */
+public class MultiBeamformerBenchmark
+{
+  private static final int BLOCKS = 500;
+
+  public static void main(String[] args)
+  {
+    Random random = new Random(4711);
+    float[][] blocks = new float[16][AudioInputConstants.FRAME_SIZE*RmeHdspMadi.CHANNEL_COUNT];
+    for (float[] block : blocks)
+      for (int i=0; i<block.length; i++)
+        block[i] = (float)(0.01*random.nextGaussian());
+
+    double blockTime = 1E6*AudioInputConstants.FRAME_SIZE/AudioInputConstants.SAMPLERATE;
+    System.out.println(String.format(Locale.US,"Block of %d samples = %.1f us real time, %d cores",
+        AudioInputConstants.FRAME_SIZE,blockTime,Runtime.getRuntime().availableProcessors()));
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int threads=1; threads<=cores; threads*=2)
+    {
+      MultiBeamformer mbf = new MultiBeamformer(RmeHdspMadi.CHANNEL_COUNT,
+          AudioInputConstants.FRAME_SIZE,threads);
+      for (int mics : new int[]{ 32, 64 })
+      {
+        MicArrayState state = MicArrayState.getDummy();
+        Arrays.fill(state.activeMics,false);
+        Arrays.fill(state.activeMics,0,mics,true);
+        mbf.setMicArrayState(state);
+
+        for (int beams : new int[]{ 1, 4, 16 })
+        {
+          // Grid of targets around the default position
+          for (MultiBeamformer.Beam beam : mbf.getBeams())
+            mbf.removeBeam(beam);
+          for (int b=0; b<beams; b++)
+          {
+            Point3d target = new Point3d(state.target);
+            target.x += 50*(b%4)-75;
+            target.y += 50*(b/4)-75;
+            mbf.addBeam(target);
+          }
+
+          for (int pass=0; pass<2; pass++)
+          {
+            long overruns = mbf.getOverruns();
+            long t0 = System.nanoTime();
+            for (int i=0; i<BLOCKS; i++)
+            {
+              mbf.process(blocks[i%blocks.length]);
+              if (i%MultiBeamformer.MAX_PENDING==0)
+                mbf.flush();
+            }
+            mbf.flush();
+            double us = (System.nanoTime()-t0)/1E3/BLOCKS;
+            if (pass==1)
+              System.out.println(String.format(Locale.US,
+                  "%d threads, %2d mics, %2d beams: %8.1f us/block, %5.1f beams x channels per block time%s",
+                  threads,mics,beams,us,beams*mics*blockTime/us,
+                  mbf.getOverruns()>overruns?" (overruns)":""));
+          }
+        }
+      }
+      mbf.dispose();
+    }
+  }
+}
+
+// EOF
@@ -37,10 +37,25 @@ public final class Steering
    * @see #getDelays(Point3d[], Point3d)
    */
   public static float[] getSteeringVectorFromDelays(float[] delays) 
+  {
+    return getSteeringVectorFromDelays(delays,new float[delays.length]);
+  }
+  
+  /**
+   * Calculates a steering vector into an existing array.
+   * 
+   * @param delays
+   *          The delay array.
+   * @param steeringVector
+   *          Array to store the steering vector in, at least as long as
+   *          <code>delays</code>.
+   * @return <code>steeringVector</code>
+   * @see #getSteeringVectorFromDelays(float[])
+   */
+  public static float[] getSteeringVectorFromDelays(float[] delays, float[] steeringVector) 
   {
     float dMax = getMaxDelay(delays);
 
-    float[] steeringVector = new float[delays.length];
     for (int i = 0; i < delays.length; i++)
       steeringVector[i] = dMax - delays[i];
 
@@ -78,8 +93,24 @@ public final class Steering
    */
   public static float[] getDelays(Point3d[] micPos, Point3d point) 
   {
-    float[] delays = new float[micPos.length];
+    return getDelays(micPos,point,new float[micPos.length]);
+  }
 
+  /**
+   * Calculates all spatial acoustic delays into an existing array.
+   * 
+   * @param micPos
+   *          Array of microphone positions.
+   * @param point
+   *          Steering target.
+   * @param delays
+   *          Array to store the delays in, at least as long as
+   *          <code>micPos</code>.
+   * @return <code>delays</code>
+   * @see #getDelays(Point3d[], Point3d)
+   */
+  public static float[] getDelays(Point3d[] micPos, Point3d point, float[] delays) 
+  {
     for (int i=0; i<micPos.length; i++)
       delays[i] = (float)getDelayFromMicToPoint(micPos[i], point);
 
@@ -114,8 +145,25 @@ public final class Steering
    */
   public static float[] getGains(Point3d[] micPos, Point3d point)
   {
-    float[] gains = new float[micPos.length];
-    Arrays.fill(gains,1f);
+    return getGains(micPos,point,new float[micPos.length]);
+  }
+  
+  /**
+   * Calculates microphone gain factors into an existing array.
+   * 
+   * @param micPos
+   *          Array of microphone positions.
+   * @param point
+   *          Steering target.
+   * @param gains
+   *          Array to store the gains in, at least as long as
+   *          <code>micPos</code>.
+   * @return <code>gains</code>
+   * @see #getGains(Point3d[], Point3d)
+   */
+  public static float[] getGains(Point3d[] micPos, Point3d point, float[] gains)
+  {
+    Arrays.fill(gains,0,micPos.length,1f);
     return gains;
   }
   
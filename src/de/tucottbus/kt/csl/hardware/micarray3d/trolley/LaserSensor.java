@@ -1,18 +1,17 @@
 package de.tucottbus.kt.csl.hardware.micarray3d.trolley;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
 import java.util.Observable;
 import java.util.Observer;
 
 import de.tucottbus.kt.csl.hardware.AAtomicHardware;
 import de.tucottbus.kt.csl.hardware.HardwareException;
+import de.tucottbus.kt.csl.hardware.ioutils.ITcpHandler;
+import de.tucottbus.kt.csl.hardware.ioutils.LineCodec;
+import de.tucottbus.kt.csl.hardware.ioutils.ReconnectPolicy;
+import de.tucottbus.kt.csl.hardware.ioutils.TcpChannel;
 import de.tucottbus.kt.lcars.contributors.ElementContributor;
 
 /**
@@ -20,6 +19,11 @@ import de.tucottbus.kt.lcars.contributors.ElementContributor;
  * 
  * <h3>Remarks</h3>
  * <ul>
+ *   <li>The sensor's controller answers one request per connection. The
+ *     wrapper connects, sends the temperature, reads the distance and closes
+ *     the connection again. The connection is run by the shared {@link
+ *     de.tucottbus.kt.csl.hardware.ioutils.IoReactor IoReactor}, a new
+ *     request is sent {@value #POLL_INTERVAL} ms after each reply.</li>
  *   <li>FIXME: Connection tracking does not work.
  *     </li>
  * </ul>
@@ -27,7 +31,8 @@ import de.tucottbus.kt.lcars.contributors.ElementContributor;
  * @author Matthias Wolff
  * @author Felix Hesse
  */
-public final class LaserSensor extends AAtomicHardware implements Runnable
+public final class LaserSensor extends AAtomicHardware 
+implements ITcpHandler<String>
 {
   /**
    * Hint to {@link #notifyObservers(String)} indicating that the measured 
@@ -45,6 +50,16 @@ public final class LaserSensor extends AAtomicHardware implements Runnable
    */
   private static final int PORT = 64321;
   
+  /**
+   * Delay between a reply and the next request in milliseconds.
+   */
+  private static final int POLL_INTERVAL = 10;
+  
+  /**
+   * Time to wait for a reply in milliseconds.
+   */
+  private static final int REPLY_TIMEOUT = 2500;
+  
   /** 
    * The distance value hysteresis.
    */
@@ -56,21 +71,16 @@ public final class LaserSensor extends AAtomicHardware implements Runnable
   private final float LASER_MID_POS = 169.5f;
   
   /**
-   * The guard thread.
-   */
-  private Thread guard = null;
-  
-  /**
-   *  The run flag of the {@link #guard} thread.
+   * The TCP channel to the laser sensor's controller.
    */
-  private boolean runGuard = false;
+  private final TcpChannel<String> channel;
  
   /**
    * The connected flag.
    * 
    * @see #isConnected()
    */
-  private boolean connected = false;
+  private volatile boolean connected = false;
   
   /**
    * The laser sensor temperature in °C.
@@ -101,91 +111,72 @@ public final class LaserSensor extends AAtomicHardware implements Runnable
    */
   private LaserSensor() 
   {
-    guard = new Thread(this,getClass().getSimpleName()+".guard");
-    guard.start();
+    distance = 0f;
+    channel = new TcpChannel<String>(IP,PORT,new LineCodec("","\r\n"),this)
+      .setReconnectPolicy(new ReconnectPolicy(POLL_INTERVAL,REPLY_TIMEOUT,REPLY_TIMEOUT))
+      .setReadTimeout(REPLY_TIMEOUT);
+    log("Connecting to "+IP+":"+PORT);
+    channel.open();
   }
 
-  // -- Implementation of Runnable --
+  // -- Implementation of ITcpHandler --
   
   @Override
-  public void run()
+  public void connected(TcpChannel<String> channel)
   {
-    log("Begin of guard thread");
-    
-    runGuard = true;
-    distance = 0f;
-    while (runGuard) 
+    String msg = String.valueOf(Math.round(temperature));
+    log("Sending request \""+msg+"\"");
+    channel.send(msg);
+  }
+
+  @Override
+  public void received(TcpChannel<String> channel, String msg)
+  {
+    log("Received reply \""+msg+"\"");
+    try
     {
-      Socket socket = null;
-      try
+      // Parse reply and store received distance
+      float l = (float)Double.parseDouble(msg);
+      if (!connected)
       {
-        // Create client socket
-        log("Connecting to "+IP+":"+PORT);
-        socket = new Socket(IP,PORT);
-        
-        // Send request
-        String msg = String.valueOf(Math.round(temperature));
-        log("Sending request \""+msg+"\"");
-        OutputStream os = socket.getOutputStream();
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os));
-        writer.write(msg);
-        writer.flush();
-  
-        // Read reply
-        InputStream is = socket.getInputStream();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-        msg = reader.readLine();
-        log("Received reply \""+msg+"\"");
-        if (!connected)
-        {
-          setChanged(); notifyObserversAsync(NOTIFY_CONNECTION);
-        }
         connected = true;
-        
-        // Parse reply and store received distance
-        float l = (float)Double.parseDouble(msg);
-        if (Math.abs(distance-l)>=HYSTERESIS)
-        {
-          distance = l;
-          log("New distance "+distance+" mm");
-          setChanged(); notifyObserversAsync(NOTIFY_DISTANCE);
-        }
-        
-        // Close client socket
-        log("Disconnecting");
-        socket.close();
-        log("OK");
+        setChanged(); notifyObserversAsync(NOTIFY_CONNECTION);
       }
-      catch (Exception e)
+      if (Math.abs(distance-l)>=HYSTERESIS)
       {
-        logErr("Communication failure",e);
-        if (socket!=null)
-          try { socket.close(); } catch (Exception e2) {}
-        if (connected)
-        {
-          setChanged(); notifyObserversAsync(NOTIFY_CONNECTION);
-        }
-        connected = false;
+        distance = l;
+        log("New distance "+distance+" mm");
+        setChanged(); notifyObserversAsync(NOTIFY_DISTANCE);
       }
-      
-      // Wait a little
-      try { Thread.sleep(10); } catch (InterruptedException e) {}
     }
+    catch (NumberFormatException e)
+    {
+      logErr("Invalid reply \""+msg+"\"",e);
+    }
+    
+    // Close connection, the channel reconnects for the next request
+    channel.close();
+  }
 
-    log("End of guard thread");
+  @Override
+  public void disconnected(TcpChannel<String> channel, Throwable cause)
+  {
+    if (cause==null)
+      return;
+    logErr("Communication failure",cause);
+    if (connected)
+    {
+      connected = false;
+      setChanged(); notifyObserversAsync(NOTIFY_CONNECTION);
+    }
   }
-  
+
   // -- Implementation of AAtomicHardware --
   
   @Override
   public void dispose() 
   {
-    if (guard!=null)
-    {
-      runGuard = false;
-      guard.interrupt();
-      try { guard.join(); } catch (Exception e) {}
-    }
+    channel.dispose(0);
     super.dispose();
   }
 
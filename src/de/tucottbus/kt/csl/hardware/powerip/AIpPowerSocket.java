@@ -1,18 +1,21 @@
 package de.tucottbus.kt.csl.hardware.powerip;
 
-import java.io.IOException;
-import java.io.OutputStream;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.net.telnet.TelnetClient;
-
 import de.tucottbus.kt.csl.hardware.AAtomicHardware;
 import de.tucottbus.kt.csl.hardware.AHardware;
 import de.tucottbus.kt.csl.hardware.CslHardware;
 import de.tucottbus.kt.csl.hardware.HardwareException;
+import de.tucottbus.kt.csl.hardware.ioutils.ITcpHandler;
+import de.tucottbus.kt.csl.hardware.ioutils.IoReactor;
+import de.tucottbus.kt.csl.hardware.ioutils.LineCodec;
+import de.tucottbus.kt.csl.hardware.ioutils.ReconnectPolicy;
+import de.tucottbus.kt.csl.hardware.ioutils.TcpChannel;
+import de.tucottbus.kt.csl.hardware.metrics.Counter;
+import de.tucottbus.kt.csl.hardware.metrics.LatencyHistogram;
 import de.tucottbus.kt.lcars.IScreen;
 import de.tucottbus.kt.lcars.LCARS;
 import de.tucottbus.kt.lcars.Panel;
@@ -26,11 +29,25 @@ import de.tucottbus.kt.lcars.elements.EValue;
 /**
  * Low-level hardware wrapper of NETIO-230B and NETIO4 IP power sockets.
  * 
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The KSHELL interface of the power sockets exchanges plain text lines,
+ *     no Telnet option negotiation is required. The connection is run by the
+ *     shared {@link IoReactor}, the wrapper does not own a thread. The login
+ *     procedure and the polling of the port states are performed on the
+ *     reactor thread without blocking.</li>
+ *   <li>{@link #sendCommand(String)} blocks the calling thread until the reply
+ *     is received. It must not be invoked on the reactor thread.</li>
+ *   <li>Observers are notified {@linkplain #notifyObserversAsync(String)
+ *     asynchronously} and outside of the wrapper's monitor, so a slow
+ *     observer never stalls the reactor thread or a waiting command.</li>
+ * </ul>
+ * 
  * @author Matthias Wolff
  * @author Christian Richter
  */
 public abstract class AIpPowerSocket extends AAtomicHardware
-implements Runnable
+implements ITcpHandler<String>
 {
   
   /**
@@ -39,31 +56,42 @@ implements Runnable
   protected String ip;
   
   /**
-   * The port used for the Telnet connection.
+   * The port used for the KSHELL connection.
    */
   protected final int port = 1234;
 
   /**
-   * Number of milliseconds to wait for Telnet reply. The value also controls 
-   * the polling interval of the port states and the interval of re-connect 
+   * Number of milliseconds to wait for a reply. The value also controls the 
+   * polling interval of the port states and the interval of re-connect 
    * attempts. 500 ms is a reasonable choice.
    */
   protected final int replyTimeout = 500;
   
   /**
-   * The Telnet client of this IP power socket.
+   * The TCP channel to the IP power socket.
    */
-  protected TelnetClient tc;
+  protected final TcpChannel<String> channel;
   
   /**
-   * Manages the Telnet connection to the IP power socket.
+   * Periodically polls the port states, only accessed on the reactor thread.
    */
-  protected Thread guard;
+  private IoReactor.Timer pollTimer;
   
   /**
-   * Flag indicating that the wrapper is connected to the IP power socket.
+   * The login state, only accessed on the reactor thread.
    */
-  private boolean connected;
+  private LoginState loginState = LoginState.HELLO;
+  
+  /**
+   * Flag indicating that the wrapper is connected and logged in to the IP power
+   * socket.
+   */
+  private volatile boolean connected;
+  
+  /**
+   * Flag indicating that the wrapper is being disposed.
+   */
+  private volatile boolean disposing;
   
   /**
    * The most recently known state of the ports.
@@ -76,11 +104,17 @@ implements Runnable
   private String[] portNames;
   
   /**
-   * Flag indicating that {@link #waitingForMessage} is waiting for the next
-   * line of text received via Telnet. 
+   * Flag indicating that {@link #sendCommand(String)} is waiting for the next
+   * line of text received from the IP power socket. 
    */
   private boolean waitingForMessage;
   
+  /**
+   * Number of replies to commands {@linkplain #postCommand(String) posted}
+   * without waiting.
+   */
+  private int pendingReplies;
+  
   /**
    * Message buffer used by {@link #readMessage()}.
    */
@@ -97,16 +131,52 @@ implements Runnable
   private String lastError;
   
   /**
-   * Telnet return time.
+   * Reply time of the last command sent through {@link #sendCommand(String)}.
    */
   private long replyTime = 0;
   
+  /**
+   * Number of connections established and lost, and of failed logins.
+   */
+  private final Counter connects = getMetrics().counter("connects");
+  private final Counter disconnects = getMetrics().counter("disconnects");
+  private final Counter loginFailures = getMetrics().counter("login.failures");
+  
+  /**
+   * Reply times of commands sent through {@link #sendCommand(String)} and 
+   * number of commands which timed out.
+   */
+  private final LatencyHistogram replyTimes = getMetrics().histogram("reply.time");
+  private final Counter replyTimeouts = getMetrics().counter("reply.timeouts");
+  
   /**
    * The LCARS GUI for this IP power socket.
    */
   protected volatile LcarsSubPanel subPanel;
   
-  // -- Telnet message constants --
+  /**
+   * States of the login procedure.
+   */
+  private enum LoginState { HELLO, LOGIN, READY }
+
+  /**
+   * Result flag of {@link #dispatchMessageInt(String)}: the last message
+   * changed.
+   */
+  private static final int DISPATCH_DETAIL = 1;
+
+  /**
+   * Result flag of {@link #dispatchMessageInt(String)}: a port state changed.
+   */
+  private static final int DISPATCH_STATE = 2;
+
+  /**
+   * Result flag of {@link #dispatchMessageInt(String)}: the message was not
+   * processed.
+   */
+  private static final int DISPATCH_UNPROCESSED = 4;
+  
+  // -- KSHELL message constants --
   
   protected final Pattern PAT_HELLO           = Pattern.compile("100 HELLO (.*?)\\s*?");
   protected final Pattern PAT_BYE             = Pattern.compile("110 BYE\\s*?");
@@ -137,142 +207,11 @@ implements Runnable
       this.portNames = new String[]
         { "PORT 1", "PORT 2", "PORT 3", "PORT 4" };
     
-    // Create the Telnet client
-    tc = new TelnetClient("ANSI");
-    
-    // Start the guard (lazily connects to IP power socket) 
-    guard = new Thread(this,getClass().getSimpleName()+".guard");
-    guard.start();
-  }
-
-  @Override
-  public void run()
-  {
-    log("Begin of guard thread");
-
-    Thread reader = null;
-    while (tc!=null)
-      try
-      {
-        // Create and start Telnet reader thread
-        if (reader==null || !reader.isAlive())
-        {
-          reader = new Thread(new Runnable()
-          {
-            @Override
-            public void run()
-            {
-              log("Begin of reader thread");
-              while(true)
-                try
-                {
-                  // Wait while not (yet) connected
-                  while (!tc.isConnected())
-                    try
-                    {
-                      log("Reader thread asleep (max. "+replyTimeout*5+" ms)");
-                      Thread.sleep(replyTimeout*5);
-                      log("Reader thread woke up");
-                    } 
-                    catch (InterruptedException e1)
-                    {
-                      log("Reader thread awoken");
-                    }
-  
-                  // Read and dispatch input received from IP power socket
-                  String message = "";
-                  int ret_read;      
-                  try
-                  {
-                    do
-                    {
-                      ret_read = tc.getInputStream().read();
-                      if (ret_read>=0)
-                      {
-                        char c = (char)ret_read;
-                        if ((c=='\r' || c=='\n') && message.length()>0)
-                        {
-                          dispatchMessage(message);
-                          message = "";
-                        }
-                        else
-                          message += c;
-                      }
-                    } while (ret_read>=0);
-                    break;
-                  }
-                  catch (NullPointerException e)
-                  {
-                    throw new HardwareException("No input stream",e);
-                  }
-                }
-                catch (Exception e)
-                {
-                  logErr(e.getMessage(),e);
-                  if (tc==null) break;
-                }
-              log("End of reader thread");
-            }
-          },getClass().getSimpleName()+".reader");
-          reader.start();
-        }
-
-        // Connect to IP power socket
-        tc.connect(ip,port);
-        reader.interrupt();
-        log("Connected to "+ip+":"+port);
-        waitForHello();
-        login();
-        log("Logged in to "+ip+":"+port);
-        connected = true;
-        setChanged();
-        notifyObservers(NOTIFY_CONNECTION);
-        
-        // Maintain connection
-        while (reader.isAlive())
-        {
-          try
-          {
-            portList(null,true);
-            if (!connected)
-            {
-              connected = true;
-              setChanged();
-              notifyObservers(NOTIFY_CONNECTION);
-            }
-          }
-          catch (HardwareException e)
-          {
-            //connected = e.getMessage().startsWith("Unexpected reply \"250 OK\"");
-            connected = false;
-            setChanged();
-            notifyObservers(NOTIFY_CONNECTION);
-            logErr(e.getMessage(),e);
-          }
-          try 
-          { 
-            Thread.sleep(replyTimeout*2); 
-          } 
-          catch (InterruptedException e) 
-          {
-            // Interrupt invoked by dispose()
-            log("Guard thread awoken");
-            reader.join(replyTimeout*2);
-          }
-        }
-      }
-      catch (Exception e)
-      {
-        connected = false;
-        setChanged();
-        notifyObservers(NOTIFY_CONNECTION);
-        logErr(e.getMessage(),e);
-        if (tc==null) break;
-        try { tc.disconnect(); } catch (Exception e1) {}
-        try { Thread.sleep(replyTimeout*5); } catch (InterruptedException e1) {}
-      }
-    
-    log("End of guard thread");
+    // Connect to the IP power socket 
+    channel = new TcpChannel<String>(ip,port,LineCodec.LF,this)
+      .setReconnectPolicy(new ReconnectPolicy(replyTimeout*5,replyTimeout*5,replyTimeout*5))
+      .setReadTimeout(replyTimeout*5);
+    channel.open();
   }
 
   /**
@@ -283,6 +222,7 @@ implements Runnable
   public void dispose()
   {
     log("Dispose");
+    disposing = true;
     try
     {
       quit();
@@ -291,16 +231,7 @@ implements Runnable
     {
       logErr(e.getMessage(),e);
     }
-    try
-    {
-      guard.interrupt();
-      tc.disconnect();
-    }
-    catch (Exception e)
-    {
-      logErr(e.getMessage(),e);
-    }
-    tc = null;
+    channel.dispose(replyTimeout);
     super.dispose();
   }
   
@@ -341,6 +272,103 @@ implements Runnable
     return subPanel;
   }
   
+  // -- Implementation of ITcpHandler --
+
+  @Override
+  public void connected(TcpChannel<String> channel)
+  {
+    log("Connected to "+ip+":"+port);
+    connects.increment();
+    synchronized (this)
+    {
+      pendingReplies = 0;
+    }
+    loginState = LoginState.HELLO;
+  }
+
+  @Override
+  public void received(TcpChannel<String> channel, String message)
+  {
+    switch (loginState)
+    {
+    case HELLO:
+      log(LOG_OUT,message,null);
+      if (!PAT_HELLO.matcher(message.trim()).matches())
+      {
+        logErr("Unexpected reply waiting on HELLO ("+message+")",null);
+        loginFailures.increment();
+        channel.close();
+        return;
+      }
+      log(LOG_IN,"login ktuser kt",null);
+      channel.send("login ktuser kt");
+      loginState = LoginState.LOGIN;
+      return;
+    case LOGIN:
+      log(LOG_OUT,message,null);
+      message = message.trim();
+      if (!PAT_OK.matcher(message).matches() 
+        && !PAT_ALREADYLOGGEDIN.matcher(message).matches())
+      {
+        logErr("Login failed ("+message+")",null);
+        loginFailures.increment();
+        channel.close();
+        return;
+      }
+      loginState = LoginState.READY;
+      log("Logged in to "+ip+":"+port);
+      connected = true;
+      setChanged();
+      notifyObserversAsync(NOTIFY_CONNECTION);
+      pollTimer = IoReactor.getInstance().schedule(this::poll,0,replyTimeout*2);
+      return;
+    default:
+      dispatchMessage(message);
+    }
+  }
+
+  @Override
+  public void disconnected(TcpChannel<String> channel, Throwable cause)
+  {
+    if (pollTimer!=null)
+      pollTimer.cancel();
+    pollTimer = null;
+    loginState = LoginState.HELLO;
+    disconnects.increment();
+    if (cause!=null && !disposing)
+      logErr(cause.getMessage(),cause);
+    if (connected)
+    {
+      connected = false;
+      setChanged();
+      notifyObserversAsync(NOTIFY_CONNECTION);
+    }
+  }
+
+  /**
+   * Posts a port list request unless a reply is outstanding. Invoked 
+   * periodically on the reactor thread while logged in.
+   */
+  private void poll()
+  {
+    Exception error = null;
+    synchronized (this)
+    {
+      if (waitingForMessage || pendingReplies>0)
+        return;
+      try
+      {
+        portList(null,false);
+      }
+      catch (Exception e)
+      {
+        error = e;
+      }
+    }
+    if (error!=null)
+      logErr(error.getMessage(),error);
+  }
+
   // -- Method overrides --
 
   @Override
@@ -350,7 +378,7 @@ implements Runnable
     {
       lastError = message;
       setChanged();
-      notifyObservers(NOTIFY_DETAIL);
+      notifyObserversAsync(NOTIFY_DETAIL);
     }
     super.log(type, message, throwable);
   }
@@ -441,32 +469,7 @@ implements Runnable
     return portNames[port-1];
   }
   
-  // -- Mid-level communication - Telnet commands and messages --
-  
-  /**
-   * Logs in to the IP power socket. The method blocks until the login procedure
-   * has completed. Invoking the method if the wrapper is already logged has no
-   * effect.
-   * 
-   * @throws HardwareException
-   *           if the login failed and on hardware or communication failures.
-   * @throws IllegalStateException
-   *           if the wrapper is not yet connected to the hardware or if the
-   *           wrapper is {@linkplain #dispose() disposed}.
-   * @see #quit()
-   */
-  protected void login()
-  throws HardwareException, IllegalStateException
-  {
-    if (isDisposed())
-      throw new IllegalStateException("Wrapper disposed");
-    String reply = sendCommand("login ktuser kt");
-    Matcher matcher = PAT_OK.matcher(reply);
-    if (matcher.matches()) return;
-    matcher = PAT_ALREADYLOGGEDIN.matcher(reply);
-    if (matcher.matches()) return;
-    throw new HardwareException("Login failed ("+reply+")");
-  }
+  // -- Mid-level communication - KSHELL commands and messages --
   
   /**
    * Logs out from the the IP power socket. The method blocks until the logout
@@ -477,7 +480,6 @@ implements Runnable
    * @throws IllegalStateException
    *           if the wrapper is not yet connected to the hardware or if the
    *           wrapper is {@linkplain #dispose() disposed}.
-   * @see #login()
    */
   protected void quit()
   throws HardwareException, IllegalStateException
@@ -489,26 +491,6 @@ implements Runnable
     throw new HardwareException("Logout failed ("+reply+")");
   }
   
-  /**
-   * Waits for the "HELLO" message after the connection has been initiated.
-   * 
-   * @throws HardwareException
-   *           on unexpected replies and on hardware or communication failures.
-   * @throws IllegalStateException
-   *           if the wrapper is not yet connected to the hardware or if the
-   *           wrapper is {@linkplain #dispose() disposed}.
-   */
-  protected void waitForHello()
-  throws HardwareException, IllegalStateException
-  {
-    if (isDisposed())
-      throw new IllegalStateException("Wrapper disposed");
-    String reply = sendCommand(null);
-    Matcher matcher = PAT_HELLO.matcher(reply);
-    if (matcher.matches()) return;
-    throw new HardwareException("Unexpected reply waiting on HELLO ("+reply+")");
-  }
-
   /**
    * Posts a keep-alive command (no operation). The method returns immediately
    * without waiting for a reply from the IP power socket.
@@ -540,7 +522,7 @@ implements Runnable
    *          from the IP power socket and returns the reply. If 
    *          <code>false</code>, the method will return <code>null</code>
    *          immediately. The reply of the IP power socket is processed through
-   *          {@link #processMessage(String)} in this case.
+   *          {@link #dispatchMessage(String)} in this case.
    * @return A string consisting of exactly four of the characters '0' and '1'
    *         indicating the (new) port states if <code>sync</code> was 
    *         <code>true</code> and <code>null</code> otherwise.
@@ -575,7 +557,7 @@ implements Runnable
           setChanged();
         reply += matcher.group(i);
       }
-      notifyObservers(NOTIFY_STATE);
+      notifyObserversAsync(NOTIFY_STATE);
       return reply;
     }
     else
@@ -621,7 +603,7 @@ implements Runnable
       if (saveState!=portStates[port-1])
       {
         setChanged();
-        notifyObservers(NOTIFY_STATE);
+        notifyObserversAsync(NOTIFY_STATE);
       }
       return reply;
     }
@@ -629,11 +611,11 @@ implements Runnable
       throw new HardwareException("Unexpected reply \""+reply+"\"");
   }
   
-  // -- Low level communication - Telnet I/O --
+  // -- Low level communication - KSHELL I/O --
 
   /**
-   * Posts a command via Telnet. The method immediately returns without waiting
-   * for a reply.
+   * Posts a command. The method immediately returns without waiting for a
+   * reply. The reply is processed through {@link #dispatchMessage(String)}.
    * 
    * @param command
    *          The command without tailing line break.
@@ -644,110 +626,185 @@ implements Runnable
   protected synchronized void postCommand(String command)
   throws HardwareException
   {
-    log(LOG_IN,command,null);
-    OutputStream os = tc.getOutputStream();
-    command += "\n";
-    try
-    {
-      os.write(command.getBytes());
-      os.flush();
-    } 
-    catch (IOException e)
-    {
-      throw new HardwareException("I/O error",e);
-    }
-    catch (NullPointerException e)
-    {
-      throw new HardwareException("No output stream",e);
-    }
+    writeCommand(command);
+    pendingReplies++;
   }
   
   /**
-   * Sends a command via Telnet and returns the reply. The method blocks until a
-   * reply is received via Telnet.
+   * Sends a command and returns the reply. The method blocks until a reply is
+   * received. Replies to commands {@linkplain #postCommand(String) posted}
+   * before are awaited first.
    * 
    * @param command
    *          The command without tailing line break.
    * @return The reply.
    * @throws HardwareException
    *           on hardware or communication failures.
+   * @throws IllegalStateException
+   *           if invoked on the reactor thread.
    * @see #postCommand(String)
    */
-  protected synchronized String sendCommand(String command)
+  protected String sendCommand(String command)
   throws HardwareException
   {
-    waitingForMessage = true;
-    message = null;
-    if (command!=null)
-      postCommand(command);
+    if (IoReactor.getInstance().isReactorThread())
+      throw new IllegalStateException("Blocking command on reactor thread");
+    String reply = null;
     try
     {
-      long then = System.currentTimeMillis();
-      wait(replyTimeout);
-      replyTime = System.currentTimeMillis()-then;
-      setChanged();
-      notifyObservers(NOTIFY_DETAIL);
-    } 
+      reply = sendCommandInt(command);
+    }
     catch (InterruptedException e)
     {
       logErr(e.getMessage(),e);
     }
-    waitingForMessage = false;
-    if (message==null)
+    setChanged();
+    notifyObserversAsync(NOTIFY_DETAIL);
+    if (reply==null)
       throw new HardwareException("No reply");
-    return message;
+    return reply;
+  }
+
+  /**
+   * Implementation of {@link #sendCommand(String)}.
+   * 
+   * @return The reply or <code>null</code> if no reply was received in time.
+   */
+  private synchronized String sendCommandInt(String command)
+  throws HardwareException, InterruptedException
+  {
+    try
+    {
+      long timeout = System.currentTimeMillis()+replyTimeout;
+      while (pendingReplies>0 && System.currentTimeMillis()<timeout)
+        wait(Math.max(1,timeout-System.currentTimeMillis()));
+      pendingReplies = 0;
+
+      waitingForMessage = true;
+      message = null;
+      if (command!=null)
+        writeCommand(command);
+      long then = System.currentTimeMillis();
+      long t0 = System.nanoTime();
+      timeout = then+replyTimeout;
+      while (message==null && System.currentTimeMillis()<timeout)
+        wait(Math.max(1,timeout-System.currentTimeMillis()));
+      replyTime = System.currentTimeMillis()-then;
+      if (message!=null)
+        replyTimes.recordSince(t0);
+      else
+        replyTimeouts.increment();
+      return message;
+    } 
+    finally
+    {
+      waitingForMessage = false;
+    }
+  }
+  
+  /**
+   * Writes a command to the channel.
+   * 
+   * @param command
+   *          The command without tailing line break.
+   * @throws HardwareException
+   *           if the channel is not connected.
+   */
+  private void writeCommand(String command)
+  throws HardwareException
+  {
+    log(LOG_IN,command,null);
+    try
+    {
+      channel.send(command);
+    }
+    catch (IllegalStateException e)
+    {
+      throw new HardwareException("No connection",e);
+    }
   }
   
   /**
-   * Reads a message from the Telnet input stream. A message is a complete line
-   * of text. The method block until a message is received.
+   * Reads a message from the IP power socket. A message is a complete line of
+   * text. The method block until a message is received.
    * 
    * @return The message
    * @throws HardwareException
    *           on hardware or communication failures.
    */
-  protected synchronized String readMessage()
+  protected String readMessage()
   throws HardwareException
   {
     return sendCommand(null);
   }
 
   /**
-   * Invoked by Telnet reader thread in order to dispatch a message read from
-   * the Telnet input stream. A message is a complete line of text. The method
-   * first checks if {@link #sendCommand(String)} is waiting for a reply. In
-   * this case it will store the message in the {@linkplain #message internal
-   * message buffer} and notify {@link #sendCommand(String)}. Otherwise the
-   * method will invoke {@link #processMessage(String)} to have the message
-   * processed.
+   * Invoked on the reactor thread in order to dispatch a message received from
+   * the IP power socket. A message is a complete line of text. Replies to
+   * {@linkplain #postCommand(String) posted} commands are processed by this
+   * method. Otherwise, if {@link #sendCommand(String)} is waiting for a reply,
+   * the method will store the message in the {@linkplain #message internal
+   * message buffer} and notify {@link #sendCommand(String)}.
    * 
    * @param message
    *          The message to process.
    */
-  protected synchronized void dispatchMessage(String message)
+  protected void dispatchMessage(String message)
   {
     message = message.trim();
+    log(LOG_OUT,message,null);
+    int result = dispatchMessageInt(message);
+    if ((result&DISPATCH_DETAIL)!=0)
+    {
+      setChanged();
+      notifyObserversAsync(NOTIFY_DETAIL);
+    }
+    if ((result&DISPATCH_STATE)!=0)
+    {
+      setChanged();
+      notifyObserversAsync(NOTIFY_STATE);
+    }
+    if ((result&DISPATCH_UNPROCESSED)!=0)
+      // TODO: Process any other messages here
+      log(LOG_ERROR,"Unprocessed message \""+message+"\"",null);
+  }
+
+  /**
+   * Implementation of {@link #dispatchMessage(String)}.
+   * 
+   * @param message
+   *          The trimmed message.
+   * @return A combination of the <code>DISPATCH_XXX</code> flags.
+   */
+  private synchronized int dispatchMessageInt(String message)
+  {
+    int result = 0;
     if (this.lastMessage!=message)
     {
       this.lastMessage = message;
-      setChanged();
-      notifyObservers(NOTIFY_DETAIL);
+      result |= DISPATCH_DETAIL;
     }
     this.lastError = "";
-    log(LOG_OUT,message,null);
+    
+    // Reply to a posted command
+    if (pendingReplies>0)
+    {
+      pendingReplies--;
+      notifyAll();
+    }
     
     // sendCommand is waiting for a reply
-    if (waitingForMessage)
+    else if (waitingForMessage)
     {
       this.message = message;
       notifyAll();
-      return;
+      return result;
     }
 
     // Process other messages
     if (PAT_OK.matcher(message).matches())
       // Ignore "250 OK"
-      return;
+      return result;
 
     Matcher matcher = PAT_PORTLIST.matcher(message);
     if (matcher.matches())
@@ -757,14 +814,12 @@ implements Runnable
         boolean saveState = portStates[i-1];
         portStates[i-1] = "1".equals(matcher.group(i));
         if (saveState!=portStates[i-1])
-          setChanged();
+          result |= DISPATCH_STATE;
       }
-      notifyObservers(NOTIFY_STATE);
-      return;
+      return result;
     }
 
-    // TODO: Process any other messages here
-    log(LOG_ERROR,"Unprocessed message \""+message+"\"",null);
+    return result|DISPATCH_UNPROCESSED;
   }
   
   // -- LCARS Element Contributor --
@@ -550,6 +550,10 @@ public class ESensitivityPlots extends ElementContributor
   {
     if (state==null)
       state = MicArrayState.getDummy();
+    if (state==this.mas)
+      return;
+    if (state.version!=0 && state.version==this.mas.version)
+      return; // Same published state of MicArray3D, no need to compare
     if (state.equals(this.mas))
       return;
     this.mas = state;
@@ -16,8 +16,9 @@ import de.tucottbus.kt.csl.lcars.geometry.rendering.CLSensitivityRenderer;
 import de.tucottbus.kt.csl.lcars.geometry.rendering.CpuSensitivityRenderer;
 import de.tucottbus.kt.csl.lcars.geometry.rendering.ISensitivityRenderer;
 import de.tucottbus.kt.csl.lcars.geometry.rendering.ISensitivityRendererConstants;
+import de.tucottbus.kt.csl.lcars.geometry.rendering.SensitivityImageCache;
+import de.tucottbus.kt.csl.lcars.geometry.rendering.SensitivityImageKey;
 import de.tucottbus.kt.lcars.geometry.AGeometry;
-import de.tucottbus.kt.lcars.geometry.rendering.GeometryImageCache;
 
 /**
  * Geometry of a 2D spatial sensitivity plot of the CSL microphone array. The
@@ -74,6 +75,12 @@ public class GSensitivityPlot extends AGeometry implements ISensitivityRendererC
    */
   private transient ISensitivityRenderer renderer;
   
+  /**
+   * Key of the current plot image in the {@link SensitivityImageCache}, 
+   * <code>null</code> if not yet computed.
+   */
+  private transient SensitivityImageKey imageCacheKey;
+  
   // -- Life cycle
   
   /**
@@ -108,12 +115,6 @@ public class GSensitivityPlot extends AGeometry implements ISensitivityRendererC
     this.freq      = 1000;   
   }
 
-  @Override
-  protected void finalize() throws Throwable
-  {
-    GeometryImageCache.removeImage(getImageCacheKey());
-  }
-  
   // -- Getters and setters --
   
   /**
@@ -205,7 +206,7 @@ public class GSensitivityPlot extends AGeometry implements ISensitivityRendererC
     if (state==null || state.equals(this.state))
       return;
     this.state = state;
-    GeometryImageCache.removeImage(getImageCacheKey());
+    invalidateImage();
   }
   
   /**
@@ -228,7 +229,7 @@ public class GSensitivityPlot extends AGeometry implements ISensitivityRendererC
     if (this.slicePos==slicePosNew)
       return;
     this.slicePos = slicePosNew;
-    GeometryImageCache.removeImage(getImageCacheKey());
+    invalidateImage();
   }
   
   /**
@@ -251,7 +252,7 @@ public class GSensitivityPlot extends AGeometry implements ISensitivityRendererC
       return;
 
     this.freq = Math.max(freq, 0.1f);
-    GeometryImageCache.removeImage(getImageCacheKey());
+    invalidateImage();
   }
   
   /**
@@ -278,7 +279,8 @@ public class GSensitivityPlot extends AGeometry implements ISensitivityRendererC
       }
     
     // Render sensitivity plot if image cache is empty
-    Image image = GeometryImageCache.getImage(getImageCacheKey());
+    SensitivityImageCache cache = SensitivityImageCache.getInstance();
+    Image image = cache.getImage(getImageCacheKey());
     if (image==null)
     {
       int width = getDefaultSize().width;
@@ -289,7 +291,7 @@ public class GSensitivityPlot extends AGeometry implements ISensitivityRendererC
       imageData.setPixels(0,0,width*height,pixels,0);
       image = new Image(gc.getDevice(),imageData);
       
-      GeometryImageCache.putImage(getImageCacheKey(),image);
+      cache.putImage(getImageCacheKey(),image);
     }
     
     // Draw sensitivity plot
@@ -303,22 +305,31 @@ public class GSensitivityPlot extends AGeometry implements ISensitivityRendererC
   }
 
   /**
-   * Returns a key for the global rendered image cache.
+   * Returns a key for the global rendered image cache. The key is computed
+   * once and reused until the plot parameters change.
    * 
-   * @see GeometryImageCache#putImage(Object, Image)
-   * @see GeometryImageCache#getImage(Object)
+   * @see SensitivityImageCache#putImage(SensitivityImageKey, Image)
+   * @see SensitivityImageCache#getImage(SensitivityImageKey)
+   */
+  protected SensitivityImageKey getImageCacheKey()
+  {
+    if (imageCacheKey==null)
+    {
+      Dimension dim = getDefaultSize();
+      imageCacheKey = new SensitivityImageKey(state,freq,sliceType,slicePos,
+          dim.width,dim.height);
+    }
+    return imageCacheKey;
+  }
+
+  /**
+   * Removes the current plot image from the global rendered image cache and
+   * discards the cache key.
    */
-  protected Object getImageCacheKey()
+  protected void invalidateImage()
   {
-    String key = getClass().getName()+"[";
-    key += state.toString();
-    key += ", "+freq;
-    key += ", "+sliceType;
-    key += ", "+slicePos;
-    key += ", "+getDefaultSize().width;
-    key += ", "+getDefaultSize().height;
-    key += "]";
-    return key;
+    SensitivityImageCache.getInstance().removeImage(imageCacheKey);
+    imageCacheKey = null;
   }
 
 }
@@ -1,9 +1,14 @@
 package de.tucottbus.kt.csl.lcars.geometry.rendering;
 
-import static org.bridj.Pointer.pointerToFloats;
-
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.bridj.Pointer;
 
@@ -15,6 +20,8 @@ import com.nativelibs4java.opencl.CLMem.Usage;
 import com.nativelibs4java.opencl.CLQueue;
 import com.nativelibs4java.opencl.JavaCL;
 
+import de.tucottbus.kt.csl.hardware.metrics.LatencyHistogram;
+import de.tucottbus.kt.csl.hardware.metrics.MetricsRegistry;
 import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayState;
 import de.tucottbus.kt.lcars.logging.Log;
 
@@ -26,6 +33,17 @@ import de.tucottbus.kt.lcars.logging.Log;
  * <ul>
  *   <li>TODO: Respect gains computing sensitivity plot
  *     </li>
+ *   <li>Device buffers are pooled and reused across frames. Input buffers are
+ *     only uploaded if the {@link MicArrayState} instance changed, output
+ *     buffers and images are pooled by size.</li>
+ *   <li>Uploading, rendering and reading back are enqueued asynchronously and
+ *     chained by events. Callers rendering several slices may {@linkplain
+ *     #enqueueIntArray(MicArrayState, float, int, int, int, int) enqueue} all
+ *     of them before {@linkplain RenderJob#get() collecting} the results, so
+ *     the uploads and renderings overlap.</li>
+ *   <li>On devices without double precision support, the program is built
+ *     in single precision (see {@link
+ *     CLSensitivityRendererProgram#isDoublePrecision()}).</li>
  * </ul>
  * 
  * @author Martin Birth, BTU Cottbus-Senftenberg
@@ -35,6 +53,12 @@ public class CLSensitivityRenderer implements ISensitivityRenderer
 {
   // -- Fields --
   
+  /**
+   * Durations of rendering one plot, from enqueuing to reading back.
+   */
+  private static final LatencyHistogram frameTime 
+    = MetricsRegistry.getComponent("SensitivityRenderer").histogram("cl.frame.time");
+  
   /**
    * The openCL user program.
    */
@@ -50,6 +74,23 @@ public class CLSensitivityRenderer implements ISensitivityRenderer
    */
   private CLQueue queue;
 
+  /**
+   * Idle input buffer sets.
+   */
+  private final ArrayDeque<InputBuffers> inputPool = new ArrayDeque<InputBuffers>();
+
+  /**
+   * Idle output buffers by number of pixels.
+   */
+  private final Map<Integer,ArrayDeque<OutputBuffer>> outputPool
+    = new HashMap<Integer,ArrayDeque<OutputBuffer>>();
+
+  /**
+   * Idle output images by size.
+   */
+  private final Map<Long,ArrayDeque<CLImage2D>> imagePool
+    = new HashMap<Long,ArrayDeque<CLImage2D>>();
+
   // -- Life cycle --
   
   /**
@@ -69,26 +110,32 @@ public class CLSensitivityRenderer implements ISensitivityRenderer
       throws IOException
   {
     if (singleton==null)
-      singleton = new CLSensitivityRenderer();
+      singleton = new CLSensitivityRenderer(true);
     return singleton;
   }
   
   /**
    * Creates an new openCL-based renderer for 2D spatial sensitivity plots of
-   * the CSL microphone array.
+   * the CSL microphone array. Besides the {@linkplain #getInstance() singleton},
+   * tests create instances forcing single precision.
    * 
+   * @param allowDoublePrecision
+   *          If <code>false</code>, the renderer computes in single precision
+   *          even if the device supports double precision.
    * @throws IOException
    *           If openCL is not available or initialization failed. In such
    *           cases the alternative {@link CpuSensitivityRenderer} may be used.
    */
-  private CLSensitivityRenderer() throws IOException
+  CLSensitivityRenderer(boolean allowDoublePrecision) throws IOException
   {
     try
     {
       this.context = JavaCL.createBestContext().createDefaultQueue().getContext(); 
-      this.program = new CLSensitivityRendererProgram(this.context);
+      this.program = new CLSensitivityRendererProgram(this.context,allowDoublePrecision);
       this.queue   = this.context.createDefaultOutOfOrderQueue();
-      Log.info("Created openCL sensitivity plot renderer");
+      Log.info("Created openCL sensitivity plot renderer on "
+        + context.getDevices()[0].getName() + " ("
+        + (program.isDoublePrecision() ? "double" : "single") + " precision)");
     }
     catch (IOException e)
     {
@@ -102,6 +149,20 @@ public class CLSensitivityRenderer implements ISensitivityRenderer
   {
     Log.info("Finalizing openCL sensitivity plot renderer");
     
+    synchronized (this)
+    {
+      for (InputBuffers ib : inputPool)
+        ib.release();
+      inputPool.clear();
+      for (ArrayDeque<OutputBuffer> pool : outputPool.values())
+        for (OutputBuffer ob : pool)
+          ob.release();
+      outputPool.clear();
+      for (ArrayDeque<CLImage2D> pool : imagePool.values())
+        for (CLImage2D img : pool)
+          img.release();
+      imagePool.clear();
+    }
     if (queue!=null)
     {
       queue.release();
@@ -126,6 +187,26 @@ public class CLSensitivityRenderer implements ISensitivityRenderer
   {
     return true;
   }
+
+  /**
+   * Determines if this renderer computes in double precision.
+   */
+  public boolean isDoublePrecision()
+  {
+    checkNotDisposed();
+    return program.isDoublePrecision();
+  }
+
+  /**
+   * Determines if {@link #renderImage(MicArrayState, float, int, int, int, int)
+   * renderImage} renders to an openCL image. If not, it converts a rendered
+   * integer array.
+   */
+  boolean hasImageSupport()
+  {
+    checkNotDisposed();
+    return CLUtils.hasImageSupport(context);
+  }
   
   @Override
   public BufferedImage renderImage
@@ -138,62 +219,37 @@ public class CLSensitivityRenderer implements ISensitivityRenderer
     int           height
   ) throws IllegalStateException
   {
-    if (program==null || context==null || queue==null)
-      throw new IllegalStateException("Renderer is disposed");
-    
-    BufferedImage img = null;
-    int[] globalWorkSizes = new int[] { width , height };
-    
-    // Allocate buffers
-    CLBuffer<Double> micPosBuff = CLUtils.point3dToBuffer(context,mas.positions);
-    CLBuffer<Byte> micsActiveBuff = CLUtils.booleanToClBuffer(context,mas.activeMics);
-    CLBuffer<Float> steerBuff = context.createBuffer(Usage.Input,pointerToFloats(mas.steerVec), true);
-
-    if (CLUtils.hasImageSupport(context)) 
-    {
-      // Use kernel with image support
-      BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-      CLImage2D outImg = context.createImage2D(Usage.Output, image, false);
-      CLEvent event 
-        = program.updateImageParams(queue, micPosBuff, micsActiveBuff, steerBuff, freq, sliceType, slicePos, outImg, globalWorkSizes);
-      
-      synchronized(this)
-      {
-        img = outImg.read(queue, event);
-      }
-      
-      outImg.release();
-      if (event!=null)
-        event.release();
-    } 
-    else 
+    checkNotDisposed();
+    if (!CLUtils.hasImageSupport(context))
     {
       // Use kernel without image support and generate a int[] array with RGB values
-      CLBuffer<Integer> outputBuffer = context.createBuffer(Usage.Output,Integer.class, width * height);
-      Pointer<Integer> outPtr;
-      CLEvent event 
-        = program.updateIntArrayParams(queue, micPosBuff, micsActiveBuff, steerBuff, freq, sliceType, slicePos, width, height, outputBuffer, globalWorkSizes);
-      
-      synchronized(this)
-      {
-        outPtr = outputBuffer.read(queue, event);
-      }
-      
-      int[] rgbaData = outPtr.getInts();
-      img = CLUtils.pixelsToBufferedImage(rgbaData, width, height);
+      int[] rgbaData = renderIntArray(mas,freq,sliceType,slicePos,width,height);
+      return CLUtils.pixelsToBufferedImage(rgbaData,width,height);
+    }
 
-      outPtr.release();
-      outputBuffer.release();
-      if (event!=null)
-        event.release();
+    // Use kernel with image support
+    long t0 = System.nanoTime();
+    InputBuffers in = acquireInputBuffers(mas);
+    CLImage2D outImg = acquireImage(width,height);
+    List<CLEvent> events = new ArrayList<CLEvent>(4);
+    try
+    {
+      CLEvent[] uploads = in.upload(queue,mas);
+      addAll(events,uploads);
+      CLEvent event = program.updateImageParams(queue, in.micPos, in.micsActive, 
+          in.steer, freq, sliceType, slicePos, outImg, new int[] { width, height }, 
+          uploads);
+      addAll(events,event);
+      BufferedImage image = outImg.read(queue, event);
+      frameTime.recordSince(t0);
+      return image;
+    }
+    finally
+    {
+      releaseAll(events);
+      releaseInputBuffers(in);
+      releaseImage(width,height,outImg);
     }
-    
-    // Clean-up
-    micPosBuff.release();
-    micsActiveBuff.release();
-    steerBuff.release();
-    
-    return img;
   }
   
   @Override
@@ -206,42 +262,324 @@ public class CLSensitivityRenderer implements ISensitivityRenderer
     int           width, 
     int           height
   ) throws IllegalStateException
+  {
+    return enqueueIntArray(mas,freq,sliceType,slicePos,width,height).get();
+  }
+
+  // -- Asynchronous rendering --
+
+  /**
+   * Enqueues rendering a 2D sensitivity plot to an integer array of RGBA
+   * values and returns immediately. The parameters are the same as of {@link
+   * #renderIntArray(MicArrayState, float, int, int, int, int)
+   * renderIntArray}. The pooled device buffers of the job are returned to the
+   * pool by {@link RenderJob#get()}, which must therefore be called for every
+   * job.
+   * 
+   * @return The render job.
+   * @throws IllegalStateException If the renderer is disposed.
+   */
+  public RenderJob enqueueIntArray
+  (
+    MicArrayState mas, 
+    float         freq,
+    int           sliceType, 
+    int           slicePos, 
+    int           width, 
+    int           height
+  ) throws IllegalStateException
+  {
+    checkNotDisposed();
+    InputBuffers in = acquireInputBuffers(mas);
+    OutputBuffer out = acquireOutputBuffer(width*height);
+    RenderJob job = new RenderJob(in,out);
+    try
+    {
+      CLEvent[] uploads = in.upload(queue,mas);
+      addAll(job.events,uploads);
+      CLEvent rendered = program.updateIntArrayParams(queue, in.micPos,
+          in.micsActive, in.steer, freq, sliceType, slicePos, width, height, 
+          out.buffer, new int[] { width, height }, uploads);
+      addAll(job.events,rendered);
+      job.read = out.buffer.read(queue, out.host, false, nonNull(rendered));
+      addAll(job.events,job.read);
+    }
+    catch (RuntimeException e)
+    {
+      job.dispose();
+      throw e;
+    }
+    return job;
+  }
+
+  /**
+   * A sensitivity plot being rendered asynchronously.
+   * 
+   * @see CLSensitivityRenderer#enqueueIntArray(MicArrayState, float, int, int, int, int)
+   */
+  public final class RenderJob
+  {
+    private final InputBuffers in;
+    private final OutputBuffer out;
+    private final List<CLEvent> events = new ArrayList<CLEvent>(6);
+    private CLEvent read;
+    private final long t0 = System.nanoTime();
+    private int[] pixels;
+    private boolean disposed;
+
+    private RenderJob(InputBuffers in, OutputBuffer out)
+    {
+      this.in = in;
+      this.out = out;
+    }
+
+    /**
+     * Waits until the plot is rendered and returns it. Can be called any
+     * number of times.
+     * 
+     * @return An array of RGBA-pixels arranged by scan-lines.
+     */
+    public synchronized int[] get()
+    {
+      if (pixels==null)
+      {
+        if (disposed)
+          throw new IllegalStateException("Render job failed");
+        try
+        {
+          if (read!=null)
+            read.waitFor();
+          pixels = out.host.getInts();
+          frameTime.recordSince(t0);
+        }
+        finally
+        {
+          dispose();
+        }
+      }
+      return pixels;
+    }
+
+    private void dispose()
+    {
+      if (disposed)
+        return;
+      disposed = true;
+      releaseAll(events);
+      releaseInputBuffers(in);
+      releaseOutputBuffer(out);
+    }
+  }
+
+  // -- Buffer pools --
+
+  private void checkNotDisposed() throws IllegalStateException
   {
     if (program==null || context==null || queue==null)
       throw new IllegalStateException("Renderer is disposed");
+  }
 
-    int[] globalWorkSizes = new int[] { width , height };
+  /**
+   * Takes an input buffer set from the pool, preferably one already holding
+   * the data of a microphone array state.
+   */
+  private synchronized InputBuffers acquireInputBuffers(MicArrayState mas)
+  {
+    for (Iterator<InputBuffers> it = inputPool.iterator(); it.hasNext(); )
+    {
+      InputBuffers ib = it.next();
+      if (ib.state==mas)
+      {
+        it.remove();
+        return ib;
+      }
+    }
+    if (!inputPool.isEmpty())
+      return inputPool.pollLast();
+    return new InputBuffers(context,program.isDoublePrecision(),mas.positions.length);
+  }
 
-    // Allocate buffers
-    CLBuffer<Double> micPosBuff = CLUtils.point3dToBuffer(context,mas.positions);
-    CLBuffer<Byte> micsActiveBuff = CLUtils.booleanToClBuffer(context,mas.activeMics);
-    CLBuffer<Float> steerBuff = context.createBuffer(Usage.Input, pointerToFloats(mas.steerVec), true);
+  private synchronized void releaseInputBuffers(InputBuffers ib)
+  {
+    inputPool.addLast(ib);
+  }
+
+  private synchronized OutputBuffer acquireOutputBuffer(int size)
+  {
+    ArrayDeque<OutputBuffer> pool = outputPool.get(size);
+    if (pool!=null && !pool.isEmpty())
+      return pool.pollLast();
+    return new OutputBuffer(context,size);
+  }
+
+  private synchronized void releaseOutputBuffer(OutputBuffer ob)
+  {
+    ArrayDeque<OutputBuffer> pool = outputPool.get(ob.size);
+    if (pool==null)
+      outputPool.put(ob.size,pool = new ArrayDeque<OutputBuffer>());
+    pool.addLast(ob);
+  }
+
+  private synchronized CLImage2D acquireImage(int width, int height)
+  {
+    ArrayDeque<CLImage2D> pool = imagePool.get(((long)width<<32)|height);
+    if (pool!=null && !pool.isEmpty())
+      return pool.pollLast();
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    return context.createImage2D(Usage.Output, image, false);
+  }
 
-    CLBuffer<Integer> outputBuffer 
-      = context.createBuffer(Usage.Output, Integer.class, width * height);
-    CLEvent event 
-      = program.updateIntArrayParams(queue, micPosBuff, micsActiveBuff, steerBuff, freq, sliceType, slicePos, width, height, outputBuffer, globalWorkSizes);
+  private synchronized void releaseImage(int width, int height, CLImage2D img)
+  {
+    Long key = ((long)width<<32)|height;
+    ArrayDeque<CLImage2D> pool = imagePool.get(key);
+    if (pool==null)
+      imagePool.put(key,pool = new ArrayDeque<CLImage2D>());
+    pool.addLast(img);
+  }
+
+  private static CLEvent[] nonNull(CLEvent... events)
+  {
+    int n = 0;
+    for (CLEvent e : events)
+      if (e!=null)
+        n++;
+    CLEvent[] result = new CLEvent[n];
+    n = 0;
+    for (CLEvent e : events)
+      if (e!=null)
+        result[n++] = e;
+    return result;
+  }
+
+  private static void addAll(List<CLEvent> list, CLEvent... events)
+  {
+    for (CLEvent e : events)
+      if (e!=null)
+        list.add(e);
+  }
 
-    // Do openCL rendering
-    Pointer<Integer> outPtr;
-    synchronized(this)
+  private static void releaseAll(List<CLEvent> events)
+  {
+    for (CLEvent e : events)
+      e.release();
+    events.clear();
+  }
+
+  /**
+   * Device buffers of the microphone positions, activation states and
+   * steering vector plus the host memory they are uploaded from.
+   */
+  private static final class InputBuffers
+  {
+    final CLBuffer<?>     micPos;
+    final CLBuffer<Byte>  micsActive;
+    final CLBuffer<Float> steer;
+    final Pointer<?>      micPosHost;
+    final Pointer<Byte>   micsActiveHost;
+    final Pointer<Float>  steerHost;
+    final int             channels;
+
+    /**
+     * The microphone array state uploaded last.
+     */
+    MicArrayState state;
+
+    InputBuffers(CLContext context, boolean doublePrecision, int channels)
     {
-      outPtr = outputBuffer.read(queue, event);
+      ByteOrder bo = context.getKernelsDefaultByteOrder();
+      this.channels = channels;
+      if (doublePrecision)
+      {
+        micPosHost = Pointer.allocateDoubles(channels*3).order(bo);
+        micPos = context.createBuffer(Usage.Input, Double.class, channels*3);
+      }
+      else
+      {
+        micPosHost = Pointer.allocateFloats(channels*3).order(bo);
+        micPos = context.createBuffer(Usage.Input, Float.class, channels*3);
+      }
+      micsActiveHost = Pointer.allocateBytes(channels).order(bo);
+      micsActive = context.createByteBuffer(Usage.Input, channels);
+      steerHost = Pointer.allocateFloats(channels).order(bo);
+      steer = context.createBuffer(Usage.Input, Float.class, channels);
+    }
+
+    /**
+     * Enqueues uploading a microphone array state unless it is already on the
+     * device.
+     * 
+     * @return The upload events, empty if nothing was uploaded.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    CLEvent[] upload(CLQueue queue, MicArrayState mas)
+    {
+      if (mas==state)
+        return new CLEvent[0];
+      if (mas.positions.length!=channels)
+        throw new IllegalArgumentException("Invalid number of microphones "+mas.positions.length);
+
+      state = null;
+      for (int i=0; i<channels; i++)
+      {
+        if (micPosHost.getTargetType()==Double.class)
+        {
+          ((Pointer<Double>)micPosHost).setDoubleAtIndex(i*3  , mas.positions[i].getX());
+          ((Pointer<Double>)micPosHost).setDoubleAtIndex(i*3+1, mas.positions[i].getY());
+          ((Pointer<Double>)micPosHost).setDoubleAtIndex(i*3+2, mas.positions[i].getZ());
+        }
+        else
+        {
+          ((Pointer<Float>)micPosHost).setFloatAtIndex(i*3  , (float)mas.positions[i].getX());
+          ((Pointer<Float>)micPosHost).setFloatAtIndex(i*3+1, (float)mas.positions[i].getY());
+          ((Pointer<Float>)micPosHost).setFloatAtIndex(i*3+2, (float)mas.positions[i].getZ());
+        }
+        micsActiveHost.setByteAtIndex(i, mas.activeMics[i] ? (byte)1 : (byte)0);
+        steerHost.setFloatAtIndex(i, mas.steerVec[i]);
+      }
+      CLEvent[] events = nonNull(
+        ((CLBuffer)micPos).write(queue, (Pointer)micPosHost, false),
+        micsActive.write(queue, micsActiveHost, false),
+        steer.write(queue, steerHost, false));
+      state = mas;
+      return events;
+    }
+
+    void release()
+    {
+      micPos.release();
+      micsActive.release();
+      steer.release();
+      micPosHost.release();
+      micsActiveHost.release();
+      steerHost.release();
     }
-    int[] pixels = outPtr.getInts();
-    
-    // Release all buffers
-    if(event!=null)
-      event.release();
-    micPosBuff.release();
-    micsActiveBuff.release();
-    steerBuff.release();
-    outPtr.release();
-    outputBuffer.release();
-    
-    return pixels;
   }
-  
+
+  /**
+   * A device buffer receiving a rendered plot plus the host memory it is read
+   * back to.
+   */
+  private static final class OutputBuffer
+  {
+    final int               size;
+    final CLBuffer<Integer> buffer;
+    final Pointer<Integer>  host;
+
+    OutputBuffer(CLContext context, int size)
+    {
+      this.size = size;
+      buffer = context.createBuffer(Usage.Output, Integer.class, size);
+      host = Pointer.allocateInts(size).order(context.getKernelsDefaultByteOrder());
+    }
+
+    void release()
+    {
+      buffer.release();
+      host.release();
+    }
+  }
+
 }
 
 // EOF
@@ -6,51 +6,65 @@
  * @author Matthias Wolff, BTU Cottbus-Senftenberg (revision)
  */
 
-// set openCL flags for graphic cards
-#ifdef cl_khr_fp64
+// Select the floating point precision: double if the device supports it,
+// single if it does not or if the host defines CSL_FP32. The host must pass
+// the microphone positions in the same precision.
+#if defined(CSL_FP32)
+ typedef float real;
+#elif defined(cl_khr_fp64)
  #pragma OPENCL EXTENSION cl_khr_fp64 : enable
+ typedef double real;
 #elif defined(cl_amd_fp64)
  #pragma OPENCL EXTENSION cl_amd_fp64 : enable
+ typedef double real;
 #else
- #error "Double precision floating point not supported by OpenCL implementation."
+ #define CSL_FP32
+ typedef float real;
 #endif
 
 // -- DSB beamformer sensitivity computation --
 
 __constant int CHANNELS = 64;
-__constant double SPEED_OF_SOUND = 343.2;
+#ifdef CSL_FP32
+ #define PI_REAL M_PI_F
+ __constant real SPEED_OF_SOUND = 343.2f;
+#else
+ #define PI_REAL M_PI
+ __constant real SPEED_OF_SOUND = 343.2;
+#endif
 
-double getDelayFromMicToPoint
+real getDelayFromMicToPoint
 (
-  __global double* mics, 
-  double           x, 
-  double           y, 
-  double           z, 
-  int              n
+  __global real* mics, 
+  real           x, 
+  real           y, 
+  real           z, 
+  int            n
 )
 {
   int i = n*3;
-  double u = (mics[i]   - x)*(mics[i]   - x);
-  double v = (mics[i+1] - y)*(mics[i+1] - y);
-  double w = (mics[i+2] - z)*(mics[i+2] - z);
+  real u = (mics[i]   - x)*(mics[i]   - x);
+  real v = (mics[i+1] - y)*(mics[i+1] - y);
+  real w = (mics[i+2] - z)*(mics[i+2] - z);
   return (sqrt(u+v+w)/100)/SPEED_OF_SOUND;
 }
 
-double getDbValue
+real getDbValue
 (
-  double           x, 
-  double           y, 
-  double           z, 
-  float            freq, 
-  __global double* mics,
-  __global char*   micsActive, 
-  __global float*  steerVec
+  real            x, 
+  real            y, 
+  real            z, 
+  float           freq, 
+  __global real*  mics,
+  __global char*  micsActive, 
+  __global float* steerVec
 )
 {
-  double delta = 0;
-  double tau = 0;
-  double a_n = 1, w_n = 1;
-  double sum = 0, sumRe = 0, sumIm = 0;
+  real delta = 0;
+  real tau = 0;
+  real turns = 0;
+  real a_n = 1, w_n = 1;
+  real sum = 0, sumRe = 0, sumIm = 0;
   int k = 0;
     
   for (int n = 0; n < CHANNELS; n++) 
@@ -61,7 +75,9 @@ double getDbValue
     }
     k++;
     tau = getDelayFromMicToPoint(mics,x,y,z,n);
-    delta = 2 * M_PI * freq * (steerVec[n] + tau);
+    // Phase reduced to one period, keeps the arguments of sin and cos small
+    turns = freq * (steerVec[n] + tau);
+    delta = 2 * PI_REAL * (turns - floor(turns));
     sumRe += w_n * a_n * cos(delta);
     sumIm += w_n * a_n * sin(delta);
   }
@@ -69,21 +85,21 @@ double getDbValue
   return 20 * log10(sum);
 }
 
-double getDbFromPixel
+real getDbFromPixel
 (
-  int              x, 
-  int              y, 
-  int              sliceSelect, 
-  int              slicePos, 
-  float            freq, 
-  __global double* mics, 
-  __global char*   micsActive, 
-  __global float*  steerVec, 
-  int              width, 
-  int              height
+  int             x, 
+  int             y, 
+  int             sliceSelect, 
+  int             slicePos, 
+  float           freq, 
+  __global real*  mics, 
+  __global char*  micsActive, 
+  __global float* steerVec, 
+  int             width, 
+  int             height
 )
 {
-  double xPos = 0, yPos = 0, zPos=0;
+  real xPos = 0, yPos = 0, zPos=0;
   if (sliceSelect==1)
   { // XY
     xPos = x - (width/2);
@@ -107,8 +123,8 @@ double getDbFromPixel
 
 // -- Color mapping --
 
-__constant float COL = 50.0/255;
-float4 getColor(double dbIn) 
+__constant float COL = 50.0f/255;
+float4 getColor(real dbIn) 
 {
   float db = (float)((dbIn>0) ? 0 : ((dbIn< -36) ? -36 : dbIn));
     
@@ -120,10 +136,10 @@ float4 getColor(double dbIn)
   else if (db >= -12) 
   {
     db = -(db + 4)/8;
-    return (float4)(1 - db, 0.5 + (0.5 * (1 - db)), db, 1);
+    return (float4)(1 - db, 0.5f + (0.5f * (1 - db)), db, 1);
   } else if (db >= -36) 
   {
-    db = 0.5+((db + 12) / 48);
+    db = 0.5f+((db + 12) / 48);
     return (float4)(0, db, db+db , 1);
   }
 }
@@ -137,9 +153,9 @@ __constant int R_SHIFT = 8;
 __constant int G_SHIFT = 16;
 __constant int B_SHIFT = 24;
 
-int getIntColor(double dbIn) 
+int getIntColor(real dbIn) 
 {
-  double db = (dbIn>0) ? 0 : ((dbIn< -36) ? -36 : dbIn);
+  real db = (dbIn>0) ? 0 : ((dbIn< -36) ? -36 : dbIn);
   if (db >= -4) 
   {
     db = -db*NORM1;
@@ -153,12 +169,12 @@ int getIntColor(double dbIn)
     db = -(db+4)*NORM2;
    return 255                       << A_SHIFT
         | (int)(255-db)             << R_SHIFT
-        | (int)(127.5+0.5*(255-db)) << G_SHIFT
+        | (int)(127.5f+0.5f*(255-db)) << G_SHIFT
         | (int)(db)                 << B_SHIFT;
   } 
   else if (db >= -36) 
   {
-    db = 127.5+(db+12)*NORM3;
+    db = 127.5f+(db+12)*NORM3;
     return 255          << A_SHIFT
          |  0           << R_SHIFT
          | (int)(db)    << G_SHIFT
@@ -175,7 +191,7 @@ __kernel void getSensitivityIntArray
   int              slicePos, 
   int              width, 
   int              height, 
-  __global double* mics, 
+  __global real*   mics, 
   __global char*   micsActive, 
   __global float*  steerVec, 
   __global int*    out
@@ -183,7 +199,7 @@ __kernel void getSensitivityIntArray
 {
   int x = get_global_id(0);
   int y = get_global_id(1);
-  double db = getDbFromPixel(x,y,sliceSelect,slicePos,freq,mics,micsActive,steerVec,width,height);
+  real db = getDbFromPixel(x,y,sliceSelect,slicePos,freq,mics,micsActive,steerVec,width,height);
   out[x+y*width] = getIntColor(db);
 }
 
@@ -192,7 +208,7 @@ __kernel void getSensitivityImage
   float                  freq, 
   int                    sliceSelect, 
   int                    slicePos, 
-  __global double*       mics, 
+  __global real*         mics, 
   __global char*         micsActive, 
   __global float*        steerVec, 
   __write_only image2d_t outImg
@@ -202,7 +218,7 @@ __kernel void getSensitivityImage
   int height = get_image_height(outImg);  
   int x = get_global_id(0);
   int y = get_global_id(1);
-  double db = getDbFromPixel(x, y, sliceSelect, slicePos, freq, mics, micsActive, steerVec, width, height);
+  real db = getDbFromPixel(x, y, sliceSelect, slicePos, freq, mics, micsActive, steerVec, width, height);
   write_imagef(outImg, (int2){x,y}, getColor(db));
 }
 
@@ -6,6 +6,7 @@ import com.nativelibs4java.opencl.CLAbstractUserProgram;
 import com.nativelibs4java.opencl.CLBuffer;
 import com.nativelibs4java.opencl.CLBuildException;
 import com.nativelibs4java.opencl.CLContext;
+import com.nativelibs4java.opencl.CLDevice;
 import com.nativelibs4java.opencl.CLEvent;
 import com.nativelibs4java.opencl.CLImage2D;
 import com.nativelibs4java.opencl.CLKernel;
@@ -17,6 +18,10 @@ import com.nativelibs4java.opencl.CLQueue;
  * kernels}, one for rendering to an {@linkplain #imageKernel openCL 2D image}
  * and the other for rendering to an {@linkplain #intArrayKernel integer array}.
  * 
+ * <p>The program computes in double precision if all devices of the context
+ * support it and in single precision otherwise (macro <code>CSL_FP32</code>).
+ * In the latter case the microphone positions must be passed as floats.</p>
+ * 
  * @author Martin Birth, BTU Cottbus-Senftenberg
  * @author Matthias Wolff, BTU Cottbus-Senftenberg (revision)
  */
@@ -39,6 +44,11 @@ public class CLSensitivityRendererProgram extends CLAbstractUserProgram
    */
   private boolean isReleased = false;
   
+  /**
+   * Flag indicating that the kernels compute in double precision.
+   */
+  private final boolean doublePrecision;
+  
   // -- Life cycle --
   
   /**
@@ -50,8 +60,32 @@ public class CLSensitivityRendererProgram extends CLAbstractUserProgram
    *          If openCL initialization failed.
    */
   public CLSensitivityRendererProgram(CLContext context) throws IOException
+  {
+    this(context,true);
+  }
+
+  /**
+   * Creates a sensitivity rendering program from an openCL context, optionally
+   * forcing single precision.
+   * 
+   * @param context
+   *          The openCL context.
+   * @param allowDoublePrecision
+   *          If <code>false</code>, the program computes in single precision
+   *          even if all devices support double precision.
+   * @throws IOException
+   *          If openCL initialization failed.
+   */
+  public CLSensitivityRendererProgram(CLContext context, boolean allowDoublePrecision)
+  throws IOException
   {
     super(context, readRawSourceForClass(CLSensitivityRendererProgram.class));
+    boolean fp64 = allowDoublePrecision;
+    for (CLDevice device : context.getDevices())
+      fp64 &= device.isDoubleSupported();
+    this.doublePrecision = fp64;
+    if (!fp64)
+      getProgram().defineMacro("CSL_FP32", 1);
   }
 
   /**
@@ -74,6 +108,15 @@ public class CLSensitivityRendererProgram extends CLAbstractUserProgram
   
   // -- API --
 
+  /**
+   * Determines if the kernels compute in double precision. If not, the
+   * microphone positions must be passed as a buffer of floats.
+   */
+  public boolean isDoublePrecision()
+  {
+    return doublePrecision;
+  }
+
   /**
    * Sets new rendering parameters for the {@link #imageKernel} rendering to a
    * {@link CLImage2D 2D image}.
@@ -84,7 +127,8 @@ public class CLSensitivityRendererProgram extends CLAbstractUserProgram
    *          The microphone positions in the CSL coordinate system as, e.g.,
    *          obtained by
    *          {@link CLUtils#point3dToBuffer(CLContext, javax.vecmath.Point3d[])
-   *          CLUtils.getOpenClMicPositionBuffer(...)}
+   *          CLUtils.getOpenClMicPositionBuffer(...)}, doubles or floats
+   *          depending on {@link #isDoublePrecision()}.
    * @param micsActiveBuff
    *          Array of 64 bytes indicating the activation states of the
    *          microphones (0: off, 1: on).
@@ -107,7 +151,8 @@ public class CLSensitivityRendererProgram extends CLAbstractUserProgram
    *          width and height of the image to be rendered in pixels, e.g.
    *          <code>new int[] { imgW, imgH }</code>.
    * @param eventsToWaitFor
-   *          -- <i>not used</i> --
+   *          Events to complete before rendering starts, e.g. the uploads of
+   *          the input buffers.
    * @return OpenCL event indicating the progress of rendering.
    * @throws CLBuildException
    *           On rendering errors.
@@ -115,7 +160,7 @@ public class CLSensitivityRendererProgram extends CLAbstractUserProgram
   public synchronized CLEvent updateImageParams
   (
     CLQueue          commandQueue,
-    CLBuffer<Double> micPosBuff, 
+    CLBuffer<?>      micPosBuff, 
     CLBuffer<Byte>   micsActiveBuff,
     CLBuffer<Float>  steerBuff, 
     float            freq, 
@@ -150,7 +195,8 @@ public class CLSensitivityRendererProgram extends CLAbstractUserProgram
    *          The microphone positions in the CSL coordinate system as, e.g.,
    *          obtained by
    *          {@link CLUtils#point3dToBuffer(CLContext, javax.vecmath.Point3d[])
-   *          CLUtils.getOpenClMicPositionBuffer(...)}
+   *          CLUtils.getOpenClMicPositionBuffer(...)}, doubles or floats
+   *          depending on {@link #isDoublePrecision()}.
    * @param micsActiveBuff
    *          Array of 64 bytes indicating the activation states of the
    *          microphones (0: off, 1: on).
@@ -177,7 +223,8 @@ public class CLSensitivityRendererProgram extends CLAbstractUserProgram
    *          width and height of the image to be rendered in pixels, e.g.
    *          <code>new int[] { imgW, imgH }</code>.
    * @param eventsToWaitFor
-   *          -- <i>not used</i> --
+   *          Events to complete before rendering starts, e.g. the uploads of
+   *          the input buffers.
    * @return OpenCL event indicating the progress of rendering.
    * @throws CLBuildException
    *           On rendering errors.
@@ -185,7 +232,7 @@ public class CLSensitivityRendererProgram extends CLAbstractUserProgram
   public synchronized CLEvent updateIntArrayParams
   (
     CLQueue           commandQueue,
-    CLBuffer<Double>  micPosBuff, 
+    CLBuffer<?>       micPosBuff, 
     CLBuffer<Byte>    micsActiveBuff, 
     CLBuffer<Float>   steerBuff,
     float             freq, 
@@ -0,0 +1,201 @@
+package de.tucottbus.kt.csl.lcars.geometry.rendering;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.vecmath.Point3d;
+
+import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayState;
+import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb.Steering;
+import de.tucottbus.kt.csl.test.TestReport;
+
+/**
+ * Compares the {@link CLSensitivityRenderer} on the best available openCL
+ * device (e.g. pocl on a machine without GPU) with the {@link
+ * CpuSensitivityRenderer}, once in double and once in forced single
+ * precision. Covers all slice types, the integer array and the image path,
+ * and plots of two microphone array states enqueued before collecting them,
+ * so that the pooled device buffers are shared by jobs in flight. Exits with
+ * status 1 if no openCL device is available.
+ *
+ * <p>The CPU renderer computes in single precision with tabulated phasors, so
+ * a few pixels close to the steep sensitivity minima may differ. A pixel
+ * counts as different if a color channel differs by more than {@value
+ * #TOLERANCE}, and at most {@value #MAX_DIFFERENT} of the pixels of a plot
+ * may be different.</p>
+ */
+public class CLSensitivityRendererTest
+{
+  private static final int WIDTH = 300;
+
+  private static final int HEIGHT = 250;
+
+  private static final float[] FREQS = { 1000f, 4000f };
+
+  private static final int[] SLICES =
+    { ISensitivityRendererConstants.SLICE_XY, ISensitivityRendererConstants.SLICE_XZ,
+      ISensitivityRendererConstants.SLICE_YZ };
+
+  private static final int TOLERANCE = 3;
+
+  private static final double MAX_DIFFERENT = 0.005;
+
+  /**
+   * Bit positions of the red, green and blue bytes of the BGRA integers
+   * rendered by the integer array kernel and {@link
+   * SensitivityColorScheme#dbToBGRA(float)}.
+   */
+  private static final int[] BGRA_RGB = { 8, 16, 24 };
+
+  private static int slicePos(MicArrayState mas, int sliceType)
+  {
+    switch (sliceType)
+    {
+    case ISensitivityRendererConstants.SLICE_XY: return (int)mas.target.z;
+    case ISensitivityRendererConstants.SLICE_XZ: return (int)mas.target.y;
+    default                                    : return (int)mas.target.x;
+    }
+  }
+
+  /**
+   * Returns the fraction of pixels of which at least one of the color bytes
+   * at the given bit positions differs by more than {@link #TOLERANCE}.
+   */
+  private static double different(int[] expected, int[] actual, int[] shifts)
+  {
+    if (expected.length!=actual.length)
+      return 1;
+    int n = 0;
+    for (int i=0; i<expected.length; i++)
+      for (int shift : shifts)
+        if (Math.abs(((expected[i]>>>shift)&0xFF)-((actual[i]>>>shift)&0xFF))>TOLERANCE)
+        {
+          n++;
+          break;
+        }
+    return (double)n/expected.length;
+  }
+
+  private static boolean checkPixels(TestReport report, String name, int[] expected,
+      int[] actual, int[] shifts)
+  {
+    double d = different(expected,actual,shifts);
+    report.info("%s: %.3f%% of the pixels different",name,d*100);
+    return report.check(name,d<=MAX_DIFFERENT);
+  }
+
+  /**
+   * Checks one renderer against the CPU renderer.
+   */
+  private static void checkRenderer(TestReport report, CLSensitivityRenderer renderer,
+      String prec, MicArrayState[] states)
+  {
+    CpuSensitivityRenderer cpu = CpuSensitivityRenderer.getInstance();
+
+    // Enqueue all plots before collecting any
+    List<CLSensitivityRenderer.RenderJob> jobs = new ArrayList<CLSensitivityRenderer.RenderJob>();
+    for (MicArrayState mas : states)
+      for (float freq : FREQS)
+        for (int slice : SLICES)
+          jobs.add(renderer.enqueueIntArray(mas,freq,slice,slicePos(mas,slice),WIDTH,HEIGHT));
+
+    int j = 0;
+    List<int[]> results = new ArrayList<int[]>();
+    for (int m=0; m<states.length; m++)
+      for (float freq : FREQS)
+        for (int slice : SLICES)
+        {
+          MicArrayState mas = states[m];
+          int[] expected = cpu.renderIntArray(mas,freq,slice,slicePos(mas,slice),WIDTH,HEIGHT);
+          int[] actual = jobs.get(j++).get();
+          results.add(actual);
+          checkPixels(report,String.format("%s, state %d, %.0f Hz, slice %d",prec,m,freq,slice),
+            expected,actual,BGRA_RGB);
+        }
+
+    // Render again in reverse order, reusing the pooled buffers
+    boolean equal = true;
+    j = results.size();
+    for (int m=states.length-1; m>=0; m--)
+      for (int f=FREQS.length-1; f>=0; f--)
+        for (int s=SLICES.length-1; s>=0; s--)
+        {
+          MicArrayState mas = states[m];
+          int[] actual = renderer.renderIntArray(mas,FREQS[f],SLICES[s],
+            slicePos(mas,SLICES[s]),WIDTH,HEIGHT);
+          equal &= Arrays.equals(results.get(--j),actual);
+        }
+    report.check(prec+", pooled buffers reproduce plots",equal);
+
+    // Image path
+    MicArrayState mas = states[0];
+    int slice = ISensitivityRendererConstants.SLICE_XY;
+    int[] expected = cpu.renderIntArray(mas,FREQS[0],slice,slicePos(mas,slice),WIDTH,HEIGHT);
+    BufferedImage image = renderer.renderImage(mas,FREQS[0],slice,slicePos(mas,slice),WIDTH,HEIGHT);
+    int[] rgb = image.getRGB(0,0,WIDTH,HEIGHT,null,0,WIDTH);
+    if (renderer.hasImageSupport())
+    {
+      // ARGB image -> BGRA integers; the blue byte is not compared, as the
+      // integer packing wraps it above 255 whereas the image clamps it
+      int[] bgra = new int[rgb.length];
+      for (int i=0; i<rgb.length; i++)
+        bgra[i] = ((rgb[i]>>16)&0xFF)<<8 | ((rgb[i]>>8)&0xFF)<<16 | (rgb[i]&0xFF)<<24 | 0xFF;
+      checkPixels(report,prec+", image",expected,bgra,new int[] { 8, 16 });
+    }
+    else
+    {
+      int[] cpuRgb = cpu.renderImage(mas,FREQS[0],slice,slicePos(mas,slice),WIDTH,HEIGHT)
+        .getRGB(0,0,WIDTH,HEIGHT,null,0,WIDTH);
+      checkPixels(report,prec+", image (converted integer array)",cpuRgb,rgb,
+        new int[] { 0, 8, 16 });
+    }
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    TestReport report = new TestReport();
+
+    // Two microphone array states steered to different targets
+    MicArrayState mas0 = MicArrayState.getDummy();
+    MicArrayState mas1 = new MicArrayState(mas0);
+    mas1.target.set(new Point3d(mas0.target.x+50,mas0.target.y-80,mas0.target.z));
+    mas1.delays = Steering.getDelays(mas1.positions,mas1.target);
+    mas1.steerVec = Steering.getSteeringVectorFromDelays(mas1.delays);
+    for (int i=0; i<mas1.activeMics.length; i+=3)
+      mas1.activeMics[i] = false;
+    MicArrayState[] states = { mas0, mas1 };
+
+    for (boolean fp64 : new boolean[] { true, false })
+    {
+      CLSensitivityRenderer renderer;
+      try
+      {
+        renderer = new CLSensitivityRenderer(fp64);
+      }
+      catch (Throwable e)
+      {
+        report.info("%s",e);
+        report.check("openCL device available",false);
+        break;
+      }
+      try
+      {
+        String prec = renderer.isDoublePrecision() ? "fp64" : "fp32";
+        if (fp64 && !renderer.isDoublePrecision())
+          report.info("device does not support double precision");
+        checkRenderer(report,renderer,prec,states);
+      }
+      finally
+      {
+        renderer.finalize();
+      }
+    }
+
+    report.exit();
+  }
+
+}
+
+// EOF
@@ -1,11 +1,15 @@
 package de.tucottbus.kt.csl.lcars.geometry.rendering;
 
 import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.vecmath.Point3d;
 
+import de.tucottbus.kt.csl.hardware.audio.input.AudioInputConstants;
+import de.tucottbus.kt.csl.hardware.metrics.LatencyHistogram;
+import de.tucottbus.kt.csl.hardware.metrics.MetricsRegistry;
 import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayState;
-import de.tucottbus.kt.csl.hardware.micarray3d.beamformer.dsb.Steering;
 import de.tucottbus.kt.lcars.logging.Log;
 
 /**
@@ -13,6 +17,18 @@ import de.tucottbus.kt.lcars.logging.Log;
  * implementation uses the CPU and should only be used if
  * {@link CLSensitivityRenderer} is unavailable.
  * 
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The image is split into tiles rendered in parallel by the common
+ *     {@link ForkJoinPool}.</li>
+ *   <li>Positions, steering delays and gains of the active microphones are
+ *     kept in flat float arrays, computed once per {@link MicArrayState}
+ *     instance.</li>
+ *   <li>The phase terms are not computed by trigonometric functions but by
+ *     rotating a coarse unit phasor by a fine one, both taken from tables of
+ *     256 entries. The phase resolution is 2&pi;/65536.</li>
+ * </ul>
+ * 
  * @author Martin Birth, BTU Cottbus-Senftenberg
  * @author Matthias Wolff, BTU Cottbus-Senftenberg (revision)
  */
@@ -22,12 +38,56 @@ public class CpuSensitivityRenderer implements ISensitivityRenderer
   
   private final static double PI_DOUBLE = 2 * Math.PI;
 
+  /**
+   * Edge length of the tiles rendered by one task (in pixels).
+   */
+  private final static int TILE_SIZE = 64;
+
+  /**
+   * Phase resolution, 2&pi; = 2<sup>PHASE_BITS</sup>.
+   */
+  private final static int PHASE_BITS = 16;
+  private final static int PHASE_STEPS = 1<<PHASE_BITS;
+  private final static int PHASE_MASK = PHASE_STEPS-1;
+  private final static int FINE_BITS = PHASE_BITS/2;
+  private final static int FINE_MASK = (1<<FINE_BITS)-1;
+
+  /**
+   * Durations of rendering one plot.
+   */
+  private final static LatencyHistogram frameTime 
+    = MetricsRegistry.getComponent("SensitivityRenderer").histogram("cpu.frame.time");
+
+  /**
+   * Unit phasors of the coarse (multiples of 2&pi;/2<sup>FINE_BITS</sup>) and 
+   * fine (multiples of 2&pi;/2<sup>PHASE_BITS</sup>) phase steps.
+   */
+  private final static float[] COARSE_COS, COARSE_SIN, FINE_COS, FINE_SIN;
+  static
+  {
+    int n = 1<<FINE_BITS;
+    COARSE_COS = new float[n]; COARSE_SIN = new float[n];
+    FINE_COS = new float[n]; FINE_SIN = new float[n];
+    for (int i=0; i<n; i++)
+    {
+      COARSE_COS[i] = (float)Math.cos(PI_DOUBLE*i/n);
+      COARSE_SIN[i] = (float)Math.sin(PI_DOUBLE*i/n);
+      FINE_COS[i] = (float)Math.cos(PI_DOUBLE*i/PHASE_STEPS);
+      FINE_SIN[i] = (float)Math.sin(PI_DOUBLE*i/PHASE_STEPS);
+    }
+  }
+
   // -- Life cycle --
   
   /**
    * The singleton instance.
    */
   private volatile static CpuSensitivityRenderer singleton;
+
+  /**
+   * The microphone tables of the last rendered state.
+   */
+  private volatile MicTables micTables;
   
   /**
    * Returns the CPU-based renderer for 2D spatial sensitivity plots of the CSL
@@ -83,26 +143,50 @@ public class CpuSensitivityRenderer implements ISensitivityRenderer
     int           height
   )
   {
+    // Pixel (col,row) -> room coordinates origin+col*u+row*v (in cm)
+    float[] o, u, v;
     switch (sliceType)
     {
     case SLICE_XY:
-      return renderIntArray_XY(mas,slicePos,freq,width,height);
+      o = new float[]{ -(width/2), height/2, slicePos };
+      u = new float[]{ 1, 0, 0 };
+      v = new float[]{ 0, -1, 0 };
+      break;
       
     case SLICE_XZ:
-      return renderIntArray_XZ(mas,slicePos,freq,width,height);
+      o = new float[]{ -(width/2), slicePos, height };
+      u = new float[]{ 1, 0, 0 };
+      v = new float[]{ 0, 0, -1 };
+      break;
       
     case SLICE_YZ:
-      return renderIntArray_YZ(mas,slicePos,freq,width,height);
+      o = new float[]{ slicePos, -(width/2), height };
+      u = new float[]{ 0, 1, 0 };
+      v = new float[]{ 0, 0, -1 };
+      break;
       
     default:
       throw new IllegalArgumentException("Invalid value of sliceType");
     }
+
+    long t0 = System.nanoTime();
+    int[] pixels = new int[width*height];
+    Slice slice = new Slice(getMicTables(mas),freq,o,u,v,pixels,width);
+    TileTask task = new TileTask(slice,0,0,width,height);
+    if (width*height<=TILE_SIZE*TILE_SIZE)
+      task.compute();
+    else
+      ForkJoinPool.commonPool().invoke(task);
+    frameTime.recordSince(t0);
+    return pixels;
   }
 
   // -- Workers --
   
   /**
-   * Calculates the spatial sensitivity at a given coordinate. 
+   * Calculates the spatial sensitivity at a given coordinate. This is the
+   * reference implementation in double precision, the renderer uses a faster
+   * single precision implementation.
    * 
    * @param x
    *          x position in the CSL room coordinate system (in cm).
@@ -136,7 +220,11 @@ public class CpuSensitivityRenderer implements ISensitivityRenderer
         continue;
       }
       
-      double tau = Steering.getDelayFromMicToPoint(state.positions[n], new Point3d(x,y,z));
+      Point3d p = state.positions[n];
+      double dx = p.x-x;
+      double dy = p.y-y;
+      double dz = p.z-z;
+      double tau = Math.sqrt(dx*dx+dy*dy+dz*dz)/100/AudioInputConstants.SPEED_OF_SOUND;
       delta = PI_DOUBLE * freq * (state.steerVec[n] + tau);
 
       // TODO: Respect gains computing sensitivity plot
@@ -149,68 +237,174 @@ public class CpuSensitivityRenderer implements ISensitivityRenderer
 
     return (float)(20*Math.log10(sum));
   }
-  
-  private static int[] renderIntArray_XY
-  (
-    MicArrayState state,
-    int           z, 
-    float         freq, 
-    int           imgW, 
-    int           imgH
-  ) 
+
+  /**
+   * Returns the microphone tables of a microphone array state. The tables are
+   * computed once per state instance.
+   */
+  private MicTables getMicTables(MicArrayState state)
   {
-    int[] pixels = new int[imgW*imgH];
-    
-    for (int i = 0, y = 0; y < imgH; y++) 
-      for (int x = 0; x < imgW; x++, i++) 
+    MicTables tables = micTables;
+    if (tables==null || tables.state!=state)
+    {
+      tables = new MicTables(state);
+      micTables = tables;
+    }
+    return tables;
+  }
+
+  // -- Nested classes --
+
+  /**
+   * The active microphones of a {@link MicArrayState} in flat arrays.
+   */
+  private static final class MicTables
+  {
+    final MicArrayState state;
+
+    /**
+     * Number of microphones the sum is normalized by (the active ones).
+     */
+    final int k;
+
+    /**
+     * Positions (in cm), steering delays (in s) and gains of the active 
+     * microphones.
+     */
+    final float[] x, y, z, steer, gain;
+
+    MicTables(MicArrayState state)
+    {
+      this.state = state;
+      int k = 0;
+      for (int n=0; n<state.positions.length; n++)
+        if (state.activeMics[n])
+          k++;
+      this.k = k;
+      x = new float[k]; y = new float[k]; z = new float[k];
+      steer = new float[k]; gain = new float[k];
+      for (int n=0, i=0; n<state.positions.length; n++)
       {
-        float db = getDB(state, freq, x-(imgW/2), -y+(imgH/2), z);
-        pixels[i] = SensitivityColorScheme.dbToBGRA(db);
+        if (!state.activeMics[n])
+          continue;
+        x[i] = (float)state.positions[n].x;
+        y[i] = (float)state.positions[n].y;
+        z[i] = (float)state.positions[n].z;
+        steer[i] = state.steerVec[n];
+        gain[i] = state.gains[n];
+        i++;
       }
-    
-    return pixels;
+    }
   }
-    
-  private static int[] renderIntArray_XZ
-  (
-    MicArrayState state, 
-    int           y, 
-    float         freq, 
-    int           imgW, 
-    int           imgH
-  ) 
+
+  /**
+   * One slice to render.
+   */
+  private static final class Slice
   {
-    int[] pixels = new int[imgW*imgH];
-    
-    for (int i=0, z = 0; z < imgH; z++)
-      for (int x = 0; x < imgW; x++, i++) 
+    final MicTables mics;
+    final float ox, oy, oz, ux, uy, uz, vx, vy, vz;
+    final int[] pixels;
+    final int width;
+
+    /**
+     * Phase of the steering delays (in turns, fractional part only).
+     */
+    final float[] steerTurns;
+
+    /**
+     * Phase per cm of distance (in turns).
+     */
+    final float turnsPerCm;
+
+    /**
+     * Normalization of the squared magnitude of the sum.
+     */
+    final double norm;
+
+    Slice(MicTables mics, float freq, float[] o, float[] u, float[] v, int[] pixels, int width)
+    {
+      this.mics = mics;
+      ox = o[0]; oy = o[1]; oz = o[2];
+      ux = u[0]; uy = u[1]; uz = u[2];
+      vx = v[0]; vy = v[1]; vz = v[2];
+      this.pixels = pixels;
+      this.width = width;
+      steerTurns = new float[mics.k];
+      for (int i=0; i<mics.k; i++)
       {
-        float db = getDB(state, freq, x-(imgW/2), y, imgH-z);
-        pixels[i] = SensitivityColorScheme.dbToBGRA(db);
+        double turns = (double)freq*mics.steer[i];
+        steerTurns[i] = (float)(turns-Math.floor(turns));
       }
+      turnsPerCm = (float)(freq/100./AudioInputConstants.SPEED_OF_SOUND);
+      norm = (double)mics.k*mics.k;
+    }
 
-    return pixels;
+    /**
+     * Renders the pixels [col0,col1) x [row0,row1).
+     */
+    void renderTile(int col0, int row0, int col1, int row1)
+    {
+      final float[] mx = mics.x, my = mics.y, mz = mics.z, g = mics.gain;
+      final int k = mics.k;
+      for (int row=row0; row<row1; row++)
+      {
+        final float rx = ox+row*vx, ry = oy+row*vy, rz = oz+row*vz;
+        for (int col=col0, i=row*width+col0; col<col1; col++, i++)
+        {
+          final float px = rx+col*ux, py = ry+col*uy, pz = rz+col*uz;
+          float sumRe = 0f, sumIm = 0f;
+          for (int n=0; n<k; n++)
+          {
+            final float dx = mx[n]-px, dy = my[n]-py, dz = mz[n]-pz;
+            final float d = (float)Math.sqrt(dx*dx+dy*dy+dz*dz);
+
+            // Unit phasor of the phase by rotating a coarse by a fine one
+            final int phase = (int)((steerTurns[n]+d*turnsPerCm)*PHASE_STEPS) & PHASE_MASK;
+            final int c = phase>>>FINE_BITS, f = phase&FINE_MASK;
+            final float re = COARSE_COS[c]*FINE_COS[f]-COARSE_SIN[c]*FINE_SIN[f];
+            final float im = COARSE_SIN[c]*FINE_COS[f]+COARSE_COS[c]*FINE_SIN[f];
+            sumRe += g[n]*re;
+            sumIm += g[n]*im;
+          }
+          float db = (float)(10*Math.log10((sumRe*sumRe+sumIm*sumIm)/norm));
+          pixels[i] = SensitivityColorScheme.dbToBGRA(db);
+        }
+      }
+    }
   }
 
-  private static int[] renderIntArray_YZ
-  (
-    MicArrayState state, 
-    int           x, 
-    float         freq, 
-    int           imgW, 
-    int           imgH
-  ) 
+  /**
+   * Renders a rectangle of a {@link Slice}, splitting it into tiles of at
+   * most {@link CpuSensitivityRenderer#TILE_SIZE}<sup>2</sup> pixels.
+   */
+  @SuppressWarnings("serial")
+  private static final class TileTask extends RecursiveAction
   {
-    int[] pixels = new int[imgW*imgH];
+    private final Slice slice;
+    private final int col0, row0, col1, row1;
 
-    for (int i = 0, z = 0; z < imgH; z++)
-      for (int y = 0; y < imgW; y++, i++) 
-      {
-        float db = getDB(state, freq, x, y-(imgW/2), imgH-z);
-        pixels[i] = SensitivityColorScheme.dbToBGRA(db);
-      }
+    TileTask(Slice slice, int col0, int row0, int col1, int row1)
+    {
+      this.slice = slice;
+      this.col0 = col0; this.row0 = row0;
+      this.col1 = col1; this.row1 = row1;
+    }
 
-    return pixels;
+    @Override
+    protected void compute()
+    {
+      int w = col1-col0;
+      int h = row1-row0;
+      if (w*h<=TILE_SIZE*TILE_SIZE)
+        slice.renderTile(col0,row0,col1,row1);
+      else if (w>=h)
+        invokeAll(new TileTask(slice,col0,row0,col0+w/2,row1),
+            new TileTask(slice,col0+w/2,row0,col1,row1));
+      else
+        invokeAll(new TileTask(slice,col0,row0,col1,row0+h/2),
+            new TileTask(slice,col0,row0+h/2,col1,row1));
+    }
   }
 
 }
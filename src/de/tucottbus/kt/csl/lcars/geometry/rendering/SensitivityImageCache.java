@@ -0,0 +1,214 @@
+package de.tucottbus.kt.csl.lcars.geometry.rendering;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.swt.graphics.Image;
+
+/**
+ * Least recently used cache of rendered 2D spatial sensitivity plot images,
+ * bounded by the total image size.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>Evicted and removed images are disposed.</li>
+ *   <li>The most recently added image is never evicted, even if it alone
+ *     exceeds the capacity.</li>
+ *   <li>The default capacity is 32 MiB. It can be changed by the system
+ *     property <code>csl.sensitivityImageCache.maxBytes</code>.</li>
+ * </ul>
+ *
+ * @see SensitivityImageKey
+ */
+public final class SensitivityImageCache
+{
+  /**
+   * The default capacity in bytes.
+   */
+  public static final long DEFAULT_MAX_BYTES = 32L<<20;
+
+  private final long maxBytes;
+  private final LinkedHashMap<SensitivityImageKey,Image> images
+    = new LinkedHashMap<SensitivityImageKey,Image>(16,0.75f,true);
+  private long bytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  // -- Life cycle --
+
+  /**
+   * The singleton instance.
+   */
+  private static SensitivityImageCache singleton;
+
+  /**
+   * Returns the global sensitivity plot image cache.
+   */
+  public synchronized static SensitivityImageCache getInstance()
+  {
+    if (singleton==null)
+      singleton = new SensitivityImageCache(
+        Long.getLong("csl.sensitivityImageCache.maxBytes",DEFAULT_MAX_BYTES));
+    return singleton;
+  }
+
+  /**
+   * Creates a new sensitivity plot image cache.
+   *
+   * @param maxBytes
+   *          The capacity in bytes (4 bytes per pixel).
+   */
+  public SensitivityImageCache(long maxBytes)
+  {
+    this.maxBytes = maxBytes;
+  }
+
+  // -- API --
+
+  /**
+   * Returns a cached image.
+   *
+   * @param key
+   *          The key.
+   * @return The image or <code>null</code> if not cached.
+   */
+  public synchronized Image getImage(SensitivityImageKey key)
+  {
+    Image image = images.get(key);
+    if (image!=null && image.isDisposed())
+    {
+      images.remove(key);
+      bytes -= key.getImageBytes();
+      image = null;
+    }
+    if (image!=null)
+      hits++;
+    else
+      misses++;
+    return image;
+  }
+
+  /**
+   * Adds an image to the cache, evicting least recently used images if the
+   * capacity is exceeded.
+   *
+   * @param key
+   *          The key.
+   * @param image
+   *          The image.
+   */
+  public synchronized void putImage(SensitivityImageKey key, Image image)
+  {
+    Image old = images.put(key,image);
+    if (old!=null)
+    {
+      bytes -= key.getImageBytes();
+      if (old!=image)
+        old.dispose();
+    }
+    bytes += key.getImageBytes();
+
+    for (Iterator<Map.Entry<SensitivityImageKey,Image>> it
+        = images.entrySet().iterator(); bytes>maxBytes && images.size()>1; )
+    {
+      Map.Entry<SensitivityImageKey,Image> entry = it.next();
+      it.remove();
+      bytes -= entry.getKey().getImageBytes();
+      entry.getValue().dispose();
+      evictions++;
+    }
+  }
+
+  /**
+   * Removes and disposes an image.
+   *
+   * @param key
+   *          The key, may be <code>null</code>.
+   */
+  public synchronized void removeImage(SensitivityImageKey key)
+  {
+    if (key==null)
+      return;
+    Image image = images.remove(key);
+    if (image!=null)
+    {
+      bytes -= key.getImageBytes();
+      image.dispose();
+    }
+  }
+
+  /**
+   * Removes and disposes all images.
+   */
+  public synchronized void clear()
+  {
+    for (Image image : images.values())
+      image.dispose();
+    images.clear();
+    bytes = 0;
+  }
+
+  // -- Statistics --
+
+  /**
+   * Returns the number of cached images.
+   */
+  public synchronized int getSize()
+  {
+    return images.size();
+  }
+
+  /**
+   * Returns the total size of the cached images in bytes.
+   */
+  public synchronized long getBytes()
+  {
+    return bytes;
+  }
+
+  /**
+   * Returns the capacity in bytes.
+   */
+  public long getMaxBytes()
+  {
+    return maxBytes;
+  }
+
+  /**
+   * Returns the number of successful {@link #getImage(SensitivityImageKey)
+   * getImage} calls.
+   */
+  public synchronized long getHits()
+  {
+    return hits;
+  }
+
+  /**
+   * Returns the number of unsuccessful {@link #getImage(SensitivityImageKey)
+   * getImage} calls.
+   */
+  public synchronized long getMisses()
+  {
+    return misses;
+  }
+
+  /**
+   * Returns the number of images evicted due to the capacity limit.
+   */
+  public synchronized long getEvictions()
+  {
+    return evictions;
+  }
+
+  @Override
+  public synchronized String toString()
+  {
+    return String.format("%s[%d images, %d/%d bytes, hits=%d, misses=%d, evictions=%d]",
+        getClass().getSimpleName(),images.size(),bytes,maxBytes,hits,misses,evictions);
+  }
+
+}
+
+// EOF
@@ -0,0 +1,206 @@
+package de.tucottbus.kt.csl.lcars.geometry.rendering;
+
+import java.util.Arrays;
+
+import de.tucottbus.kt.csl.hardware.micarray3d.MicArrayState;
+
+/**
+ * Immutable cache key of a rendered 2D spatial sensitivity plot.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The key covers the plot parameters and those parts of the {@linkplain
+ *     MicArrayState microphone array state} the renderers use: microphone
+ *     positions, steering vector, gains and activation states. Changes of,
+ *     e.g., the connection states do not invalidate cached images.</li>
+ *   <li>A 128-bit hash (MurmurHash3, x64 variant) is computed once from the
+ *     primitive values when the key is created. {@link #equals(Object)}
+ *     compares the hashes first and the raw arrays only if they collide.</li>
+ *   <li>The key holds copies of the arrays, later modifications of the
+ *     microphone array state do not affect it.</li>
+ * </ul>
+ *
+ * @see SensitivityImageCache
+ */
+public final class SensitivityImageKey
+{
+  private final float     freq;
+  private final int       sliceType;
+  private final int       slicePos;
+  private final int       width;
+  private final int       height;
+  private final double[]  positions;
+  private final float[]   steerVec;
+  private final float[]   gains;
+  private final boolean[] activeMics;
+  private final long      hash1;
+  private final long      hash2;
+
+  /**
+   * Creates a new cache key.
+   *
+   * @param state
+   *          The microphone array state.
+   * @param freq
+   *          The frequency to render the spatial sensitivity for in Hertz.
+   * @param sliceType
+   *          The slice type: {@link ISensitivityRendererConstants#SLICE_XY
+   *          SLICE_XY}, {@link ISensitivityRendererConstants#SLICE_XZ
+   *          SLICE_XZ}, or {@link ISensitivityRendererConstants#SLICE_YZ
+   *          SLICE_YZ}.
+   * @param slicePos
+   *          The position of the slice.
+   * @param width
+   *          The width of the image (in pixels).
+   * @param height
+   *          The height of the image (in pixels).
+   */
+  public SensitivityImageKey
+  (
+    MicArrayState state,
+    float         freq,
+    int           sliceType,
+    int           slicePos,
+    int           width,
+    int           height
+  )
+  {
+    this.freq       = freq;
+    this.sliceType  = sliceType;
+    this.slicePos   = slicePos;
+    this.width      = width;
+    this.height     = height;
+    this.positions  = new double[state.positions.length*3];
+    this.steerVec   = state.steerVec.clone();
+    this.gains      = state.gains.clone();
+    this.activeMics = state.activeMics.clone();
+
+    Hasher h = new Hasher();
+    h.add(Float.floatToIntBits(freq));
+    h.add(((long)sliceType<<32)|(slicePos&0xFFFFFFFFL));
+    h.add(((long)width<<32)|(height&0xFFFFFFFFL));
+    for (int i=0, j=0; i<state.positions.length; i++)
+    {
+      positions[j] = state.positions[i].x; h.add(Double.doubleToLongBits(positions[j++]));
+      positions[j] = state.positions[i].y; h.add(Double.doubleToLongBits(positions[j++]));
+      positions[j] = state.positions[i].z; h.add(Double.doubleToLongBits(positions[j++]));
+    }
+    for (int i=0; i<steerVec.length; i++)
+      h.add(((long)Float.floatToIntBits(steerVec[i])<<32)
+        |(Float.floatToIntBits(gains[i])&0xFFFFFFFFL));
+    long bits = 0;
+    for (int i=0; i<activeMics.length; i++)
+    {
+      if (activeMics[i])
+        bits |= 1L<<(i&63);
+      if ((i&63)==63 || i==activeMics.length-1)
+      {
+        h.add(bits);
+        bits = 0;
+      }
+    }
+    h.finish();
+    this.hash1 = h.h1;
+    this.hash2 = h.h2;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return (int)(hash1^(hash1>>>32));
+  }
+
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (obj==this)
+      return true;
+    if (!(obj instanceof SensitivityImageKey))
+      return false;
+
+    SensitivityImageKey other = (SensitivityImageKey)obj;
+    if (hash1!=other.hash1 || hash2!=other.hash2) return false;
+    if (Float.floatToIntBits(freq)!=Float.floatToIntBits(other.freq)) return false;
+    if (sliceType!=other.sliceType || slicePos!=other.slicePos      ) return false;
+    if (width!=other.width || height!=other.height                  ) return false;
+    return Arrays.equals(positions,other.positions)
+        && Arrays.equals(steerVec,other.steerVec)
+        && Arrays.equals(gains,other.gains)
+        && Arrays.equals(activeMics,other.activeMics);
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("%s[%016x%016x, %dx%d]",getClass().getSimpleName(),
+        hash1,hash2,width,height);
+  }
+
+  /**
+   * Returns the size of the image in bytes (4 bytes per pixel).
+   */
+  public long getImageBytes()
+  {
+    return 4L*width*height;
+  }
+
+  // -- Nested classes --
+
+  /**
+   * Incremental 128-bit MurmurHash3 (x64 variant) of a sequence of 64-bit
+   * values.
+   */
+  private static final class Hasher
+  {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    long h1;
+    long h2;
+    private long k1;
+    private int  count;
+
+    void add(long k)
+    {
+      if ((count++&1)==0)
+      {
+        k1 = k;
+        return;
+      }
+      long k2 = k;
+      k1 *= C1; k1 = Long.rotateLeft(k1,31); k1 *= C2; h1 ^= k1;
+      h1 = Long.rotateLeft(h1,27); h1 += h2; h1 = h1*5+0x52dce729;
+      k2 *= C2; k2 = Long.rotateLeft(k2,33); k2 *= C1; h2 ^= k2;
+      h2 = Long.rotateLeft(h2,31); h2 += h1; h2 = h2*5+0x38495ab5;
+    }
+
+    void finish()
+    {
+      if ((count&1)!=0)
+      {
+        k1 *= C1; k1 = Long.rotateLeft(k1,31); k1 *= C2; h1 ^= k1;
+      }
+      h1 ^= 8L*count;
+      h2 ^= 8L*count;
+      h1 += h2;
+      h2 += h1;
+      h1 = fmix(h1);
+      h2 = fmix(h2);
+      h1 += h2;
+      h2 += h1;
+    }
+
+    private static long fmix(long k)
+    {
+      k ^= k>>>33;
+      k *= 0xff51afd7ed558ccdL;
+      k ^= k>>>33;
+      k *= 0xc4ceb9fe1a85ec53L;
+      k ^= k>>>33;
+      return k;
+    }
+  }
+
+}
+
+// EOF
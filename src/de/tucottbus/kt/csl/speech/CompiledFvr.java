@@ -0,0 +1,810 @@
+package de.tucottbus.kt.csl.speech;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable, compiled form of a {@linkplain Fvr feature-value relation} for
+ * dialog decisions on recognition results. Node queries, unions and compares
+ * run in time independent of the length of the string representation.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>Node labels are interned to integer symbol ids.</li>
+ *   <li>Nodes are identified by their indexes in pre-order. The root is node
+ *     0. The tree is stored in flat arrays of parent, first child and next
+ *     sibling indexes.</li>
+ *   <li>Compiled relations are interned: compiling the same string or two
+ *     structurally equal relations yields the same instance as long as it is
+ *     cached.</li>
+ *   <li>{@link #expUnion(CompiledFvr, String) expUnion} and {@link
+ *     #expCompare(CompiledFvr, String) expCompare} are memoized by the
+ *     structural hashes of the operands.</li>
+ *   <li>Comments are not part of the compiled form, see {@link
+ *     Fvr#getComment()}.</li>
+ *   <li>The caches hold up to 1024 entries each. The capacity can be changed
+ *     by the system property <code>csl.compiledFvr.cacheSize</code>.</li>
+ * </ul>
+ */
+public final class CompiledFvr
+{
+  /**
+   * The capacity of the caches in entries.
+   */
+  static final int CACHE_SIZE = Integer.getInteger("csl.compiledFvr.cacheSize",1024);
+
+  private static final Object NO_UNION = new Object();
+  private static final Map<String,CompiledFvr> strings = new Lru<String,CompiledFvr>();
+  private static final Map<CompiledFvr,CompiledFvr> relations = new Lru<CompiledFvr,CompiledFvr>();
+  private static final Map<UnionKey,Object> unions = new Lru<UnionKey,Object>();
+
+  private final int[]     label;
+  private final float[]   weight;
+  private final boolean[] value;
+  private final int[]     parent;
+  private final int[]     firstChild;
+  private final int[]     nextSibling;
+  private final int[]     rank;
+  private final long[]    hash;
+  private final int[]     pathKeys;
+  private final int[]     pathStarts;
+  private final int[]     pathNodes;
+
+  // -- Life cycle --
+
+  /**
+   * Compiles a feature-value relation from a string representation.
+   *
+   * @param string
+   *          The string representation, see {@link Fvr#fromString(String)}.
+   * @return The compiled feature-value relation.
+   * @throws IllegalArgumentException
+   *           On parse errors. The message will contain details.
+   */
+  public static CompiledFvr compile(String string) throws IllegalArgumentException
+  {
+    if (string==null)
+      string = "null";
+    CompiledFvr fvr;
+    synchronized (strings)
+    {
+      fvr = strings.get(string);
+    }
+    if (fvr!=null)
+      return fvr;
+    fvr = intern(parse(string));
+    synchronized (strings)
+    {
+      strings.put(string,fvr);
+    }
+    return fvr;
+  }
+
+  /**
+   * Compiles a feature-value relation.
+   *
+   * @param fvr
+   *          The feature-value relation.
+   * @return The compiled feature-value relation.
+   */
+  public static CompiledFvr compile(Fvr fvr)
+  {
+    Builder builder = new Builder(16);
+    add(builder,-1,fvr.root);
+    return intern(new CompiledFvr(builder));
+  }
+
+  private static void add(Builder builder, int parent, Fvr.Node node)
+  {
+    int n = builder.add(parent,FvrSymbols.intern(node.label),node.weight,
+      node.isValue());
+    for (Fvr.Node child : node.children)
+      add(builder,n,child);
+  }
+
+  /**
+   * Returns the cached instance structurally equal to a compiled relation.
+   */
+  private static CompiledFvr intern(CompiledFvr fvr)
+  {
+    synchronized (relations)
+    {
+      CompiledFvr cached = relations.get(fvr);
+      if (cached!=null)
+        return cached;
+      relations.put(fvr,fvr);
+      return fvr;
+    }
+  }
+
+  /**
+   * Creates a compiled relation from the tree below node 0 of a builder.
+   */
+  private CompiledFvr(Builder builder)
+  {
+    // Number the nodes in pre-order
+    int[] index = new int[builder.count];
+    int[] order = new int[builder.count];
+    int n = 0;
+    for (int b=0; b>=0; )
+    {
+      index[b] = n;
+      order[n++] = b;
+      if (builder.first[b]>=0)
+        b = builder.first[b];
+      else
+      {
+        while (b>0 && builder.next[b]<0)
+          b = builder.parent[b];
+        b = b>0 ? builder.next[b] : -1;
+      }
+    }
+
+    label       = new int[n];
+    weight      = new float[n];
+    value       = new boolean[n];
+    parent      = new int[n];
+    firstChild  = new int[n];
+    nextSibling = new int[n];
+    rank        = new int[n];
+    hash        = new long[n];
+    for (int i=0; i<n; i++)
+    {
+      int b = order[i];
+      label[i]       = builder.label[b];
+      weight[i]      = builder.weight[b];
+      value[i]       = builder.value[b];
+      parent[i]      = i>0 ? index[builder.parent[b]] : -1;
+      firstChild[i]  = builder.first[b]>=0 ? index[builder.first[b]] : -1;
+      nextSibling[i] = i>0 && builder.next[b]>=0 ? index[builder.next[b]] : -1;
+      rank[i]        = i>0 ? rank[parent[i]]+1 : 0;
+    }
+
+    // Structural hashes, children before parents
+    for (int i=n-1; i>=0; i--)
+    {
+      long h = label[i]*0x9E3779B97F4A7C15L
+        ^ (long)Float.floatToIntBits(weight[i])<<1 ^ (value[i] ? 1 : 0);
+      for (int c=firstChild[i]; c>=0; c=nextSibling[c])
+        h = (h^hash[c])*0x100000001B3L;
+      h ^= h>>>33;
+      h *= 0xFF51AFD7ED558CCDL;
+      h ^= h>>>33;
+      hash[i] = h;
+    }
+
+    // Path index: nodes by the last token of their label
+    long[] keys = new long[n];
+    int m = 0;
+    for (int i=0; i<n; i++)
+    {
+      int[] tokens = FvrSymbols.getTokens(label[i]);
+      if (tokens.length>0)
+        keys[m++] = (long)tokens[tokens.length-1]<<32 | i;
+    }
+    Arrays.sort(keys,0,m);
+    int k = 0;
+    int[] pk = new int[m];
+    int[] ps = new int[m+1];
+    pathNodes = new int[m];
+    for (int i=0; i<m; i++)
+    {
+      int key = (int)(keys[i]>>>32);
+      if (k==0 || pk[k-1]!=key)
+      {
+        pk[k] = key;
+        ps[k++] = i;
+      }
+      pathNodes[i] = (int)keys[i];
+    }
+    ps[k] = m;
+    pathKeys = Arrays.copyOf(pk,k);
+    pathStarts = Arrays.copyOf(ps,k+1);
+  }
+
+  // -- Getters --
+
+  /**
+   * Returns the number of nodes.
+   */
+  public int size()
+  {
+    return label.length;
+  }
+
+  /**
+   * Returns the label of a node.
+   *
+   * @param node
+   *          The node index.
+   */
+  public String getLabel(int node)
+  {
+    return FvrSymbols.getLabel(label[node]);
+  }
+
+  /**
+   * Returns the weight of a node, {@link Float#NaN} if not specified.
+   *
+   * @param node
+   *          The node index.
+   */
+  public float getWeight(int node)
+  {
+    return weight[node];
+  }
+
+  /**
+   * Determines if a node is a value (rather than a feature).
+   *
+   * @param node
+   *          The node index.
+   */
+  public boolean isValue(int node)
+  {
+    return value[node];
+  }
+
+  /**
+   * Returns the parent of a node, -1 for the root.
+   *
+   * @param node
+   *          The node index.
+   */
+  public int getParent(int node)
+  {
+    return parent[node];
+  }
+
+  /**
+   * Returns the first child of a node, -1 if the node is a leaf.
+   *
+   * @param node
+   *          The node index.
+   */
+  public int getFirstChild(int node)
+  {
+    return firstChild[node];
+  }
+
+  /**
+   * Returns the next sibling of a node, -1 if the node is the last child.
+   *
+   * @param node
+   *          The node index.
+   */
+  public int getNextSibling(int node)
+  {
+    return nextSibling[node];
+  }
+
+  /**
+   * Determines if a node is a leaf.
+   *
+   * @param node
+   *          The node index.
+   */
+  public boolean isLeaf(int node)
+  {
+    return firstChild[node]<0;
+  }
+
+  /**
+   * Returns the distance of a node from the root.
+   *
+   * @param node
+   *          The node index.
+   */
+  public int getRank(int node)
+  {
+    return rank[node];
+  }
+
+  /**
+   * Returns the structural hash. Equal relations have equal hashes.
+   */
+  public long getStructuralHash()
+  {
+    return hash[0];
+  }
+
+  // -- Operations --
+
+  /**
+   * Finds nodes by their (qualified) label.
+   *
+   * <p>
+   * <b>Example:</b></br> The qualified node label "B.D" will be found in
+   * "FVR[A[B[c][D]]]".
+   * </p>
+   *
+   * <p>Unlike {@link Fvr#findNode(String)}, which compares the qualified
+   * names as strings, the method matches whole labels only. "B.D" will not be
+   * found in "FVR[A[XB[c][D]]]".</p>
+   *
+   * @param label
+   *          The node label. If a qualified label is committed, fields are to
+   *          be separated by '.'. The empty string matches all nodes.
+   * @return The indexes of the matching nodes in pre-order.
+   */
+  public int[] findNode(String label)
+  {
+    if (label==null)
+      return new int[0];
+    if (label.isEmpty())
+    {
+      int[] all = new int[size()];
+      for (int i=0; i<all.length; i++)
+        all[i] = i;
+      return all;
+    }
+    int[] path = FvrSymbols.getPathTokens(label);
+    if (path==null)
+      return new int[0];
+    int k = Arrays.binarySearch(pathKeys,path[path.length-1]);
+    if (k<0)
+      return new int[0];
+
+    int[] result = new int[pathStarts[k+1]-pathStarts[k]];
+    int n = 0;
+    for (int i=pathStarts[k]; i<pathStarts[k+1]; i++)
+      if (matches(pathNodes[i],path))
+        result[n++] = pathNodes[i];
+    return n==result.length ? result : Arrays.copyOf(result,n);
+  }
+
+  /**
+   * Determines if the qualified name of a node ends with a path.
+   */
+  private boolean matches(int node, int[] path)
+  {
+    int j = path.length-1;
+    for (int i=node; i>=0; i=parent[i])
+    {
+      int[] tokens = FvrSymbols.getTokens(label[i]);
+      for (int t=tokens.length-1; t>=0; t--, j--)
+        if (j<0)
+          return true;
+        else if (tokens[t]!=path[j])
+          return false;
+      if (j<0)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Union of input FVR with this expectation FVR. Features of input FVR must
+   * be inside of expectation FVR. Equivalent to {@link Fvr#expUnion(Fvr,
+   * String)} but does not modify this relation.
+   *
+   * @param fvrInp
+   *          Input FVR
+   * @param opt
+   *          Option of handle by double value ("all" takes everything, "not"
+   *          takes nothing, "old" takes previous value and "new" takes new
+   *          value). Standard is "new"
+   * @return The union or <code>null</code> if the union failed.
+   */
+  public CompiledFvr expUnion(CompiledFvr fvrInp, String opt)
+  {
+    if (opt==null)
+      opt = "new";
+    UnionKey key = new UnionKey(this,fvrInp,opt);
+    Object union;
+    synchronized (unions)
+    {
+      union = unions.get(key);
+    }
+    if (union==null)
+    {
+      Builder builder = new Builder(size()+fvrInp.size());
+      for (int i=0; i<size(); i++)
+        builder.add(parent[i],label[i],weight[i],value[i]);
+      if (featureCompare(builder,0,fvrInp,0,opt))
+        union = intern(new CompiledFvr(builder));
+      else
+        union = NO_UNION;
+      synchronized (unions)
+      {
+        unions.put(key,union);
+      }
+    }
+    return union!=NO_UNION ? (CompiledFvr)union : null;
+  }
+
+  /**
+   * Determines if the {@linkplain #expUnion(CompiledFvr, String) union} of an
+   * input FVR with this expectation FVR succeeds.
+   *
+   * @param fvrInp
+   *          Input FVR
+   * @param opt
+   *          Option of handle by double value, see {@link
+   *          #expUnion(CompiledFvr, String)}
+   */
+  public boolean expCompare(CompiledFvr fvrInp, String opt)
+  {
+    return expUnion(fvrInp,opt)!=null;
+  }
+
+  private static boolean featureCompare(Builder exp, int nodeExp,
+    CompiledFvr inp, int nodeInp, String opt)
+  {
+    for (int elementInp=inp.firstChild[nodeInp]; elementInp>=0;
+        elementInp=inp.nextSibling[elementInp])
+    {
+      boolean foundValFeat = false;
+      int lbl = inp.label[elementInp];
+      for (int elementExp=exp.first[nodeExp]; elementExp>=0;
+          elementExp=exp.next[elementExp])
+      {
+        if (exp.label[elementExp]==lbl)
+        {
+          foundValFeat = featureCompare(exp,elementExp,inp,elementInp,opt);
+          if (!foundValFeat)
+            return false;
+          break;
+        }
+        else if (inp.value[elementInp] && exp.value[elementExp])
+        {
+          switch (opt)
+          {
+          case "all":
+            exp.add(nodeExp,lbl,Float.NaN,true);
+            break;
+          case "not":
+            exp.remove(elementExp);
+            break;
+          case "new":
+            exp.remove(elementExp);
+            exp.add(nodeExp,lbl,Float.NaN,true);
+            break;
+          }
+          foundValFeat = true;
+          break;
+        }
+      }
+      if (!foundValFeat && inp.value[elementInp])
+        exp.add(nodeExp,lbl,Float.NaN,true);
+      else if (!foundValFeat)
+        return false;
+    }
+    return true;
+  }
+
+  // -- Parser --
+
+  /**
+   * Parses a string representation like {@link Fvr#fromString(String)} does,
+   * in a single pass.
+   */
+  private static CompiledFvr parse(String string) throws IllegalArgumentException
+  {
+    Builder builder = new Builder(string.length()/4+1);
+    if (!string.startsWith("FVR[") || !string.endsWith("]"))
+    {
+      builder.add(-1,FvrSymbols.NULL,0f,false);
+      return new CompiledFvr(builder);
+    }
+
+    String input = stripComments(string.substring(3));
+    if (!input.startsWith("["))
+      throw new IllegalArgumentException("Node \"" + input
+          + "\" must start with '['");
+    if (!input.endsWith("]"))
+      throw new IllegalArgumentException("Node \"" + input
+          + "\" must end with ']'");
+
+    StringBuilder[] names = { new StringBuilder() };
+    int node = builder.add(-1,FvrSymbols.NULL,Float.NaN,false);
+    int depth = 0;
+    for (int i=1; i<input.length()-1; i++)
+    {
+      char c = input.charAt(i);
+      if (c=='[')
+      {
+        node = builder.add(node,FvrSymbols.NULL,Float.NaN,false);
+        if (++depth==names.length)
+        {
+          names = Arrays.copyOf(names,depth*2);
+          for (int j=depth; j<names.length; j++)
+            names[j] = new StringBuilder();
+        }
+        names[depth].setLength(0);
+      }
+      else if (c==']')
+      {
+        if (depth==0)
+          throw new IllegalArgumentException("Too many ']' in node \"" + input
+              + "\"");
+        finish(builder,node,names[depth--]);
+        node = builder.parent[node];
+      }
+      else
+        names[depth].append(c);
+    }
+    if (depth>0)
+      throw new IllegalArgumentException("Too many '[' in node \"" + input
+          + "\"");
+    finish(builder,node,names[0]);
+    return new CompiledFvr(builder);
+  }
+
+  /**
+   * Sets label, weight and value flag of a parsed node and cascades equally
+   * labeled children.
+   */
+  private static void finish(Builder builder, int node, CharSequence name)
+  {
+    // Parse "name:weight"
+    String label = name.toString();
+    float weight = Float.NaN;
+    int colon = label.indexOf(':');
+    if (colon>=0 && !hasLineTerminator(label))
+      try
+      {
+        weight = Float.parseFloat(label.substring(colon+1));
+        label = label.substring(0,colon);
+      }
+      catch (NumberFormatException e)
+      {
+        System.err.print(String.format("\n[FVR: %s]", e.toString()));
+      }
+
+    // Check: is label a value or feature
+    boolean value = label.startsWith("$");
+    if (value)
+      label = label.substring(1);
+    builder.label[node] = FvrSymbols.intern(label);
+    builder.weight[node] = weight;
+    builder.value[node] = value;
+
+    // Weird wire: Cascade equally labeled siblings
+    int n = 0;
+    int child = builder.first[node];
+    builder.first[node] = builder.last[node] = -1;
+    while (child>=0)
+    {
+      int next = builder.next[child];
+      int pred = n-1;
+      while (pred>=0 && builder.label[builder.scratch[pred]]!=builder.label[child])
+        pred--;
+      builder.append(child,pred>=0 ? builder.scratch[pred] : node);
+      if (n==builder.scratch.length)
+        builder.scratch = Arrays.copyOf(builder.scratch,n*2);
+      builder.scratch[n++] = child;
+      child = next;
+    }
+  }
+
+  /**
+   * Determines if a string contains a character which the pattern "." does
+   * not match.
+   */
+  private static boolean hasLineTerminator(String s)
+  {
+    for (int i=0; i<s.length(); i++)
+    {
+      char c = s.charAt(i);
+      if (c=='\n' || c=='\r' || c=='\u0085' || c=='\u2028' || c=='\u2029')
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Strips sub-strings enclosed in braces like {@link Fvr} does.
+   */
+  private static String stripComments(String string)
+  {
+    StringBuilder result = new StringBuilder(string.length());
+    int brace = 0;
+    for (int i=0; i<string.length(); i++)
+    {
+      char c = string.charAt(i);
+      if (c=='(')
+        brace++;
+      else if (c==')')
+        brace--;
+      else if (brace<=0)
+        result.append(c);
+    }
+    return result.toString();
+  }
+
+  // -- Overrides --
+
+  @Override
+  public int hashCode()
+  {
+    return (int)(hash[0]^hash[0]>>>32);
+  }
+
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (obj==this)
+      return true;
+    if (!(obj instanceof CompiledFvr))
+      return false;
+    CompiledFvr other = (CompiledFvr)obj;
+    return hash[0]==other.hash[0]
+      && Arrays.equals(label,other.label)
+      && Arrays.equals(parent,other.parent)
+      && Arrays.equals(value,other.value)
+      && Arrays.equals(weight,other.weight);
+  }
+
+  /**
+   * Returns the string representation like {@link Fvr#toString()} does.
+   */
+  @Override
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder("FVR");
+    toString(sb,0);
+    return sb.toString();
+  }
+
+  private void toString(StringBuilder sb, int node)
+  {
+    sb.append('[').append(getLabel(node));
+    if (!Float.isNaN(weight[node]))
+      sb.append(':').append(weight[node]);
+    for (int c=firstChild[node]; c>=0; c=nextSibling[c])
+      toString(sb,c);
+    sb.append(']');
+  }
+
+  // -- Nested classes --
+
+  /**
+   * Mutable tree of a parse or union in progress. The children of a node are
+   * a linked list.
+   */
+  private static final class Builder
+  {
+    int       count;
+    int[]     label;
+    float[]   weight;
+    boolean[] value;
+    int[]     parent;
+    int[]     first;
+    int[]     last;
+    int[]     next;
+    int[]     scratch = new int[16];
+
+    Builder(int capacity)
+    {
+      label  = new int[capacity];
+      weight = new float[capacity];
+      value  = new boolean[capacity];
+      parent = new int[capacity];
+      first  = new int[capacity];
+      last   = new int[capacity];
+      next   = new int[capacity];
+    }
+
+    /**
+     * Adds a node as the last child of a parent.
+     *
+     * @return The index of the new node.
+     */
+    int add(int parent, int label, float weight, boolean value)
+    {
+      if (count==this.label.length)
+      {
+        int capacity = count*2;
+        this.label  = Arrays.copyOf(this.label,capacity);
+        this.weight = Arrays.copyOf(this.weight,capacity);
+        this.value  = Arrays.copyOf(this.value,capacity);
+        this.parent = Arrays.copyOf(this.parent,capacity);
+        first       = Arrays.copyOf(first,capacity);
+        last        = Arrays.copyOf(last,capacity);
+        next        = Arrays.copyOf(next,capacity);
+      }
+      int n = count++;
+      this.label[n]  = label;
+      this.weight[n] = weight;
+      this.value[n]  = value;
+      first[n] = last[n] = -1;
+      if (parent>=0)
+        append(n,parent);
+      else
+      {
+        this.parent[n] = -1;
+        next[n] = -1;
+      }
+      return n;
+    }
+
+    /**
+     * Appends a detached node to the children of a parent.
+     */
+    void append(int node, int parent)
+    {
+      this.parent[node] = parent;
+      next[node] = -1;
+      if (last[parent]>=0)
+        next[last[parent]] = node;
+      else
+        first[parent] = node;
+      last[parent] = node;
+    }
+
+    /**
+     * Removes a node from the children of its parent.
+     */
+    void remove(int node)
+    {
+      int p = parent[node];
+      int prev = -1;
+      for (int c=first[p]; c!=node; c=next[c])
+        prev = c;
+      if (prev>=0)
+        next[prev] = next[node];
+      else
+        first[p] = next[node];
+      if (last[p]==node)
+        last[p] = prev;
+      next[node] = -1;
+    }
+  }
+
+  /**
+   * Key of a memoized union.
+   */
+  private static final class UnionKey
+  {
+    final CompiledFvr exp;
+    final CompiledFvr inp;
+    final String opt;
+
+    UnionKey(CompiledFvr exp, CompiledFvr inp, String opt)
+    {
+      this.exp = exp;
+      this.inp = inp;
+      this.opt = opt;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return (exp.hashCode()*31+inp.hashCode())*31+opt.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (!(obj instanceof UnionKey))
+        return false;
+      UnionKey other = (UnionKey)obj;
+      return exp.equals(other.exp) && inp.equals(other.inp)
+        && opt.equals(other.opt);
+    }
+  }
+
+  /**
+   * Least recently used map bounded to {@link #CACHE_SIZE} entries.
+   */
+  private static final class Lru<K,V> extends LinkedHashMap<K,V>
+  {
+    private static final long serialVersionUID = 1L;
+
+    Lru()
+    {
+      super(16,0.75f,true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K,V> eldest)
+    {
+      return size()>CACHE_SIZE;
+    }
+  }
+
+}
+
+// EOF
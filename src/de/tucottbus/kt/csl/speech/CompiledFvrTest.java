@@ -0,0 +1,218 @@
+package de.tucottbus.kt.csl.speech;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import de.tucottbus.kt.csl.test.TestReport;
+
+/**
+ * Tests {@link CompiledFvr}: parsing, {@link CompiledFvr#findNode(String)
+ * findNode} and {@link CompiledFvr#expUnion(CompiledFvr, String) expUnion}
+ * must yield what {@link Fvr} yields, on a corpus of generated relations.
+ */
+public class CompiledFvrTest
+{
+  private static final String[] FEATURES =
+    { "MOVETOABS", "abspos", "LDIM", "int", "dec", "DIG", "CN2", "o", "t",
+      "unit", "PROG", "STEP", "FUNC", "TIME", "sign", "MAID" };
+
+  private static final String[] VALUES =
+    { "$0", "$1", "$2", "$m", "$cm", "$max", "$ma", "$ON", "$OFF", "$-",
+      "SA-09.00h", "$SU-20.00h" };
+
+  private static final String[] OPTIONS = { null, "all", "not", "new", "old" };
+
+  private static final String[] MALFORMED =
+    { "FVR[a[b]", "FVR[a]b]]", "FVR[a]]", "FVR[a(]", "FVR[a[b(]])]" };
+
+  /**
+   * Generates the string representation of a random relation.
+   */
+  static String generate(Random random, int depth)
+  {
+    StringBuilder sb = new StringBuilder("FVR");
+    generate(random,sb,depth,true);
+    return sb.toString();
+  }
+
+  private static void generate(Random random, StringBuilder sb, int depth,
+    boolean root)
+  {
+    sb.append('[');
+    if (!root && (depth==0 || random.nextInt(4)==0))
+      sb.append(VALUES[random.nextInt(VALUES.length)]);
+    else
+      sb.append(FEATURES[random.nextInt(root ? 4 : FEATURES.length)]);
+    if (random.nextInt(3)==0)
+      sb.append(':').append(String.format(Locale.US,"%.1f",random.nextFloat()*2-1));
+    if (random.nextInt(5)==0)
+      sb.append("(comment ").append(random.nextInt(10)).append(')');
+    if (depth>0)
+      for (int i=random.nextInt(4); i>0; i--)
+        generate(random,sb,depth-1,false);
+    sb.append(']');
+  }
+
+  public static void main(String[] args)
+  {
+    TestReport report = new TestReport();
+    Random random = new Random(0);
+    List<String> corpus = new ArrayList<String>();
+    for (int i=0; i<2000; i++)
+      corpus.add(generate(random,1+i%6));
+
+    // Parser
+    int failures = 0;
+    for (String s : corpus)
+    {
+      Fvr fvr = Fvr.fromString(s);
+      CompiledFvr compiled = CompiledFvr.compile(s);
+      if (!compiled.equals(CompiledFvr.compile(fvr))
+          || !compiled.toString().equals(fvr.toString()))
+      {
+        failures++;
+        System.out.println("  "+s+": "+compiled+" != "+fvr);
+      }
+    }
+    report.check("parser equals Fvr ("+corpus.size()+" relations)",failures==0);
+    report.check("empty relation",CompiledFvr.compile("bla").toString()
+      .equals(Fvr.fromString("bla").toString()));
+    int rejected = 0;
+    for (String s : MALFORMED)
+    {
+      String legacy = null;
+      String message = null;
+      try { Fvr.fromString(s); } catch (IllegalArgumentException e) { legacy = e.getMessage(); }
+      try { CompiledFvr.compile(s); } catch (IllegalArgumentException e) { message = e.getMessage(); }
+      if (legacy!=null && legacy.equals(message))
+        rejected++;
+    }
+    report.check("malformed relations rejected",rejected==MALFORMED.length);
+    report.check("compiled relations interned",CompiledFvr.compile(corpus.get(7))
+      ==CompiledFvr.compile(Fvr.fromString(corpus.get(7))));
+
+    // findNode
+    failures = 0;
+    int queries = 0;
+    for (String s : corpus)
+    {
+      Fvr fvr = Fvr.fromString(s);
+      CompiledFvr compiled = CompiledFvr.compile(s);
+      List<Fvr.Node> nodes = new ArrayList<Fvr.Node>(fvr.findNode(""));
+      for (Fvr.Node node : nodes)
+      {
+        String name = node.getQualifiedName();
+        int i = -1;
+        do
+        {
+          String path = name.substring(i+1);
+          Collection<Fvr.Node> found = fvr.findNode(path);
+          List<Integer> expected = new ArrayList<Integer>();
+          for (Fvr.Node n : found)
+          {
+            String q = n.getQualifiedName();
+            if (q.equals(path) || q.endsWith("."+path))
+              expected.add(nodes.indexOf(n));
+          }
+          List<Integer> actual = new ArrayList<Integer>();
+          for (int n : compiled.findNode(path))
+            actual.add(n);
+          if (!expected.equals(actual))
+          {
+            failures++;
+            System.out.println("  "+s+" \""+path+"\": "+actual+" != "+expected);
+          }
+          queries++;
+          i = name.indexOf('.',i+1);
+        }
+        while (i>=0);
+      }
+    }
+    report.check("findNode equals Fvr ("+queries+" queries)",failures==0);
+    CompiledFvr fvr = CompiledFvr.compile("FVR[A[B[c][D]][XB[D]]]");
+    report.check("findNode matches whole labels",fvr.findNode("B.D").length==1
+      && fvr.getLabel(fvr.getParent(fvr.findNode("B.D")[0])).equals("B"));
+    report.check("findNode of unknown label",fvr.findNode("B.nonexistent").length==0);
+    report.check("findNode of empty label",fvr.findNode("").length==fvr.size());
+
+    // expUnion
+    failures = 0;
+    int unions = 0;
+    int successes = 0;
+    for (int i=0; i<corpus.size(); i++)
+    {
+      String exp = corpus.get(i);
+      String inp = i%3==0 ? corpus.get(random.nextInt(corpus.size()))
+        : "FVR"+subtree(Fvr.fromString(exp).root,random);
+      for (String opt : OPTIONS)
+      {
+        Fvr legacy = Fvr.fromString(exp);
+        boolean success = legacy.expUnion(Fvr.fromString(inp),opt);
+        CompiledFvr union = CompiledFvr.compile(exp).expUnion(CompiledFvr.compile(inp),opt);
+        if (success!=(union!=null) || success && !union.equals(CompiledFvr.compile(legacy)))
+        {
+          failures++;
+          System.out.println("  "+exp+" "+inp+" "+opt+": "+union+" != "+legacy);
+        }
+        unions++;
+        if (success)
+          successes++;
+      }
+    }
+    report.check("expUnion equals Fvr ("+unions+" unions, "+successes+" successful)",
+      failures==0 && successes>0 && successes<unions);
+    CompiledFvr exp = CompiledFvr.compile("FVR[MOVETOABS[abspos[LDIM[unit[$cm]]]]]");
+    CompiledFvr inp = CompiledFvr.compile("FVR[MOVETOABS[abspos[LDIM[unit[$m]]]]]");
+    CompiledFvr union = exp.expUnion(inp,"new");
+    report.check("expUnion",union.toString().equals("FVR[MOVETOABS[abspos[LDIM[unit[m]]]]]"));
+    report.check("expUnion memoized",exp.expUnion(inp,null)==union);
+    report.check("expCompare",exp.expCompare(inp,"old")
+      && !exp.expCompare(CompiledFvr.compile("FVR[MOVETOABS[MAID[$ma]]]"),"new"));
+
+    // Decision time
+    int runs = 1000000;
+    String result = "";
+    for (String s : corpus)
+      if (s.length()>result.length())
+        result = s;
+    for (int i=0; i<runs; i++)
+      decide(exp,result);
+    long t0 = System.nanoTime();
+    for (int i=0; i<runs; i++)
+      decide(exp,result);
+    long t1 = System.nanoTime();
+    report.info("dialog decision (%d characters): %.0f ns",
+      result.length(),(double)(t1-t0)/runs);
+
+    report.exit();
+  }
+
+  /**
+   * Returns the string representation of a random sub-tree of a node.
+   */
+  private static String subtree(Fvr.Node node, Random random)
+  {
+    StringBuilder sb = new StringBuilder("[");
+    if (node.isValue() && random.nextBoolean())
+      sb.append(VALUES[random.nextInt(6)]);
+    else
+      sb.append(node.isValue() ? "$" : "").append(node.label);
+    for (Fvr.Node child : node.getChildren())
+      if (random.nextInt(3)>0)
+        sb.append(subtree(child,random));
+    return sb.append(']').toString();
+  }
+
+  private static int decide(CompiledFvr exp, String result)
+  {
+    CompiledFvr sem = CompiledFvr.compile(result);
+    return sem.findNode("MOVETOABS.abspos.LDIM.unit").length
+      + (exp.expCompare(sem,"new") ? 1 : 0);
+  }
+
+}
+
+// EOF
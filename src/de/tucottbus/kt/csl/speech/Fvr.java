@@ -1,10 +1,8 @@
 package de.tucottbus.kt.csl.speech;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.nio.file.Files;
@@ -13,7 +11,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -216,27 +213,14 @@ public class Fvr {
   /**
    * Renders this feature-value relation as SVG file. The rendering does not
    * include any {@linkplain #comment comments}.
-   * <p>
-   * <b style="color:red">NOTE:</b> The method invokes the <code>dot</code> tool
-   * by AT&amp;T which has to be found in the <code>PATH</code>.
-   * </p>
    * 
    * @param file
    *          The SVG output file.
+   * @see FvrSvgRenderer
    */
   public void renderSvgFile(File file) {
     try {
-      File tmp = File.createTempFile("fvr", null);
-      tmp.deleteOnExit();
-      FileOutputStream fos = new FileOutputStream(tmp);
-      render(fos);
-      fos.close();
-      String command = String.format("dot -Tsvg %s -o %s",
-          tmp.getAbsolutePath(), file.getAbsolutePath());
-      int exitVal = Runtime.getRuntime().exec(command).waitFor();
-      if (exitVal != 0)
-        throw new Exception(command + " failed (exit value " + exitVal + ")");
-      tmp.delete();
+      Files.write(file.toPath(), renderSvg().getBytes("UTF-8"));
     } catch (Exception e) {
       e.printStackTrace();
     }
@@ -245,20 +229,12 @@ public class Fvr {
   /**
    * Renders this feature-value relation as SVG. The rendering does not include
    * any {@linkplain #comment comments}.
-   * <p>
-   * <b style="color:red">NOTE:</b> The method invokes the <code>dot</code> tool
-   * by AT&amp;T which has to be found in the <code>PATH</code>.
-   * </p>
    *
    * @return The svg code.
+   * @see FvrSvgRenderer
    */
   public String renderSvg() throws Exception {
-    String command = "dot -Tsvg";
-    Process process = Runtime.getRuntime().exec(command);
-    render(process.getOutputStream());
-    process.getOutputStream().close();
-    String svg = extractSvg(process.getInputStream());
-    return svg;
+    return FvrSvgRenderer.getInstance().render(CompiledFvr.compile(this));
   }
 
   // -- Workers --
@@ -365,48 +341,6 @@ public class Fvr {
     return result;
   }
 
-  private void render(OutputStream os) throws IOException {
-    // String fontname = "Compacta LT Light";
-    String fontname = "Swiss911 UCm BT";
-    int fontsize = 24;
-    os.write("digraph G {\n".getBytes());
-    // os.write("  size=\"4,4\";\n".getBytes());
-    os.write("  bgcolor=\"black\";\n".getBytes());
-    os.write(("  node [color=\"#FF9900\", style=filled, fontname=\"" + fontname
-        + "\", fontsize=" + fontsize + "];\n").getBytes());
-    os.write(("  edge [fontcolor=\"#FF9900\", color=\"#FF9900\", fontname=\""
-        + fontname + "\", style=bold, fontsize=" + fontsize + "];\n")
-        .getBytes());
-    renderNode(root, os);
-    renderEdge(root, os);
-    os.write("}\n".getBytes());
-  }
-
-  private void renderNode(Node node, OutputStream os) throws IOException {
-    String s;
-
-    if (node.parent == null)
-      s = String.format(Locale.ENGLISH, "  %d [label=\"%s:%3.2f\"%s]\n",
-          node.id, node.label, node.weight, node.isLeaf() ? ", shape=box" : "");
-    else
-      s = String.format(Locale.ENGLISH, "  %d [label=\"%s\"%s, height=\"0.1\"]\n", node.id,
-          node.label, node.isValue() ? ", shape=box" : "");
-    os.write(s.getBytes());
-    for (Node child : node.children)
-      renderNode(child, os);
-  }
-
-  private void renderEdge(Node node, OutputStream os) throws IOException {
-    if (node.parent != null) {
-      String s = String.format(Locale.ENGLISH,
-          "  %d -> %d [label=\"%3.2f\", dir=none, len=1.1]\n", node.parent.id, node.id,
-          node.weight);
-      os.write(s.getBytes());
-    }
-    for (Node child : node.children)
-      renderEdge(child, os);
-  }
-
   /**
    * Union of input FVR with expectation FVR. Features of input FVR must be inside 
    * of expectation FVR. Function should start from expectation FVR. 
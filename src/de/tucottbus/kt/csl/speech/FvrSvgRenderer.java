@@ -0,0 +1,340 @@
+package de.tucottbus.kt.csl.speech;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Renders {@linkplain CompiledFvr feature-value relations} as SVG trees in the
+ * style of the LCARS panels, in-process and without external tools.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>The tree is laid out top-down in the manner of Reingold and Tilford:
+ *     sub-trees are placed side by side as close as their contours permit
+ *     and parents are centered above their children.</li>
+ *   <li>Text widths are estimated from the number of characters, so the
+ *     output does not depend on the fonts installed and can be compared
+ *     against stored SVG code.</li>
+ *   <li>Layouts are cached by tree structure (see {@link
+ *     CompiledFvr#getStructuralHash()}), up to 256 layouts.</li>
+ *   <li>The SVG code is written into a buffer which is reused by subsequent
+ *     renderings.</li>
+ * </ul>
+ */
+public final class FvrSvgRenderer
+{
+  private static final String FONT_NAME   = "Swiss911 UCm BT";
+  private static final String COLOR       = "#FF9900";
+  private static final int    FONT_SIZE   = 24;
+  private static final double CHAR_WIDTH  = 0.45*FONT_SIZE;
+  private static final double NODE_HEIGHT = 36;
+  private static final double NODE_SEP    = 18;
+  private static final double RANK_SEP    = 48;
+  private static final double MARGIN      = 4;
+  private static final int    CACHE_SIZE  = 256;
+
+  private final Map<CompiledFvr,Layout> layouts
+    = new LinkedHashMap<CompiledFvr,Layout>(16,0.75f,true)
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<CompiledFvr,Layout> eldest)
+    {
+      return size()>CACHE_SIZE;
+    }
+  };
+
+  private final StringBuilder svg = new StringBuilder(4096);
+
+  // -- Life cycle --
+
+  /**
+   * The singleton instance.
+   */
+  private static FvrSvgRenderer singleton;
+
+  /**
+   * Returns the shared renderer.
+   */
+  public synchronized static FvrSvgRenderer getInstance()
+  {
+    if (singleton==null)
+      singleton = new FvrSvgRenderer();
+    return singleton;
+  }
+
+  // -- API --
+
+  /**
+   * Renders a feature-value relation as SVG.
+   *
+   * @param fvr
+   *          The feature-value relation.
+   * @return The SVG code, an <code>svg</code> element which may be embedded
+   *         into HTML.
+   */
+  public synchronized String render(CompiledFvr fvr)
+  {
+    svg.setLength(0);
+    write(getLayout(fvr),svg);
+    return svg.toString();
+  }
+
+  /**
+   * Returns the number of cached layouts.
+   */
+  public synchronized int getCacheSize()
+  {
+    return layouts.size();
+  }
+
+  // -- Layout --
+
+  /**
+   * Node positions and texts of a rendered tree.
+   */
+  private static final class Layout
+  {
+    int       size;
+    double    width;
+    double    height;
+    int[]     parent;
+    boolean[] box;
+    double[]  x;
+    double[]  y;
+    double[]  w;
+    String[]  text;
+    String[]  edgeText;
+  }
+
+  private Layout getLayout(CompiledFvr fvr)
+  {
+    Layout layout = layouts.get(fvr);
+    if (layout==null)
+    {
+      layout = layout(fvr);
+      layouts.put(fvr,layout);
+    }
+    return layout;
+  }
+
+  private static Layout layout(CompiledFvr fvr)
+  {
+    int n = fvr.size();
+    Layout layout = new Layout();
+    layout.size     = n;
+    layout.parent   = new int[n];
+    layout.box      = new boolean[n];
+    layout.x        = new double[n];
+    layout.y        = new double[n];
+    layout.w        = new double[n];
+    layout.text     = new String[n];
+    layout.edgeText = new String[n];
+
+    // Texts and node sizes
+    double[] space = new double[n];
+    for (int i=0; i<n; i++)
+    {
+      String text;
+      layout.parent[i] = fvr.getParent(i);
+      if (i==0)
+      {
+        text = String.format(Locale.ENGLISH,"%s:%3.2f",fvr.getLabel(i),fvr.getWeight(i));
+        layout.box[i] = fvr.isLeaf(i);
+      }
+      else
+      {
+        text = String.valueOf(fvr.getLabel(i));
+        layout.box[i] = fvr.isValue(i);
+        layout.edgeText[i] = String.format(Locale.ENGLISH,"%3.2f",fvr.getWeight(i));
+      }
+      layout.text[i] = escape(text);
+      double textWidth = text.length()*CHAR_WIDTH;
+      layout.w[i] = layout.box[i] ? textWidth+16 : textWidth*1.2+24;
+      space[i] = layout.w[i];
+      if (i>0)
+        space[i] = Math.max(space[i],2*(layout.edgeText[i].length()*CHAR_WIDTH+4));
+    }
+
+    // Contours of the sub-trees, children before parents
+    double[][] left = new double[n][];
+    double[][] right = new double[n][];
+    double[] offset = new double[n];
+    for (int i=n-1; i>=0; i--)
+    {
+      int depth = 0;
+      for (int c=fvr.getFirstChild(i); c>=0; c=fvr.getNextSibling(c))
+        depth = Math.max(depth,left[c].length);
+      double[] accLeft = new double[depth];
+      double[] accRight = new double[depth];
+      int accDepth = 0;
+      double first = 0;
+      double last = 0;
+      for (int c=fvr.getFirstChild(i); c>=0; c=fvr.getNextSibling(c))
+      {
+        double pos = 0;
+        if (accDepth>0)
+        {
+          pos = -Double.MAX_VALUE;
+          for (int d=0; d<Math.min(accDepth,left[c].length); d++)
+            pos = Math.max(pos,accRight[d]-left[c][d]+NODE_SEP);
+        }
+        else
+          first = pos;
+        for (int d=0; d<left[c].length; d++)
+        {
+          if (d>=accDepth)
+            accLeft[d] = left[c][d]+pos;
+          accRight[d] = right[c][d]+pos;
+        }
+        accDepth = Math.max(accDepth,left[c].length);
+        offset[c] = pos;
+        last = pos;
+      }
+      double mid = (first+last)/2;
+      for (int c=fvr.getFirstChild(i); c>=0; c=fvr.getNextSibling(c))
+        offset[c] -= mid;
+      left[i] = new double[depth+1];
+      right[i] = new double[depth+1];
+      left[i][0] = -space[i]/2;
+      right[i][0] = space[i]/2;
+      for (int d=0; d<depth; d++)
+      {
+        left[i][d+1] = accLeft[d]-mid;
+        right[i][d+1] = accRight[d]-mid;
+      }
+      for (int c=fvr.getFirstChild(i); c>=0; c=fvr.getNextSibling(c))
+        left[c] = right[c] = null; // Not needed any more
+    }
+
+    // Absolute positions, parents before children
+    double minX = 0;
+    double maxX = 0;
+    for (int d=0; d<left[0].length; d++)
+    {
+      minX = Math.min(minX,left[0][d]);
+      maxX = Math.max(maxX,right[0][d]);
+    }
+    for (int i=0; i<n; i++)
+    {
+      int p = layout.parent[i];
+      layout.x[i] = p>=0 ? layout.x[p]+offset[i] : MARGIN-minX;
+      layout.y[i] = MARGIN+fvr.getRank(i)*(NODE_HEIGHT+RANK_SEP)+NODE_HEIGHT/2;
+    }
+    int ranks = left[0].length;
+    layout.width = maxX-minX+2*MARGIN;
+    layout.height = ranks*NODE_HEIGHT+(ranks-1)*RANK_SEP+2*MARGIN;
+    return layout;
+  }
+
+  // -- SVG writer --
+
+  private static void write(Layout layout, StringBuilder sb)
+  {
+    sb.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"");
+    fixed(sb,layout.width).append("pt\" height=\"");
+    fixed(sb,layout.height).append("pt\" viewBox=\"0.00 0.00 ");
+    fixed(sb,layout.width).append(' ');
+    fixed(sb,layout.height).append("\">\n");
+    sb.append("<g font-family=\"").append(FONT_NAME).append("\" font-size=\"")
+      .append(FONT_SIZE).append("\" text-anchor=\"middle\">\n");
+    sb.append("<rect fill=\"black\" stroke=\"none\" x=\"0\" y=\"0\" width=\"");
+    fixed(sb,layout.width).append("\" height=\"");
+    fixed(sb,layout.height).append("\"/>\n");
+
+    // Edges
+    for (int i=1; i<layout.size; i++)
+    {
+      int p = layout.parent[i];
+      double y1 = layout.y[p]+NODE_HEIGHT/2;
+      double y2 = layout.y[i]-NODE_HEIGHT/2;
+      sb.append("<g class=\"edge\"><line stroke=\"").append(COLOR)
+        .append("\" stroke-width=\"2\" x1=\"");
+      fixed(sb,layout.x[p]).append("\" y1=\"");
+      fixed(sb,y1).append("\" x2=\"");
+      fixed(sb,layout.x[i]).append("\" y2=\"");
+      fixed(sb,y2).append("\"/><text fill=\"").append(COLOR)
+        .append("\" text-anchor=\"start\" x=\"");
+      fixed(sb,layout.x[i]+4).append("\" y=\"");
+      fixed(sb,y2-6).append("\">").append(layout.edgeText[i])
+        .append("</text></g>\n");
+    }
+
+    // Nodes
+    for (int i=0; i<layout.size; i++)
+    {
+      double x = layout.x[i];
+      double y = layout.y[i];
+      double w = layout.w[i];
+      sb.append("<g class=\"node\">");
+      if (layout.box[i])
+      {
+        sb.append("<rect fill=\"").append(COLOR).append("\" x=\"");
+        fixed(sb,x-w/2).append("\" y=\"");
+        fixed(sb,y-NODE_HEIGHT/2).append("\" width=\"");
+        fixed(sb,w).append("\" height=\"");
+        fixed(sb,NODE_HEIGHT).append("\"/>");
+      }
+      else
+      {
+        sb.append("<ellipse fill=\"").append(COLOR).append("\" cx=\"");
+        fixed(sb,x).append("\" cy=\"");
+        fixed(sb,y).append("\" rx=\"");
+        fixed(sb,w/2).append("\" ry=\"");
+        fixed(sb,NODE_HEIGHT/2).append("\"/>");
+      }
+      sb.append("<text x=\"");
+      fixed(sb,x).append("\" y=\"");
+      fixed(sb,y+FONT_SIZE*0.35).append("\">").append(layout.text[i])
+        .append("</text></g>\n");
+    }
+    sb.append("</g>\n</svg>\n");
+  }
+
+  /**
+   * Appends a number with two decimals.
+   */
+  private static StringBuilder fixed(StringBuilder sb, double value)
+  {
+    long v = Math.round(value*100);
+    if (v<0)
+    {
+      sb.append('-');
+      v = -v;
+    }
+    sb.append(v/100).append('.');
+    v %= 100;
+    return sb.append((char)('0'+v/10)).append((char)('0'+v%10));
+  }
+
+  private static String escape(String text)
+  {
+    StringBuilder sb = null;
+    for (int i=0; i<text.length(); i++)
+    {
+      char c = text.charAt(i);
+      String entity;
+      switch (c)
+      {
+      case '&': entity = "&amp;"; break;
+      case '<': entity = "&lt;"; break;
+      case '>': entity = "&gt;"; break;
+      case '"': entity = "&quot;"; break;
+      default : entity = null;
+      }
+      if (entity!=null && sb==null)
+        sb = new StringBuilder(text.substring(0,i));
+      if (sb!=null)
+        if (entity!=null)
+          sb.append(entity);
+        else
+          sb.append(c);
+    }
+    return sb!=null ? sb.toString() : text;
+  }
+
+}
+
+// EOF
@@ -0,0 +1,161 @@
+package de.tucottbus.kt.csl.speech;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.tucottbus.kt.csl.test.TestReport;
+
+/**
+ * Tests {@link FvrSvgRenderer} headlessly: the renderings of some relations
+ * must equal the stored SVG code in <code>FvrSvgRendererTest.golden</code>,
+ * and the renderings of generated relations must be well-formed and free of
+ * overlapping nodes.
+ *
+ * <p>Run with the arguments <code>-update &lt;file&gt;</code> to write the
+ * current renderings to a new golden file.</p>
+ */
+public class FvrSvgRendererTest
+{
+  private static final String GOLDEN = "FvrSvgRendererTest.golden";
+
+  private static final String[] RELATIONS =
+  {
+    "FVR[PROG:0.3[STEP:0.3[FUNC:1[OFF:1]][TIME:0.2[SA-09.00h:0.2]]][STEP:0.2[FUNC:1[ON:1]][TIME:-0.2[SU-20.00h:-0.2]]]]",
+    "FVR[MOVETOABS[MAID[$ma]][abspos[LDIM[int[DIG[o[$1]]]][unit[$m]][dec[CN2[o[$6]][t[$2]]]]]]]",
+    "FVR[LDIM[val[DIG[o[1]]]][val[komma]][unit[m]][val[CN2[t[2]]]]]",
+    "FVR[__WAKEUP__]",
+    "FVR[A&B[<x>][\"y\"]]",
+    "unparsed text"
+  };
+
+  private static final Pattern NODE = Pattern.compile(
+    "<g class=\"node\"><(ellipse|rect) fill=\"[^\"]*\" (?:cx|x)=\"([-0-9.]+)\" "
+    + "(?:cy|y)=\"([-0-9.]+)\" (?:rx|width)=\"([-0-9.]+)\"");
+
+  private static String renderAll()
+  {
+    StringBuilder sb = new StringBuilder();
+    for (String s : RELATIONS)
+      sb.append("<!-- ").append(s.replace("--","- -")).append(" -->\n")
+        .append(FvrSvgRenderer.getInstance().render(CompiledFvr.compile(s)));
+    return sb.toString();
+  }
+
+  private static List<String> lines(InputStream is) throws IOException
+  {
+    List<String> lines = new ArrayList<String>();
+    if (is==null)
+      return lines;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(is,StandardCharsets.UTF_8)))
+    {
+      for (String line; (line=reader.readLine())!=null; )
+        lines.add(line);
+    }
+    return lines;
+  }
+
+  /**
+   * Determines if two nodes of a rendering overlap.
+   */
+  private static boolean hasOverlappingNodes(String svg)
+  {
+    List<double[]> nodes = new ArrayList<double[]>();
+    Matcher matcher = NODE.matcher(svg);
+    while (matcher.find())
+    {
+      double x = Double.parseDouble(matcher.group(2));
+      double y = Double.parseDouble(matcher.group(3));
+      double w = Double.parseDouble(matcher.group(4));
+      if (matcher.group(1).equals("ellipse"))
+        nodes.add(new double[] { Math.round(y), x-w, x+w });
+      else
+        nodes.add(new double[] { Math.round(y+18), x, x+w });
+    }
+    Collections.sort(nodes,(a,b)->a[0]!=b[0] ? Double.compare(a[0],b[0]) : Double.compare(a[1],b[1]));
+    for (int i=1; i<nodes.size(); i++)
+      if (nodes.get(i)[0]==nodes.get(i-1)[0] && nodes.get(i)[1]<nodes.get(i-1)[2])
+        return true;
+    return false;
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length==2 && args[0].equals("-update"))
+    {
+      Files.write(Paths.get(args[1]),renderAll().getBytes(StandardCharsets.UTF_8));
+      System.out.println("Written "+args[1]);
+      return;
+    }
+
+    TestReport report = new TestReport();
+    FvrSvgRenderer renderer = FvrSvgRenderer.getInstance();
+
+    // Golden output
+    List<String> expected = lines(FvrSvgRendererTest.class.getResourceAsStream(GOLDEN));
+    List<String> actual = lines(new ByteArrayInputStream(renderAll().getBytes(StandardCharsets.UTF_8)));
+    report.check("renderings equal "+GOLDEN,!expected.isEmpty() && expected.equals(actual));
+    for (int i=0; i<Math.max(expected.size(),actual.size()); i++)
+      if (i>=expected.size() || i>=actual.size() || !expected.get(i).equals(actual.get(i)))
+      {
+        System.out.println("  line "+(i+1)+": "+(i<actual.size() ? actual.get(i) : "<EOF>"));
+        break;
+      }
+
+    // Generated relations
+    Random random = new Random(0);
+    int malformed = 0;
+    int overlapping = 0;
+    int n = 500;
+    for (int i=0; i<n; i++)
+    {
+      String svg = renderer.render(CompiledFvr.compile(CompiledFvrTest.generate(random,1+i%6)));
+      try
+      {
+        Fvr.extractSvg(new ByteArrayInputStream(svg.getBytes(StandardCharsets.UTF_8)));
+      }
+      catch (Exception e)
+      {
+        malformed++;
+      }
+      if (hasOverlappingNodes(svg))
+        overlapping++;
+    }
+    report.check("renderings well-formed ("+n+" relations)",malformed==0);
+    report.check("no overlapping nodes ("+n+" relations)",overlapping==0);
+
+    // Layout cache
+    Fvr fvr = Fvr.fromString(RELATIONS[1]);
+    String svg = fvr.renderSvg();
+    int size = renderer.getCacheSize();
+    report.check("Fvr.renderSvg",svg.equals(renderer.render(CompiledFvr.compile(RELATIONS[1]))));
+    report.check("layout cached",renderer.getCacheSize()==size && fvr.renderSvg().equals(svg));
+
+    // Rendering time
+    int runs = 100000;
+    CompiledFvr compiled = CompiledFvr.compile(RELATIONS[0]);
+    for (int i=0; i<runs; i++)
+      renderer.render(compiled);
+    long t0 = System.nanoTime();
+    for (int i=0; i<runs; i++)
+      renderer.render(compiled);
+    long t1 = System.nanoTime();
+    report.info("rendering: %.1f us",(t1-t0)/1000.0/runs);
+
+    report.exit();
+  }
+
+}
+
+// EOF
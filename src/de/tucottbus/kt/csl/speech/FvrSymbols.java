@@ -0,0 +1,152 @@
+package de.tucottbus.kt.csl.speech;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Symbol table of the labels of {@linkplain CompiledFvr compiled
+ * feature-value relations}. Interns labels to integer symbol ids and splits
+ * them into path tokens, i.e. the fields separated by '.'.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>Symbol ids are valid in the running process only.</li>
+ *   <li>The symbol id 0 stands for the <code>null</code> label of an empty
+ *     relation.</li>
+ *   <li>Symbols are never released. The labels stem from the recognizer's
+ *     grammar, so the table does not grow without bounds.</li>
+ * </ul>
+ */
+final class FvrSymbols
+{
+  /**
+   * The symbol id of the <code>null</code> label.
+   */
+  static final int NULL = 0;
+
+  private static final HashMap<String,Integer> ids = new HashMap<String,Integer>();
+  private static final Map<String,int[]> paths = new LinkedHashMap<String,int[]>(16,0.75f,true)
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String,int[]> eldest)
+    {
+      return size()>CompiledFvr.CACHE_SIZE;
+    }
+  };
+
+  // NOTE: Written under the class lock only. Ids are published after their
+  //       entries, so readers need no lock.
+  private static volatile String[] labels = new String[256];
+  private static volatile int[][] tokens = new int[256][];
+  private static int count;
+
+  static
+  {
+    tokens[NULL] = new int[0];
+    count = 1;
+  }
+
+  private FvrSymbols()
+  {
+  }
+
+  /**
+   * Returns the symbol id of a label, adding the label to the table if
+   * necessary.
+   *
+   * @param label
+   *          The label, may be <code>null</code>.
+   */
+  static synchronized int intern(String label)
+  {
+    if (label==null)
+      return NULL;
+    Integer id = ids.get(label);
+    if (id!=null)
+      return id;
+
+    String[] fields = label.split("\\.",-1);
+    int[] ts = new int[fields.length];
+    int symbol = count;
+    if (symbol==labels.length)
+    {
+      String[] l = new String[symbol*2];
+      int[][] t = new int[symbol*2][];
+      System.arraycopy(labels,0,l,0,symbol);
+      System.arraycopy(tokens,0,t,0,symbol);
+      labels = l;
+      tokens = t;
+    }
+    labels[symbol] = label;
+    tokens[symbol] = ts;
+    ids.put(label,symbol);
+    count++;
+    for (int i=0; i<fields.length; i++)
+      ts[i] = fields.length==1 ? symbol : intern(fields[i]);
+    return symbol;
+  }
+
+  /**
+   * Returns the symbol id of a label without adding it to the table.
+   *
+   * @param label
+   *          The label.
+   * @return The symbol id or -1 if the label is not in the table.
+   */
+  static synchronized int lookup(String label)
+  {
+    Integer id = ids.get(label);
+    return id!=null ? id : -1;
+  }
+
+  /**
+   * Returns the label of a symbol.
+   */
+  static String getLabel(int symbol)
+  {
+    return labels[symbol];
+  }
+
+  /**
+   * Returns the path tokens of a symbol. The array must not be modified.
+   */
+  static int[] getTokens(int symbol)
+  {
+    return tokens[symbol];
+  }
+
+  /**
+   * Returns the path tokens of a (qualified) node label. The array must not be
+   * modified.
+   *
+   * @param path
+   *          The node label, fields separated by '.'.
+   * @return The symbol ids of the fields or <code>null</code> if a field is not
+   *         in the table, i.e. no compiled relation contains the path.
+   */
+  static int[] getPathTokens(String path)
+  {
+    synchronized (paths)
+    {
+      int[] ts = paths.get(path);
+      if (ts!=null)
+        return ts;
+    }
+    String[] fields = path.split("\\.",-1);
+    int[] ts = new int[fields.length];
+    for (int i=0; i<fields.length; i++)
+      if ((ts[i]=lookup(fields[i]))<0)
+        return null;
+    synchronized (paths)
+    {
+      paths.put(path,ts);
+    }
+    return ts;
+  }
+
+}
+
+// EOF
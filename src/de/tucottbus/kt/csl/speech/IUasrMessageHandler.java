@@ -0,0 +1,137 @@
+package de.tucottbus.kt.csl.speech;
+
+/**
+ * Receives the messages of the dLabPro recognizer decoded by a {@link
+ * UasrMessageDispatcher}. The default implementations do nothing.
+ */
+public interface IUasrMessageHandler
+{
+  /**
+   * Level message (<code>gui: frm: ... lvl: ... tim: ...</code>).
+   *
+   * @param frame
+   *          The frame index.
+   * @param level
+   *          The signal level (in dB).
+   */
+  public default void level(long frame, double level) {}
+
+  /**
+   * The recognizer wrapper failed to start the recognizer.
+   *
+   * @param msg
+   *          The message.
+   */
+  public default void recognizerFailed(String msg) {}
+
+  /**
+   * The online recognizer has been initialized.
+   *
+   * @param msg
+   *          The message.
+   */
+  public default void recognizerInitialized(String msg) {}
+
+  /**
+   * The recognizer skipped input buffers (<code>sta: buf skipped: ...</code>).
+   */
+  public default void bufferSkipped() {}
+
+  /**
+   * The voice activity detector collected a speech segment (<code>sta: vad
+   * collected ...</code>).
+   */
+  public default void vadCollected() {}
+
+  /**
+   * The recognizer skipped a recognition (<code>sta: rec skip for ...</code>).
+   */
+  public default void recognitionSkipped() {}
+
+  /**
+   * The dialog state changed (<code>sta: voc change: ...</code>).
+   *
+   * @param state
+   *          The new dialog state.
+   * @param msg
+   *          The message.
+   */
+  public default void dialogStateChanged(long state, String msg) {}
+
+  /**
+   * Voice activity message (<code>dbg: vad ... at frame ...</code>).
+   *
+   * @param activity
+   *          The voice activity, 1 for speech, 0 for silence, -1 if unknown.
+   * @param frame
+   *          The frame index.
+   */
+  public default void voiceActivity(int activity, long frame) {}
+
+  /**
+   * Recognition state message (<code>sta: rec ... (...)</code>).
+   *
+   * @param state
+   *          The state, e.g. <code>"start"</code>, <code>"post"</code> or
+   *          <code>"end"</code>.
+   */
+  public default void recognitionState(String state) {}
+
+  /**
+   * Global weights of the recognition and the reference recognition result.
+   */
+  public default void globalWeight(String result, String reference) {}
+
+  /**
+   * Confidence measures of a recognition result (as received).
+   */
+  public default void confidence(String nad, String ned, String tnad, String tned) {}
+
+  /**
+   * Recognition result message (<code>cmd: res: ... acc: ...</code>).
+   *
+   * @param result
+   *          The result.
+   * @param accepted
+   *          The acceptance flag, <code>"1"</code> if the result was
+   *          accepted.
+   */
+  public default void result(String result, String accepted) {}
+
+  /**
+   * Reference recognition result message (<code>dbg: refrec ...</code>).
+   */
+  public default void referenceResult(String result) {}
+
+  /**
+   * Incremental recognition result message (<code>sta: liveres: ...</code>).
+   */
+  public default void incrementalResult(String result) {}
+
+  /**
+   * Start of a recognition post-processing (<code>ppf: start</code>).
+   */
+  public default void postprocStart() {}
+
+  /**
+   * End of a recognition post-processing (<code>ppf: end</code>).
+   */
+  public default void postprocEnd() {}
+
+  /**
+   * Frame of a recognition post-processing (<code>ppf: frm: ...</code>).
+   */
+  public default void postprocFrame(String recPhn, String refPhn, double lsr,
+    double nll, String recOut) {}
+
+  /**
+   * Result of a recognition post-processing (<code>ppf: res: ...</code>).
+   */
+  public default void postprocResult(String result) {}
+
+  /**
+   * The recognizer wrapper updated an option (<code>Option updated
+   * ...=...</code>).
+   */
+  public default void optionUpdated(String name, String value) {}
+}
@@ -0,0 +1,98 @@
+package de.tucottbus.kt.csl.speech;
+
+/**
+ * Immutable trie of keywords, each mapped to a non-negative integer. Finds
+ * the longest keyword a text starts with in time linear in the keyword
+ * length and without allocating objects.
+ */
+final class KeywordTrie
+{
+  private static final class Node
+  {
+    char[] chars = new char[0];
+    Node[] next = new Node[0];
+    int value = -1;
+    int depth;
+
+    Node child(char c)
+    {
+      for (int i=0; i<chars.length; i++)
+        if (chars[i]==c)
+          return next[i];
+      return null;
+    }
+  }
+
+  private final Node root = new Node();
+
+  /**
+   * Creates a new keyword trie.
+   *
+   * @param keywords
+   *          The keywords, none of which may be empty. A keyword is mapped to
+   *          its index in this array.
+   */
+  KeywordTrie(String... keywords)
+  {
+    for (int k=0; k<keywords.length; k++)
+    {
+      String keyword = keywords[k];
+      if (keyword==null || keyword.isEmpty())
+        throw new IllegalArgumentException("Empty keyword");
+      Node node = root;
+      for (int i=0; i<keyword.length(); i++)
+      {
+        char c = keyword.charAt(i);
+        Node child = node.child(c);
+        if (child==null)
+        {
+          int n = node.chars.length;
+          char[] chars = new char[n+1];
+          Node[] next = new Node[n+1];
+          System.arraycopy(node.chars,0,chars,0,n);
+          System.arraycopy(node.next,0,next,0,n);
+          chars[n] = c;
+          next[n] = child = new Node();
+          child.depth = i+1;
+          node.chars = chars;
+          node.next = next;
+        }
+        node = child;
+      }
+      if (node.value>=0)
+        throw new IllegalArgumentException("Duplicate keyword \""+keyword+"\"");
+      node.value = k;
+    }
+  }
+
+  /**
+   * Finds the longest keyword shorter than a given length the text starts
+   * with at a given offset.
+   *
+   * @param text
+   *          The text.
+   * @param offset
+   *          The offset of the first character to compare.
+   * @param maxLength
+   *          Only keywords shorter than this are considered.
+   * @return The index of the keyword or -1 if the text does not start with any
+   *         of the keywords.
+   */
+  int find(String text, int offset, int maxLength)
+  {
+    int value = -1;
+    Node node = root;
+    for (int i=offset; i<text.length() && node.depth+1<maxLength; i++)
+    {
+      node = node.child(text.charAt(i));
+      if (node==null)
+        break;
+      if (node.value>=0)
+        value = node.value;
+    }
+    return value;
+  }
+
+}
+
+// EOF
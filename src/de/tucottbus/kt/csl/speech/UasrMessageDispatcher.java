@@ -0,0 +1,548 @@
+package de.tucottbus.kt.csl.speech;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decodes the messages of the dLabPro recognizer and dispatches them to an
+ * {@link IUasrMessageHandler}.
+ *
+ * <h3>Remarks:</h3>
+ * <ul>
+ *   <li>A message consists of a type character (<code>'&lt;'</code> for
+ *     recognizer output, <code>':'</code> for messages of the recognizer
+ *     wrapper, <code>'!'</code> for errors, ...) followed by the message
+ *     text.</li>
+ *   <li>The message kind is determined by the keyword the text starts with
+ *     (e.g. <code>"gui: frm: "</code>), found in a precomputed trie in a
+ *     single pass over the keyword.</li>
+ *   <li>The frequent numeric messages (levels, voice activity, collected
+ *     speech segments and post-processing frames) are decoded by hand-written
+ *     parsers which neither use regular expressions nor allocate strings. All
+ *     other messages, and numeric messages the parsers do not accept, are
+ *     matched against the one regular expression of their kind.</li>
+ *   <li>If a message does not match the pattern of its keyword, it is matched
+ *     against the patterns of shorter keywords it starts with (e.g.
+ *     <code>"sta: rec skip for "</code> and <code>"sta: rec "</code>). A
+ *     message not starting with any keyword is not matched at all.</li>
+ *   <li>The dispatcher is stateless and may be used by several threads.</li>
+ * </ul>
+ */
+public final class UasrMessageDispatcher
+{
+  // -- Message kinds --
+
+  private static final int GUI_LVL        = 0;
+  private static final int WRP_RECFAIL    = 1;
+  private static final int STA_RECINIT    = 2;
+  private static final int STA_BUFSKP     = 3;
+  private static final int STA_VADCOL     = 4;
+  private static final int STA_RECSKP     = 5;
+  private static final int STA_VOCCHG     = 6;
+  private static final int DBG_VAD        = 7;
+  private static final int STA_REC        = 8;
+  private static final int DBG_RECGW      = 9;
+  private static final int DBG_RECNAD     = 10;
+  private static final int CMD_RES        = 11;
+  private static final int DBG_REFREC     = 12;
+  private static final int STA_INCRES     = 13;
+  private static final int PPF_START      = 14;
+  private static final int PPF_END        = 15;
+  private static final int PPF_FRM        = 16;
+  private static final int PPF_RES        = 17;
+  private static final int WRP_OPTUPD     = 18;
+
+  /**
+   * The keywords by message kind.
+   */
+  private static final String[] KEYWORDS =
+  {
+    "gui: frm: ",
+    "Recognizer failed to start",
+    "sta: online recognizer initialized",
+    "sta: buf skipped: ",
+    "sta: vad collected ",
+    "sta: rec skip for ",
+    "sta: voc change: ",
+    "dbg: vad ",
+    "sta: rec ",
+    "dbg: rec gw: ",
+    "dbg: rec nad: ",
+    "cmd: res: ",
+    "dbg: refrec ",
+    "sta: liveres: ",
+    "ppf: start",
+    "ppf: end",
+    "ppf: frm: ",
+    "ppf: res: ",
+    "Option updated "
+  };
+
+  /**
+   * The message types by message kind.
+   */
+  private static final char[] TYPES =
+  {
+    '<', ':', '<', '<', '<', '<', '<', '<', '<', '<',
+    '<', '<', '<', '<', '<', '<', '<', '<', ':'
+  };
+
+  /**
+   * The patterns by message kind, <code>null</code> for messages consisting
+   * of the keyword only.
+   */
+  private static final Pattern[] PATTERNS =
+  {
+    Pattern.compile("gui: frm: (.*?) lvl: (.*?) tim: (.*?)"),
+    null,
+    null,
+    Pattern.compile("sta: buf skipped: (.*?)"),
+    Pattern.compile("sta: vad collected (.*?) frames from (.*?) \\(sigmax: (.*?)\\)"),
+    Pattern.compile("sta: rec skip for (.*?)"),
+    Pattern.compile("sta: voc change: (.*?)(\\s(.*?))*?"),
+    Pattern.compile("dbg: vad (.*?) at frame (.*?)"),
+    Pattern.compile("sta: rec (.*?) \\((.*?)\\)"),
+    Pattern.compile("dbg: rec gw: (.*?) (.*?)"),
+    Pattern.compile("dbg: rec nad: (.*?) ned: (.*?) tnad: (.*?) tned: (.*?)"),
+    Pattern.compile("cmd: res: (.*?) acc: (.*?)"),
+    Pattern.compile("dbg: refrec (.*?)"),
+    Pattern.compile("sta: liveres: (.*?)"),
+    null,
+    null,
+    Pattern.compile("ppf: frm: (.*?)\t(.*?)\t(.*?)\t(.*?)\t(.*?)"),
+    Pattern.compile("ppf: res: (.*?)"),
+    Pattern.compile("Option updated (.*?)=(.*?)")
+  };
+
+  private static final KeywordTrie TRIE = new KeywordTrie(KEYWORDS);
+
+  /**
+   * Maximal number of digits of integers decoded by the hand-written parsers.
+   */
+  private static final int MAX_DIGITS = 18;
+
+  /**
+   * Powers of ten exactly representable as doubles.
+   */
+  private static final double[] POW10 = new double[23];
+  static
+  {
+    POW10[0] = 1;
+    for (int i=1; i<POW10.length; i++)
+      POW10[i] = POW10[i-1]*10;
+  }
+
+  // -- Fields --
+
+  private final IUasrMessageHandler handler;
+
+  private final boolean parsers;
+
+  // -- Life cycle --
+
+  /**
+   * Creates a new message dispatcher.
+   *
+   * @param handler
+   *          The message handler.
+   */
+  public UasrMessageDispatcher(IUasrMessageHandler handler)
+  {
+    this(handler,true);
+  }
+
+  /**
+   * Creates a new message dispatcher.
+   *
+   * @param handler
+   *          The message handler.
+   * @param parsers
+   *          If <code>false</code>, all messages are matched against regular
+   *          expressions (for testing).
+   */
+  UasrMessageDispatcher(IUasrMessageHandler handler, boolean parsers)
+  {
+    if (handler==null)
+      throw new IllegalArgumentException("Handler must not be null");
+    this.handler = handler;
+    this.parsers = parsers;
+  }
+
+  // -- Dispatching --
+
+  /**
+   * Decodes a message and dispatches it to the handler.
+   *
+   * @param message
+   *          The message: the type character followed by the text.
+   * @return <code>true</code> if the message was dispatched,
+   *         <code>false</code> if it is not known.
+   */
+  public boolean dispatch(String message)
+  {
+    if (message.length()<2)
+      return false;
+    char type = message.charAt(0);
+    int kind = TRIE.find(message,1,Integer.MAX_VALUE);
+    for (; kind>=0; kind=TRIE.find(message,1,KEYWORDS[kind].length()))
+      if (TYPES[kind]==type && dispatch(kind,message))
+        return true;
+    return false;
+  }
+
+  /**
+   * Decodes and dispatches a message of a known kind.
+   *
+   * @return <code>true</code> if the message was dispatched,
+   *         <code>false</code> if it does not match its kind.
+   */
+  private boolean dispatch(int kind, String message)
+  {
+    if (PATTERNS[kind]==null)
+    {
+      if (message.length()!=KEYWORDS[kind].length()+1)
+        return false;
+      switch (kind)
+      {
+      case WRP_RECFAIL: handler.recognizerFailed(message.substring(1)); break;
+      case STA_RECINIT: handler.recognizerInitialized(message.substring(1)); break;
+      case PPF_START  : handler.postprocStart(); break;
+      case PPF_END    : handler.postprocEnd(); break;
+      }
+      return true;
+    }
+
+    if (parsers)
+    {
+      int from = KEYWORDS[kind].length()+1;
+      switch (kind)
+      {
+      case GUI_LVL   : if (parseLevel(message,from)) return true; break;
+      case DBG_VAD   : if (parseVoiceActivity(message,from)) return true; break;
+      case STA_VADCOL: if (parseVadCollected(message,from)) return true; break;
+      case PPF_FRM   : if (parsePostprocFrame(message,from)) return true; break;
+      }
+    }
+
+    return match(kind,message.substring(1));
+  }
+
+  /**
+   * Matches a message text against the pattern of its kind and dispatches it.
+   *
+   * @return <code>true</code> if the message was dispatched,
+   *         <code>false</code> if it does not match.
+   */
+  private boolean match(int kind, String msg)
+  {
+    Matcher m = PATTERNS[kind].matcher(msg);
+    if (!m.matches())
+      return false;
+
+    switch (kind)
+    {
+    case GUI_LVL:
+      handler.level(toLong(m.group(1)),toDouble(m.group(2)));
+      break;
+    case STA_BUFSKP:
+      handler.bufferSkipped();
+      break;
+    case STA_VADCOL:
+      handler.vadCollected();
+      break;
+    case STA_RECSKP:
+      handler.recognitionSkipped();
+      break;
+    case STA_VOCCHG:
+      handler.dialogStateChanged(toLong(m.group(1)),msg);
+      break;
+    case DBG_VAD:
+      int activity = -1;
+      if      ("on" .equals(m.group(1))) activity = 1;
+      else if ("off".equals(m.group(1))) activity = 0;
+      handler.voiceActivity(activity,toLong(m.group(2)));
+      break;
+    case STA_REC:
+      handler.recognitionState(m.group(1));
+      break;
+    case DBG_RECGW:
+      handler.globalWeight(m.group(1),m.group(2));
+      break;
+    case DBG_RECNAD:
+      handler.confidence(m.group(1),m.group(2),m.group(3),m.group(4));
+      break;
+    case CMD_RES:
+      handler.result(m.group(1),m.group(2));
+      break;
+    case DBG_REFREC:
+      handler.referenceResult(m.group(1));
+      break;
+    case STA_INCRES:
+      handler.incrementalResult(m.group(1));
+      break;
+    case PPF_FRM:
+      handler.postprocFrame(m.group(1),m.group(2),toDouble(m.group(3)),
+        toDouble(m.group(4)),m.group(5));
+      break;
+    case PPF_RES:
+      handler.postprocResult(m.group(1));
+      break;
+    case WRP_OPTUPD:
+      handler.optionUpdated(m.group(1),m.group(2));
+      break;
+    }
+    return true;
+  }
+
+  // -- Hand-written parsers --
+
+  /**
+   * Parses <code>gui: frm: <i>long</i> lvl: <i>double</i> tim: ...</code>.
+   */
+  private boolean parseLevel(String s, int from)
+  {
+    if (hasLineTerminator(s,from))
+      return false;
+    int end = skipInteger(s,from);
+    if (end<0 || !s.startsWith(" lvl: ",end))
+      return false;
+    int lvl = end+6;
+    int lvlEnd = skipDouble(s,lvl);
+    if (lvlEnd<0 || !s.startsWith(" tim: ",lvlEnd))
+      return false;
+    handler.level(parseInteger(s,from,end),parseDouble(s,lvl,lvlEnd));
+    return true;
+  }
+
+  /**
+   * Parses <code>dbg: vad <i>activity</i> at frame <i>long</i></code>.
+   */
+  private boolean parseVoiceActivity(String s, int from)
+  {
+    if (hasLineTerminator(s,from))
+      return false;
+    int at = s.indexOf(" at frame ",from);
+    if (at<0)
+      return false;
+    int frame = at+10;
+    if (skipInteger(s,frame)!=s.length())
+      return false;
+    int activity = -1;
+    if      (at-from==2 && s.startsWith("on" ,from)) activity = 1;
+    else if (at-from==3 && s.startsWith("off",from)) activity = 0;
+    handler.voiceActivity(activity,parseInteger(s,frame,s.length()));
+    return true;
+  }
+
+  /**
+   * Parses <code>sta: vad collected ... frames from ... (sigmax: ...)</code>.
+   */
+  private boolean parseVadCollected(String s, int from)
+  {
+    if (hasLineTerminator(s,from))
+      return false;
+    int frames = s.indexOf(" frames from ",from);
+    if (frames<0)
+      return false;
+    int sigmax = s.indexOf(" (sigmax: ",frames+13);
+    if (sigmax<0 || sigmax+10>=s.length() || s.charAt(s.length()-1)!=')')
+      return false;
+    handler.vadCollected();
+    return true;
+  }
+
+  /**
+   * Parses <code>ppf: frm: <i>rec</i>\t<i>ref</i>\t<i>double</i>\t<i>double</i>\t<i>out</i></code>.
+   */
+  private boolean parsePostprocFrame(String s, int from)
+  {
+    if (hasLineTerminator(s,from))
+      return false;
+    int t1 = s.indexOf('\t',from);
+    int t2 = t1<0 ? -1 : s.indexOf('\t',t1+1);
+    int t3 = t2<0 ? -1 : s.indexOf('\t',t2+1);
+    int t4 = t3<0 ? -1 : s.indexOf('\t',t3+1);
+    if (t4<0 || skipDouble(s,t2+1)!=t3 || skipDouble(s,t3+1)!=t4)
+      return false;
+    handler.postprocFrame(s.substring(from,t1),s.substring(t1+1,t2),
+      parseDouble(s,t2+1,t3),parseDouble(s,t3+1,t4),s.substring(t4+1));
+    return true;
+  }
+
+  /**
+   * Determines if a string contains a line terminator (which the patterns do
+   * not match) from a given index on.
+   */
+  private static boolean hasLineTerminator(String s, int from)
+  {
+    for (int i=from; i<s.length(); i++)
+    {
+      char c = s.charAt(i);
+      if (c=='\n' || c=='\r' || c=='\u0085' || c=='\u2028' || c=='\u2029')
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Skips an integer of at most {@link #MAX_DIGITS} digits with an optional
+   * sign.
+   *
+   * @return The index after the integer, -1 if there is none.
+   */
+  private static int skipInteger(String s, int from)
+  {
+    int i = from;
+    if (i<s.length() && (s.charAt(i)=='-' || s.charAt(i)=='+'))
+      i++;
+    int digits = i;
+    while (i<s.length() && s.charAt(i)>='0' && s.charAt(i)<='9')
+      i++;
+    return i>digits && i-digits<=MAX_DIGITS ? i : -1;
+  }
+
+  /**
+   * Skips a decimal number (<code>[+-]d[.d][(e|E)[+-]d]</code>) or
+   * <code>nan</code>.
+   *
+   * @return The index after the number, -1 if there is none.
+   */
+  private static int skipDouble(String s, int from)
+  {
+    if (s.startsWith("nan",from))
+      return from+3;
+    int i = from;
+    if (i<s.length() && (s.charAt(i)=='-' || s.charAt(i)=='+'))
+      i++;
+    int digits = i;
+    while (i<s.length() && s.charAt(i)>='0' && s.charAt(i)<='9')
+      i++;
+    if (i==digits)
+      return -1;
+    if (i<s.length() && s.charAt(i)=='.')
+    {
+      i++;
+      while (i<s.length() && s.charAt(i)>='0' && s.charAt(i)<='9')
+        i++;
+    }
+    if (i<s.length() && (s.charAt(i)=='e' || s.charAt(i)=='E'))
+    {
+      int e = skipInteger(s,i+1);
+      if (e<0)
+        return -1;
+      i = e;
+    }
+    return i;
+  }
+
+  /**
+   * Parses an integer skipped by {@link #skipInteger(String, int)}.
+   */
+  private static long parseInteger(String s, int from, int to)
+  {
+    boolean negative = s.charAt(from)=='-';
+    if (negative || s.charAt(from)=='+')
+      from++;
+    long value = 0;
+    for (int i=from; i<to; i++)
+      value = value*10 + (s.charAt(i)-'0');
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parses a number skipped by {@link #skipDouble(String, int)}. The result
+   * equals that of {@link Double#parseDouble(String)}: numbers with up to 15
+   * significant digits and a decimal exponent up to 22 are computed by one
+   * exact division or multiplication, all others are passed on to
+   * <code>Double.parseDouble</code>.
+   */
+  private static double parseDouble(String s, int from, int to)
+  {
+    if (s.startsWith("nan",from))
+      return Double.NaN;
+    int i = from;
+    boolean negative = s.charAt(i)=='-';
+    if (negative || s.charAt(i)=='+')
+      i++;
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean fraction = false;
+    for (; i<to; i++)
+    {
+      char c = s.charAt(i);
+      if (c=='.')
+        fraction = true;
+      else if (c=='e' || c=='E')
+        break;
+      else
+      {
+        if (mantissa!=0 || c!='0')
+          digits++;
+        mantissa = mantissa*10 + (c-'0');
+        if (fraction)
+          exponent--;
+        if (digits>15)
+          return Double.parseDouble(s.substring(from,to));
+      }
+    }
+    if (i<to)
+    {
+      long e = parseInteger(s,i+1,to);
+      if (Math.abs(e)>POW10.length)
+        return Double.parseDouble(s.substring(from,to));
+      exponent += (int)e;
+    }
+    double value;
+    if (mantissa==0)
+      value = 0;
+    else if (exponent<0 && -exponent<POW10.length)
+      value = mantissa/POW10[-exponent];
+    else if (exponent>=0 && exponent<POW10.length)
+      value = mantissa*POW10[exponent];
+    else
+      return Double.parseDouble(s.substring(from,to));
+    return negative ? -value : value;
+  }
+
+  // -- Conversions --
+
+  /**
+   * Converts a captured string to a long integer. Errors are printed and
+   * yield 0.
+   */
+  public static long toLong(String s)
+  {
+    try
+    {
+      return Long.valueOf(s);
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+      return 0;
+    }
+  }
+
+  /**
+   * Converts a captured string to a double precision float. <code>nan</code>
+   * yields {@link Double#NaN}, errors are printed and yield 0.
+   */
+  public static double toDouble(String s)
+  {
+    if ("nan".equals(s))
+      return Double.NaN;
+    try
+    {
+      return Double.valueOf(s);
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+      return 0;
+    }
+  }
+
+}
+
+// EOF
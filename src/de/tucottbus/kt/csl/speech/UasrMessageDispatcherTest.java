@@ -0,0 +1,191 @@
+package de.tucottbus.kt.csl.speech;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import de.tucottbus.kt.csl.test.TestReport;
+
+/**
+ * Tests {@link UasrMessageDispatcher}: the hand-written parsers must dispatch
+ * exactly what the regular expressions dispatch, for well-formed as well as
+ * for unusual messages.
+ */
+public class UasrMessageDispatcherTest
+{
+  /**
+   * Records the handler calls as strings. Numbers are recorded bit exact.
+   */
+  static class Recorder implements IUasrMessageHandler
+  {
+    final List<String> calls = new ArrayList<String>();
+
+    private static String d(double value)
+    {
+      return Long.toHexString(Double.doubleToRawLongBits(value));
+    }
+
+    @Override public void level(long frame, double level) { calls.add("level "+frame+" "+d(level)); }
+    @Override public void recognizerFailed(String msg) { calls.add("recognizerFailed "+msg); }
+    @Override public void recognizerInitialized(String msg) { calls.add("recognizerInitialized "+msg); }
+    @Override public void bufferSkipped() { calls.add("bufferSkipped"); }
+    @Override public void vadCollected() { calls.add("vadCollected"); }
+    @Override public void recognitionSkipped() { calls.add("recognitionSkipped"); }
+    @Override public void dialogStateChanged(long state, String msg) { calls.add("dialogStateChanged "+state+" "+msg); }
+    @Override public void voiceActivity(int activity, long frame) { calls.add("voiceActivity "+activity+" "+frame); }
+    @Override public void recognitionState(String state) { calls.add("recognitionState "+state); }
+    @Override public void globalWeight(String result, String reference) { calls.add("globalWeight "+result+"|"+reference); }
+    @Override public void confidence(String nad, String ned, String tnad, String tned) { calls.add("confidence "+nad+"|"+ned+"|"+tnad+"|"+tned); }
+    @Override public void result(String result, String accepted) { calls.add("result "+result+"|"+accepted); }
+    @Override public void referenceResult(String result) { calls.add("referenceResult "+result); }
+    @Override public void incrementalResult(String result) { calls.add("incrementalResult "+result); }
+    @Override public void postprocStart() { calls.add("postprocStart"); }
+    @Override public void postprocEnd() { calls.add("postprocEnd"); }
+    @Override public void postprocFrame(String recPhn, String refPhn, double lsr, double nll, String recOut) { calls.add("postprocFrame "+recPhn+"|"+refPhn+"|"+d(lsr)+"|"+d(nll)+"|"+recOut); }
+    @Override public void postprocResult(String result) { calls.add("postprocResult "+result); }
+    @Override public void optionUpdated(String name, String value) { calls.add("optionUpdated "+name+"|"+value); }
+  }
+
+  private static final String[] MESSAGES =
+  {
+    "<gui: frm: 1234 lvl: -45.67 tim: 12340",
+    "<gui: frm: 0 lvl: nan tim: 0",
+    "<gui: frm: -7 lvl: +1e-3 tim: x",
+    "<gui: frm: 12 lvl: 0.1 tim: ",
+    "<gui: frm: 12 lvl: -0 tim: 1",
+    "<gui: frm: 12 lvl: 1.7976931348623157E308 tim: 1",
+    "<gui: frm: 12 lvl: 123456789012345678901234 tim: 1",
+    "<gui: frm: 12 lvl: 4.9e-324 tim: 1",
+    "<gui: frm: 12 lvl: .5 tim: 1",
+    "<gui: frm: 12 lvl: 5. tim: 1",
+    "<gui: frm: 12 lvl: 1d tim: 1",
+    "<gui: frm: 12 lvl: -inf tim: 1",
+    "<gui: frm: 12 lvl: -3.5 tim: 1 lvl: 2 tim: 3",
+    "<gui: frm: 12 lvl: -3.5 tom: 1",
+    "<gui: frm: 1234567890123456789012 lvl: -3.5 tim: 1",
+    "<gui: frm: 12 lvl:-3.5 tim: 1",
+    ":gui: frm: 12 lvl: -3.5 tim: 1",
+    "<gui: frm: 12 lvl: -3.5 tim: 1\n",
+    "<dbg: vad on at frame 184",
+    "<dbg: vad off at frame 362",
+    "<dbg: vad maybe at frame 5",
+    "<dbg: vad on at frame x",
+    "<dbg: vad on at frame 1 at frame 2",
+    "<dbg: vad  at frame 3",
+    "<sta: vad collected 178 frames from 184 (sigmax: 12434.9)",
+    "<sta: vad collected 178 frames from 184 (sigmax: 12434.9",
+    "<sta: vad collected x frames from y (sigmax: z) (sigmax: w)",
+    "<sta: buf skipped: 1",
+    "<sta: rec skip for 23 frames",
+    "<sta: rec skip for (x)",
+    "<sta: rec start (362)",
+    "<sta: rec post (362)",
+    "<sta: rec end (362)",
+    "<sta: rec end",
+    "<sta: voc change: 1 wake",
+    "<sta: voc change: 0",
+    "<dbg: rec gw: -517.054 -352.949",
+    "<dbg: rec nad: 1.9202 ned: 0.4734 tnad: 1.0000 tned: 1.0000",
+    "<cmd: res: (FVR[__WAKEUP__]) acc: 0",
+    "<dbg: refrec FVR[__WAKEUP__]",
+    "<sta: liveres: LIGHTS[ON[ALL]] (Licht)",
+    "<sta: online recognizer initialized",
+    "<sta: online recognizer initialized!",
+    ":Recognizer failed to start",
+    "<Recognizer failed to start",
+    "<ppf: start",
+    "<ppf: frm: a:\ta\t-1.2345\t12.5\ta:",
+    "<ppf: frm: a:\ta\tnan\t12.5\ta:\tb",
+    "<ppf: frm: a:\ta\t-1.2345\tx\ta:",
+    "<ppf: frm: a:\ta\t-1.2345",
+    "<ppf: res: FVR[LIGHTS[ON[ALL]]]",
+    "<ppf: end",
+    "<ppf: ended",
+    ":Option updated data.vadinfo=3_10_mod.vad",
+    "<Option updated a=b",
+    "!rec: audio device buffer overflow",
+    "<dbg: unknown message",
+    "<",
+    "<gui: frm: "
+  };
+
+  private static List<String> dispatch(String message, boolean parsers, boolean[] dispatched)
+  {
+    Recorder recorder = new Recorder();
+    dispatched[0] = new UasrMessageDispatcher(recorder,parsers).dispatch(message);
+    return recorder.calls;
+  }
+
+  public static void main(String[] args)
+  {
+    TestReport report = new TestReport();
+    boolean[] dispatched = new boolean[1];
+
+    // Parsers versus regular expressions
+    int failures = 0;
+    List<String> messages = new ArrayList<String>();
+    for (String message : MESSAGES)
+      messages.add(message);
+    Random random = new Random(0);
+    for (int i=0; i<20000; i++)
+    {
+      double value;
+      String text;
+      switch (i%4)
+      {
+      case 0 : value = -96+random.nextDouble()*96; text = String.format(Locale.US,"%.2f",value); break;
+      case 1 : value = random.nextGaussian()*Math.pow(10,random.nextInt(40)-20); text = Double.toString(value); break;
+      case 2 : value = random.nextDouble(); text = String.format(Locale.US,"%.17f",value); break;
+      default: value = random.nextFloat()*100; text = String.format(Locale.US,"%e",value); break;
+      }
+      messages.add("<gui: frm: "+random.nextInt(1000000)+" lvl: "+text+" tim: 0");
+      messages.add("<ppf: frm: a\tb\t"+text+"\t"+text+"\tc");
+    }
+    int unprocessed = 0;
+    for (String message : messages)
+    {
+      List<String> parsed = dispatch(message,true,dispatched);
+      boolean parsedDispatched = dispatched[0];
+      List<String> matched = dispatch(message,false,dispatched);
+      if (!parsed.equals(matched) || parsedDispatched!=dispatched[0])
+      {
+        failures++;
+        System.out.println("  "+message.replace("\t","\\t")+": "+parsed+" != "+matched);
+      }
+      if (!dispatched[0])
+        unprocessed++;
+    }
+    report.check("parsers equal regular expressions ("+messages.size()+" messages)",failures==0);
+    report.check("unknown and malformed messages not dispatched",unprocessed==15);
+
+    // Values
+    List<String> calls = dispatch("<gui: frm: 1234 lvl: -45.67 tim: 12340",true,dispatched);
+    report.check("level",dispatched[0] && calls.size()==1 && calls.get(0).equals("level 1234 "
+      +Long.toHexString(Double.doubleToRawLongBits(-45.67))));
+    calls = dispatch("<dbg: vad off at frame 362",true,dispatched);
+    report.check("voice activity",calls.size()==1 && calls.get(0).equals("voiceActivity 0 362"));
+    calls = dispatch("<sta: rec skip for (x)",true,dispatched);
+    report.check("longest keyword first",calls.size()==1 && calls.get(0).equals("recognitionSkipped"));
+    calls = dispatch("<sta: rec skip (x)",true,dispatched);
+    report.check("shorter keyword on mismatch",calls.size()==1 && calls.get(0).equals("recognitionState skip"));
+
+    // Dispatching time
+    int runs = 2000000;
+    IUasrMessageHandler sink = new IUasrMessageHandler() {};
+    UasrMessageDispatcher dispatcher = new UasrMessageDispatcher(sink);
+    String level = "<gui: frm: 123456 lvl: -45.67 tim: 1234560";
+    for (int i=0; i<runs; i++)
+      dispatcher.dispatch(level);
+    long t0 = System.nanoTime();
+    for (int i=0; i<runs; i++)
+      dispatcher.dispatch(level);
+    long t1 = System.nanoTime();
+    report.info("level message: %.0f ns",(double)(t1-t0)/runs);
+
+    report.exit();
+  }
+
+}
+
+// EOF
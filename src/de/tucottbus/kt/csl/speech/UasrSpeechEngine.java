@@ -7,8 +7,6 @@ import java.util.Observable;
 import java.util.Observer;
 import java.util.Properties;
 import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import de.tucottbus.kt.dlabpro.Executable;
 import de.tucottbus.kt.dlabpro.recognizer.Recognizer;
@@ -411,37 +409,20 @@ public class UasrSpeechEngine implements ISpeechEngine, Observer
   public void update(Observable o, Object arg)
   {
     assert o==recognizer : "Observable is not the wrapped recognizer instance";
-    char   type = ((String)arg).charAt(0);
-    String msg  = ((String)arg).substring(1);
-    
-    // Process messages
-    if (processGuiMessage         (type,msg)) return;
-    if (processStateMessage       (type,msg)) return;
-    if (processRecognitionMessage (type,msg)) return;
-    if (processPostprocMessage    (type,msg)) return;
-    if (processOptionUpdateMessage(type,msg)) return;
+    String message = (String)arg;
+    if (dispatcher.dispatch(message)) return;
 
     // Echo unprocessed messages
-    echoMessage(type,msg+" *UNPROCESSED*");
+    echoMessage(message.charAt(0),message.substring(1)+" *UNPROCESSED*");
   }
 
   // -- Messages --
 
-  private Pattern PAT_CMD_RES    = Pattern.compile("cmd: res: (.*?) acc: (.*?)");
-  private Pattern PAT_DBG_REFREC = Pattern.compile("dbg: refrec (.*?)");
-  private Pattern PAT_DBG_RECGW  = Pattern.compile("dbg: rec gw: (.*?) (.*?)");
-  private Pattern PAT_DBG_RECNAD = Pattern.compile("dbg: rec nad: (.*?) ned: (.*?) tnad: (.*?) tned: (.*?)");
-  private Pattern PAT_DBG_VAD    = Pattern.compile("dbg: vad (.*?) at frame (.*?)");
-  private Pattern PAT_GUI_LVL    = Pattern.compile("gui: frm: (.*?) lvl: (.*?) tim: (.*?)");
-  private Pattern PAT_STA_BUFSKP = Pattern.compile("sta: buf skipped: (.*?)");
-  private Pattern PAT_STA_INCRES = Pattern.compile("sta: liveres: (.*?)");
-  private Pattern PAT_STA_REC    = Pattern.compile("sta: rec (.*?) \\((.*?)\\)");
-  private Pattern PAT_STA_RECSKP = Pattern.compile("sta: rec skip for (.*?)");
-  private Pattern PAT_STA_VADCOL = Pattern.compile("sta: vad collected (.*?) frames from (.*?) \\(sigmax: (.*?)\\)");
-  private Pattern PAT_STA_VOCCHG = Pattern.compile("sta: voc change: (.*?)(\\s(.*?))*?");
-  private Pattern PAT_PPF_FRM    = Pattern.compile("ppf: frm: (.*?)\t(.*?)\t(.*?)\t(.*?)\t(.*?)");
-  private Pattern PAT_PPF_RES    = Pattern.compile("ppf: res: (.*?)");
-  private Pattern PAT_OPT_UPD    = Pattern.compile("Option updated (.*?)=(.*?)");
+  /**
+   * Decodes the messages of the dLabPro recognizer.
+   */
+  private final UasrMessageDispatcher dispatcher
+    = new UasrMessageDispatcher(new MessageHandler());
   
   /**
    * Echoes a message from the dLabPro recognizer at the standard or the error output.
@@ -461,361 +442,199 @@ public class UasrSpeechEngine implements ISpeechEngine, Observer
   }
   
   /**
-   * Processes a GUI message from the dLabPro recognizer.
-   * 
-   * @param type
-   *          The message type. The method only processes output messages where
-   *          <code>type='&lt;'</code>.
-   * @param msg
-   *          The message. The method processes only message starting with <code>"gui: "</code>.
-   * @return <code>true</code> if the message was processed, <code>false</code> otherwise.
+   * Processes the messages of the dLabPro recognizer.
    */
-  protected boolean processGuiMessage(char type, String msg)
+  private class MessageHandler implements IUasrMessageHandler
   {
-    if (type!='<') return false;
-    Matcher matcher = PAT_GUI_LVL.matcher(msg);
-    if (!matcher.matches()) return false;
-
-    // Convert to speech message
-    lvlFrame = capturedLong(matcher,1);
-    lvlValue = (float)Math.max(capturedDouble(matcher,2),lvlValue);
-    lvlCount++;
-    if (lvlCount==10)
-    {
-      fire(new LevelEvent(this,lvlFrame,lvlValue));
-      lvlCount = 0;
-      lvlValue = -96;
+    // GUI messages
+    
+    @Override
+    public void level(long frame, double level)
+    {
+      lvlFrame = frame;
+      lvlValue = (float)Math.max(level,lvlValue);
+      lvlCount++;
+      if (lvlCount==10)
+      {
+        fire(new LevelEvent(UasrSpeechEngine.this,lvlFrame,lvlValue));
+        lvlCount = 0;
+        lvlValue = -96;
+      }
     }
+
+    // State messages
     
-    return true;
-  }
-  
-  /**
-   * Processes state messages from the dLabPro recognizer.
-   * 
-   * @param type
-   *          The message type. The method only processes output messages where
-   *          <code>type='&lt;'</code>.
-   * @param msg
-   *          The message.
-   * @return <code>true</code> if the message was processed, <code>false</code> otherwise.
-   */
-  protected boolean processStateMessage(char type, String msg)
-  {
-    // Special: recognizer wrapper message
-    if (type==':' && "Recognizer failed to start".equals(msg))
+    @Override
+    public void recognizerFailed(String msg)
     {
       recognizer = null;
       recBusy = false;
       recFailure = true;
-      echoMessage(type,msg);
-      fire(new StateChangedEvent(this,-1));
-      return true;
+      echoMessage(':',msg);
+      fire(new StateChangedEvent(UasrSpeechEngine.this,-1));
     }
-    
-    if (type!='<') return false;
-    
-    // State message
-    if ("sta: online recognizer initialized".equals(msg))
+
+    @Override
+    public void recognizerInitialized(String msg)
     {
       recBusy = false;
       recFailure = false;
-      echoMessage(type,msg);
-      fire(new StateChangedEvent(this,-1));
-      return true;
+      echoMessage('<',msg);
+      fire(new StateChangedEvent(UasrSpeechEngine.this,-1));
     }
 
-    Matcher matcher = PAT_STA_BUFSKP.matcher(msg);
-    if (matcher.matches())
+    @Override
+    public void bufferSkipped()
     {
       // TODO: Fire some event?
       Log.err("WARNING: recognizer skipped speech frames");
-      return true;
     }
-    
-    matcher = PAT_STA_VADCOL.matcher(msg);
-    if (matcher.matches())
+
+    @Override
+    public void vadCollected()
     {
       // TODO: Fire VAD event?
-      return true;
     }
-    
-    matcher = PAT_STA_RECSKP.matcher(msg);
-    if (matcher.matches())
+
+    @Override
+    public void recognitionSkipped()
     {
       // TODO: Fire state changed event?
-      return true;
     }
 
-    // Dialog state message
-    matcher = PAT_STA_VOCCHG.matcher(msg);
-    if (matcher.matches())
+    @Override
+    public void dialogStateChanged(long state, String msg)
     {
       int oldDlgState = dlgState;
-      dlgState = (int)capturedLong(matcher,1);
-      StateChangedEvent event = new StateChangedEvent(this,-1);
+      dlgState = (int)state;
+      StateChangedEvent event = new StateChangedEvent(UasrSpeechEngine.this,-1);
       event.listening = oldDlgState==0 && dlgState!=0;
       event.sleeping  = oldDlgState!=0 && dlgState==0;
       fire(event);
-      echoMessage(type,msg);
-      return true;
+      echoMessage('<',msg);
     }
-    
-    // VAD message
-    matcher = PAT_DBG_VAD.matcher(msg);
-    if (matcher.matches())
-    {
-      vadActivity = -1;
-      if      ("on" .equals(matcher.group(1))) vadActivity = 1; 
-      else if ("off".equals(matcher.group(1))) vadActivity = 0;
-      long vadFrame = capturedLong(matcher,2);
-      fire(new VadEvent(this,vadFrame,vadActivity));
-      return true;
+
+    @Override
+    public void voiceActivity(int activity, long frame)
+    {
+      vadActivity = activity;
+      fire(new VadEvent(UasrSpeechEngine.this,frame,vadActivity));
     }
-    
-    return false;
-  }
-  
-  /**
-   * Processes recognition messages from the dLabPro recognizer.
-   * 
-   * @param type
-   *          The message type. The method only processes output messages where
-   *          <code>type='&lt;'</code>.
-   * @param msg
-   *          The message.
-   * @return <code>true</code> if the message was processed, <code>false</code> otherwise.
-   */
-  protected boolean processRecognitionMessage(char type, String msg)
-  {
-    if (type!='<') return false;
 
-    // Recognition state message (start, end, or post)
-    Matcher matcher = PAT_STA_REC.matcher(msg);
-    if (matcher.matches())
+    // Recognition messages
+    
+    @Override
+    public void recognitionState(String state)
     {
-      String cs1 = capturedString(matcher,1);
-      if ("start".equals(cs1))
+      if ("start".equals(state))
       {
         recBusy = true;
-        recEvent = new RecognitionEvent(this);
+        recEvent = new RecognitionEvent(UasrSpeechEngine.this);
         recEvent.incremenral = false;
         ppfEvent = null;
-        fire(new StateChangedEvent(this,-1));
+        fire(new StateChangedEvent(UasrSpeechEngine.this,-1));
       }
-      else if ("post".equals(cs1) || "end".equals(cs1))
+      else if ("post".equals(state) || "end".equals(state))
       {
-        recBusy = (!"end".equals(cs1));
-        fire(new StateChangedEvent(this,-1));
+        recBusy = (!"end".equals(state));
+        fire(new StateChangedEvent(UasrSpeechEngine.this,-1));
         assert recEvent!=null : "No recognition start message received";
         fireRecognitionEvent();
         recEvent = null;
       }
-      return true;
     }
 
-    // Global weight message
-    matcher = PAT_DBG_RECGW.matcher(msg);
-    if (matcher.matches())
+    @Override
+    public void globalWeight(String result, String reference)
     {
-      recEvent.details.setProperty("gw.res",capturedString(matcher,1));
-      recEvent.details.setProperty("gw.ref",capturedString(matcher,2));
-      return true;
+      recEvent.details.setProperty("gw.res",result);
+      recEvent.details.setProperty("gw.ref",reference);
     }
 
-    // Confidence message
-    matcher = PAT_DBG_RECNAD.matcher(msg);
-    if (matcher.matches())
+    @Override
+    public void confidence(String nad, String ned, String tnad, String tned)
     {
-      float nad  = (float)capturedDouble(matcher,1);
-      float ned  = (float)capturedDouble(matcher,2);
-      float tnad = (float)capturedDouble(matcher,3);
-      float tned = (float)capturedDouble(matcher,4);
+      float fNad  = (float)UasrMessageDispatcher.toDouble(nad);
+      float fNed  = (float)UasrMessageDispatcher.toDouble(ned);
+      float fTnad = (float)UasrMessageDispatcher.toDouble(tnad);
+      float fTned = (float)UasrMessageDispatcher.toDouble(tned);
       // TODO: Compute confidence! -->
       float l = 0.5f;
-      recEvent.confidence = l*Math.max(1-ned/tned,-1)+(1-l)*Math.max(1-nad/tnad,-1);
+      recEvent.confidence = l*Math.max(1-fNed/fTned,-1)+(1-l)*Math.max(1-fNad/fTnad,-1);
       // <--
-      recEvent.details.setProperty("nad" ,capturedString(matcher,1));
-      recEvent.details.setProperty("ned" ,capturedString(matcher,2));
-      recEvent.details.setProperty("tnad",capturedString(matcher,3));
-      recEvent.details.setProperty("tned",capturedString(matcher,4));
-      return true;
+      recEvent.details.setProperty("nad" ,nad);
+      recEvent.details.setProperty("ned" ,ned);
+      recEvent.details.setProperty("tnad",tnad);
+      recEvent.details.setProperty("tned",tned);
     }
 
-    // Recognition result message
-    matcher = PAT_CMD_RES.matcher(msg);
-    if (matcher.matches())
+    @Override
+    public void result(String result, String accepted)
     {
-      recEvent.result   = capturedString(matcher,1);
-      recEvent.accepted = "1".equals(capturedString(matcher,2));
-      return true;
+      recEvent.result   = result;
+      recEvent.accepted = "1".equals(accepted);
     }
 
-    // Reference recognition result message
-    matcher = PAT_DBG_REFREC.matcher(msg);
-    if (matcher.matches())
+    @Override
+    public void referenceResult(String result)
     {
-      recEvent.details.setProperty("reference",capturedString(matcher,1));
-      return true;
+      recEvent.details.setProperty("reference",result);
     }
 
-    // Incremental recognition result message
-    matcher = PAT_STA_INCRES.matcher(msg);
-    if (matcher.matches())
+    @Override
+    public void incrementalResult(String result)
     {
-      RecognitionEvent re = new RecognitionEvent(this);
+      RecognitionEvent re = new RecognitionEvent(UasrSpeechEngine.this);
       re.incremenral = true;
-      re.result = capturedString(matcher,1);
+      re.result = result;
       re.text = Fvr.extractComment(re.result);
       fire(re);
       //LCARS.log("USE","inc="+re.result+", txt="+re.text);
-      return true;
     }
 
-    return false;
-  }
-  
-  /**
-   * Processes a recognition post-processing message from the dLabPro recognizer.
-   * 
-   * @param type
-   *          The message type. The method only processes output messages where
-   *          <code>type='&lt;'</code>.
-   * @param msg
-   *          The message. The method processes only messages starting with <code>"ppf:"</code>.
-   * @return <code>true</code> if the message was processed, <code>false</code> otherwise.
-   */
-  protected boolean processPostprocMessage(char type, String msg)
-  {
-    if (type!='<') return false;
+    // Post-processing messages
     
-    if ("ppf: start".equals(msg))
+    @Override
+    public void postprocStart()
     {
-      ppfEvent = new PostprocEvent(this);
-      return true;
+      ppfEvent = new PostprocEvent(UasrSpeechEngine.this);
     }
-    
-    if ("ppf: end".equals(msg))
+
+    @Override
+    public void postprocEnd()
     {
       assert ppfEvent!=null : "No post-processing start message received";
       fire(ppfEvent);
       Log.info("ppf res="+ppfEvent.result);
       ppfEvent = null;
-      return true;
     }
-    
-    Matcher matcher = PAT_PPF_FRM.matcher(msg);
-    if (matcher.matches())
+
+    @Override
+    public void postprocFrame(String recPhn, String refPhn, double lsr,
+      double nll, String recOut)
     {
       assert ppfEvent!=null : "No post-processing start message received";
       PostprocEvent.Frame frame = ppfEvent.new Frame();
-      frame.recPhn = capturedString(matcher,1);
-      frame.refPhn = capturedString(matcher,2);
-      frame.lsr    = (float)capturedDouble(matcher,3);
-      frame.nll    = (float)capturedDouble(matcher,4);
-      frame.recOut = capturedString(matcher,5);
+      frame.recPhn = recPhn;
+      frame.refPhn = refPhn;
+      frame.lsr    = (float)lsr;
+      frame.nll    = (float)nll;
+      frame.recOut = recOut;
       ppfEvent.addFrame(frame);
-      return true;
     }
-    
-    matcher = PAT_PPF_RES.matcher(msg);
-    if (matcher.matches())
+
+    @Override
+    public void postprocResult(String result)
     {
       assert ppfEvent!=null : "No post-processing start message received";
-      ppfEvent.result = capturedString(matcher,1);
-      return true;      
+      ppfEvent.result = result;
     }
 
-    return false;
-  }
-  
-  /**
-   * Processes an option update message from the dLabPro recognizer.
-   * 
-   * @param type
-   *          The message type. The method only processes output messages where
-   *          <code>type=':'</code>.
-   * @param msg
-   *          The message. The method processes only message starting with <code>"Option updated "</code>.
-   * @return <code>true</code> if the message was processed, <code>false</code> otherwise.
-   */
-  protected boolean processOptionUpdateMessage(char type, String msg)
-  {
-    if (type!=':') return false;
-
-    // Option update wrapper message
-    Matcher matcher = PAT_OPT_UPD.matcher(msg);
-    return matcher.matches();
+    // Option update wrapper messages need no processing
   }
 
   // -- Auxiliary methods --
   
-  /**
-   * Returns a capturing group.
-   * 
-   * @param matcher
-   *          The matcher.
-   * @param group
-   *          The index of a capturing group in the matcher's pattern.
-   */
-  protected String capturedString(Matcher matcher, int group)
-  {
-    try
-    {
-      return matcher.group(group);
-    }
-    catch (Exception e)
-    {
-      e.printStackTrace();
-      return null;
-    }
-  }
-  
-  /**
-   * Returns the long representation of a capturing group.
-   * 
-   * @param matcher
-   *          The matcher.
-   * @param group
-   *          The index of a capturing group in the matcher's pattern.
-   */
-  protected long capturedLong(Matcher matcher, int group)
-  {
-    try
-    {
-      return Long.valueOf(matcher.group(group));
-    }
-    catch (Exception e)
-    {
-      e.printStackTrace();
-      return 0;
-    }
-  }
-  
-  /**
-   * Returns the double precision float representation of a capturing group.
-   * 
-   * @param matcher
-   *          The matcher.
-   * @param group
-   *          The index of a capturing group in the matcher's pattern.
-   */
-  protected double capturedDouble(Matcher matcher, int group)
-  {
-    String s = matcher.group(group);
-    if ("nan".equals(s))
-      return Double.NaN;
-    try
-    {
-      return Double.valueOf(s);
-    }
-    catch (Exception e)
-    {
-      e.printStackTrace();
-      return 0;
-    }
-  }
-  
   /**
    * Finds the dLabPro recognizer executable. The method first tries to locate
    * the executable in the system path. If unsuccessful it tries to locate the 
@@ -0,0 +1,86 @@
+package de.tucottbus.kt.csl.test;
+
+import java.util.Locale;
+
+/**
+ * Collects and prints the results of a <code>main()</code>-style test. Each
+ * {@linkplain #check(String, boolean) check} prints one line with its name
+ * and outcome, {@link #exit()} prints a summary and terminates the virtual
+ * machine with status 0 if all checks passed and 1 otherwise.
+ *
+ * <h3>Example:</h3>
+ * <pre>
+ *   TestReport report = new TestReport();
+ *   report.check("queue empty",queue.isEmpty());
+ *   report.info("offer: %.1f ns",nanos);
+ *   report.exit();</pre>
+ */
+public final class TestReport
+{
+  private boolean passed = true;
+  private int checks;
+  private int failed;
+
+  /**
+   * Prints the outcome of a check and records it.
+   *
+   * @param name
+   *          The name of the check.
+   * @param ok
+   *          The outcome.
+   * @return <code>ok</code>
+   */
+  public boolean check(String name, boolean ok)
+  {
+    System.out.println(String.format(Locale.US,"%-56s %s",name,ok?"OK":"FAILED"));
+    checks++;
+    if (!ok)
+    {
+      failed++;
+      passed = false;
+    }
+    return ok;
+  }
+
+  /**
+   * Prints an indented informational line, e.g. a measured time.
+   *
+   * @param format
+   *          The format string, see {@link String#format(Locale, String, Object...)}.
+   * @param args
+   *          The arguments.
+   */
+  public void info(String format, Object... args)
+  {
+    System.out.println("  "+String.format(Locale.US,format,args));
+  }
+
+  /**
+   * Determines if all checks passed so far.
+   */
+  public boolean isPassed()
+  {
+    return passed;
+  }
+
+  /**
+   * Returns the number of failed checks.
+   */
+  public int getFailedCount()
+  {
+    return failed;
+  }
+
+  /**
+   * Prints the summary and terminates the virtual machine with status 0 if all
+   * checks passed and 1 otherwise.
+   */
+  public void exit()
+  {
+    System.out.println(passed ? "All tests passed" : "TESTS FAILED ("+failed+" of "+checks+")");
+    System.exit(passed ? 0 : 1);
+  }
+
+}
+
+// EOF
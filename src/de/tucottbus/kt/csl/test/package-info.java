@@ -0,0 +1,5 @@
+/**
+ * This package contains the support classes of the <code>main()</code>-style
+ * tests found next to the classes they test.
+ */
+package de.tucottbus.kt.csl.test;